@@ -82,10 +82,16 @@ public class AISMerge {
     private static class IndexInfo {
         public final Integer id;
         public final StorageDescription storage;
+        public final StorageDescription rebuildFrom;
 
         private IndexInfo(Integer id, StorageDescription storage) {
+            this(id, storage, null);
+        }
+
+        private IndexInfo(Integer id, StorageDescription storage, StorageDescription rebuildFrom) {
             this.id = id;
             this.storage = storage;
+            this.rebuildFrom = rebuildFrom;
         }
     }
 
@@ -222,7 +228,7 @@ public class AISMerge {
                     Group groupParent = oldTable.getGroup();
                     joinsToFix.add(new JoinChange(join, null, desc.getParentColNames(),
                                                   desc.getNewName(), desc.getColNames(), true,
-                                                  groupParent.getStorageDescription().cloneForObjectWithoutState(groupParent)));
+                                                  aisCloner.getStorageFormatRegistry().rebuildStorageDescription(groupParent.getStorageDescription(), groupParent)));
                 } break;
                 default:
                     throw new IllegalStateException("Unhandled GroupChange: " + desc.getParentChange());
@@ -244,7 +250,10 @@ public class AISMerge {
                 } else if(desc.getIndexesAdded().contains(newName)) {
                     indexesToFix.put(newIndex.getIndexName(), new IndexInfo(null, newIndex.getStorageDescription()));
                 } else {
-                    indexesToFix.put(newIndex.getIndexName(), new IndexInfo(null, null));
+                    Index rebuiltIndex = oldTable.getIndexIncludingInternal(newName);
+                    indexesToFix.put(newIndex.getIndexName(),
+                                     new IndexInfo(null, null,
+                                                   (rebuiltIndex != null) ? rebuiltIndex.getStorageDescription() : null));
                 }
                 LOG.debug("Indexes to fix: {} -> {}", oldName,  newIndex.getIndexName());
             }
@@ -547,7 +556,7 @@ public class AISMerge {
         for(TableName name : groupsToClear) {
             Group group = targetAIS.getGroup(name);
             if(group != null && group.getStorageDescription() != null) {
-                group.setStorageDescription((group.getStorageDescription()).cloneForObjectWithoutState(group));
+                group.setStorageDescription(getStorageFormatRegistry().rebuildStorageDescription(group.getStorageDescription(), group));
             }
         }
 
@@ -558,10 +567,12 @@ public class AISMerge {
             IndexInfo info = entry.getValue();
             Table table = targetAIS.getTable(name.getSchemaName(), name.getTableName());
             Index index = table.getIndexIncludingInternal(name.getName());
-            if(info.storage == null) {
-                index.setStorageDescription(null);
-            } else {
+            if(info.storage != null) {
                 index.setStorageDescription(info.storage.cloneForObject(index));
+            } else if(info.rebuildFrom != null) {
+                index.setStorageDescription(getStorageFormatRegistry().rebuildStorageDescription(info.rebuildFrom, index));
+            } else {
+                index.setStorageDescription(null);
             }
         }
 
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.expression;
+
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+
+/**
+ * Constant bounds that every row a scan's consumer keeps must satisfy
+ * for some column. A store that keeps summaries of blocks of rows can
+ * use this to skip whole blocks. Rows that do get returned are still
+ * filtered as usual, so a store is free to ignore it.
+ * <p>
+ * Only integer bounds are kept, since those compare the same way
+ * everywhere.
+ */
+public class ScanColumnRange
+{
+    private final Column column;
+    private final Long low, high;
+    private final boolean lowInclusive, highInclusive, nullAllowed;
+
+    /**
+     * @param low lower bound or <code>null</code> for none
+     * @param high upper bound or <code>null</code> for none
+     * @param nullAllowed whether a row with a null value might be kept
+     */
+    public ScanColumnRange(Column column,
+                           Long low, boolean lowInclusive,
+                           Long high, boolean highInclusive,
+                           boolean nullAllowed) {
+        this.column = column;
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+        this.nullAllowed = nullAllowed;
+    }
+
+    public Column getColumn() {
+        return column;
+    }
+
+    /** Can a range be kept for this column? */
+    public static boolean isIntegerColumn(Column column) {
+        TClass tclass = column.getType().typeClass();
+        return ((tclass == MNumeric.TINYINT) || (tclass == MNumeric.TINYINT_UNSIGNED) ||
+                (tclass == MNumeric.SMALLINT) || (tclass == MNumeric.SMALLINT_UNSIGNED) ||
+                (tclass == MNumeric.MEDIUMINT) || (tclass == MNumeric.MEDIUMINT_UNSIGNED) ||
+                (tclass == MNumeric.INT) || (tclass == MNumeric.INT_UNSIGNED) ||
+                (tclass == MNumeric.BIGINT));
+    }
+
+    /** Might any of some values, whose non-null ones lie between
+     * <code>min</code> and <code>max</code>, be in range?
+     * Both <code>null</code> means all the values are null.
+     */
+    public boolean mayOverlap(Object min, Object max) {
+        if (nullAllowed) {
+            // Nothing known about which values are null.
+            return true;
+        }
+        if ((min == null) && (max == null)) {
+            return false;
+        }
+        if ((low != null) && (max instanceof Long)) {
+            int c = ((Long)max).compareTo(low);
+            if ((c < 0) || ((c == 0) && !lowInclusive)) {
+                return false;
+            }
+        }
+        if ((high != null) && (min instanceof Long)) {
+            int c = ((Long)min).compareTo(high);
+            if ((c > 0) || ((c == 0) && !highInclusive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder(column.getName());
+        str.append(" in ");
+        str.append(lowInclusive ? '[' : '(');
+        if (low != null) str.append(low);
+        str.append(',');
+        if (high != null) str.append(high);
+        str.append(highInclusive ? ']' : ')');
+        if (nullAllowed) str.append(" or null");
+        return str.toString();
+    }
+}
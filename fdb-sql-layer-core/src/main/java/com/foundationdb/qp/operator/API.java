@@ -17,9 +17,11 @@
 
 package com.foundationdb.qp.operator;
 
+import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.Table;
 import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.row.BindableRow;
 import com.foundationdb.qp.rowtype.IndexRowType;
 import com.foundationdb.qp.rowtype.RowType;
@@ -49,6 +51,17 @@ public class API
         return new Aggregate_Partial(inputOperator, rowType, inputsIndex, aggregatorFactories, aggregatorTypes, options);
     }
 
+    public static Operator aggregate_Hashed(Operator inputOperator,
+                                            RowType rowType,
+                                            int inputsIndex,
+                                            List<? extends TAggregator> aggregatorFactories,
+                                            List<? extends TInstance> aggregatorTypes,
+                                            List<Object> options
+                                            )
+    {
+        return new Aggregate_Hashed(inputOperator, rowType, inputsIndex, aggregatorFactories, aggregatorTypes, options);
+    }
+
     // Project
 
     public static Operator project_DefaultTest(Operator inputOperator,
@@ -134,6 +147,36 @@ public class API
         return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group));
     }
 
+    public static Operator groupScan_Default(Group group, long expectedRows)
+    {
+        return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group, expectedRows));
+    }
+
+    public static Operator groupScan_Default(Group group, long expectedRows, Set<Column> neededColumns)
+    {
+        return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group, expectedRows, neededColumns));
+    }
+
+    public static Operator groupScan_Default(Group group, long expectedRows, Set<Column> neededColumns,
+                                             List<ScanColumnRange> columnRanges)
+    {
+        return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group, expectedRows, neededColumns, columnRanges));
+    }
+
+    public static Operator groupScan_Default(Group group, long expectedRows, Set<Column> neededColumns,
+                                             List<ScanColumnRange> columnRanges,
+                                             int runtimeFilterBindingPosition,
+                                             Table runtimeFilterTable,
+                                             int[] runtimeFilterFields,
+                                             List<AkCollator> runtimeFilterCollators)
+    {
+        return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group, expectedRows, neededColumns, columnRanges),
+                                     runtimeFilterBindingPosition,
+                                     runtimeFilterTable,
+                                     runtimeFilterFields,
+                                     runtimeFilterCollators);
+    }
+
     public static Operator groupScan_Default(Group group,
                                              int hKeyBindingPosition,
                                              boolean deep,
@@ -411,6 +454,30 @@ public class API
         return new IndexScan_Default(indexType, indexKeyRange, ordering, indexScanSelector, lookaheadQuantum);
     }
 
+    public static Operator indexScan_Default(IndexRowType indexType,
+                                             IndexKeyRange indexKeyRange,
+                                             Ordering ordering,
+                                             IndexScanSelector indexScanSelector,
+                                             int lookaheadQuantum,
+                                             long expectedRows)
+    {
+        return new IndexScan_Default(indexType, indexKeyRange, ordering, indexScanSelector, lookaheadQuantum, expectedRows);
+    }
+
+    public static Operator indexScan_Default(IndexRowType indexType,
+                                             IndexKeyRange indexKeyRange,
+                                             Ordering ordering,
+                                             IndexScanSelector indexScanSelector,
+                                             int lookaheadQuantum,
+                                             long expectedRows,
+                                             int runtimeFilterBindingPosition,
+                                             int[] runtimeFilterFields,
+                                             List<AkCollator> runtimeFilterCollators)
+    {
+        return new IndexScan_Default(indexType, indexKeyRange, ordering, indexScanSelector, lookaheadQuantum, expectedRows,
+                                     runtimeFilterBindingPosition, runtimeFilterFields, runtimeFilterCollators);
+    }
+
     // Select
 
     public static Operator select_HKeyOrdered(Operator inputOperator,
@@ -490,7 +557,17 @@ public class API
                                                  SortOption sortOption,
                                                  int limit)
     {
-        return new Sort_InsertionLimited(inputOperator, sortType, ordering, sortOption, limit);
+        return sort_InsertionLimited(inputOperator, sortType, ordering, sortOption, limit, 0);
+    }
+
+    public static Operator sort_InsertionLimited(Operator inputOperator,
+                                                 RowType sortType,
+                                                 Ordering ordering,
+                                                 SortOption sortOption,
+                                                 int limit,
+                                                 int presorted)
+    {
+        return new Sort_InsertionLimited(inputOperator, sortType, ordering, sortOption, limit, presorted);
     }
 
     public static Operator sort_General(Operator inputOperator,
@@ -519,6 +596,11 @@ public class API
         return new Distinct_Partial(input, distinctType, collators);
     }
 
+    public static Operator distinct_Hashed(Operator input, RowType distinctType)
+    {
+        return new Distinct_Hashed(input, distinctType);
+    }
+
     // Map
 
     public static Operator map_NestedLoops(Operator outerInput,
@@ -575,6 +657,12 @@ public class API
                 removeDuplicates);
     }
 
+    public static Operator except_Hashed(Operator leftInput, Operator rightInput,
+                                         RowType leftRowType, RowType rightRowType)
+    {
+        return new Except_Hashed(leftInput, leftRowType, rightInput, rightRowType);
+    }
+
     // Intersect
 
     public static Operator intersect_Ordered(Operator leftInput, Operator rightInput,
@@ -688,6 +776,12 @@ public class API
                 outputEqual);
     }
 
+    public static Operator intersect_Hashed(Operator leftInput, Operator rightInput,
+                                            RowType leftRowType, RowType rightRowType)
+    {
+        return new Intersect_Hashed(leftInput, leftRowType, rightInput, rightRowType);
+    }
+
     // Union
 
     public static Operator union_Ordered(Operator leftInput, Operator rightInput,
@@ -750,6 +844,23 @@ public class API
                                      collators);
     }
 
+    public static Operator using_BloomFilter(Operator filterInput,
+                                             RowType filterRowType,
+                                             long estimatedRowCount,
+                                             int filterBindingPosition,
+                                             int runtimeFilterBindingPosition,
+                                             Operator streamInput,
+                                             List<AkCollator> collators)
+    {
+        return new Using_BloomFilter(filterInput,
+                                     filterRowType,
+                                     estimatedRowCount,
+                                     filterBindingPosition,
+                                     runtimeFilterBindingPosition,
+                                     streamInput,
+                                     collators);
+    }
+
     // Select_BloomFilter
 
     public static Operator select_BloomFilterTest(Operator input,
@@ -827,7 +938,51 @@ public class API
                                            List<TComparison> tComparisons,
                                            List<AkCollator> collators)
     {
-        return new Using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators);
+        return using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators, false);
+    }
+
+    public static Operator using_HashTable(Operator hashInput,
+                                           RowType hashedRowType,
+                                           List<TPreparedExpression> comparisonFields,
+                                           int hashTableBindingPosition,
+                                           Operator joinedInput,
+                                           List<TComparison> tComparisons,
+                                           List<AkCollator> collators,
+                                           boolean spillable)
+    {
+        return new Using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators, spillable);
+    }
+
+    public static Operator using_HashTable(Operator hashInput,
+                                           RowType hashedRowType,
+                                           List<TPreparedExpression> comparisonFields,
+                                           int hashTableBindingPosition,
+                                           int runtimeFilterBindingPosition,
+                                           Operator joinedInput,
+                                           List<TComparison> tComparisons,
+                                           List<AkCollator> collators,
+                                           boolean spillable)
+    {
+        return new Using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, runtimeFilterBindingPosition,
+                                   joinedInput, tComparisons, collators, spillable);
+    }
+
+    // Exchange
+
+    public static Operator exchange_Default(Operator input,
+                                            RowType rowType,
+                                            int partitions,
+                                            int partitionBindingPosition,
+                                            boolean ordered)
+    {
+        return new Exchange_Default(input, rowType, partitions, partitionBindingPosition, ordered);
+    }
+
+    public static Operator exchange_Default(List<Operator> inputs,
+                                            RowType rowType,
+                                            boolean ordered)
+    {
+        return new Exchange_Default(inputs, rowType, ordered);
     }
 
     // EmitBoundRow_Nested
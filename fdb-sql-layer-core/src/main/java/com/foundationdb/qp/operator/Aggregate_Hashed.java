@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.AggregatedRowType;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.SpillFile;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.server.types.TAggregator;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.*;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+
+ <h1>Overview</h1>
+
+ Aggregate_Hashed applies a full aggregation to rows that are not
+ ordered by their GROUP BY columns. Rather than requiring a sort as
+ Aggregate_Partial does, it keeps one set of aggregator states per
+ distinct GROUP BY value in a hash table.
+
+ <h1>Arguments</h1>
+
+ The same as for Aggregate_Partial.
+
+ <h1>Behavior</h1>
+
+ Input rows are interpreted just as for Aggregate_Partial: the first
+ <i>inputsIndex</i> fields are the GROUP BY columns and the rest are
+ inputs, one per aggregator. All input is consumed before the first
+ output row, except that rows of any type other
+ than <i>inputRowType</i> are passed through as they are seen.
+
+ Each GROUP BY value is output exactly once, in no particular order.
+
+ If there are no input rows and no GROUP BY columns, a single row of
+ empty aggregate values is output, as for Aggregate_Partial.
+
+ <h1>Output</h1>
+
+ Rows of the aggregated row type, one per distinct GROUP BY value, and
+ any passed-through rows.
+
+ <h1>Assumptions</h1>
+
+ None.
+
+ <h1>Performance</h1>
+
+ One hash lookup per input row. When the hash table stays within the
+ memory budget, there is no IO.
+
+ <h1>Memory requirements</h1>
+
+ The hash table is limited to approximately <code>fdbsql.aggregate.memory</code>
+ bytes. Once that is full, groups already in the table continue to
+ aggregate in memory, but input rows for new groups are written, by
+ hash of their GROUP BY columns, into one of several temporary files
+ under <code>fdbsql.tmp_dir</code>. After the in-memory groups have
+ been output, each file is aggregated in turn the same way, with a
+ different part of the hash choosing any further partitions. Since all
+ the rows for any one group end up in the same file, each group is
+ still output once.
+
+ */
+
+final class Aggregate_Hashed extends Operator
+{
+
+    // Operator interface
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor) {
+        return new Execution(context, inputOperator.cursor(context, bindingsCursor));
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes) {
+        inputOperator.findDerivedTypes(derivedTypes);
+        derivedTypes.add(outputType);
+    }
+
+    @Override
+    public List<Operator> getInputOperators() {
+        return Collections.singletonList(inputOperator);
+    }
+
+    @Override
+    public RowType rowType() {
+        return outputType;
+    }
+
+    // Object interface
+
+    @Override
+    public String toString() {
+        return String.format("%s(GROUP BY %d fields, then: %s)", getClass().getSimpleName(), inputsIndex, pAggrs);
+    }
+
+    // Aggregate_Hashed interface
+
+    public Aggregate_Hashed(Operator inputOperator,
+                            RowType inputRowType,
+                            int inputsIndex,
+                            List<? extends TAggregator> aggregatorFactories,
+                            List<? extends TInstance> pAggrTypes,
+                            List<Object> options) {
+        ArgumentValidation.notNull("inputOperator", inputOperator);
+        ArgumentValidation.notNull("inputRowType", inputRowType);
+        ArgumentValidation.isBetween("inputsIndex", 0, inputsIndex, inputRowType.nFields()+1);
+        if (pAggrTypes.size() != aggregatorFactories.size())
+            throw new IllegalArgumentException("aggregators and aggregator types mismatch in size");
+        if (inputsIndex + aggregatorFactories.size() != inputRowType.nFields()) {
+            throw new IllegalArgumentException(
+                    String.format("inputsIndex(=%d) + aggregatorNames.size(=%d) != inputRowType.nFields(=%d)",
+                                  inputsIndex, aggregatorFactories.size(), inputRowType.nFields()));
+        }
+        this.inputOperator = inputOperator;
+        this.inputRowType = inputRowType;
+        this.inputsIndex = inputsIndex;
+        this.outputType = inputRowType.schema().newAggregateType(inputRowType, inputsIndex, pAggrTypes);
+        this.pAggrs = aggregatorFactories;
+        this.pAggrTypes = pAggrTypes;
+        this.options = options;
+        this.collators = HashedRowKey.collators(inputRowType, inputsIndex);
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Aggregate_Hashed open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Aggregate_Hashed next");
+    private static final InOutTap TAP_SPILL = OPERATOR_TAP.createSubsidiaryTap("operator: Aggregate_Hashed spill");
+    private static final Logger LOG = LoggerFactory.getLogger(Aggregate_Hashed.class);
+
+    static final String MEMORY_PROPERTY = "fdbsql.aggregate.memory";
+    // Rough size of one aggregator state for memory accounting.
+    private static final int STATE_SIZE = 32;
+
+    // Object state
+
+    private final Operator inputOperator;
+    private final RowType inputRowType;
+    private final AggregatedRowType outputType;
+    private final int inputsIndex;
+    private final List<? extends TInstance> pAggrTypes;
+    private final List<? extends TAggregator> pAggrs;
+    private final List<Object> options;
+    private final AkCollator[] collators;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        Attributes atts = new Attributes();
+        atts.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        for (TAggregator agg : pAggrs)
+            atts.put(Label.AGGREGATORS, PrimitiveExplainer.getInstance(agg.displayName().toUpperCase()));
+        atts.put(Label.GROUPING_OPTION, PrimitiveExplainer.getInstance(inputsIndex));
+        atts.put(Label.INPUT_OPERATOR, inputOperator.getExplainer(context));
+        atts.put(Label.INPUT_TYPE, inputRowType.getExplainer(context));
+        atts.put(Label.OUTPUT_TYPE, outputType.getExplainer(context));
+        return new CompoundExplainer(Type.AGGREGATE, atts);
+    }
+
+    // Inner classes
+
+    /** The groups aggregated in memory from one source: the
+     * input or a spilled partition of some earlier level. */
+    private class GroupTable
+    {
+        public void aggregate(Row row) {
+            HashedRowKey key = new HashedRowKey(row, collators);
+            Value[] states = groups.get(key);
+            if (states == null) {
+                if (partitions == null) {
+                    int size = key.size() + pAggrs.size() * STATE_SIZE;
+                    if ((memoryUsed + size > memoryLimit) && !groups.isEmpty() && (level < HashedRowKey.MAX_LEVEL)) {
+                        partitions = new SpillFile[HashedRowKey.PARTITIONS];
+                    }
+                    else {
+                        memoryUsed += size;
+                        states = newStates();
+                        groups.put(key.copy(), states);
+                    }
+                }
+                if (states == null) {
+                    spill(row, key);
+                    return;
+                }
+            }
+            for (int i = 0; i < pAggrs.size(); i++) {
+                int inputIndex = i + inputsIndex;
+                pAggrs.get(i).input(row.rowType().typeAt(inputIndex), row.value(inputIndex),
+                               pAggrTypes.get(i), states[i], options.get(i));
+            }
+        }
+
+        public Iterator<Map.Entry<HashedRowKey,Value[]>> groups() {
+            return groups.entrySet().iterator();
+        }
+
+        /** The non-empty partitions, to be aggregated next. */
+        public void spilled(Deque<GroupTable> pending) {
+            if (partitions == null)
+                return;
+            for (SpillFile partition : partitions) {
+                if (partition != null) {
+                    pending.addLast(new GroupTable(context, memoryLimit, level + 1, partition));
+                }
+            }
+            partitions = null;
+        }
+
+        public void close() {
+            if (source != null) {
+                source.close();
+            }
+            if (partitions != null) {
+                for (SpillFile partition : partitions) {
+                    if (partition != null) {
+                        partition.close();
+                    }
+                }
+                partitions = null;
+            }
+            groups.clear();
+        }
+
+        private void spill(Row row, HashedRowKey key) {
+            TAP_SPILL.in();
+            try {
+                int index = key.partition(level);
+                SpillFile partition = partitions[index];
+                if (partition == null) {
+                    partition = new SpillFile(context, "aggregate", inputRowType);
+                    partitions[index] = partition;
+                }
+                partition.write(row);
+            } finally {
+                TAP_SPILL.out();
+            }
+        }
+
+        private Value[] newStates() {
+            Value[] states = new Value[pAggrs.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new Value(pAggrTypes.get(i));
+            }
+            return states;
+        }
+
+        public GroupTable(QueryContext context, long memoryLimit, int level, SpillFile source) {
+            this.context = context;
+            this.memoryLimit = memoryLimit;
+            this.level = level;
+            this.source = source;
+        }
+
+        private final QueryContext context;
+        private final long memoryLimit;
+        private final int level;
+        private final SpillFile source;
+        private final Map<HashedRowKey,Value[]> groups = new HashMap<>();
+        private long memoryUsed;
+        private SpillFile[] partitions;
+    }
+
+    private class Execution extends ChainedCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open() {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                current = new GroupTable(context, memoryLimit, 0, null);
+                inputBatch.clear();
+                inputPosition = 0;
+                loading = true;
+                everSawInput = false;
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next() {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                if (isIdle()) {
+                    return null;
+                }
+                Row output;
+                if (loading) {
+                    while (true) {
+                        if (inputPosition >= inputBatch.size()) {
+                            if (!RowBatch.fill(input, inputBatch)) {
+                                loading = false;
+                                break;
+                            }
+                            inputPosition = 0;
+                        }
+                        Row row = inputBatch.get(inputPosition++);
+                        if (row.rowType() != inputRowType) {
+                            if (LOG_EXECUTION) {
+                                LOG.debug("Aggregate_Hashed: yield {}", row);
+                            }
+                            return row; // pass through
+                        }
+                        everSawInput = true;
+                        current.aggregate(row);
+                    }
+                    if (!everSawInput && (inputsIndex == 0)) {
+                        output = createEmptyOutput();
+                        current = null;
+                        if (LOG_EXECUTION) {
+                            LOG.debug("Aggregate_Hashed: yield {}", output);
+                        }
+                        return output;
+                    }
+                    currentGroups = current.groups();
+                }
+                output = nextOutput();
+                if (output == null) {
+                    setIdle();
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Aggregate_Hashed: yield {}", output);
+                }
+                return output;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                inputBatch.clear();
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                for (GroupTable table : pending) {
+                    table.close();
+                }
+                pending.clear();
+                currentGroups = null;
+            }
+        }
+
+        // For use by this class
+
+        private Row nextOutput() {
+            while (current != null) {
+                if (currentGroups.hasNext()) {
+                    Map.Entry<HashedRowKey,Value[]> entry = currentGroups.next();
+                    currentGroups.remove();
+                    return createOutput(entry.getKey(), entry.getValue());
+                }
+                current.spilled(pending);
+                current.close();
+                current = pending.pollFirst();
+                if (current != null) {
+                    loadSpilled();
+                    currentGroups = current.groups();
+                }
+            }
+            return null;
+        }
+
+        private void loadSpilled() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Aggregate_Hashed: reloading {} spilled rows at level {}",
+                          current.source.getRowCount(), current.level);
+            }
+            Row row;
+            while ((row = current.source.read()) != null) {
+                checkQueryCancelation();
+                current.aggregate(row);
+            }
+        }
+
+        private Row createOutput(HashedRowKey key, Value[] states) {
+            ValuesHolderRow outputRow = new ValuesHolderRow(outputType);
+            for (int i = 0; i < inputsIndex; i++) {
+                ValueTargets.copyFrom(key.value(i), outputRow.valueAt(i));
+            }
+            for (int i = 0; i < states.length; i++) {
+                Value value = outputRow.valueAt(i + inputsIndex);
+                if (states[i].hasAnyValue())
+                    ValueTargets.copyFrom(states[i], value);
+                else
+                    pAggrs.get(i).emptyValue(value);
+            }
+            return outputRow;
+        }
+
+        private Row createEmptyOutput() {
+            ValuesHolderRow outputRow = new ValuesHolderRow(outputType);
+            for (int i = 0; i < outputRow.rowType().nFields(); ++i) {
+                pAggrs.get(i).emptyValue(outputRow.valueAt(i));
+            }
+            return outputRow;
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, Cursor input) {
+            super(context, input);
+            String memory = context.getServiceManager().getConfigurationService().getProperty(MEMORY_PROPERTY);
+            this.memoryLimit = Long.parseLong(memory);
+        }
+
+        // Object state
+
+        private final long memoryLimit;
+        private final Deque<GroupTable> pending = new ArrayDeque<>();
+        private GroupTable current;
+        private Iterator<Map.Entry<HashedRowKey,Value[]>> currentGroups;
+        private final RowBatch inputBatch = new RowBatch();
+        private int inputPosition;
+        private boolean loading, everSawInput;
+    }
+}
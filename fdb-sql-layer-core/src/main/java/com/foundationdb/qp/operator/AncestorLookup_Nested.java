@@ -105,12 +105,14 @@ import java.util.*;
  <h1>Performance</h1>
 
  For each input row, AncestorLookup_Nested does one random access for
- each ancestor type.
+ each ancestor type. These are all issued together, so a store like FDB
+ takes about one round trip for them. With lookahead, those for all
+ the input rows looked ahead to are issued together.
 
  <h1>Memory Requirements</h1>
 
  AncestorLookup_Nested stores in memory up to (ancestorTypes.size() +
- 1) rows.
+ 1) rows for each input row looked ahead to.
 
  */
 
@@ -304,7 +306,6 @@ class AncestorLookup_Nested extends Operator
         {
             super.close();
             pending.clear();
-            assert ancestorCursor.isClosed() : "Failed to close ancestorCursor"; 
         }
 
         // Execution interface
@@ -313,7 +314,7 @@ class AncestorLookup_Nested extends Operator
         {
             super(context, bindingsCursor);
             this.pending = new ArrayDeque<>(ancestors.size() + 1);
-            this.ancestorCursor = adapter().newGroupCursor(group);
+            this.hKeys = new ArrayList<>(ancestors.size());
         }
 
         // For use by this class
@@ -321,35 +322,21 @@ class AncestorLookup_Nested extends Operator
         private void findAncestors(Row row)
         {
             assert pending.isEmpty();
+            hKeys.clear();
             for (int i = 0; i < ancestors.size(); i++) {
-                Row ancestorRow = readAncestorRow(row.ancestorHKey(ancestors.get(i)));
+                hKeys.add(row.ancestorHKey(ancestors.get(i)));
+            }
+            // Missing ancestors (orphan rows) come back null.
+            for (Row ancestorRow : adapter().lookupGroupRows(group, hKeys)) {
                 if (ancestorRow != null) {
                     pending.add(ancestorRow);
                 }
             }
         }
 
-        private Row readAncestorRow(HKey hKey)
-        {
-            Row row;
-            ancestorCursor.rebind(hKey, false);
-            ancestorCursor.open();
-            try {
-                row = ancestorCursor.next();
-                // Retrieved row might not actually be what we were looking for -- not all ancestors are present,
-                // (there are orphan rows).
-                if (row != null && !hKey.equals(row.hKey())) {
-                    row = null;
-                }
-            } finally {
-                ancestorCursor.close();
-            }
-            return row;
-        }
-
         // Object state
 
-        private final GroupCursor ancestorCursor;
+        private final List<HKey> hKeys;
         private final Queue<Row> pending;
     }
 
@@ -362,86 +349,57 @@ class AncestorLookup_Nested extends Operator
             super.open();
             Row rowFromBindings = bindings.getRow(inputBindingPosition);
             assert rowFromBindings.rowType() == rowType : rowFromBindings;
-            try {
-                for (int i = 0; i < hKeys.length; i++) {
-                    hKeys[i] = rowFromBindings.ancestorHKey(ancestors.get(i));
-                    cursors[i].rebind(hKeys[i], false);
-                    cursors[i].open();
-                }
-            } catch (Exception e) {
-                try {
-                    for (GroupCursor c : cursors) {
-                        try {
-                            if (!c.isClosed()) {
-                                c.close();
-                            }
-                        } catch (Exception innerE) {
-                            LOG.warn("Failed to close cursor", e);
-                        }
-                    }
-                } catch (Exception innerE2) {
-                    LOG.warn("Failed to close nested cursors", e);
-                } finally {
-                    throw e;
-                }
+            for (int i = 0; i < hKeys.length; i++) {
+                hKeys[i] = rowFromBindings.ancestorHKey(ancestors.get(i));
             }
+            rows = null;
             cursorIndex = 0;
+            // Reading waits until some cursor needs its rows, so that
+            // those of every cursor opened by then are read together.
+            execution.unread.add(this);
         }
 
         @Override
         public Row next() {
+            if (rows == null) {
+                execution.readUnread();
+            }
             Row row = null;
-            while ((row == null) && (cursorIndex < cursors.length)) {
-                row = cursors[cursorIndex].next();
-                cursors[cursorIndex].setIdle();
-                if (row != null && !hKeys[cursorIndex].equals(row.hKey())) {
-                    row = null;
-                }
-                cursorIndex++;
+            while ((row == null) && (cursorIndex < rows.size())) {
+                // Missing ancestors (orphan rows) are null.
+                row = rows.get(cursorIndex++);
             }
             return row;
         }
 
-
         @Override
         public void close() {
             try {
-                for (GroupCursor cursor : cursors) {
-                    cursor.close();
+                if (rows == null) {
+                    execution.unread.remove(this);
                 }
+                rows = null;
             } finally {
                 super.close();
             }
         }
 
-        @Override
-        public boolean isIdle() {
-            return ((cursorIndex >= cursors.length) || cursors[cursorIndex].isIdle());
-        }
-
-        @Override
-        public boolean isActive() {
-            return ((cursors != null ) && (cursorIndex < cursors.length) && cursors[cursorIndex].isActive());
-        }
-
         @Override
         public void rebind(QueryBindings bindings) {
             this.bindings = bindings;
         }
 
         // AncestorCursor interface
-        public AncestorCursor(StoreAdapter adapter) {
-            hKeys = new HKey[ancestors.size()];
-            cursors = new GroupCursor[hKeys.length];
-            for (int i = 0; i < cursors.length; i++) {
-                cursors[i] = adapter.newGroupCursor(group);
-            }
+        public AncestorCursor(LookaheadExecution execution) {
+            this.execution = execution;
+            this.hKeys = new HKey[ancestors.size()];
         }
 
         // Object state
 
+        private final LookaheadExecution execution;
         private final HKey[] hKeys;
-        private final GroupCursor[] cursors;
+        private List<Row> rows;
         private QueryBindings bindings;
         private int cursorIndex;
     }
@@ -482,7 +440,7 @@ class AncestorLookup_Nested extends Operator
 
         @Override
         protected AncestorCursor newCursor(QueryContext context, StoreAdapter adapter) {
-            return new AncestorCursor(adapter);
+            return new AncestorCursor(this);
         }
 
         @Override
@@ -498,6 +456,33 @@ class AncestorLookup_Nested extends Operator
         LookaheadExecution(QueryContext context, QueryBindingsCursor bindingsCursor, 
                            StoreAdapter adapter, int quantum) {
             super(context, bindingsCursor, adapter, quantum);
+            this.adapter = adapter;
+            this.unread = new ArrayList<>(quantum);
         }
+
+        // For use by this class
+
+        /** Look up the ancestors of all the opened cursors that have
+         * not read them yet at once.
+         */
+        private void readUnread() {
+            List<HKey> hKeys = new ArrayList<>(unread.size() * ancestors.size());
+            for (AncestorCursor cursor : unread) {
+                Collections.addAll(hKeys, cursor.hKeys);
+            }
+            List<Row> rows = adapter.lookupGroupRows(group, hKeys);
+            int start = 0;
+            for (AncestorCursor cursor : unread) {
+                int end = start + ancestors.size();
+                cursor.rows = rows.subList(start, end);
+                start = end;
+            }
+            unread.clear();
+        }
+
+        // Object state
+
+        private final StoreAdapter adapter;
+        private final List<AncestorCursor> unread;
     }
 }
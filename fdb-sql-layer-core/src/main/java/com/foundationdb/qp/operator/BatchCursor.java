@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+/**
+ * A cursor that can also return its rows a block at a time, so that
+ * the cancelation, lifecycle and tap checks done for each call to
+ * {@link #next} are only done once per block.
+ * <p>
+ * Callers should not test for this directly, but go through
+ * {@link RowBatch#fill}, which falls back to calling {@link #next}
+ * for cursors that only return one row at a time. The two methods can
+ * be mixed in the same scan.
+ *
+ * Implemented By
+ * @see Filter_Default$Execution
+ * @see GroupScan_Default$Execution
+ * @see IndexScan_Default$Execution
+ * @see Project_Default$Execution
+ * @see Select_HKeyOrdered$Execution
+ * @see Using_HashTable$Execution
+ */
+public interface BatchCursor extends RowCursor
+{
+    /**
+     * Add the next rows to an empty batch, up to its capacity.
+     * The batch is left empty only when there are no more rows, at
+     * which point the cursor is IDLE, just as when {@link #next}
+     * returns <code>null</code>.
+     */
+    void nextBatch(RowBatch batch);
+}
@@ -35,11 +35,13 @@ import com.foundationdb.server.api.dml.ColumnSelector;
  * @see MultiChainedCursor
  *
  * Used by:
+ * @see Aggregate_Hashed
  * @see Aggregate_Partial
  * @see BranchLookup_Default
  * @see Buffer_Default
  * @see Count_Default
  * @see Delete_Returning
+ * @see Distinct_Hashed
  * @see Distinct_Partial
  * @see Filter_Default
  * @see Flatten_HKeyOrdered
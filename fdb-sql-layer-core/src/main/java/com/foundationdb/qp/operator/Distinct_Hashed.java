@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.SpillFile;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.explain.CompoundExplainer;
+import com.foundationdb.server.explain.ExplainContext;
+import com.foundationdb.server.explain.std.DistinctExplainer;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+
+ <h1>Overview</h1>
+
+ Distinct_Hashed eliminates all duplicate rows from the input stream,
+ which need not be in any order. Unlike Distinct_Partial, it does not
+ depend on a sort to bring duplicates together.
+
+ <h1>Arguments</h1>
+
+ <ul>
+
+ <li><b>Operator input:</b> the input operator
+
+ <li><b>RowType distinctType:</b> Specifies the type of rows from the input stream.
+
+ </ul>
+
+ <h1>Behavior</h1>
+
+ The RowType of each input row must match the specified distinctType.
+
+ The first input row with any combination of column values is output
+ as soon as it is seen. Later rows that match it in all columns are
+ discarded.
+
+ <h1>Output</h1>
+
+ A subset of the input rows, in which no two rows match in all columns.
+ Rows are output in input order, except for any that were spilled,
+ which come after all the others.
+
+ <h1>Assumptions</h1>
+
+ The input type of every input row is the specified distinctType.
+
+ <h1>Performance</h1>
+
+ One hash lookup per input row. When the hash table stays within the
+ memory budget, there is no IO.
+
+ <h1>Memory requirements</h1>
+
+ A copy of each distinct row is kept, limited to approximately
+ <code>fdbsql.distinct.memory</code> bytes. Once that is full,
+ duplicates of rows already seen continue to be discarded, but rows
+ not seen before are written, by hash, into one of several temporary
+ files under <code>fdbsql.tmp_dir</code>. After the input is
+ exhausted, each file has its duplicates eliminated in turn the same
+ way. Since all the copies of any one row end up in the same file,
+ each is still output once.
+
+ */
+
+class Distinct_Hashed extends Operator
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%s)", getClass().getSimpleName(), distinctType);
+    }
+
+    // Operator interface
+
+    @Override
+    public List<Operator> getInputOperators()
+    {
+        return Collections.singletonList(inputOperator);
+    }
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
+    {
+        return new Execution(context, inputOperator.cursor(context, bindingsCursor));
+    }
+
+    @Override
+    public RowType rowType()
+    {
+        return distinctType;
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes)
+    {
+        inputOperator.findDerivedTypes(derivedTypes);
+        derivedTypes.add(distinctType);
+    }
+
+    @Override
+    public String describePlan()
+    {
+        return describePlan(inputOperator);
+    }
+
+    // Distinct_Hashed interface
+
+    public Distinct_Hashed(Operator inputOperator, RowType distinctType)
+    {
+        ArgumentValidation.notNull("distinctType", distinctType);
+        this.inputOperator = inputOperator;
+        this.distinctType = distinctType;
+        this.collators = HashedRowKey.collators(distinctType, distinctType.nFields());
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Distinct_Hashed open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Distinct_Hashed next");
+    private static final InOutTap TAP_SPILL = OPERATOR_TAP.createSubsidiaryTap("operator: Distinct_Hashed spill");
+    private static final Logger LOG = LoggerFactory.getLogger(Distinct_Hashed.class);
+
+    static final String MEMORY_PROPERTY = "fdbsql.distinct.memory";
+
+    // Object state
+
+    private final Operator inputOperator;
+    private final RowType distinctType;
+    private final AkCollator[] collators;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        return new DistinctExplainer(getName(), distinctType, inputOperator, context);
+    }
+
+    // Inner classes
+
+    /** The distinct rows seen in memory from one source: the input
+     * or a spilled partition of some earlier level. */
+    private class DistinctSet
+    {
+        /** Return <code>true</code> if <code>row</code> has not been seen before
+         * and should be output now. */
+        public boolean add(Row row) {
+            HashedRowKey key = new HashedRowKey(row, collators);
+            if (seen.contains(key))
+                return false;
+            if (partitions == null) {
+                int size = key.size();
+                if ((memoryUsed + size > memoryLimit) && !seen.isEmpty() && (level < HashedRowKey.MAX_LEVEL)) {
+                    partitions = new SpillFile[HashedRowKey.PARTITIONS];
+                }
+                else {
+                    memoryUsed += size;
+                    seen.add(key.copy());
+                    return true;
+                }
+            }
+            spill(row, key);
+            return false;
+        }
+
+        /** The non-empty partitions, to be processed next. */
+        public void spilled(Deque<DistinctSet> pending) {
+            if (partitions == null)
+                return;
+            for (SpillFile partition : partitions) {
+                if (partition != null) {
+                    pending.addLast(new DistinctSet(context, memoryLimit, level + 1, partition));
+                }
+            }
+            partitions = null;
+        }
+
+        public void close() {
+            if (source != null) {
+                source.close();
+            }
+            if (partitions != null) {
+                for (SpillFile partition : partitions) {
+                    if (partition != null) {
+                        partition.close();
+                    }
+                }
+                partitions = null;
+            }
+            seen.clear();
+        }
+
+        private void spill(Row row, HashedRowKey key) {
+            TAP_SPILL.in();
+            try {
+                int index = key.partition(level);
+                SpillFile partition = partitions[index];
+                if (partition == null) {
+                    partition = new SpillFile(context, "distinct", distinctType);
+                    partitions[index] = partition;
+                }
+                partition.write(row);
+            } finally {
+                TAP_SPILL.out();
+            }
+        }
+
+        public DistinctSet(QueryContext context, long memoryLimit, int level, SpillFile source) {
+            this.context = context;
+            this.memoryLimit = memoryLimit;
+            this.level = level;
+            this.source = source;
+        }
+
+        private final QueryContext context;
+        private final long memoryLimit;
+        private final int level;
+        private final SpillFile source;
+        private final Set<HashedRowKey> seen = new HashSet<>();
+        private long memoryUsed;
+        private SpillFile[] partitions;
+    }
+
+    private class Execution extends ChainedCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                current = new DistinctSet(context, memoryLimit, 0, null);
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                if (isIdle()) {
+                    return null;
+                }
+                Row row = null;
+                while (current != null) {
+                    if (current.source == null) {
+                        row = input.next();
+                        assert (row == null) || (row.rowType() == distinctType) : row;
+                    }
+                    else {
+                        row = current.source.read();
+                    }
+                    if (row == null) {
+                        nextSet();
+                    }
+                    else if (current.add(row)) {
+                        break;
+                    }
+                }
+                if (row == null) {
+                    setIdle();
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Distinct_Hashed: yield {}", row);
+                }
+                return row;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                super.close();
+            } finally {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                for (DistinctSet set : pending) {
+                    set.close();
+                }
+                pending.clear();
+            }
+        }
+
+        // For use by this class
+
+        private void nextSet() {
+            current.spilled(pending);
+            current.close();
+            current = pending.pollFirst();
+            if ((current != null) && LOG.isDebugEnabled()) {
+                LOG.debug("Distinct_Hashed: reloading {} spilled rows at level {}",
+                          current.source.getRowCount(), current.level);
+            }
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, Cursor input)
+        {
+            super(context, input);
+            String memory = context.getServiceManager().getConfigurationService().getProperty(MEMORY_PROPERTY);
+            this.memoryLimit = Long.parseLong(memory);
+        }
+
+        // Object state
+
+        private final long memoryLimit;
+        private final Deque<DistinctSet> pending = new ArrayDeque<>();
+        private DistinctSet current;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.explain.Type;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ <h1>Overview</h1>
+
+ Except_Hashed outputs the rows from the left input stream that are
+ not equal to rows in the right input stream, which need not be in any order,
+ as opposed to Except_Ordered.
+
+ <h1>Arguments</h1>
+
+ <li><b>Operator left:</b> Operator providing left input stream.
+ <li><b>Operator right:</b> Operator providing right input stream.
+ <li><b>RowType leftRowType:</b> Type of rows from left input stream.
+ <li><b>RowType rightRowType:</b> Type of rows from right input stream.
+
+ <h1>Behavior</h1>
+
+ All of the right input stream is read first. Rows are compared using
+ all their columns.
+
+ Each left row is output unless there is an equal right row that has not
+ already been matched by an earlier left row. So a row that appears
+ <i>m</i> times on the left and <i>n</i> times on the right is output
+ max(<i>m</i> - <i>n</i>, 0) times, as for EXCEPT ALL. For EXCEPT
+ DISTINCT, the left input should already be distinct.
+
+ <h1>Output</h1>
+
+ Rows from the left input stream that do not have equal rows in the right input stream.
+ Left rows are output in input order, except for any that were
+ spilled, which come after all the others.
+
+ <h1>Assumptions</h1>
+
+ The left and right row types have the same shape.
+
+ <h1>Performance</h1>
+
+ One hash lookup per input row. When the hash table stays within the
+ memory budget, there is no IO.
+
+ <h1>Memory Requirements</h1>
+
+ A copy of each distinct right row and a count, limited to approximately
+ <code>fdbsql.distinct.memory</code> bytes, beyond which input is
+ spilled to temporary files.
+
+ */
+
+final class Except_Hashed extends HashedSetOperatorBase
+{
+    public Except_Hashed(Operator left, RowType leftRowType,
+                         Operator right, RowType rightRowType)
+    {
+        super(left, leftRowType, right, rightRowType, "Except", Type.EXCEPT);
+    }
+
+    @Override
+    protected boolean output(long[] count) {
+        if ((count != null) && (count[0] > 0)) {
+            count[0]--;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected InOutTap tapOpen() {
+        return TAP_OPEN;
+    }
+
+    @Override
+    protected InOutTap tapNext() {
+        return TAP_NEXT;
+    }
+
+    @Override
+    protected InOutTap tapSpill() {
+        return TAP_SPILL;
+    }
+
+    @Override
+    protected Logger log() {
+        return LOG;
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Except_Hashed open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Except_Hashed next");
+    private static final InOutTap TAP_SPILL = OPERATOR_TAP.createSubsidiaryTap("operator: Except_Hashed spill");
+    private static final Logger LOG = LoggerFactory.getLogger(Except_Hashed.class);
+}
@@ -0,0 +1,622 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.error.ErrorCode;
+import com.foundationdb.server.error.InvalidOperationException;
+import com.foundationdb.server.error.QueryCanceledException;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.server.service.ServiceManager;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.sql.server.ServerTransaction;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+
+ <h1>Overview</h1>
+
+ Exchange_Default runs several copies of its input at once, each on a
+ thread of a pool shared by all queries, and gathers their rows.
+
+ <h1>Arguments</h1>
+
+ <ul>
+
+ <li><b>Operator input:</b> The sub-plan to run, which should use its
+ partition number to select a disjoint part of the data.
+
+ <li><b>RowType rowType:</b> Type of the input's rows.
+
+ <li><b>int partitions:</b> Number of copies of the input to run.
+
+ <li><b>int partitionBindingPosition:</b> Binding position at which
+ each copy finds its partition number, an <code>INT</code> from 0 to
+ <code>partitions - 1</code>.
+
+ <li><b>boolean ordered:</b> Whether to output all of partition 0's
+ rows, then all of partition 1's, and so on, rather than whatever
+ is ready first.
+
+ </ul>
+
+ Alternatively, <code>input</code>, <code>partitions</code> and
+ <code>partitionBindingPosition</code> can be replaced by:
+
+ <ul>
+
+ <li><b>List&lt;Operator&gt; inputs:</b> A sub-plan for each
+ partition, which selects its own disjoint part of the data, such as
+ an index scan over a key range of its own. No partition number is
+ bound.
+
+ </ul>
+
+ <h1>Behavior</h1>
+
+ On open, each copy is given bindings of its own, derived from the
+ operator's, with its partition number set if it has a binding
+ position. The copies are submitted to the pool, which is sized by
+ <code>fdbsql.exchange.threads</code>, or the number of processors
+ when that is 0. Each copy gets its own
+ {@link StoreAdapter} in the session, and so reads in the same
+ transaction, at the same read version, as the rest of the query.
+
+ Copies hand their rows over in batches through bounded queues, one
+ for each copy if ordered, else one shared by all. A copy blocks when
+ its queue is full.
+
+ An error in any copy is thrown from <code>next</code>. Closing stops
+ the copies and waits for them to finish.
+
+ <h1>Output</h1>
+
+ The union of the rows of all the copies.
+
+ <h1>Assumptions</h1>
+
+ The input only reads from the store, and does not use the bindings of
+ any other operator in the same pipeline, which belong to the thread
+ that opened this one.
+
+ The statement does not write, since the copies share the query's
+ transaction: they see its own earlier writes, but there must be
+ none in flight while they run. Reading is safe concurrently: the
+ FDB transaction is thread-safe, and the in-memory one tracks its
+ reads in concurrent collections. The copies also share the session,
+ but only look up what is already in it.
+
+ <h1>Performance</h1>
+
+ Up to <code>partitions</code> times the throughput of the input, when
+ it is CPU-bound or waiting for the store, less the cost of handing
+ over the rows. An ordered exchange can only get ahead on the later
+ partitions by as much as their queues hold.
+
+ <h1>Memory Requirements</h1>
+
+ A few batches of rows per partition.
+
+ */
+
+class Exchange_Default extends Operator
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%d, %s)", getClass().getSimpleName(), partitions, ordered ? "ORDERED" : "UNORDERED");
+    }
+
+    // Operator interface
+
+    @Override
+    public RowType rowType()
+    {
+        return rowType;
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes)
+    {
+        for (Operator input : getInputOperators()) {
+            input.findDerivedTypes(derivedTypes);
+        }
+    }
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
+    {
+        return new Execution(context, bindingsCursor);
+    }
+
+    @Override
+    public List<Operator> getInputOperators()
+    {
+        return copies ? Collections.singletonList(inputs.get(0)) : inputs;
+    }
+
+    @Override
+    public String describePlan()
+    {
+        if (copies)
+            return describePlan(inputs.get(0));
+        StringBuilder buffer = new StringBuilder();
+        for (Operator input : inputs) {
+            buffer.append(input.describePlan());
+            buffer.append(NL);
+        }
+        buffer.append(toString());
+        return buffer.toString();
+    }
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        Attributes atts = new Attributes();
+        atts.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        atts.put(Label.PARTITIONS, PrimitiveExplainer.getInstance(partitions));
+        atts.put(Label.ORDERING, PrimitiveExplainer.getInstance(ordered ? "ORDERED" : "UNORDERED"));
+        if (copies)
+            atts.put(Label.BINDING_POSITION, PrimitiveExplainer.getInstance(partitionBindingPosition));
+        for (Operator input : getInputOperators())
+            atts.put(Label.INPUT_OPERATOR, input.getExplainer(context));
+        return new CompoundExplainer(Type.EXCHANGE, atts);
+    }
+
+    // Exchange_Default interface
+
+    public Exchange_Default(Operator input,
+                            RowType rowType,
+                            int partitions,
+                            int partitionBindingPosition,
+                            boolean ordered)
+    {
+        ArgumentValidation.notNull("input", input);
+        ArgumentValidation.notNull("rowType", rowType);
+        ArgumentValidation.isGTE("partitions", partitions, 1);
+        ArgumentValidation.isGTE("partitionBindingPosition", partitionBindingPosition, 0);
+        this.inputs = Collections.nCopies(partitions, input);
+        this.rowType = rowType;
+        this.partitions = partitions;
+        this.partitionBindingPosition = partitionBindingPosition;
+        this.ordered = ordered;
+        this.copies = true;
+    }
+
+    public Exchange_Default(List<Operator> inputs,
+                            RowType rowType,
+                            boolean ordered)
+    {
+        ArgumentValidation.notEmpty("inputs", inputs);
+        for (Operator input : inputs) {
+            ArgumentValidation.notNull("input", input);
+        }
+        ArgumentValidation.notNull("rowType", rowType);
+        this.inputs = new ArrayList<>(inputs);
+        this.rowType = rowType;
+        this.partitions = inputs.size();
+        this.partitionBindingPosition = -1;
+        this.ordered = ordered;
+        this.copies = false;
+    }
+
+    // For use by this class
+
+    /** The pool shared by all exchanges, made on first use. Its
+     * threads are daemons, so it never needs shutting down. */
+    private static ForkJoinPool pool(QueryContext context)
+    {
+        synchronized (Exchange_Default.class) {
+            if (pool == null) {
+                String threads = context.getServiceManager().getConfigurationService().getProperty(THREADS_PROPERTY);
+                int parallelism = Integer.parseInt(threads);
+                if (parallelism <= 0) {
+                    parallelism = Runtime.getRuntime().availableProcessors();
+                }
+                pool = new ForkJoinPool(parallelism);
+            }
+            return pool;
+        }
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Exchange_Default open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Exchange_Default next");
+    private static final Logger LOG = LoggerFactory.getLogger(Exchange_Default.class);
+
+    static final String THREADS_PROPERTY = "fdbsql.exchange.threads";
+    /** Batches each copy can get ahead by. */
+    private static final int QUEUE_BATCHES = 4;
+    /** How long to wait on a queue before checking for cancelation. */
+    private static final long POLL_MILLIS = 10;
+    /** Put on a queue by a copy after its last batch. */
+    private static final RowBatch END = new RowBatch(0);
+
+    private static ForkJoinPool pool;
+
+    // Object state
+
+    private final List<Operator> inputs;
+    private final RowType rowType;
+    private final int partitions;
+    private final int partitionBindingPosition;
+    private final boolean ordered;
+    /** Whether the inputs are all the same, told apart by the partition binding. */
+    private final boolean copies;
+
+    // Inner classes
+
+    private class Execution extends LeafCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                int nqueues = ordered ? partitions : 1;
+                queues = new ArrayList<>(nqueues);
+                for (int i = 0; i < nqueues; i++) {
+                    queues.add(new ArrayBlockingQueue<RowBatch>(QUEUE_BATCHES * partitions / nqueues + 1));
+                }
+                stopped = false;
+                failure.set(null);
+                current = null;
+                position = 0;
+                readQueue = 0;
+                ended = 0;
+                ForkJoinPool pool = pool(context);
+                workers = new ForkJoinTask<?>[partitions];
+                for (int i = 0; i < partitions; i++) {
+                    QueryBindings partitionBindings = bindings.createBindings();
+                    if (copies) {
+                        partitionBindings.setValue(partitionBindingPosition,
+                                                   new Value(MNumeric.INT.instance(false), i));
+                    }
+                    workers[i] = pool.submit(new Worker(inputs.get(i), partitionBindings, queues.get(ordered ? i : 0)));
+                }
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                Row output = null;
+                while (isActive()) {
+                    if ((current != null) && (position < current.size())) {
+                        output = current.get(position++);
+                        break;
+                    }
+                    current = nextBatch();
+                    position = 0;
+                    if (current == null) {
+                        setIdle();
+                    }
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Exchange_Default: yield {}", output);
+                }
+                return output;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                stop();
+            } finally {
+                current = null;
+                queues = null;
+                super.close();
+            }
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, QueryBindingsCursor bindingsCursor)
+        {
+            super(context, bindingsCursor);
+        }
+
+        // For use by this class
+
+        /** The next batch from the copies, or <code>null</code> when all are done. */
+        private RowBatch nextBatch()
+        {
+            while (ended < partitions) {
+                RowBatch batch;
+                try {
+                    batch = queues.get(readQueue).poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException ex) {
+                    throw new QueryCanceledException(context.getSession());
+                }
+                checkFailure();
+                if (batch == null) {
+                    context.checkQueryCancelation();
+                }
+                else if (batch == END) {
+                    ended++;
+                    if (ordered) {
+                        readQueue++;
+                    }
+                }
+                else {
+                    return batch;
+                }
+            }
+            return null;
+        }
+
+        private void checkFailure()
+        {
+            Throwable ex = failure.get();
+            if (ex == null)
+                return;
+            if (ex instanceof RuntimeException)
+                throw (RuntimeException)ex;
+            if (ex instanceof Error)
+                throw (Error)ex;
+            throw new IllegalStateException(ex);
+        }
+
+        /** Tell any copies still running to stop and wait for them to close their cursors. */
+        private void stop()
+        {
+            if (workers == null)
+                return;
+            stopped = true;
+            for (ForkJoinTask<?> worker : workers) {
+                if (worker != null) {
+                    worker.quietlyJoin();
+                }
+            }
+            workers = null;
+        }
+
+        // Object state
+
+        private List<BlockingQueue<RowBatch>> queues;
+        private ForkJoinTask<?>[] workers;
+        private volatile boolean stopped;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private RowBatch current;
+        private int position, readQueue, ended;
+
+        // Inner classes
+
+        /** Runs one copy of the input. */
+        private class Worker implements Runnable
+        {
+            @Override
+            public void run()
+            {
+                StoreAdapter adapter = context.getStore().getUnderlyingStore().createAdapter(context.getSession());
+                QueryContext partitionContext = new PartitionQueryContext(context, adapter);
+                Cursor cursor = input.cursor(partitionContext, new SingletonQueryBindingsCursor(partitionBindings));
+                try {
+                    cursor.openTopLevel();
+                    try {
+                        RowBatch batch = new RowBatch();
+                        while (!stopped && RowBatch.fill(cursor, batch)) {
+                            send(batch);
+                            batch = new RowBatch();
+                        }
+                    } finally {
+                        cursor.closeTopLevel();
+                    }
+                }
+                catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+                finally {
+                    try {
+                        send(END);
+                    }
+                    catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            }
+
+            /** Put a batch on the queue, letting the pool run
+             * something else in the meantime if it is full. */
+            private void send(final RowBatch batch) throws InterruptedException
+            {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        private boolean sent;
+
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            if (!sent && !stopped) {
+                                sent = queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                            }
+                            return sent || stopped;
+                        }
+
+                        @Override
+                        public boolean isReleasable() {
+                            if (!sent && !stopped) {
+                                sent = queue.offer(batch);
+                            }
+                            return sent || stopped;
+                        }
+                    });
+            }
+
+            Worker(Operator input, QueryBindings partitionBindings, BlockingQueue<RowBatch> queue)
+            {
+                this.input = input;
+                this.partitionBindings = partitionBindings;
+                this.queue = queue;
+            }
+
+            private final Operator input;
+            private final QueryBindings partitionBindings;
+            private final BlockingQueue<RowBatch> queue;
+        }
+    }
+
+    /** The query's context, except with a store adapter of the
+     * partition's own, since adapters are not shared between threads. */
+    private static class PartitionQueryContext implements QueryContext
+    {
+        @Override
+        public StoreAdapter getStore() {
+            return adapter;
+        }
+
+        @Override
+        public StoreAdapter getStore(Table table) {
+            StoreAdapter store = parent.getStore(table);
+            return (store == parent.getStore()) ? adapter : store;
+        }
+
+        @Override
+        public AkibanInformationSchema getAIS() {
+            return parent.getAIS();
+        }
+
+        @Override
+        public Session getSession() {
+            return parent.getSession();
+        }
+
+        @Override
+        public ServiceManager getServiceManager() {
+            return parent.getServiceManager();
+        }
+
+        @Override
+        public Date getCurrentDate() {
+            return parent.getCurrentDate();
+        }
+
+        @Override
+        public String getCurrentUser() {
+            return parent.getCurrentUser();
+        }
+
+        @Override
+        public String getSessionUser() {
+            return parent.getSessionUser();
+        }
+
+        @Override
+        public String getSystemUser() {
+            return parent.getSystemUser();
+        }
+
+        @Override
+        public String getCurrentSchema() {
+            return parent.getCurrentSchema();
+        }
+
+        @Override
+        public String getCurrentSetting(String key) {
+            return parent.getCurrentSetting(key);
+        }
+
+        @Override
+        public int getSessionId() {
+            return parent.getSessionId();
+        }
+
+        @Override
+        public long getStartTime() {
+            return parent.getStartTime();
+        }
+
+        @Override
+        public void notifyClient(NotificationLevel level, ErrorCode errorCode, String message) {
+            parent.notifyClient(level, errorCode, message);
+        }
+
+        @Override
+        public void warnClient(InvalidOperationException exception) {
+            parent.warnClient(exception);
+        }
+
+        @Override
+        public long getQueryTimeoutMilli() {
+            return parent.getQueryTimeoutMilli();
+        }
+
+        @Override
+        public void checkQueryCancelation() {
+            parent.checkQueryCancelation();
+        }
+
+        @Override
+        public ServerTransaction.PeriodicallyCommit getTransactionPeriodicallyCommit() {
+            return parent.getTransactionPeriodicallyCommit();
+        }
+
+        @Override
+        public QueryBindings createBindings() {
+            return parent.createBindings();
+        }
+
+        PartitionQueryContext(QueryContext parent, StoreAdapter adapter) {
+            this.parent = parent;
+            this.adapter = adapter;
+        }
+
+        private final QueryContext parent;
+        private final StoreAdapter adapter;
+    }
+}
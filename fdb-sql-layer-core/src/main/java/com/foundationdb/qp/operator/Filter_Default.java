@@ -132,7 +132,7 @@ class Filter_Default extends Operator
 
     // Inner classes
 
-    private class Execution extends ChainedCursor
+    private class Execution extends ChainedCursor implements BatchCursor
     {
         // Cursor interface
 
@@ -178,6 +178,44 @@ class Filter_Default extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                while (isActive()) {
+                    if (!RowBatch.fill(input, batch)) {
+                        setIdle();
+                        break;
+                    }
+                    int size = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Row row = batch.get(i);
+                        if (keepTypes.contains(row.rowType())) {
+                            batch.set(size++, row);
+                        }
+                    }
+                    batch.truncate(size);
+                    if (size > 0) {
+                        break;
+                    }
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Filter_Default: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
         // Execution interface
 
         Execution(QueryContext context, Cursor input)
@@ -103,11 +103,17 @@ import static java.lang.Math.min;
 
  For each input row, GroupLookup_Default does one random access for
  each ancestor type and one range access if there are any descendant types.
+ The branch range accesses for a batch of input rows are started first and
+ the ancestor accesses for the whole batch are then issued together, so a
+ store like FDB takes about one round trip for them. Without lookahead, the
+ batch starts at one input row and doubles up to 128, so that a consumer
+ that stops early does not cause much extra reading. With lookahead, the
+ batch is however many input rows the quantum has room for.
 
  <h1>Memory Requirements</h1>
 
  GroupLookup_Default stores in memory up to (number of ancestors +
- 1) rows.
+ 1) rows and one open branch cursor for each input row in a batch.
 
  */
 
@@ -282,6 +288,15 @@ class GroupLookup_Default extends Operator
         return types;
     }
 
+    private void computeBranchLookupRowHKey(Row row, HKey lookupRowHKey)
+    {
+        HKey ancestorHKey = row.hKey(); // row.ancestorHKey(commonAncestor);
+        ancestorHKey.copyTo(lookupRowHKey);
+        if (branchRootOrdinal != -1) {
+            lookupRowHKey.extendWithOrdinal(branchRootOrdinal);
+        }
+    }
+
     private static Table commonAncestor(Table inputTable, Table outputTable)
     {
         int minLevel = min(inputTable.getDepth(), outputTable.getDepth());
@@ -305,6 +320,8 @@ class GroupLookup_Default extends Operator
     private static final Logger LOG = LoggerFactory.getLogger(GroupLookup_Default.class);
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: GroupLookup_Default open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: GroupLookup_Default next");
+    // Most input rows looked up together without lookahead.
+    static final int MAX_INPUT_BATCH = 128;
     
     // Object state
 
@@ -353,6 +370,9 @@ class GroupLookup_Default extends Operator
             try {
                 super.open();
                 lookupState = LookupState.BETWEEN;
+                inputRows.clear();
+                inputIndex = 0;
+                batchSize = 1;
             } finally {
                 TAP_OPEN.out();
             }
@@ -388,11 +408,19 @@ class GroupLookup_Default extends Operator
         public void close()
         {
             try {
-                // lookupCursor is closed between input rows
-                if (!lookupCursor.isClosed())
-                    lookupCursor.close();
+                // Branch cursors are closed as they run out, but the
+                // batch may not have been finished.
+                if (branchCursors != null) {
+                    for (GroupCursor cursor : branchCursors) {
+                        if (!cursor.isClosed())
+                            cursor.close();
+                    }
+                }
+                lookupCursor = null;
                 lookupRow = null;
                 pending.clear();
+                inputRows.clear();
+                ancestorRows = null;
             } finally {
                 super.close();
             }
@@ -404,12 +432,15 @@ class GroupLookup_Default extends Operator
             super(context, input);
             // Why + 1: Because the input row (whose ancestors get discovered) also goes into pending.
             this.pending = new ArrayDeque<>(ancestors.size() + 1);
-            this.lookupCursor = adapter().newGroupCursor(group);
+            this.inputRows = new ArrayList<>();
+            this.ancestorHKeys = new ArrayList<>();
             if (branchOutputRowTypes != null) {
-                this.lookupRowHKey = adapter().getKeyCreator().newHKey(inputRowType.hKey());
+                this.branchCursors = new ArrayList<>();
+                this.branchHKeys = new ArrayList<>();
             }
             else {
-                this.lookupRowHKey = null;
+                this.branchCursors = null;
+                this.branchHKeys = null;
             }
         }
 
@@ -435,47 +466,86 @@ class GroupLookup_Default extends Operator
 
         private void advanceInput()
         {
-            Row currentRow = input.next();
-            if (currentRow != null) {
-                if (currentRow.rowType() == inputRowType) {
-                    findAncestors(currentRow);
-                    lookupState = LookupState.ANCESTOR;
+            if (inputIndex >= inputRows.size()) {
+                if (!fillInput()) {
+                    inputRow = null;
+                    lookupState = LookupState.EXHAUSTED;
+                    return;
                 }
-                if (keepInput) {
-                    pending.add(currentRow);
+                inputIndex = 0;
+                startLookups();
+            }
+            Row currentRow = inputRows.get(inputIndex++);
+            if (currentRow.rowType() == inputRowType) {
+                if (!ancestors.isEmpty()) {
+                    // Missing ancestors (orphan rows) came back null.
+                    for (int i = 0; i < ancestors.size(); i++) {
+                        Row ancestorRow = ancestorRows.get(ancestorIndex++);
+                        if (ancestorRow != null) {
+                            pending.add(ancestorRow);
+                        }
+                    }
                 }
-                inputRow = currentRow;
-            } else {
-                inputRow = null;
-                lookupState = LookupState.EXHAUSTED;
+                if (branchOutputRowTypes != null) {
+                    lookupCursor = branchCursors.get(branchIndex++);
+                }
+                lookupState = LookupState.ANCESTOR;
+            }
+            if (keepInput) {
+                pending.add(currentRow);
             }
+            inputRow = currentRow;
         }
 
-        private void findAncestors(Row inputRow)
+        /** Read up to <code>batchSize</code> input rows and then double
+         * it, so that a consumer that only wants a few output rows does
+         * not make this read far ahead of it.
+         */
+        private boolean fillInput()
         {
-            assert pending.isEmpty();
-            for (int i = 0; i < ancestors.size(); i++) {
-                lookupRow = readAncestorRow(inputRow.ancestorHKey(ancestors.get(i)));
-                if (lookupRow != null) {
-                    pending.add(lookupRow);
-                }
+            inputRows.clear();
+            while (inputRows.size() < batchSize) {
+                Row row = input.next();
+                if (row == null)
+                    break;
+                inputRows.add(row);
             }
+            batchSize = min(batchSize * 2, MAX_INPUT_BATCH);
+            return !inputRows.isEmpty();
         }
 
-        private Row readAncestorRow(HKey hKey)
+        /** Open the branch cursors of every input row in the batch, and
+         * then look up all their ancestors at once while those reads are
+         * under way.
+         */
+        private void startLookups()
         {
-            lookupCursor.rebind(hKey, false);
-            lookupCursor.open();
-            try {
-                Row retrievedRow = lookupCursor.next();
-                if (retrievedRow != null) {
-                    // Retrieved row might not actually be what we were looking for -- not all ancestors are present,
-                    // (there are orphan rows).
-                    retrievedRow = hKey.equals(retrievedRow.hKey()) ? retrievedRow : null;
+            ancestorIndex = 0;
+            branchIndex = 0;
+            ancestorHKeys.clear();
+            int nbranches = 0;
+            for (int j = 0; j < inputRows.size(); j++) {
+                Row row = inputRows.get(j);
+                if (row.rowType() != inputRowType) {
+                    continue;
                 }
-                return retrievedRow;
-            } finally {
-                lookupCursor.close();
+                if (branchOutputRowTypes != null) {
+                    if (nbranches == branchCursors.size()) {
+                        branchCursors.add(adapter().newGroupCursor(group));
+                        branchHKeys.add(adapter().getKeyCreator().newHKey(inputRowType.hKey()));
+                    }
+                    HKey branchHKey = branchHKeys.get(nbranches);
+                    computeBranchLookupRowHKey(row, branchHKey);
+                    GroupCursor cursor = branchCursors.get(nbranches++);
+                    cursor.rebind(branchHKey, true);
+                    cursor.open();
+                }
+                for (int i = 0; i < ancestors.size(); i++) {
+                    ancestorHKeys.add(row.ancestorHKey(ancestors.get(i)));
+                }
+            }
+            if (!ancestorHKeys.isEmpty()) {
+                ancestorRows = adapter().lookupGroupRows(group, ancestorHKeys);
             }
         }
 
@@ -485,22 +555,11 @@ class GroupLookup_Default extends Operator
                 lookupState = LookupState.BETWEEN;
                 return;
             }
+            // Cursor was already opened along with the ancestor lookups.
             lookupRow = null;
-            computeBranchLookupRowHKey(inputRow);
-            lookupCursor.rebind(lookupRowHKey, true);
-            lookupCursor.open();
             lookupState = LookupState.BRANCH;
         }
 
-        private void computeBranchLookupRowHKey(Row row)
-        {
-            HKey ancestorHKey = row.hKey(); // row.ancestorHKey(commonAncestor);
-            ancestorHKey.copyTo(lookupRowHKey);
-            if (branchRootOrdinal != -1) {
-                lookupRowHKey.extendWithOrdinal(branchRootOrdinal);
-            }
-        }
-
         private void advanceBranch()
         {
             Row currentLookupRow = lookupCursor.next();
@@ -519,10 +578,17 @@ class GroupLookup_Default extends Operator
         // Object state
 
         private Row inputRow;
-        private final GroupCursor lookupCursor;
+        private final List<Row> inputRows;
+        private int inputIndex, batchSize;
+        private final List<GroupCursor> branchCursors;
+        private final List<HKey> branchHKeys;
+        private int branchIndex;
+        private GroupCursor lookupCursor;
+        private final List<HKey> ancestorHKeys;
+        private List<Row> ancestorRows;
+        private int ancestorIndex;
         private Row lookupRow;
         private final Queue<Row> pending;
-        private final HKey lookupRowHKey;
         private LookupState lookupState;
     }
 
@@ -572,28 +638,22 @@ class GroupLookup_Default extends Operator
                         outputRow = inputs[currentIndex].inputRow; 
                         cursorIndex++;
                     }
-                    else {
-                        outputRow = inputs[currentIndex].cursors[cursorIndex].next();
-                        if (cursorIndex == branchCursorIndex) {
-                            // Get all matching rows from branch.
-                            if (outputRow == null) {
-                                inputs[currentIndex].cursors[cursorIndex].close();
-                                cursorIndex++;
-                            }
-                            else if (!branchOutputRowTypes.contains(outputRow.rowType())) {
-                                outputRow = null;
-                            }
-                        }
-                        else {
-                            inputs[currentIndex].cursors[cursorIndex].close();
-                            if ((outputRow != null) && 
-                                !inputs[currentIndex].lookupHKeys[cursorIndex].equals(outputRow.hKey())) {
-                                // Not the row we wanted; no matching ancestor.
-                                outputRow = null;
-                            }
-                            inputs[currentIndex].lookupHKeys[cursorIndex] = null;
+                    else if (cursorIndex == branchCursorIndex) {
+                        // Get all matching rows from branch.
+                        outputRow = inputs[currentIndex].branchCursor.next();
+                        if (outputRow == null) {
+                            inputs[currentIndex].branchCursor.close();
                             cursorIndex++;
                         }
+                        else if (!branchOutputRowTypes.contains(outputRow.rowType())) {
+                            outputRow = null;
+                        }
+                    }
+                    else {
+                        // Null for a missing ancestor (orphan row).
+                        outputRow = inputs[currentIndex].ancestorRows[cursorIndex];
+                        inputs[currentIndex].ancestorRows[cursorIndex] = null;
+                        cursorIndex++;
                     }
                 }
                 if (LOG_EXECUTION) {
@@ -706,8 +766,9 @@ class GroupLookup_Default extends Operator
             this.ncursors = nindex;
             this.inputs = new InputState[quantum];
             for (int j = 0; j < quantum; j++) {
-                this.inputs[j] = new InputState (nindex, keepInputCursorIndex, branchCursorIndex);
+                this.inputs[j] = new InputState();
             }
+            this.ancestorHKeys = new ArrayList<>(nancestors * quantum);
         }
 
         // For use by this class
@@ -724,7 +785,8 @@ class GroupLookup_Default extends Operator
         
         private void fillPipeline() {
             // Get some more input rows, crossing bindings boundaries as
-            // necessary, and open cursors for them.
+            // necessary, and then start all their lookups together.
+            int firstIndex = nextIndex, nrows = 0;
             while (!bindingsExhausted && inputs[nextIndex].inputRow == null) {
                 if (nextBindings == null) {
                     if (newBindings) {
@@ -736,10 +798,13 @@ class GroupLookup_Default extends Operator
                         nextBindings = input.nextBindings();
                         if (nextBindings == null) {
                             bindingsExhausted = true;
-                            return;
+                            break;
                         }
                         pendingBindings.add(nextBindings);
                     }
+                    if (bindingsExhausted) {
+                        break;
+                    }
                     input.open();
                 }
                 Row row = input.next();
@@ -756,23 +821,42 @@ class GroupLookup_Default extends Operator
                         LOG.debug("GroupLookup: new input {}", row);
                     }
                     inputState.queryBindings = nextBindings;
-                    for (int i = 0; i < ncursors; i++) {
-                        if (i == keepInputCursorIndex) continue;
-                        boolean deep = false;
-                        if (i == branchCursorIndex) {
-                            row.hKey().copyTo(inputState.lookupHKeys[i]);
-                            if (branchRootOrdinal != -1) {
-                                inputState.lookupHKeys[i].extendWithOrdinal(branchRootOrdinal);
-                            }
-                            deep = true;
-                        }
-                        else {
-                            inputState.lookupHKeys[i] = row.ancestorHKey(ancestors.get(i));
-                        }
-                        inputState.cursors[i].rebind(inputState.lookupHKeys[i], deep);
-                        inputState.cursors[i].open();
-                    }
                     nextIndex = (nextIndex + 1) % quantum;
+                    nrows++;
+                }
+            }
+            if (nrows > 0) {
+                startLookups(firstIndex, nrows);
+            }
+        }
+
+        /** Open the branch cursors of the <code>nrows</code> input rows
+         * starting at <code>firstIndex</code>, and then look up all their
+         * ancestors at once while those reads are under way.
+         */
+        private void startLookups(int firstIndex, int nrows) {
+            if (branchCursorIndex >= 0) {
+                for (int j = 0, k = firstIndex; j < nrows; j++, k = (k + 1) % quantum) {
+                    InputState inputState = inputs[k];
+                    computeBranchLookupRowHKey(inputState.inputRow, inputState.branchHKey);
+                    inputState.branchCursor.rebind(inputState.branchHKey, true);
+                    inputState.branchCursor.open();
+                }
+            }
+            if (!ancestors.isEmpty()) {
+                ancestorHKeys.clear();
+                for (int j = 0, k = firstIndex; j < nrows; j++, k = (k + 1) % quantum) {
+                    Row row = inputs[k].inputRow;
+                    for (int i = 0; i < ancestors.size(); i++) {
+                        ancestorHKeys.add(row.ancestorHKey(ancestors.get(i)));
+                    }
+                }
+                List<Row> ancestorRows = adapter().lookupGroupRows(group, ancestorHKeys);
+                int n = 0;
+                for (int j = 0, k = firstIndex; j < nrows; j++, k = (k + 1) % quantum) {
+                    for (int i = 0; i < ancestors.size(); i++) {
+                        inputs[k].ancestorRows[i] = ancestorRows.get(n++);
+                    }
                 }
             }
         }
@@ -781,30 +865,31 @@ class GroupLookup_Default extends Operator
         {
             public Row inputRow;
             public QueryBindings queryBindings;
-            public final GroupCursor[] cursors;
-            public final HKey[] lookupHKeys;
-            //public final GroupCursor keepIndexCursor;
+            // Indexed by cursor index, like ancestors.
+            public final Row[] ancestorRows;
+            public final GroupCursor branchCursor;
+            public final HKey branchHKey;
             
-            public InputState (int slots, int keepInputCursorIndex, int branchCursorIndex) {
+            public InputState () {
                 inputRow = null;
                 queryBindings = null;
-                cursors = new GroupCursor[slots];
-                lookupHKeys = new HKey[slots];
-                for (int i = 0; i < slots; i++) {
-                    if (i != keepInputCursorIndex)
-                        this.cursors[i] = adapter().newGroupCursor(group);
-                    if (i == branchCursorIndex)
-                        this.lookupHKeys[i] = adapter().getKeyCreator().newHKey(inputRowType.hKey());
+                ancestorRows = new Row[ancestors.size()];
+                if (branchOutputRowTypes != null) {
+                    branchCursor = adapter().newGroupCursor(group, -1, quantum);
+                    branchHKey = adapter().getKeyCreator().newHKey(inputRowType.hKey());
+                }
+                else {
+                    branchCursor = null;
+                    branchHKey = null;
                 }
             }
             
             public void clearState() {
                 inputRow = null;
                 queryBindings = null;
-                for (int i = 0; i < cursors.length; i++) {
-                    if (i == keepInputCursorIndex) continue;
-                    if (!cursors[i].isClosed()) { cursors[i].close();}
-                    lookupHKeys[i] = null;
+                Arrays.fill(ancestorRows, null);
+                if ((branchCursor != null) && !branchCursor.isClosed()) {
+                    branchCursor.close();
                 }
             }
         }
@@ -815,12 +900,7 @@ class GroupLookup_Default extends Operator
         private final Queue<QueryBindings> pendingBindings;
         private final int quantum;
         private final InputState[] inputs;
-        
-        
-        //private final Row[] inputRows;
-        //private final QueryBindings[] inputRowBindings;
-        //private final GroupCursor[][] cursors;
-        //private final HKey[][] lookupHKeys;
+        private final List<HKey> ancestorHKeys;
         private final int ncursors, keepInputCursorIndex, branchCursorIndex;
         private int currentIndex, nextIndex, cursorIndex;
         private QueryBindings currentBindings, nextBindings;
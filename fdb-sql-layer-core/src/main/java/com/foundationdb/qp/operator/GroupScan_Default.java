@@ -17,19 +17,28 @@
 
 package com.foundationdb.qp.operator;
 
+import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.Table;
 import com.foundationdb.ais.model.TableName;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.util.RuntimeFilter;
 import com.foundationdb.server.api.dml.ColumnSelector;
+import com.foundationdb.server.collation.AkCollator;
 import com.foundationdb.server.explain.*;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Set;
+
 /**
 
  <h1>Overview</h1>
@@ -43,6 +52,14 @@ import org.slf4j.LoggerFactory;
  <li><b>GroupTable groupTable:</b>
  The group table to be scanned.
 
+ <li><b>long expectedRows:</b>
+ The planner's estimate of the number of rows in the group, or a negative number if unknown.
+ Used by the store to size its reads.
+
+ <li><b>Set&lt;Column&gt; neededColumns:</b>
+ The columns that will be read from the returned rows, or <code>null</code> if not known.
+ Others may not be decoded or fetched.
+
  <li><b>Limit limit (DEPRECATED):</b>
  A limit on the number of rows to be returned. The limit is specific to one Table.
  Deprecated because the result is not well-defined. In the case of a branching group, a
@@ -53,12 +70,29 @@ import org.slf4j.LoggerFactory;
  hkey-equivalent indexes were used automatically, sometimes reducing
  performance. Need to revisit the concept.
 
+ <li><b>int runtimeFilterBindingPosition:</b> Binding position of a
+ {@link RuntimeFilter} loaded by the build side of a join, or -1 if
+ none.
+
+ <li><b>Table runtimeFilterTable:</b> The table whose rows are checked
+ against the runtime filter.
+
+ <li><b>int[] runtimeFilterFields:</b> The fields of that table's rows
+ that make up the key checked against the runtime filter.
+
+ <li><b>List&lt;AkCollator&gt; runtimeFilterCollators:</b> The
+ collators with which to hash that key for the filter's bloom filter.
+
  <ul>
 
  <h1>Behavior</h1>
 
  The rows of a group table are returned in hkey order.
 
+ A row of the runtimeFilterTable that cannot match the runtime filter
+ is dropped, along with all its descendants. This is only correct when
+ the consumer inner joins that table to everything it keeps.
+
  <h1>Output</h1>
 
  Nothing else to say.
@@ -84,7 +118,13 @@ class GroupScan_Default extends Operator
     @Override
     public String toString()
     {
-        return getClass().getSimpleName() + '(' + cursorCreator + ')';
+        StringBuilder str = new StringBuilder(getClass().getSimpleName());
+        str.append('(').append(cursorCreator);
+        if (runtimeFilterBindingPosition >= 0) {
+            str.append(" filter ").append(runtimeFilterBindingPosition);
+        }
+        str.append(')');
+        return str.toString();
     }
 
     // Operator interface
@@ -92,26 +132,60 @@ class GroupScan_Default extends Operator
     @Override
     protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
     {
-        return new Execution(context, bindingsCursor, cursorCreator);
+        return new Execution(context, bindingsCursor);
     }
 
     // GroupScan_Default interface
 
     public GroupScan_Default(GroupCursorCreator cursorCreator)
+    {
+        this(cursorCreator, -1, null, null, null);
+    }
+
+    public GroupScan_Default(GroupCursorCreator cursorCreator,
+                             int runtimeFilterBindingPosition,
+                             Table runtimeFilterTable,
+                             int[] runtimeFilterFields,
+                             List<AkCollator> runtimeFilterCollators)
     {
         ArgumentValidation.notNull("groupTable", cursorCreator);
+        if (runtimeFilterBindingPosition >= 0) {
+            ArgumentValidation.notNull("runtimeFilterTable", runtimeFilterTable);
+            ArgumentValidation.notNull("runtimeFilterFields", runtimeFilterFields);
+            ArgumentValidation.isTrue("runtimeFilterTable in group",
+                                      runtimeFilterTable.getGroup() == cursorCreator.group());
+            for (int field : runtimeFilterFields) {
+                ArgumentValidation.isBetween("runtimeFilterFields", 0, field, runtimeFilterTable.getColumns().size());
+            }
+        }
         this.cursorCreator = cursorCreator;
+        this.runtimeFilterBindingPosition = runtimeFilterBindingPosition;
+        this.runtimeFilterTable = runtimeFilterTable;
+        this.runtimeFilterFields = runtimeFilterFields;
+        this.runtimeFilterCollators = runtimeFilterCollators;
+    }
+
+    // For use by this class
+
+    private RuntimeFilter runtimeFilter(QueryBindings bindings)
+    {
+        return (runtimeFilterBindingPosition < 0) ? null : bindings.getRuntimeFilter(runtimeFilterBindingPosition);
     }
     
     // Class state
 
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: GroupScan_Default open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: GroupScan_Default next");
+    private static final PointTap RUNTIME_FILTER_DROPPED = Tap.createCount("operator: GroupScan_Default runtime filter dropped");
     private static final Logger LOG = LoggerFactory.getLogger(GroupScan_Default.class);
 
     // Object state
 
     private final GroupCursorCreator cursorCreator;
+    private final int runtimeFilterBindingPosition;
+    private final Table runtimeFilterTable;
+    private final int[] runtimeFilterFields;
+    private final List<AkCollator> runtimeFilterCollators;
 
     @Override
     public CompoundExplainer getExplainer(ExplainContext context)
@@ -128,7 +202,7 @@ class GroupScan_Default extends Operator
 
     // Inner classes
 
-    private static class Execution extends LeafCursor implements Rebindable
+    private class Execution extends LeafCursor implements BatchCursor, Rebindable
     {
 
         // Cursor interface
@@ -140,6 +214,8 @@ class GroupScan_Default extends Operator
             try {
                 super.open();
                 cursor.open();
+                filter = runtimeFilter(bindings);
+                droppedHKey = null;
             } finally {
                 TAP_OPEN.out();
             }
@@ -153,8 +229,11 @@ class GroupScan_Default extends Operator
             }
             try {
                 checkQueryCancelation();
-                Row row;
-                if ((row = cursor.next()) == null) {
+                Row row = cursor.next();
+                while ((row != null) && (filter != null) && dropped(row)) {
+                    row = cursor.next();
+                }
+                if (row == null) {
                     setIdle();
                 }
                 if (LOG_EXECUTION) {
@@ -168,6 +247,35 @@ class GroupScan_Default extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                checkQueryCancelation();
+                while (!batch.isFull()) {
+                    Row row = cursor.next();
+                    if (row == null) {
+                        setIdle();
+                        break;
+                    }
+                    if ((filter != null) && dropped(row)) {
+                        continue;
+                    }
+                    batch.add(row);
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("GroupScan_Default: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
         @Override
         public void close()
         {
@@ -204,21 +312,50 @@ class GroupScan_Default extends Operator
                 throw new IllegalStateException("rebind not allowed for");
             }
             cursor.rebind(hKey, deep);
+            droppedHKey = null;
         }
 
         // Execution interface
 
-        Execution(QueryContext context, QueryBindingsCursor bindingsCursor, GroupCursorCreator cursorCreator)
+        Execution(QueryContext context, QueryBindingsCursor bindingsCursor)
         {
             super(context, bindingsCursor);
             this.cursor = cursorCreator.cursor(context);
             this.canRebind = (cursorCreator instanceof FullGroupCursorCreator);
         }
 
+        // For use by this class
+
+        /**
+         * Whether a row cannot match the runtime filter, either itself or
+         * because it is a descendant of a row that cannot.
+         */
+        private boolean dropped(Row row)
+        {
+            HKey hKey = row.hKey();
+            if ((droppedHKey != null) && droppedHKey.prefixOf(hKey)) {
+                RUNTIME_FILTER_DROPPED.hit();
+                return true;
+            }
+            if (row.rowType().hasTable() && (row.rowType().table() == runtimeFilterTable) &&
+                !filter.mightMatch(row, runtimeFilterFields, runtimeFilterCollators)) {
+                // The row's own hkey may be reused for the next one.
+                if (droppedHKey == null) {
+                    droppedHKey = adapter(runtimeFilterTable).getKeyCreator().newHKey(runtimeFilterTable.hKey());
+                }
+                hKey.copyTo(droppedHKey);
+                RUNTIME_FILTER_DROPPED.hit();
+                return true;
+            }
+            return false;
+        }
+
         // Object state
 
         private final GroupCursor cursor;
         private final boolean canRebind;
+        private RuntimeFilter filter;
+        private HKey droppedHKey;
     }
 
     static interface GroupCursorCreator
@@ -268,14 +405,33 @@ class GroupScan_Default extends Operator
         @Override
         public GroupCursor cursor(QueryContext context)
         {
-            return context.getStore(group().getRoot()).newGroupCursor(group());
+            return context.getStore(group().getRoot()).newGroupCursor(group(), expectedRows, 1, neededColumns, columnRanges);
         }
 
         // FullGroupCursorCreator interface
 
         public FullGroupCursorCreator(Group group)
+        {
+            this(group, -1);
+        }
+
+        public FullGroupCursorCreator(Group group, long expectedRows)
+        {
+            this(group, expectedRows, null);
+        }
+
+        public FullGroupCursorCreator(Group group, long expectedRows, Set<Column> neededColumns)
+        {
+            this(group, expectedRows, neededColumns, null);
+        }
+
+        public FullGroupCursorCreator(Group group, long expectedRows, Set<Column> neededColumns,
+                                      List<ScanColumnRange> columnRanges)
         {
             super(group);
+            this.expectedRows = expectedRows;
+            this.neededColumns = neededColumns;
+            this.columnRanges = columnRanges;
         }
 
         // AbstractGroupCursorCreator interface
@@ -285,6 +441,12 @@ class GroupScan_Default extends Operator
         {
             return "full scan";
         }
+
+        // object state
+
+        private final long expectedRows;
+        private final Set<Column> neededColumns;
+        private final List<ScanColumnRange> columnRanges;
     }
 
     static class PositionalGroupCursorCreator extends AbstractGroupCursorCreator
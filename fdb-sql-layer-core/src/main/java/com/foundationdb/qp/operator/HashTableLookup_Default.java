@@ -93,8 +93,10 @@ class HashTableLookup_Default extends Operator
                 super.open();
                 hashTable = bindings.getHashTable(hashTableBindingPosition);
                 assert (hashedRowType == hashTable.getRowType()) : hashTable;
-                innerRowList = hashTable.getMatchingRows(null, evaluatableComparisonFields, bindings);
-                innerRowListPosition = 0;
+                key.evaluate(null, bindings);
+                match = hashTable.find(key);
+                matchCount = (match < 0) ? 0 : hashTable.getMatchCount(match);
+                matchPosition = 0;
             } finally {
                 TAP_OPEN.out();
             }
@@ -111,8 +113,8 @@ class HashTableLookup_Default extends Operator
                     CursorLifecycle.checkIdleOrActive(this);
                 }
                 Row next = null;
-                if(innerRowListPosition < innerRowList.size()) {
-                    next = innerRowList.get(innerRowListPosition++);
+                if(matchPosition < matchCount) {
+                    next = hashTable.getMatch(match, matchPosition++);
                     assert(next.rowType() == hashedRowType);
                 }
                 if (LOG_EXECUTION) {
@@ -132,12 +134,13 @@ class HashTableLookup_Default extends Operator
             for (TPreparedExpression comparisonField : outerComparisonFields) {
                 evaluatableComparisonFields.add(comparisonField.build());
             }
+            key = new HashTable.Key(evaluatableComparisonFields);
         }
         // Cursor interface
         protected HashTable hashTable;
-        private List<Row> innerRowList;
-        private int innerRowListPosition = 0;
         private final List<TEvaluatableExpression> evaluatableComparisonFields = new ArrayList<>();
+        private final HashTable.Key key;
+        private int match, matchCount, matchPosition;
 
     }
 }
\ No newline at end of file
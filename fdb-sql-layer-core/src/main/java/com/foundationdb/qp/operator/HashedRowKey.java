@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.common.types.TString;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.server.types.value.ValueTargets;
+
+/**
+ * The leading fields of a row as a hash table key, for the
+ * <code>_Hashed</code> operators. A key made from a row refers to
+ * that row's values, so it is only good for lookup until it is
+ * {@link #copy}'d.
+ * <p>
+ * Operators that spill divide rows among {@link #PARTITIONS} files by
+ * {@link #partition}, using a different part of the hash at each level
+ * of spilling. After {@link #MAX_LEVEL}, the hash is used up and they
+ * must stop.
+ */
+final class HashedRowKey
+{
+    public static final int PARTITION_BITS = 4;
+    public static final int PARTITIONS = 1 << PARTITION_BITS;
+    public static final int MAX_LEVEL = (Integer.SIZE / PARTITION_BITS) - 1;
+
+    /** Approximate bytes used by each hash table entry apart from the key's values. */
+    public static final int ENTRY_OVERHEAD = 96;
+
+    public static AkCollator[] collators(RowType rowType, int nfields) {
+        AkCollator[] collators = new AkCollator[nfields];
+        for (int i = 0; i < nfields; i++) {
+            TInstance type = rowType.typeAt(i);
+            if ((type != null) && (type.typeClass() instanceof TString)) {
+                collators[i] = TString.getCollator(type);
+            }
+        }
+        return collators;
+    }
+
+    public HashedRowKey(Row row, AkCollator[] collators) {
+        int nfields = collators.length;
+        this.values = new ValueSource[nfields];
+        int hash = 0;
+        for (int i = 0; i < nfields; i++) {
+            values[i] = row.value(i);
+            hash = hash * 31 + ValueSources.hash(values[i], collators[i]);
+        }
+        // Spread the bits, since partitioning takes them a few at a time.
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        hash *= 0xc2b2ae35;
+        hash ^= (hash >>> 16);
+        this.hash = hash;
+    }
+
+    private HashedRowKey(ValueSource[] values, int hash) {
+        this.values = values;
+        this.hash = hash;
+    }
+
+    public int nFields() {
+        return values.length;
+    }
+
+    public ValueSource value(int i) {
+        return values[i];
+    }
+
+    /** A copy that no longer depends on the row it came from. */
+    public HashedRowKey copy() {
+        ValueSource[] copies = new ValueSource[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Value copy = new Value(values[i].getType());
+            ValueTargets.copyFrom(values[i], copy);
+            copies[i] = copy;
+        }
+        return new HashedRowKey(copies, hash);
+    }
+
+    /** Approximate number of bytes a copy occupies in a hash table. */
+    public int size() {
+        int size = ENTRY_OVERHEAD;
+        for (ValueSource value : values) {
+            size += valueSize(value);
+        }
+        return size;
+    }
+
+    /** Approximate number of bytes a row held in a hash table occupies. */
+    public static int rowSize(Row row) {
+        int size = ENTRY_OVERHEAD;
+        int nfields = row.rowType().nFields();
+        for (int i = 0; i < nfields; i++) {
+            size += valueSize(row.value(i));
+        }
+        return size;
+    }
+
+    private static int valueSize(ValueSource value) {
+        if (value.isNull()) {
+            return 8;
+        }
+        switch (TInstance.underlyingType(value.getType())) {
+        case STRING:
+            return 40 + value.getString().length() * 2;
+        case BYTES:
+            return 16 + value.getBytes().length;
+        default:
+            return 8;
+        }
+    }
+
+    public int partition(int level) {
+        return (hash >>> (level * PARTITION_BITS)) & (PARTITIONS - 1);
+    }
+
+    // Object interface
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HashedRowKey))
+            return false;
+        HashedRowKey other = (HashedRowKey)obj;
+        if ((hash != other.hash) || (values.length != other.values.length))
+            return false;
+        for (int i = 0; i < values.length; i++) {
+            ValueSource value = values[i], otherValue = other.values[i];
+            // NULLs are alike here, and may not even have a type to compare.
+            if (value.isNull() || otherValue.isNull()) {
+                if (value.isNull() != otherValue.isNull())
+                    return false;
+            }
+            else if (!TClass.areEqual(value, otherValue))
+                return false;
+        }
+        return true;
+    }
+
+    private final ValueSource[] values;
+    private final int hash;
+}
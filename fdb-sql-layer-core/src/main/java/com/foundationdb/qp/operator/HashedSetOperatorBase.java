@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.OverlayingRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.SpillFile;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Common execution for {@link Intersect_Hashed} and {@link Except_Hashed}.
+ * <p>
+ * The right input is counted into a hash table by the value of all its
+ * columns. Each left row is then looked up and, depending on the
+ * operator, either output or discarded, adjusting the count. When the
+ * table outgrows <code>fdbsql.distinct.memory</code>, right rows for
+ * new keys are spilled by hash into temporary files, as are the left
+ * rows that might match them, and each pair of files is processed in
+ * turn afterwards.
+ */
+abstract class HashedSetOperatorBase extends SetOperatorBase
+{
+    /** Decide whether to output a left row whose key has
+     * <code>count</code> matching right rows remaining, or
+     * <code>null</code> if there are none, adjusting the count.
+     */
+    protected abstract boolean output(long[] count);
+
+    protected abstract InOutTap tapOpen();
+    protected abstract InOutTap tapNext();
+    protected abstract InOutTap tapSpill();
+    protected abstract Logger log();
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor) {
+        return new Execution(context, bindingsCursor);
+    }
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context) {
+        Attributes att = new Attributes();
+        att.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        for (Operator op : getInputOperators())
+            att.put(Label.INPUT_OPERATOR, op.getExplainer(context));
+        for (RowType type : getInputTypes())
+            att.put(Label.INPUT_TYPE, type.getExplainer(context));
+        att.put(Label.OUTPUT_TYPE, rowType().getExplainer(context));
+        att.put(Label.SET_OPTION, PrimitiveExplainer.getInstance("ALL"));
+        return new CompoundExplainer(explainType, att);
+    }
+
+    HashedSetOperatorBase(Operator left, RowType leftRowType,
+                          Operator right, RowType rightRowType,
+                          String name, Type explainType) {
+        super(left, leftRowType, right, rightRowType, name);
+        this.explainType = explainType;
+        this.collators = HashedRowKey.collators(rowType(), rowType().nFields());
+    }
+
+    // Class state
+
+    private static final int COUNT_SIZE = 16;
+
+    // Object state
+
+    private final Type explainType;
+    private final AkCollator[] collators;
+
+    // Inner classes
+
+    /** The right rows counted in memory from one source: the right
+     * input or a spilled partition of some earlier level, along with
+     * the left rows to be matched against them. */
+    private class CountTable
+    {
+        public void count(Row row) {
+            HashedRowKey key = new HashedRowKey(row, collators);
+            long[] count = counts.get(key);
+            if (count == null) {
+                if (rightPartitions == null) {
+                    int size = key.size() + COUNT_SIZE;
+                    if ((memoryUsed + size > memoryLimit) && !counts.isEmpty() && (level < HashedRowKey.MAX_LEVEL)) {
+                        rightPartitions = new SpillFile[HashedRowKey.PARTITIONS];
+                        leftPartitions = new SpillFile[HashedRowKey.PARTITIONS];
+                    }
+                    else {
+                        memoryUsed += size;
+                        count = new long[1];
+                        counts.put(key.copy(), count);
+                    }
+                }
+                if (count == null) {
+                    spill(rightPartitions, 1, row, key.partition(level));
+                    return;
+                }
+            }
+            count[0]++;
+        }
+
+        /** Return <code>true</code> if the given left row should be output now. */
+        public boolean probe(Row row) {
+            HashedRowKey key = new HashedRowKey(row, collators);
+            long[] count = counts.get(key);
+            if ((count == null) && (rightPartitions != null)) {
+                int index = key.partition(level);
+                if (rightPartitions[index] != null) {
+                    // Can only tell once that partition is counted.
+                    spill(leftPartitions, 0, row, index);
+                    return false;
+                }
+            }
+            return output(count);
+        }
+
+        private void spill(SpillFile[] partitions, int input, Row row, int index) {
+            tapSpill().in();
+            try {
+                if (partitions[index] == null) {
+                    partitions[index] = new SpillFile(context, "set", inputRowType(input));
+                }
+                partitions[index].write(row);
+            } finally {
+                tapSpill().out();
+            }
+        }
+
+        /** The partitions with both left and right rows, to be processed next. */
+        public void spilled(Deque<CountTable> pending) {
+            if (rightPartitions == null)
+                return;
+            for (int i = 0; i < rightPartitions.length; i++) {
+                if ((rightPartitions[i] != null) && (leftPartitions[i] != null)) {
+                    pending.addLast(new CountTable(context, memoryLimit, level + 1,
+                                                   leftPartitions[i], rightPartitions[i]));
+                    leftPartitions[i] = rightPartitions[i] = null;
+                }
+            }
+        }
+
+        public void close() {
+            if (leftSource != null) {
+                leftSource.close();
+            }
+            if (rightSource != null) {
+                rightSource.close();
+            }
+            if (rightPartitions != null) {
+                for (int i = 0; i < rightPartitions.length; i++) {
+                    if (leftPartitions[i] != null) {
+                        leftPartitions[i].close();
+                    }
+                    if (rightPartitions[i] != null) {
+                        rightPartitions[i].close();
+                    }
+                }
+                leftPartitions = rightPartitions = null;
+            }
+            counts.clear();
+        }
+
+        public CountTable(QueryContext context, long memoryLimit, int level,
+                          SpillFile leftSource, SpillFile rightSource) {
+            this.context = context;
+            this.memoryLimit = memoryLimit;
+            this.level = level;
+            this.leftSource = leftSource;
+            this.rightSource = rightSource;
+        }
+
+        private final QueryContext context;
+        private final long memoryLimit;
+        private final int level;
+        private final SpillFile leftSource, rightSource;
+        private final Map<HashedRowKey,long[]> counts = new HashMap<>();
+        private long memoryUsed;
+        private SpillFile[] leftPartitions, rightPartitions;
+        private boolean counted;
+    }
+
+    private class Execution extends MultiChainedCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open() {
+            tapOpen().in();
+            try {
+                super.open();
+                current = new CountTable(context, memoryLimit, 0, null, null);
+            } finally {
+                tapOpen().out();
+            }
+        }
+
+        @Override
+        public Row next() {
+            if (TAP_NEXT_ENABLED) {
+                tapNext().in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                if (isIdle()) {
+                    return null;
+                }
+                Row row = null;
+                while (current != null) {
+                    if (!current.counted) {
+                        countRight();
+                    }
+                    if (current.leftSource == null) {
+                        row = leftInput.next();
+                    }
+                    else {
+                        row = current.leftSource.read();
+                    }
+                    if (row == null) {
+                        nextTable();
+                    }
+                    else if (current.probe(row)) {
+                        break;
+                    }
+                }
+                if (row == null) {
+                    setIdle();
+                }
+                else if (useOverlayRow()) {
+                    row = new OverlayingRow(row, rowType());
+                }
+                if (LOG_EXECUTION) {
+                    log().debug("{}: yield {}", getName(), row);
+                }
+                return row;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    tapNext().out();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                for (CountTable table : pending) {
+                    table.close();
+                }
+                pending.clear();
+            }
+        }
+
+        @Override
+        protected Operator left() {
+            return HashedSetOperatorBase.this.left();
+        }
+
+        @Override
+        protected Operator right() {
+            return HashedSetOperatorBase.this.right();
+        }
+
+        // For use by this class
+
+        private void countRight() {
+            Row row;
+            if (current.rightSource == null) {
+                while ((row = rightInput.next()) != null) {
+                    current.count(row);
+                }
+            }
+            else {
+                if (log().isDebugEnabled()) {
+                    log().debug("{}: reloading {} spilled rows at level {}",
+                                getName(), current.rightSource.getRowCount(), current.level);
+                }
+                while ((row = current.rightSource.read()) != null) {
+                    checkQueryCancelation();
+                    current.count(row);
+                }
+            }
+            current.counted = true;
+        }
+
+        private void nextTable() {
+            current.spilled(pending);
+            current.close();
+            current = pending.pollFirst();
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, QueryBindingsCursor bindingsCursor) {
+            super(context, bindingsCursor);
+            String memory = context.getServiceManager().getConfigurationService().getProperty(Distinct_Hashed.MEMORY_PROPERTY);
+            this.memoryLimit = Long.parseLong(memory);
+        }
+
+        // Object state
+
+        private final long memoryLimit;
+        private final Deque<CountTable> pending = new ArrayDeque<>();
+        private CountTable current;
+    }
+}
@@ -21,13 +21,23 @@ import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Index;
 import com.foundationdb.ais.model.IndexColumn;
 import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.expression.IndexBound;
 import com.foundationdb.qp.expression.IndexKeyRange;
 import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.IndexRowType;
+import com.foundationdb.qp.util.RuntimeFilter;
 import com.foundationdb.server.api.dml.ColumnSelector;
+import com.foundationdb.server.api.dml.SetColumnSelector;
+import com.foundationdb.server.collation.AkCollator;
 import com.foundationdb.server.explain.*;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueTargets;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +72,22 @@ import java.util.List;
  <li><b>int lookaheadQuantum:</b> Number of cursors to try to keep open by looking
   ahead in bindings stream.
 
+ <li><b>long expectedRows:</b> The planner's estimate of the number of rows
+  returned for each set of bindings, or a negative number if unknown. Used by
+  the store to size its reads.
+
+ <li><b>int runtimeFilterBindingPosition:</b> Binding position of a
+ {@link RuntimeFilter} loaded by the build side of a join, or -1 if
+ none.
+
+ <li><b>int[] runtimeFilterFields:</b> The index row fields that make
+ up the key checked against the runtime filter.
+
+ <li><b>List&lt;AkCollator&gt; runtimeFilterCollators:</b> The
+ collators with which to hash that key for the filter's bloom filter,
+ the same as the {@link Select_BloomFilter} that would otherwise check
+ it.
+
  </ul>
 
  <h1>Behavior</h1>
@@ -74,6 +100,14 @@ import java.util.List;
  If reverse = true, the initial probe is with the high end of the
  indexKeyRange, and records are visited in descending key order.
 
+ Index records that cannot match the runtime filter are dropped. When
+ the indexKeyRange is unbounded and the filter's key includes the
+ leading index field, the scan is narrowed on open to the least and
+ greatest value of that field the filter saw, so that keys outside
+ that are never read at all. Lookahead is not used when narrowing.
+ When the build side had no keys at all, nothing can match and the
+ index is not read.
+
  innerJoinUntilRowType is the table until which a group index is
  treated with INNER JOIN semantics (inclusive). For instance, let's say
  you had a COI schema with group index (customer.name,
@@ -156,6 +190,9 @@ class IndexScan_Default extends Operator
             str.append(" ").append(ordering);
         }
         str.append(scanSelector.describe());
+        if (runtimeFilterBindingPosition >= 0) {
+            str.append(" filter ").append(runtimeFilterBindingPosition);
+        }
         str.append(")");
         return str.toString();
     }
@@ -165,7 +202,7 @@ class IndexScan_Default extends Operator
     @Override
     protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
     {
-        if (lookaheadQuantum <= 1) {
+        if ((lookaheadQuantum <= 1) || (narrowingField >= 0)) {
             return new Execution(context, bindingsCursor);
         }
         else {
@@ -182,20 +219,87 @@ class IndexScan_Default extends Operator
                              API.Ordering ordering,
                              IndexScanSelector scanSelector,
                              int lookaheadQuantum)
+    {
+        this(indexType, indexKeyRange, ordering, scanSelector, lookaheadQuantum, -1);
+    }
+
+    public IndexScan_Default(IndexRowType indexType,
+                             IndexKeyRange indexKeyRange,
+                             API.Ordering ordering,
+                             IndexScanSelector scanSelector,
+                             int lookaheadQuantum,
+                             long expectedRows)
+    {
+        this(indexType, indexKeyRange, ordering, scanSelector, lookaheadQuantum, expectedRows, -1, null, null);
+    }
+
+    public IndexScan_Default(IndexRowType indexType,
+                             IndexKeyRange indexKeyRange,
+                             API.Ordering ordering,
+                             IndexScanSelector scanSelector,
+                             int lookaheadQuantum,
+                             long expectedRows,
+                             int runtimeFilterBindingPosition,
+                             int[] runtimeFilterFields,
+                             List<AkCollator> runtimeFilterCollators)
     {
         ArgumentValidation.notNull("indexType", indexType);
+        if (runtimeFilterBindingPosition >= 0) {
+            ArgumentValidation.notNull("runtimeFilterFields", runtimeFilterFields);
+            for (int field : runtimeFilterFields) {
+                ArgumentValidation.isBetween("runtimeFilterFields", 0, field, indexType.nFields());
+            }
+        }
         this.indexType = indexType;
         this.index = indexType.index();
         this.ordering = ordering;
         this.indexKeyRange = indexKeyRange;
         this.scanSelector = scanSelector;
         this.lookaheadQuantum = lookaheadQuantum;
+        this.expectedRows = expectedRows;
+        this.runtimeFilterBindingPosition = runtimeFilterBindingPosition;
+        this.runtimeFilterFields = runtimeFilterFields;
+        this.runtimeFilterCollators = runtimeFilterCollators;
+        this.narrowingField = narrowingField();
+    }
+
+    // For use by this class
+
+    /**
+     * The runtime filter key field that is the leading index field, if
+     * the scan can be narrowed to that field's range, or -1.
+     */
+    private int narrowingField()
+    {
+        if (runtimeFilterBindingPosition < 0)
+            return -1;
+        if ((indexKeyRange != null) &&
+            (!indexKeyRange.unbounded() ||
+             indexKeyRange.spatialCoordsIndex() || indexKeyRange.spatialObjectIndex()))
+            return -1;
+        for (int i = 0; i < runtimeFilterFields.length; i++) {
+            if (runtimeFilterFields[i] == 0) {
+                // A collated field's range may not order the same as its index key.
+                AkCollator collator = (runtimeFilterCollators == null) ? null : runtimeFilterCollators.get(i);
+                if ((collator == null) || collator.isRecoverable())
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    private RuntimeFilter runtimeFilter(QueryBindings bindings)
+    {
+        return (runtimeFilterBindingPosition < 0) ? null : bindings.getRuntimeFilter(runtimeFilterBindingPosition);
     }
 
     // Class state
 
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: IndexScan_Default open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: IndexScan_Default next");
+    private static final PointTap RUNTIME_FILTER_DROPPED = Tap.createCount("operator: IndexScan_Default runtime filter dropped");
+    private static final PointTap RUNTIME_FILTER_NARROWED = Tap.createCount("operator: IndexScan_Default runtime filter narrowed");
+    private static final PointTap RUNTIME_FILTER_EMPTY = Tap.createCount("operator: IndexScan_Default runtime filter empty");
     private static final Logger LOG = LoggerFactory.getLogger(IndexScan_Default.class);
 
     // Object state
@@ -206,6 +310,11 @@ class IndexScan_Default extends Operator
     private final IndexKeyRange indexKeyRange;
     private final IndexScanSelector scanSelector;
     private final int lookaheadQuantum;
+    private final long expectedRows;
+    private final int runtimeFilterBindingPosition;
+    private final int[] runtimeFilterFields;
+    private final List<AkCollator> runtimeFilterCollators;
+    private final int narrowingField;
 
     @Override
     public CompoundExplainer getExplainer(ExplainContext context)
@@ -286,7 +395,7 @@ class IndexScan_Default extends Operator
 
     // Inner classes
 
-    private class Execution extends LeafCursor
+    private class Execution extends LeafCursor implements BatchCursor
     {
         // Cursor interface
 
@@ -296,6 +405,8 @@ class IndexScan_Default extends Operator
             TAP_OPEN.in();
             try {
                 super.open();
+                filter = runtimeFilter(bindings);
+                cursor = narrowedCursor();
                 cursor.open();
             } finally {
                 TAP_OPEN.out();
@@ -311,6 +422,10 @@ class IndexScan_Default extends Operator
             try {
                 checkQueryCancelation();
                 Row row = cursor.next();
+                while ((row != null) && (filter != null) && !filter.mightMatch(row, runtimeFilterFields, runtimeFilterCollators)) {
+                    RUNTIME_FILTER_DROPPED.hit();
+                    row = cursor.next();
+                }
                 if (row == null) {
                     setIdle();
                 }
@@ -325,6 +440,36 @@ class IndexScan_Default extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                checkQueryCancelation();
+                while (!batch.isFull()) {
+                    Row row = cursor.next();
+                    if (row == null) {
+                        setIdle();
+                        break;
+                    }
+                    if ((filter != null) && !filter.mightMatch(row, runtimeFilterFields, runtimeFilterCollators)) {
+                        RUNTIME_FILTER_DROPPED.hit();
+                        continue;
+                    }
+                    batch.add(row);
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("IndexScan_Default$Execution: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
         @Override
         public void jump(Row row, ColumnSelector columnSelector)
         {
@@ -340,6 +485,7 @@ class IndexScan_Default extends Operator
             try {
                 cursor.close();
             } finally {
+                cursor = fullCursor;
                 super.close();
             }
         }
@@ -358,12 +504,75 @@ class IndexScan_Default extends Operator
         {
             super(context, bindingsCursor);
             Table table = index.rootMostTable();
-            this.cursor = adapter(table).newIndexCursor(context, indexType, indexKeyRange, ordering, scanSelector, false);
+            this.fullCursor = adapter(table).newIndexCursor(context, indexType, indexKeyRange, ordering, scanSelector, false,
+                                                            expectedRows, 1);
+            this.cursor = fullCursor;
+        }
+
+        // For use by this class
+
+        /**
+         * A cursor over just the keys between the least and greatest
+         * value the runtime filter saw for the leading index field, or
+         * the full one if those are not known, or an empty one if the
+         * filter has no keys at all.
+         */
+        private RowCursor narrowedCursor()
+        {
+            if (filter == null)
+                return fullCursor;
+            if (filter.getKeyCount() == 0) {
+                RUNTIME_FILTER_EMPTY.hit();
+                return new EmptyCursor();
+            }
+            if (narrowingField < 0)
+                return fullCursor;
+            ValueSource min = filter.getMin(narrowingField);
+            ValueSource max = filter.getMax(narrowingField);
+            if ((min == null) || (max == null) ||
+                TClass.comparisonNeedsCasting(indexType.typeAt(0), min.getType()))
+                return fullCursor;
+            IndexKeyRange keyRange = IndexKeyRange.bounded(indexType,
+                                                           leadingBound(min), true,
+                                                           leadingBound(max), true);
+            Table table = index.rootMostTable();
+            RowCursor narrowed = adapter(table).newIndexCursor(context, indexType, keyRange, ordering, scanSelector, false,
+                                                               expectedRows, 1);
+            if (narrowed instanceof BindingsAwareCursor)
+                ((BindingsAwareCursor)narrowed).rebind(bindings);
+            RUNTIME_FILTER_NARROWED.hit();
+            return narrowed;
+        }
+
+        private IndexBound leadingBound(ValueSource value)
+        {
+            ValuesHolderRow row = new ValuesHolderRow(indexType);
+            ValueTargets.copyFrom(value, row.valueAt(0));
+            return new IndexBound(row, new SetColumnSelector(0));
         }
 
         // Object state
 
-        private final RowCursor cursor;
+        private final RowCursor fullCursor;
+        private RowCursor cursor;
+        private RuntimeFilter filter;
+    }
+
+    /** The scan when the runtime filter rules out every key. */
+    private static class EmptyCursor extends RowCursorImpl
+    {
+        @Override
+        public Row next()
+        {
+            setIdle();
+            return null;
+        }
+
+        @Override
+        public void jump(Row row, ColumnSelector columnSelector)
+        {
+            state = CursorLifecycle.CursorState.ACTIVE;
+        }
     }
 
     private class LookaheadExecution extends LookaheadLeafCursor<BindingsAwareCursor>
@@ -375,6 +584,7 @@ class IndexScan_Default extends Operator
             TAP_OPEN.in();
             try {
                 super.open();
+                filter = runtimeFilter(currentBindings);
             } finally {
                 TAP_OPEN.out();
             }
@@ -387,6 +597,10 @@ class IndexScan_Default extends Operator
             }
             try {
                 Row row = super.next();
+                while ((row != null) && (filter != null) && !filter.mightMatch(row, runtimeFilterFields, runtimeFilterCollators)) {
+                    RUNTIME_FILTER_DROPPED.hit();
+                    row = super.next();
+                }
                 if (LOG_EXECUTION) {
                     LOG.debug(IndexScan_Default.this.toString() + ": yield {}", row);
                 }
@@ -402,7 +616,8 @@ class IndexScan_Default extends Operator
 
         @Override
         protected BindingsAwareCursor newCursor(QueryContext context, StoreAdapter adapter) {
-            return (BindingsAwareCursor)adapter.newIndexCursor(context, indexType, indexKeyRange, ordering, scanSelector, true);
+            return (BindingsAwareCursor)adapter.newIndexCursor(context, indexType, indexKeyRange, ordering, scanSelector, true,
+                                                               expectedRows, lookaheadQuantum);
         }
 
         @Override
@@ -424,5 +639,9 @@ class IndexScan_Default extends Operator
         public String toString() {
             return "LookaheadExecution for " + IndexScan_Default.this.toString();
         }
+
+        // Object state
+
+        private RuntimeFilter filter;
     }
 }
@@ -34,6 +34,7 @@ package com.foundationdb.qp.operator;
  *
  * Used by:
  * @see Except_Ordered$Execution
+ * @see HashedSetOperatorBase$Execution
  * @see HKeyUnion_Ordered$Execution
  * @see Intersect_Ordered$Execution
  * @see Union_Ordered$Execution
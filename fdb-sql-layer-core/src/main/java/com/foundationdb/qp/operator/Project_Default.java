@@ -19,6 +19,7 @@ package com.foundationdb.qp.operator;
 
 import com.foundationdb.qp.row.ProjectedRow;
 import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.ProjectedRowType;
 import com.foundationdb.qp.rowtype.ProjectedTableRowType;
 import com.foundationdb.qp.rowtype.RowType;
@@ -26,6 +27,7 @@ import com.foundationdb.server.explain.*;
 import com.foundationdb.server.types.TInstance;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.value.ValueTargets;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.tap.InOutTap;
 import org.slf4j.Logger;
@@ -52,6 +54,9 @@ import java.util.*;
 
  Rows of other types are passed through from the input stream to the output stream.
 
+ A batch of rows is projected eagerly into copies, since all the rows of a batch
+ share the same evaluators.
+
  <h1>Output</h1>
 
   A projected row has a null hkey.
@@ -180,7 +185,7 @@ class Project_Default extends Operator
 
     // Inner classes
 
-    private class Execution extends ChainedCursor
+    private class Execution extends ChainedCursor implements BatchCursor
     {
         // Cursor interface
         
@@ -228,9 +233,49 @@ class Project_Default extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                if (!RowBatch.fill(input, batch)) {
+                    setIdle();
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Row inputRow = batch.get(i);
+                    if (inputRow.rowType() == rowType) {
+                        batch.set(i, copyProjected(inputRow));
+                    }
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Project_Default: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
 
         // Execution interface
 
+        /** The evaluators are shared, so a batch gets copies that a consumer can read in any order. */
+        private Row copyProjected(Row inputRow)
+        {
+            Row projectedRow = new ProjectedRow(projectType, inputRow, context, bindings, pEvalExpr);
+            ValuesHolderRow copy = new ValuesHolderRow(projectType);
+            for (int i = 0; i < projectType.nFields(); i++) {
+                ValueTargets.copyFrom(projectedRow.value(i), copy.valueAt(i));
+            }
+            return copy;
+        }
+
         Execution(QueryContext context, Cursor input)
         {
             super(context, input);
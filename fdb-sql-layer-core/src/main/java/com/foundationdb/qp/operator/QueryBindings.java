@@ -22,6 +22,7 @@ import com.foundationdb.qp.row.Row;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.util.BloomFilter;
 import com.foundationdb.qp.util.HashTable;
+import com.foundationdb.qp.util.RuntimeFilter;
 
 /** The bindings associated with the execution of a query.
  * This includes query parameters (? markers) as well as current values for iteration.
@@ -93,6 +94,21 @@ public interface QueryBindings
      */
     public void setHashTable(int index, HashTable hashTable);
 
+    /**
+     * Gets the join runtime filter bound to the given index.
+     * @param index the index to look up
+     * @return the runtime filter at that index
+     * @throws BindingNotSetException if the given index wasn't set
+     */
+    public RuntimeFilter getRuntimeFilter(int index);
+
+    /**
+     * Bind a join runtime filter to the given index.
+     * @param index the index to set
+     * @param filter the runtime filter to assign
+     */
+    public void setRuntimeFilter(int index, RuntimeFilter filter);
+
     /**
      * Clear all bindings.
      */
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+
+import java.util.Arrays;
+
+/**
+ * A block of rows passed from a {@link BatchCursor} to its consumer.
+ * Operators that work on a batch in place, like selecting or projecting,
+ * replace rows with {@link #set} and drop them with {@link #truncate}.
+ */
+public class RowBatch
+{
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Replace the contents of <code>batch</code> with the next rows of
+     * <code>cursor</code>, a batch at a time if it can, else one row at
+     * a time.
+     * @return <code>false</code> if there are no more rows.
+     */
+    public static boolean fill(RowCursor cursor, RowBatch batch) {
+        batch.clear();
+        if (cursor instanceof BatchCursor) {
+            ((BatchCursor)cursor).nextBatch(batch);
+        }
+        else {
+            while (!batch.isFull()) {
+                Row row = cursor.next();
+                if (row == null)
+                    break;
+                batch.add(row);
+            }
+        }
+        return !batch.isEmpty();
+    }
+
+    public RowBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RowBatch(int capacity) {
+        this.rows = new Row[capacity];
+    }
+
+    public int capacity() {
+        return rows.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return (size == 0);
+    }
+
+    public boolean isFull() {
+        return (size == rows.length);
+    }
+
+    public Row get(int index) {
+        assert (index < size) : index;
+        return rows[index];
+    }
+
+    public void set(int index, Row row) {
+        assert (index < size) : index;
+        rows[index] = row;
+    }
+
+    public void add(Row row) {
+        assert (size < rows.length) : "batch full";
+        rows[size++] = row;
+    }
+
+    /** Keep just the first <code>size</code> rows. */
+    public void truncate(int size) {
+        assert (size <= this.size) : size;
+        Arrays.fill(rows, size, this.size, null);
+        this.size = size;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RowBatch(%d)", size);
+    }
+
+    private final Row[] rows;
+    private int size;
+}
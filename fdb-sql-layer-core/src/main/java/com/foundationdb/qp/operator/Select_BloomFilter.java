@@ -27,6 +27,8 @@ import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.BloomFilter;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +66,10 @@ import java.util.*;
  * is used to locate the matching row. If a row is located then the input row (not the row from onPositive)
  * is returned, otherwise null is returned.
  * <p/>
+ * The <code>operator: Select_BloomFilter positive</code> tap counts rows that pass the filter and
+ * <code>operator: Select_BloomFilter false positive</code> those of them that onPositive then finds
+ * no match for, giving the observed false positive rate.
+ * <p/>
  * <h1>Output</h1>
  * <p/>
  * A subset of rows from the input stream.
@@ -166,6 +172,8 @@ class Select_BloomFilter extends Operator
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter next");
     private static final InOutTap TAP_CHECK = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter check");
+    private static final PointTap TAP_POSITIVE = Tap.createCount("operator: Select_BloomFilter positive");
+    private static final PointTap TAP_FALSE_POSITIVE = Tap.createCount("operator: Select_BloomFilter false positive");
     private static final Logger LOG = LoggerFactory.getLogger(Select_BloomFilter.class);
 
     // Object state
@@ -195,7 +203,7 @@ class Select_BloomFilter extends Operator
 
     private interface ExpressionAdapter<EXPR,EVAL> {
         EVAL evaluate(EXPR expression, QueryContext contex);
-        int hash(StoreAdapter adapter, EVAL evaluation, Row row, AkCollator collator);
+        long hash(StoreAdapter adapter, EVAL evaluation, Row row, AkCollator collator);
     }
 
     private static ExpressionAdapter<TPreparedExpression, TEvaluatableExpression> newExpressionsAdapter
@@ -208,10 +216,10 @@ class Select_BloomFilter extends Operator
         }
 
         @Override
-        public int hash(StoreAdapter adapter, TEvaluatableExpression evaluation, Row row, AkCollator collator) {
+        public long hash(StoreAdapter adapter, TEvaluatableExpression evaluation, Row row, AkCollator collator) {
             evaluation.with(row);
             evaluation.evaluate();
-            return ValueSources.hash(evaluation.resultValue(), collator);
+            return ValueSources.hash64(evaluation.resultValue(), collator);
         }
     };
 
@@ -247,8 +255,14 @@ class Select_BloomFilter extends Operator
                     row = input.next();
                     if (row == null) {
                         setIdle();
-                    } else if (!filter.maybePresent(hashProjectedRow(row)) || !rowReallyHasMatch(row)) {
+                    } else if (!filter.maybePresent(hashProjectedRow(row))) {
                         row = null;
+                    } else {
+                        TAP_POSITIVE.hit();
+                        if (!rowReallyHasMatch(row)) {
+                            TAP_FALSE_POSITIVE.hit();
+                            row = null;
+                        }
                     }
                 } while (isActive() && row == null);
                 if (LOG_EXECUTION) {
@@ -280,12 +294,12 @@ class Select_BloomFilter extends Operator
 
         // For use by this class
 
-        private int hashProjectedRow(Row row)
+        private long hashProjectedRow(Row row)
         {
-            int hash = 0;
+            long hash = 0;
             for (int f = 0; f < fieldEvals.size(); f++) {
                 E fieldEval = fieldEvals.get(f);
-                hash = hash ^ adapter.hash(adapter(), fieldEval, row, collator(f));
+                hash = BloomFilter.combineHash(hash, adapter.hash(adapter(), fieldEval, row, collator(f)));
             }
             return hash;
         }
@@ -354,6 +368,7 @@ class Select_BloomFilter extends Operator
                     return row;
                 }
                 if (filter.maybePresent(hashProjectedRow(row))) {
+                    TAP_POSITIVE.hit();
                     if (ExecutionBase.LOG_EXECUTION) {
                         LOG.debug("Select_BloomFilter: candidate {}", row);
                     }
@@ -362,12 +377,12 @@ class Select_BloomFilter extends Operator
             }
         }
 
-        private int hashProjectedRow(Row row)
+        private long hashProjectedRow(Row row)
         {
-            int hash = 0;
+            long hash = 0;
             for (int f = 0; f < fieldEvals.size(); f++) {
                 TEvaluatableExpression fieldEval = fieldEvals.get(f);
-                hash = hash ^ expressionAdapter.hash(storeAdapter, fieldEval, row, collator(f));
+                hash = BloomFilter.combineHash(hash, expressionAdapter.hash(storeAdapter, fieldEval, row, collator(f)));
             }
             return hash;
         }
@@ -419,6 +434,7 @@ class Select_BloomFilter extends Operator
                         row = bindings.getRow(bindingPosition);
                         break;
                     }
+                    TAP_FALSE_POSITIVE.hit();
                 }
                 if (LOG_EXECUTION) {
                     LOG.debug("Select_BloomFilter: yield {}", row);
@@ -23,6 +23,7 @@ import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.explain.*;
 import com.foundationdb.server.types.aksql.aktypes.AkBool;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TExpressionCompiler;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.tap.InOutTap;
@@ -157,7 +158,7 @@ class Select_HKeyOrdered extends Operator
 
     // Inner classes
 
-    private class Execution extends ChainedCursor
+    private class Execution extends ChainedCursor implements BatchCursor
     {
         // Cursor interface
 
@@ -188,27 +189,9 @@ class Select_HKeyOrdered extends Operator
                 Row row = null;
                 Row inputRow = input.next();
                 while (row == null && inputRow != null) {
-                    if (inputRow.rowType() == predicateRowType) {
-                        pEvaluation.with(inputRow);
-                        pEvaluation.evaluate();
-                        if (pEvaluation.resultValue().getBoolean(false)) {
-                            // New row of predicateRowType
-                            if (groupScanInput) {
-                                selectedRow = inputRow;
-                            }
-                            row = inputRow;
-                        }
-                    } else if (predicateRowType.ancestorOf(inputRow.rowType())) {
-                        // Row's type is a descendent of predicateRowType.
-                        if (selectedRow != null && selectedRow.ancestorOf(inputRow)) {
-                            row = inputRow;
-                        } else {
-                            selectedRow = null;
-                        }
-                    } else {
+                    if (selects(inputRow)) {
                         row = inputRow;
-                    }
-                    if (row == null) {
+                    } else {
                         inputRow = input.next();
                     }
                 }
@@ -223,6 +206,44 @@ class Select_HKeyOrdered extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                while (isActive()) {
+                    if (!RowBatch.fill(input, batch)) {
+                        setIdle();
+                        break;
+                    }
+                    int size = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Row inputRow = batch.get(i);
+                        if (selects(inputRow)) {
+                            batch.set(size++, inputRow);
+                        }
+                    }
+                    batch.truncate(size);
+                    if (size > 0) {
+                        break;
+                    }
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Select_HKeyOrdered: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
         @Override
         public void close()
         {
@@ -230,12 +251,40 @@ class Select_HKeyOrdered extends Operator
             selectedRow = null;
         }
 
+        // For use by this class
+
+        private boolean selects(Row inputRow)
+        {
+            if (inputRow.rowType() == predicateRowType) {
+                pEvaluation.with(inputRow);
+                pEvaluation.evaluate();
+                if (pEvaluation.resultValue().getBoolean(false)) {
+                    // New row of predicateRowType
+                    if (groupScanInput) {
+                        selectedRow = inputRow;
+                    }
+                    return true;
+                }
+                return false;
+            } else if (predicateRowType.ancestorOf(inputRow.rowType())) {
+                // Row's type is a descendent of predicateRowType.
+                if (selectedRow != null && selectedRow.ancestorOf(inputRow)) {
+                    return true;
+                } else {
+                    selectedRow = null;
+                    return false;
+                }
+            } else {
+                return true;
+            }
+        }
+
         // Execution interface
 
         Execution(QueryContext context, Cursor input)
         {
             super(context, input);
-            this.pEvaluation = pPredicate.build();
+            this.pEvaluation = TExpressionCompiler.compile(pPredicate);
         }
 
         // Object state
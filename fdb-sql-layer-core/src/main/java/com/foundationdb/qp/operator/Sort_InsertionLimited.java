@@ -20,14 +20,21 @@ package com.foundationdb.qp.operator;
 import com.foundationdb.qp.row.ImmutableRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.PersistitKeyValueTarget;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.error.StorageKeySizeExceededException;
 import com.foundationdb.server.explain.*;
 import com.foundationdb.server.explain.std.SortOperatorExplainer;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.UnderlyingType;
 import com.foundationdb.server.types.value.ValueSource;
-import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.util.ArgumentValidation;
-import com.foundationdb.util.WrappingByteSource;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import com.persistit.Key;
+import com.persistit.exception.KeyTooLongException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,16 +56,23 @@ import java.util.*;
  <li><b>API.SortOption sortOption:</b> Specifies whether duplicates should be kept (PRESERVE_DUPLICATES) or eliminated
  (SUPPRESS_DUPLICATES)
  <li><b>int limit:</b> Number of rows to keep.
+ <li><b>int presorted:</b> Number of leading ordering columns by which the input stream is already sorted, such as
+ when it comes from an index scan on a prefix of the ordering.
 
  <h1>Behavior</h1>
 
- All input rows are examined, and the top limit of them are kept. These rows are emitted in order after the input
- stream has been consumed.
+ The top limit input rows are kept in a bounded binary heap, whose root is the greatest of them. Each row's ordering
+ columns are encoded into a single normalized key, whose unsigned bytes compare the way the rows should be ordered.
+ A row that is not less than the root is discarded without being copied. Otherwise it replaces the root, reusing its
+ slot. These rows are emitted in order after the input stream has been consumed.
+
+ If the input is presorted, once the heap is full and a row arrives whose presorted columns are greater than those of
+ the root, no later row can displace anything, and the rest of the input is not read.
 
  <h1>Output</h1>
 
  The first limit rows, according to the ordering specification. The output rows may containg duplicates if and only
- if PRESERVE_DUPLICATE behavior was selected.
+ if PRESERVE_DUPLICATE behavior was selected. Rows that sort the same are output in the order they arrived.
 
  <h1>Assumptions</h1>
 
@@ -69,12 +83,14 @@ import java.util.*;
 
  <h1>Performance</h1>
 
- Sort_InsertionLimited does no IO. For each row, a sorted set of rows is maintained, requiring O(log(limit)) comparisons
- per row.
+ Sort_InsertionLimited does no IO. Each row is compared against the root of the heap; rows that are kept require
+ O(log(limit)) byte comparisons to reposition. When the input is presorted, reading stops as soon as the remaining
+ rows cannot qualify, which for something like <code>ORDER BY x, y LIMIT 50</code> over an index on <code>x</code>
+ is shortly after the 50th row.
 
  <h1>Memory Requirements</h1>
 
- Up to limit rows are kept in memory.
+ Up to limit rows are kept in memory, along with their keys.
 
  */
 
@@ -128,24 +144,29 @@ class Sort_InsertionLimited extends Operator
                                  RowType sortType,
                                  API.Ordering ordering,
                                  API.SortOption sortOption,
-                                 int limit)
+                                 int limit,
+                                 int presorted)
     {
         ArgumentValidation.notNull("sortType", sortType);
         ArgumentValidation.isGT("ordering.columns()", ordering.sortColumns(), 0);
         ArgumentValidation.isGTE("limit", limit, 0);
+        ArgumentValidation.isBetween("presorted", 0, presorted, ordering.sortColumns() + 1);
         this.inputOperator = inputOperator;
         this.sortType = sortType;
         this.ordering = ordering;
         this.preserveDuplicates = sortOption == API.SortOption.PRESERVE_DUPLICATES;
         this.sortOption = sortOption;
         this.limit = limit;
+        this.presorted = presorted;
     }
 
     // Class state
     
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Sort_InsertionLimited open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Sort_InsertionLimited next");
+    private static final PointTap TAP_STOPPED_EARLY = Tap.createCount("operator: Sort_InsertionLimited stopped early");
     private static final Logger LOG = LoggerFactory.getLogger(Sort_InsertionLimited.class);
+    private static final int INITIAL_SLOTS = 64;
 
     // Object state
     private final API.SortOption sortOption;
@@ -154,12 +175,15 @@ class Sort_InsertionLimited extends Operator
     private final API.Ordering ordering;
     private final boolean preserveDuplicates;
     private final int limit;
+    private final int presorted;
 
     @Override
     public CompoundExplainer getExplainer(ExplainContext context)
     {
         CompoundExplainer ex = new SortOperatorExplainer(getName(), sortOption, sortType, inputOperator, ordering, context);
         ex.addAttribute(Label.LIMIT, PrimitiveExplainer.getInstance(limit));
+        if (presorted > 0)
+            ex.addAttribute(Label.PRESORTED, PrimitiveExplainer.getInstance(presorted));
         return ex;
     }
 
@@ -182,7 +206,8 @@ class Sort_InsertionLimited extends Operator
                     eval.with(context);
                     eval.with(bindings);
                 }
-                sorted = new TreeSet<>();
+                heapSize = 0;
+                outputPosition = 0;
                 if(limit <= 0) {
                     setIdle();
                     sortingState = State.CLOSED;
@@ -205,55 +230,20 @@ class Sort_InsertionLimited extends Operator
                 checkQueryCancelation();
                 switch (sortingState) {
                 case FILLING:
-                    {
-                        // If duplicates are preserved, the label is different for each row. Otherwise, it stays at 0.
-                        int label = 0;
-                        Row row;
-                        while ((row = input.next()) != null) {
-                            assert row.rowType() == sortType : row;
-                            Holder holder;
-                            holder = new Holder(label, row, tEvaluations);
-                            if (preserveDuplicates) {
-                                label++;
-                            }
-                            if (sorted.size() < limit) {
-                                // Still room: add it in.
-                                holder.freeze();
-                                boolean added = sorted.add(holder);
-                                assert !preserveDuplicates || added;
-                            }
-                            else {
-                                // Current greatest element.
-                                Holder last = sorted.last();
-                                if (last.compareTo(holder) > 0) {
-                                    // New row is less, so keep it
-                                    // instead unless it's already in
-                                    // there (in suppress dups case).
-                                    boolean added = sorted.add(holder);
-                                    if (added) {
-                                        sorted.remove(last);
-                                        last.empty();
-                                        holder.freeze();
-                                    }
-                                    else {
-                                        assert !preserveDuplicates;
-                                    }
-                                }
-                                else {
-                                    // Will not be using new row.
-                                    holder.empty();
-                                }
-                            }
-                        }
-                        iterator = sorted.iterator();
-                        sortingState = State.EMPTYING;
+                    fill();
+                    // Heapsort in place, leaving the slots in ascending order.
+                    for (int n = heapSize - 1; n > 0; n--) {
+                        swap(0, n);
+                        siftDown(0, n);
                     }
+                    sortingState = State.EMPTYING;
                     /* falls through */
                 case EMPTYING:
                     Row output;
-                    if (iterator.hasNext()) {
-                        Holder holder = iterator.next();
-                        output = holder.empty();
+                    if (outputPosition < heapSize) {
+                        Slot slot = heap[outputPosition++];
+                        output = slot.row;
+                        slot.row = null;
                     }
                     else {
                         setIdle();
@@ -283,10 +273,13 @@ class Sort_InsertionLimited extends Operator
         {
             super.close();
             if (limit > 0) {
-                if (sorted != null) {
-                    sorted.clear();
-                    sorted = null;
-                    iterator = null;
+                // The slots and their key buffers are kept for the next open.
+                for (int i = 0; i < heapSize; i++) {
+                    heap[i].row = null;
+                }
+                heapSize = 0;
+                if (distinctKeys != null) {
+                    distinctKeys.clear();
                 }
                 sortingState = State.CLOSED;
             }
@@ -305,130 +298,253 @@ class Sort_InsertionLimited extends Operator
             super(context, input);
             int nsort = ordering.sortColumns();
             tEvaluations = new ArrayList<>(nsort);
+            types = new TInstance[nsort];
+            collators = new AkCollator[nsort];
             for (int i = 0; i < nsort; ++i) {
                 TEvaluatableExpression evaluation = ordering.expression(i).build();
                 tEvaluations.add(evaluation);
+                types[i] = ordering.type(i);
+                // An explicit collator for the ordering takes precedence over that of the type.
+                if ((ordering.collator(i) != null) &&
+                    (TInstance.underlyingType(types[i]) == UnderlyingType.STRING)) {
+                    collators[i] = ordering.collator(i);
+                }
+            }
+            sortKey = new Key(null, Key.MAX_KEY_LENGTH);
+            keyTarget = new PersistitKeyValueTarget(getClass().getSimpleName());
+            keyTarget.attach(sortKey);
+            if (!preserveDuplicates) {
+                distinctKeys = new HashSet<>();
             }
         }
 
-        // Object state
-
-        private final List<TEvaluatableExpression> tEvaluations;
-        private State sortingState = State.CLOSED;
-        private SortedSet<Holder> sorted;
-        private Iterator<Holder> iterator;
-    }
+        // For use by this class
 
-    // Sortable row holder.
-
-    // Since a SortedSet cannot have two elements that compare as 0,
-    // we never return that, instead ordering things that sort the
-    // same based on their arrival order. For the same reason, we do
-    // not need to overload equals().
-    private class Holder implements Comparable<Holder> {
-        private int index;
-        private Row row;
-        private Comparable[] values;
-
-        public Holder(int index, Row arow, List<TEvaluatableExpression> evaluations) {
-            this.index = index;
-            this.row = arow;
-
-            values = new Comparable[ordering.sortColumns()];
-            for (int i = 0; i < values.length; i++) {
-                TEvaluatableExpression evaluation = evaluations.get(i);
-                evaluation.with(arow);
-                evaluation.evaluate();
-                values[i] = toObject(evaluation.resultValue());
+        /** Read the input, keeping the least <code>limit</code> rows in the heap. */
+        private void fill()
+        {
+            // If duplicates are preserved, the sequence number makes each key unique and keeps them in arrival order.
+            int sequence = 0;
+            Row row;
+            while ((row = input.next()) != null) {
+                assert row.rowType() == sortType : row;
+                encode(row, candidate, sequence);
+                if (preserveDuplicates) {
+                    sequence++;
+                }
+                if (heapSize < limit) {
+                    if ((distinctKeys != null) && !distinctKeys.add(candidate)) {
+                        continue;
+                    }
+                    if (heapSize == heap.length) {
+                        heap = Arrays.copyOf(heap, Math.min(heapSize * 2, limit));
+                    }
+                    Slot next = heap[heapSize];
+                    heap[heapSize] = keep(row);
+                    candidate = (next != null) ? next : new Slot();
+                    siftUp(heapSize++);
+                }
+                else {
+                    Slot root = heap[0];
+                    if (candidate.compareTo(root) < 0) {
+                        if ((distinctKeys != null) && !distinctKeys.add(candidate)) {
+                            continue;
+                        }
+                        if (distinctKeys != null) {
+                            distinctKeys.remove(root);
+                        }
+                        // The old root's slot becomes the buffer for the next row.
+                        root.row = null;
+                        heap[0] = keep(row);
+                        candidate = root;
+                        siftDown(0, heapSize);
+                    }
+                    else if ((presorted > 0) && (candidate.comparePrefix(root) > 0)) {
+                        // Everything still to come sorts after the root.
+                        TAP_STOPPED_EARLY.hit();
+                        if (LOG_EXECUTION) {
+                            LOG.debug("Sort_InsertionLimited: stopped reading at {}", row);
+                        }
+                        break;
+                    }
+                }
             }
         }
 
-        public Row empty() {
-            Row result = row;
-            row = null;
-            return result;
-        }
-
-        // Make sure the Row we save doesn't depend on bindings that may change.
-        public void freeze() {
+        /** Fill the candidate slot with the given row, making sure it does not depend on bindings that may change. */
+        private Slot keep(Row row)
+        {
             if (row.isBindingsSensitive()) {
                 row = ImmutableRow.buildImmutableRow(row);
             }
+            candidate.row = row;
+            return candidate;
         }
 
-        @SuppressWarnings("unchecked")
-        public int compareTo(Holder other) {
-            for (int i = 0; i < values.length; i++) {
-                Comparable v1 = values[i];
-                Comparable v2 = other.values[i];
-                int less, greater;
-                if (ordering.ascending(i)) {
-                    less = -1;
-                    greater = +1;
-                }
-                else {
-                    less = +1;
-                    greater = -1;
-                }
-                if (v1 == null) {
-                    if (v2 == null) {
-                        continue;
+        /** Encode the ordering fields of the given row into the given slot, inverting descending ones. */
+        private void encode(Row row, Slot slot, int sequence)
+        {
+            int nsort = tEvaluations.size();
+            int prefixLength = 0;
+            while (true) {
+                try {
+                    sortKey.clear();
+                    for (int i = 0; i < nsort; i++) {
+                        int start = sortKey.getEncodedSize();
+                        TEvaluatableExpression evaluation = tEvaluations.get(i);
+                        evaluation.with(row);
+                        evaluation.evaluate();
+                        ValueSource value = evaluation.resultValue();
+                        if (value.isNull()) {
+                            keyTarget.putNull();
+                        }
+                        else if (collators[i] != null) {
+                            keyTarget.putString(value.getString(), collators[i]);
+                        }
+                        else {
+                            types[i].writeCollating(value, keyTarget);
+                        }
+                        if (!ordering.ascending(i)) {
+                            byte[] bytes = sortKey.getEncodedBytes();
+                            int end = sortKey.getEncodedSize();
+                            for (int j = start; j < end; j++) {
+                                bytes[j] = (byte)~bytes[j];
+                            }
+                        }
+                        if (i + 1 == presorted) {
+                            prefixLength = sortKey.getEncodedSize();
+                        }
                     }
-                    else {
-                        return less;
+                    break;
+                } catch (KeyTooLongException | StorageKeySizeExceededException e) {
+                    if (sortKey.getMaximumSize() == Key.MAX_KEY_LENGTH_UPPER_BOUND) {
+                        throw new KeyTooLongException("Maximum size exceeded=" + Key.MAX_KEY_LENGTH_UPPER_BOUND);
                     }
+                    sortKey.setMaximumSize(Math.min((sortKey.getMaximumSize() * 2), Key.MAX_KEY_LENGTH_UPPER_BOUND));
                 }
-                else if (v2 == null) {
-                    return greater;
+            }
+            int size = sortKey.getEncodedSize();
+            int length = size + (preserveDuplicates ? 4 : 0);
+            if (length > slot.key.length) {
+                slot.key = new byte[Math.max(length, slot.key.length * 2)];
+            }
+            System.arraycopy(sortKey.getEncodedBytes(), 0, slot.key, 0, size);
+            if (preserveDuplicates) {
+                slot.key[size] = (byte)(sequence >>> 24);
+                slot.key[size + 1] = (byte)(sequence >>> 16);
+                slot.key[size + 2] = (byte)(sequence >>> 8);
+                slot.key[size + 3] = (byte)sequence;
+            }
+            slot.length = length;
+            slot.prefixLength = prefixLength;
+        }
+
+        private void siftUp(int i)
+        {
+            Slot slot = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].compareTo(slot) >= 0) {
+                    break;
                 }
-                int comp;
-                if (ordering.collator(i) == null) {
-                    comp = v1.compareTo(v2);
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = slot;
+        }
+
+        private void siftDown(int i, int size)
+        {
+            Slot slot = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
                 }
-                else {
-                    comp = ordering.collator(i).compare(v1.toString(), v2.toString());
+                if ((child + 1 < size) && (heap[child + 1].compareTo(heap[child]) > 0)) {
+                    child++;
                 }
-                if (comp != 0) {
-                    if (comp < 0)
-                        return less;
-                    else
-                        return greater;
+                if (slot.compareTo(heap[child]) >= 0) {
+                    break;
                 }
+                heap[i] = heap[child];
+                i = child;
             }
-            return index - other.index;
+            heap[i] = slot;
+        }
+
+        private void swap(int i, int j)
+        {
+            Slot slot = heap[i];
+            heap[i] = heap[j];
+            heap[j] = slot;
         }
 
+        // Object state
+
+        private final List<TEvaluatableExpression> tEvaluations;
+        private final TInstance[] types;
+        private final AkCollator[] collators;
+        private final Key sortKey;
+        private final PersistitKeyValueTarget keyTarget;
+        // Keys of the rows in the heap, when suppressing duplicates.
+        private Set<Slot> distinctKeys;
+        private State sortingState = State.CLOSED;
+        // A max-heap of the rows kept so far; once sorted, the output.
+        private Slot[] heap = new Slot[Math.min(limit, INITIAL_SLOTS)];
+        private int heapSize;
+        private int outputPosition;
+        private Slot candidate = new Slot();
+    }
+
+    // A row and its normalized key. Slots are reused as rows displace one another, so that
+    // only kept rows are copied. Since keys are unique when duplicates are preserved and
+    // otherwise are what make rows duplicates, equality is just that of the keys.
+    private static final class Slot implements Comparable<Slot> {
+        private byte[] key = new byte[64];
+        private int length;
+        // Length of the presorted fields' part of the key.
+        private int prefixLength;
+        private Row row;
+
+        @Override
+        public int compareTo(Slot other) {
+            return compareBytes(key, length, other.key, other.length);
+        }
+
+        public int comparePrefix(Slot other) {
+            return compareBytes(key, prefixLength, other.key, other.prefixLength);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Slot) && (compareTo((Slot)obj) == 0);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = hash * 31 + key[i];
+            }
+            return hash;
+        }
+
+        @Override
         public String toString() {
-            return row.toString();
+            return String.valueOf(row);
         }
 
-        private Comparable toObject(ValueSource valueSource) {
-            if (valueSource.isNull())
-                return null;
-            switch (ValueSources.underlyingType(valueSource)) {
-            case BOOL:
-                return valueSource.getBoolean();
-            case INT_8:
-                return valueSource.getInt8();
-            case INT_16:
-                return valueSource.getInt16();
-            case UINT_16:
-                return valueSource.getUInt16();
-            case INT_32:
-                return valueSource.getInt32();
-            case INT_64:
-                return valueSource.getInt64();
-            case FLOAT:
-                return valueSource.getFloat();
-            case DOUBLE:
-                return valueSource.getDouble();
-            case BYTES:
-                return new WrappingByteSource(valueSource.getBytes());
-            case STRING:
-                return valueSource.getString();
-            default:
-                throw new AssertionError(valueSource.getType());
+        private static int compareBytes(byte[] bytes1, int length1, byte[] bytes2, int length2) {
+            int n = Math.min(length1, length2);
+            for (int i = 0; i < n; i++) {
+                int b1 = bytes1[i] & 0xFF;
+                int b2 = bytes2[i] & 0xFF;
+                if (b1 != b2) {
+                    return b1 - b2;
+                }
             }
+            return length1 - length2;
         }
     }
 }
@@ -24,6 +24,7 @@ import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.ValueTargets;
 import com.foundationdb.util.BloomFilter;
 import com.foundationdb.qp.util.HashTable;
+import com.foundationdb.qp.util.RuntimeFilter;
 import com.foundationdb.util.SparseArray;
 
 public class SparseArrayQueryBindings implements QueryBindings
@@ -168,6 +169,24 @@ public class SparseArrayQueryBindings implements QueryBindings
         bindings.set(index, hashTable);
     }
 
+    @Override
+    public RuntimeFilter getRuntimeFilter(int index) {
+        if (bindings.isDefined(index)) {
+            return (RuntimeFilter)bindings.get(index);
+        }
+        else if (parent != null) {
+            return parent.getRuntimeFilter(index);
+        }
+        else {
+            throw new BindingNotSetException(index);
+        }
+    }
+
+    @Override
+    public void setRuntimeFilter(int index, RuntimeFilter filter) {
+        bindings.set(index, filter);
+    }
+
     @Override
     public void clear() {
         bindings.clear();
@@ -18,14 +18,17 @@
 package com.foundationdb.qp.operator;
 
 import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.GroupIndex;
 import com.foundationdb.ais.model.Sequence;
 import com.foundationdb.ais.model.TableIndex;
 import com.foundationdb.ais.model.TableName;
 import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.storeadapter.Sorter;
 import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
+import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.IndexRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.IndexRowType;
@@ -37,13 +40,66 @@ import com.foundationdb.server.service.tree.KeyCreator;
 import com.foundationdb.server.store.Store;
 import com.foundationdb.util.tap.InOutTap;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class StoreAdapter
 {
     public abstract GroupCursor newGroupCursor(Group group);
 
+    /** A group cursor for an operator that knows something about the shape of its scans.
+     * @param expectedRows estimated number of rows each scan will return, or a negative number if not known
+     * @param lookaheadQuantum number of such cursors the operator keeps open at once
+     */
+    public GroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum) {
+        return newGroupCursor(group);
+    }
+
+    /** A group cursor whose rows will only have some of their columns read.
+     * @param neededColumns columns that might be read from the cursor's rows, or <code>null</code> if not known
+     * @see #newGroupCursor(Group, long, int)
+     */
+    public GroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum,
+                                      Set<Column> neededColumns) {
+        return newGroupCursor(group, expectedRows, lookaheadQuantum);
+    }
+
+    /** A group cursor whose rows will then be filtered on some columns.
+     * @param columnRanges bounds that all kept rows satisfy, or <code>null</code> if not known
+     * @see #newGroupCursor(Group, long, int, Set)
+     */
+    public GroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum,
+                                      Set<Column> neededColumns, List<ScanColumnRange> columnRanges) {
+        return newGroupCursor(group, expectedRows, lookaheadQuantum, neededColumns);
+    }
+
+    /** Read the rows of the group with exactly the given hkeys.
+     * A store that can should issue all the reads at once.
+     * @return the rows in the same order as <code>hKeys</code>, with <code>null</code> where there is no such row
+     */
+    public List<Row> lookupGroupRows(Group group, List<HKey> hKeys) {
+        List<Row> rows = new ArrayList<>(hKeys.size());
+        GroupCursor cursor = newGroupCursor(group);
+        for (HKey hKey : hKeys) {
+            cursor.rebind(hKey, false);
+            cursor.open();
+            try {
+                Row row = cursor.next();
+                // Not all ancestors are present (there are orphan rows).
+                if ((row != null) && !hKey.equals(row.hKey())) {
+                    row = null;
+                }
+                rows.add(row);
+            } finally {
+                cursor.close();
+            }
+        }
+        return rows;
+    }
+
     public static final int COMMIT_FREQUENCY_PERIODICALLY = -2;
 
     public GroupCursor newDumpGroupCursor(Group group, int commitFrequency) {
@@ -56,6 +112,20 @@ public abstract class StoreAdapter
                                              API.Ordering ordering,
                                              IndexScanSelector scanSelector,
                                              boolean openAllSubCursors);
+
+    /** An index cursor for an operator that knows something about the shape of its scans.
+     * @see #newGroupCursor(Group, long, int)
+     */
+    public RowCursor newIndexCursor(QueryContext context,
+                                    IndexRowType rowType,
+                                    IndexKeyRange keyRange,
+                                    API.Ordering ordering,
+                                    IndexScanSelector scanSelector,
+                                    boolean openAllSubCursors,
+                                    long expectedRows,
+                                    int lookaheadQuantum) {
+        return newIndexCursor(context, rowType, keyRange, ordering, scanSelector, openAllSubCursors);
+    }
     
     public abstract void updateRow(Row oldRow, Row newRow);
 
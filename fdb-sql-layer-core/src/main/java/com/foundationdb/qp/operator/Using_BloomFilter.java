@@ -19,6 +19,7 @@ package com.foundationdb.qp.operator;
 
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.RuntimeFilter;
 import com.foundationdb.server.collation.AkCollator;
 import com.foundationdb.server.explain.*;
 import com.foundationdb.server.types.value.ValueSource;
@@ -26,6 +27,8 @@ import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.util.BloomFilter;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,13 +46,21 @@ import java.util.Set;
  * <li><b>Operator filterInput:</b></li> Stream of rows used to load the filter
  * <li><b>long estimatedRowCount,:</b></li> Estimated count of rows from filterInput
  * <li><b>int filterBindingPosition,:</b></li> Position in the query context that will contain the bloom filter
+ * <li><b>int runtimeFilterBindingPosition,:</b></li> Position in the query context that will contain a
+ * {@link RuntimeFilter} for a scan in streamInput, or -1 if there is none
  * <li><b>Operator streamInput: </b></li> Stream of rows to be filtered
  * <p/>
  * <h1>Behavior</h1>
  * <p/>
  * When a Using_BloomFilter cursor is opened, all rows from the filterInput operator will be consumed and used to
- * load a bloom filter. The bloom filter will be set up to accomodate up to estimatedRowCount rows. If this number
- * is exceeded, the filter will be grown and the filterInput will be scanned a second time.
+ * load a bloom filter. The hashes of the rows are collected first, so that the bloom filter can be sized from
+ * the actual number of rows; estimatedRowCount only sizes the buffer for the hashes.
+ * <p/>
+ * The <code>operator: Using_BloomFilter key</code> tap counts the keys loaded. Select_BloomFilter's taps count
+ * the probes that then turn out to be false positives.
+ * <p/>
+ * The runtime filter, if requested, summarizes the same rows and includes the bloom filter, so that a scan
+ * in the streamInput can drop rows that Select_BloomFilter would, before any lookups.
  * <p/>
  * Besides loading the bloom filter, all operations on a Using_BloomFilter cursor are delegated to the streamInput's
  * cursor.
@@ -64,12 +75,12 @@ import java.util.Set;
  * <p/>
  * <h1>Performance</h1>
  * <p/>
- * The filterInput stream will be consumed completely each time this operator's cursor is opened. It may be consumed
- * twice if estimatedRowCount is too low.
+ * The filterInput stream will be consumed completely each time this operator's cursor is opened.
  * <p/>
  * <h1>Memory Requirements</h1>
  * <p/>
- * The bloom filter uses memory proportional to the number of rows scanned from filterInput, typically 2-4 bytes.
+ * The bloom filter uses memory proportional to the number of rows scanned from filterInput, typically 3-6 bytes.
+ * While loading, the hashes take another 8 bytes per row.
  */
 
 class Using_BloomFilter extends Operator
@@ -118,6 +129,17 @@ class Using_BloomFilter extends Operator
                              int filterBindingPosition,
                              Operator streamInput,
                              List<AkCollator> collators)
+    {
+        this(filterInput, filterRowType, estimatedRowCount, filterBindingPosition, -1, streamInput, collators);
+    }
+
+    public Using_BloomFilter(Operator filterInput,
+                             RowType filterRowType,
+                             long estimatedRowCount,
+                             int filterBindingPosition,
+                             int runtimeFilterBindingPosition,
+                             Operator streamInput,
+                             List<AkCollator> collators)
     {
         ArgumentValidation.notNull("filterInput", filterInput);
         ArgumentValidation.notNull("filterRowType", filterRowType);
@@ -130,6 +152,7 @@ class Using_BloomFilter extends Operator
         this.filterRowType = filterRowType;
         this.estimatedRowCount = estimatedRowCount;
         this.filterBindingPosition = filterBindingPosition;
+        this.runtimeFilterBindingPosition = runtimeFilterBindingPosition;
         this.streamInput = streamInput;
         this.collators = collators;
     }
@@ -145,8 +168,10 @@ class Using_BloomFilter extends Operator
 
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Using_BloomFilter open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Using_BloomFilter next");
+    private static final PointTap TAP_KEY = Tap.createCount("operator: Using_BloomFilter key");
     private static final Logger LOG = LoggerFactory.getLogger(Using_BloomFilter.class);
-    private static final double ERROR_RATE = 0.0001; // Bloom filter will use 19.17 bits per key
+    private static final double ERROR_RATE = 0.0001; // Bloom filter will use about 23 bits per key
+    private static final int MAX_INITIAL_CAPACITY = 1 << 20;
 
     // Object state
 
@@ -154,6 +179,7 @@ class Using_BloomFilter extends Operator
     private final RowType filterRowType;
     private final long estimatedRowCount;
     private final int filterBindingPosition;
+    private final int runtimeFilterBindingPosition;
     private final Operator streamInput;
     private final List<AkCollator> collators;
 
@@ -183,6 +209,9 @@ class Using_BloomFilter extends Operator
                 // to the filled BloomFilter in the bindings. 
                 BloomFilter filter = loadBloomFilter();
                 bindings.setBloomFilter(filterBindingPosition, filter);
+                if (runtimeFilterBindingPosition >= 0) {
+                    bindings.setRuntimeFilter(runtimeFilterBindingPosition, runtimeFilter);
+                }
                 super.open();
             } finally {
                 TAP_OPEN.out();
@@ -220,36 +249,52 @@ class Using_BloomFilter extends Operator
 
         private BloomFilter loadBloomFilter()
         {
-            BloomFilter filter = new BloomFilter(estimatedRowCount, ERROR_RATE);
-            long rows = loadBloomFilter(filter);
-            if (rows > estimatedRowCount) {
-                // Do it again, but size the filter based on the actual row count
-                filter = new BloomFilter(rows, ERROR_RATE);
-                loadBloomFilter(filter);
-            }
-            return filter;
-        }
-
-        private long loadBloomFilter(BloomFilter filter)
-        {
+            // Hold onto the hashes until all the rows have been read, so that the filter can be sized
+            // from the actual count, rather than the estimate.
             int fields = filterRowType.nFields();
+            runtimeFilter = (runtimeFilterBindingPosition >= 0) ? new RuntimeFilter(fields, null) : null;
+            long[] hashes = new long[(int)Math.min(Math.max(estimatedRowCount, 16), MAX_INITIAL_CAPACITY)];
             int rows = 0;
             QueryBindingsCursor bindingsCursor = new SingletonQueryBindingsCursor(bindings);
             Cursor loadCursor = filterInput.cursor(context, bindingsCursor);
             loadCursor.openTopLevel();
-            Row row;
-            while ((row = loadCursor.next()) != null) {
-                int h = 0;
-                for (int f = 0; f < fields; f++) {
-                    ValueSource valueSource = row.value(f);
-                    h = h ^ ValueSources.hash(valueSource, collator(f));
+            try {
+                Row row;
+                while ((row = loadCursor.next()) != null) {
+                    long h = 0;
+                    for (int f = 0; f < fields; f++) {
+                        ValueSource valueSource = row.value(f);
+                        h = BloomFilter.combineHash(h, ValueSources.hash64(valueSource, collator(f)));
+                    }
+                    if (rows == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, rows * 2);
+                    }
+                    hashes[rows++] = h;
+                    if (runtimeFilter != null) {
+                        runtimeFilter.add(row);
+                    }
                 }
-                filter.add(h);
-                rows++;
+            } finally {
+                loadCursor.closeTopLevel();
             }
-            loadCursor.closeTopLevel();
-            return rows;
+            BloomFilter filter = new BloomFilter(rows, ERROR_RATE);
+            for (int i = 0; i < rows; i++) {
+                filter.add(hashes[i]);
+                TAP_KEY.hit();
+            }
+            if (runtimeFilter != null) {
+                runtimeFilter.setBloomFilter(filter);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Using_BloomFilter: {} keys in {} bits, expected false positive rate {}",
+                          new Object[] { rows, filter.getBitCount(), filter.expectedErrorRate(rows) });
+            }
+            return filter;
         }
 
+        // Object state
+
+        private RuntimeFilter runtimeFilter;
+
     }
 }
@@ -26,6 +26,7 @@ import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.qp.util.HashTable;
+import com.foundationdb.qp.util.RuntimeFilter;
 import com.foundationdb.util.tap.InOutTap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,76 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
+/**
+
+ <h1>Overview</h1>
+
+ Using_HashTable loads the rows of one input into a hash table, which
+ is then available in the bindings to the other input, usually by way
+ of {@link HashTableLookup_Default}.
+
+ <h1>Arguments</h1>
+
+ <ul>
+
+ <li><b>Operator hashInput:</b> Input whose rows are loaded.
+
+ <li><b>RowType hashedRowType:</b> Type of rows loaded.
+
+ <li><b>List&lt;TPreparedExpression&gt; comparisonFields:</b> The hash key.
+
+ <li><b>int tableBindingPosition:</b> Binding position of the hash table.
+
+ <li><b>int runtimeFilterBindingPosition:</b> Binding position of a
+ {@link RuntimeFilter} of all the hash keys, for a scan in
+ <code>joinedInput</code> to drop rows that cannot join, or -1 for
+ none. Only sensible when unmatched rows of <code>joinedInput</code>
+ are not wanted.
+
+ <li><b>Operator joinedInput:</b> Input that looks up in the hash table.
+
+ <li><b>boolean spillable:</b> Whether <code>joinedInput</code> can be
+ run more than once over parts of the hash table.
+
+ </ul>
+
+ <h1>Behavior</h1>
+
+ When the loaded rows fit in <code>fdbsql.hash_join.memory</code>, or
+ the operator is not spillable, all of them are put in one hash table
+ and <code>joinedInput</code> is run once against it.
+
+ Otherwise, the hash keys are divided into buckets, which are packed
+ into passes that each fit the budget. For each pass,
+ <code>hashInput</code> is scanned again keeping only the rows in that
+ pass's buckets, and <code>joinedInput</code> is run again. A lookup
+ that misses finds nothing, so this is only correct when
+ <code>joinedInput</code> is an inner or semi join with the hash table.
+
+ <h1>Output</h1>
+
+ The output of <code>joinedInput</code>, in one piece for each pass.
+ So the order of that input is only preserved when there is one.
+
+ <h1>Assumptions</h1>
+
+ Rows with equal keys always hash alike, and so fall in the same pass.
+ All the rows with a single key are loaded together, even if they are
+ over the budget by themselves.
+
+ Both inputs return the same rows each time they are run. So a
+ spillable join must not be part of a statement that changes those
+ rows, and the planner never makes one spillable under DML.
+
+ <h1>Performance</h1>
+
+ Each additional pass reads both inputs again.
+
+ <h1>Memory Requirements</h1>
+
+ The rows of one pass.
+
+ */
 
 class Using_HashTable extends Operator
 {
@@ -79,7 +150,22 @@ class Using_HashTable extends Operator
                            int tableBindingPosition,
                            Operator joinedInput,
                            List<TComparison> tComparisons,
-                           List<AkCollator> collators)
+                           List<AkCollator> collators,
+                           boolean spillable)
+    {
+        this(hashInput, hashedRowType, comparisonFields, tableBindingPosition, -1,
+             joinedInput, tComparisons, collators, spillable);
+    }
+
+    public Using_HashTable(Operator hashInput,
+                           RowType hashedRowType,
+                           List<TPreparedExpression> comparisonFields,
+                           int tableBindingPosition,
+                           int runtimeFilterBindingPosition,
+                           Operator joinedInput,
+                           List<TComparison> tComparisons,
+                           List<AkCollator> collators,
+                           boolean spillable)
     {
         ArgumentValidation.notNull("hashInput", hashInput);
         ArgumentValidation.notNull("hashedRowType", hashedRowType);
@@ -91,11 +177,12 @@ class Using_HashTable extends Operator
         this.hashInput = hashInput;
         this.hashedRowType = hashedRowType;
         this.tableBindingPosition = tableBindingPosition;
+        this.runtimeFilterBindingPosition = runtimeFilterBindingPosition;
         this.joinedInput = joinedInput;
         this.tComparisons = tComparisons;
         this.collators = collators;
         this.comparisonFields = comparisonFields;
-
+        this.spillable = spillable;
     }
 
 
@@ -103,17 +190,25 @@ class Using_HashTable extends Operator
 
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Using_HashTable open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Using_HashTable next");
+    private static final InOutTap TAP_PASS = OPERATOR_TAP.createSubsidiaryTap("operator: Using_HashTable pass");
     private static final Logger LOG = LoggerFactory.getLogger(Using_HashTable.class);
 
+    static final String MEMORY_PROPERTY = "fdbsql.hash_join.memory";
+    /** Loaded rows are divided this finely among passes. */
+    private static final int BUCKET_BITS = 10;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+
     // Object state
 
     private final Operator hashInput;
     private final RowType hashedRowType;
     private final int tableBindingPosition;
+    private final int runtimeFilterBindingPosition;
     private final Operator joinedInput;
     private final List<AkCollator> collators;
     private final List<TComparison> tComparisons;
     private final List<TPreparedExpression> comparisonFields;
+    private final boolean spillable;
 
 
     @Override
@@ -131,7 +226,7 @@ class Using_HashTable extends Operator
 
     // Inner classes
 
-    private class Execution extends ChainedCursor
+    private class Execution extends ChainedCursor implements BatchCursor
     {
         // Cursor interface
         private final List<TEvaluatableExpression> evaluatableComparisonFields = new ArrayList<>();
@@ -146,6 +241,9 @@ class Using_HashTable extends Operator
                 // to the filled HashTable in the bindings. 
                 HashTable hashTable = buildHashTable();
                 bindings.setHashTable(tableBindingPosition, hashTable);
+                if (runtimeFilterBindingPosition >= 0) {
+                    bindings.setRuntimeFilter(runtimeFilterBindingPosition, runtimeFilter);
+                }
                 super.open();
             } finally {
                 TAP_OPEN.out();
@@ -160,6 +258,9 @@ class Using_HashTable extends Operator
             }
             try {
                 Row output = input.next();
+                while ((output == null) && nextPass()) {
+                    output = input.next();
+                }
                 if (LOG_EXECUTION) {
                     LOG.debug("Using_HashTable: yield {}", output);
                 }
@@ -171,14 +272,40 @@ class Using_HashTable extends Operator
             }
         }
 
+        @Override
+        public void nextBatch(RowBatch batch)
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                boolean more = RowBatch.fill(input, batch);
+                while (!more && nextPass()) {
+                    more = RowBatch.fill(input, batch);
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Using_HashTable: yield {}", batch);
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
         @Override
         public void close()
         {
             try {
                 if (bindings != null) {
                     bindings.setHashTable(tableBindingPosition, null);
+                    if (runtimeFilterBindingPosition >= 0) {
+                        bindings.setRuntimeFilter(runtimeFilterBindingPosition, null);
+                    }
                 }
             } finally {
+                bucketPasses = null;
+                runtimeFilter = null;
                 super.close();
             }
         }
@@ -191,25 +318,151 @@ class Using_HashTable extends Operator
             for(TPreparedExpression comparisonField : comparisonFields){
                 evaluatableComparisonFields.add(comparisonField.build());
             }
+            key = new HashTable.Key(evaluatableComparisonFields);
+            if (spillable) {
+                String memory = context.getServiceManager().getConfigurationService().getProperty(MEMORY_PROPERTY);
+                this.memoryLimit = Long.parseLong(memory);
+            }
+            else {
+                this.memoryLimit = Long.MAX_VALUE;
+            }
         }
 
         // For use by this class
 
-        private HashTable  buildHashTable() {
+        private HashTable buildHashTable() {
+            HashTable hashTable = newHashTable();
+            long[] bucketSizes = spillable ? new long[BUCKETS] : null;
+            long memoryUsed = 0;
+            boolean overflowed = false;
+            // Every row comes through here, even when they do not all fit.
+            runtimeFilter = (runtimeFilterBindingPosition < 0) ? null :
+                new RuntimeFilter(comparisonFields.size(), null);
+            Cursor loadCursor = openLoadCursor();
+            try {
+                while (RowBatch.fill(loadCursor, loadBatch)) {
+                    for (int i = 0; i < loadBatch.size(); i++) {
+                        Row row = loadBatch.get(i);
+                        assert(row.rowType() == hashedRowType) : row;
+                        key.evaluate(row, bindings);
+                        if (runtimeFilter != null) {
+                            runtimeFilter.add(key);
+                        }
+                        if (bucketSizes != null) {
+                            if (key.isNull())
+                                continue;
+                            int size = HashedRowKey.rowSize(row);
+                            bucketSizes[bucket(hashTable.hash(key))] += size;
+                            memoryUsed += size;
+                            if (memoryUsed > memoryLimit) {
+                                if (!overflowed) {
+                                    // Only sizing the buckets from here on.
+                                    overflowed = true;
+                                    hashTable = newHashTable();
+                                }
+                                continue;
+                            }
+                        }
+                        hashTable.put(key, row);
+                    }
+                }
+            } finally {
+                loadBatch.clear();
+                loadCursor.closeTopLevel();
+            }
+            if (overflowed) {
+                planPasses(bucketSizes);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Using_HashTable: {} bytes over {} budget, joining in {} passes",
+                              new Object[] { memoryUsed, memoryLimit, nPasses });
+                }
+                hashTable = loadPass();
+            }
+            return hashTable;
+        }
+
+        /** Assign buckets to passes in order, starting a new pass
+         * whenever the next bucket would put the current one over. */
+        private void planPasses(long[] bucketSizes) {
+            bucketPasses = new int[BUCKETS];
+            nPasses = 1;
+            long passSize = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long size = bucketSizes[i];
+                if ((passSize > 0) && (passSize + size > memoryLimit)) {
+                    nPasses++;
+                    passSize = 0;
+                }
+                bucketPasses[i] = nPasses - 1;
+                passSize += size;
+            }
+            pass = 0;
+        }
+
+        /** Scan the hash input again for just the rows of the current pass. */
+        private HashTable loadPass() {
+            TAP_PASS.in();
+            try {
+                HashTable hashTable = newHashTable();
+                Cursor loadCursor = openLoadCursor();
+                try {
+                    while (RowBatch.fill(loadCursor, loadBatch)) {
+                        for (int i = 0; i < loadBatch.size(); i++) {
+                            Row row = loadBatch.get(i);
+                            key.evaluate(row, bindings);
+                            if (!key.isNull() && (bucketPasses[bucket(hashTable.hash(key))] == pass)) {
+                                hashTable.put(key, row);
+                            }
+                        }
+                    }
+                } finally {
+                    loadBatch.clear();
+                    loadCursor.closeTopLevel();
+                }
+                return hashTable;
+            } finally {
+                TAP_PASS.out();
+            }
+        }
+
+        /** Run the joined input again for the next pass, if any. */
+        private boolean nextPass() {
+            if ((bucketPasses == null) || (pass + 1 >= nPasses))
+                return false;
+            pass++;
+            input.close();
+            bindings.setHashTable(tableBindingPosition, loadPass());
+            input.open();
+            return true;
+        }
+
+        private Cursor openLoadCursor() {
             QueryBindingsCursor bindingsCursor = new SingletonQueryBindingsCursor(bindings);
             Cursor loadCursor = hashInput.cursor(context, bindingsCursor);
             loadCursor.openTopLevel();
-            Row row;
-            HashTable hashTable= new HashTable();
+            return loadCursor;
+        }
+
+        private HashTable newHashTable() {
+            HashTable hashTable = new HashTable();
             hashTable.setRowType(hashedRowType);
             hashTable.setTComparisons(tComparisons);
             hashTable.setCollators(collators);
-            while ((row = loadCursor.next()) != null) {
-                assert(row.rowType() == hashedRowType) : row;
-                hashTable.put(row, evaluatableComparisonFields, bindings);
-            }
-            loadCursor.closeTopLevel();
             return hashTable;
         }
+
+        private int bucket(int hash) {
+            // The high bits, since the table itself uses the low ones.
+            return hash >>> (Integer.SIZE - BUCKET_BITS);
+        }
+
+        // Object state
+
+        private final HashTable.Key key;
+        private final RowBatch loadBatch = new RowBatch();
+        private final long memoryLimit;
+        private int[] bucketPasses;
+        private int nPasses, pass;
+        private RuntimeFilter runtimeFilter;
      }
 }
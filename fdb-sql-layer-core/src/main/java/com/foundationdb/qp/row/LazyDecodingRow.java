@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.row;
+
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+
+/**
+ * A row over some encoded form, such as a stored value, that only
+ * decodes a field the first time it is asked for.
+ */
+public abstract class LazyDecodingRow extends AbstractRow
+{
+    /** Decodes the hKey of a stored row from its (immutable) stored key. */
+    public interface HKeySource {
+        HKey decodeHKey(RowType rowType);
+    }
+
+    private final RowType rowType;
+    private final Value[] values;
+    private HKeySource hKeySource;
+    private HKey hKey;
+
+    protected LazyDecodingRow(RowType rowType) {
+        this.rowType = rowType;
+        this.values = new Value[rowType.nFields()];
+    }
+
+    /** Decode the <code>i</code>'th field. */
+    protected abstract Value decodeValue(int i);
+
+    /** Whether the <code>i</code>'th field has been decoded yet. */
+    public boolean isDecoded(int i) {
+        return (values[i] != null);
+    }
+
+    @Override
+    public RowType rowType() {
+        return rowType;
+    }
+
+    /** Say where the hKey comes from, if it can be asked for. */
+    public void setHKeySource(HKeySource hKeySource) {
+        this.hKeySource = hKeySource;
+        this.hKey = null;
+    }
+
+    @Override
+    public HKey hKey() {
+        if (hKey == null) {
+            if (hKeySource == null) {
+                throw new UnsupportedOperationException("No hKey for " + rowType);
+            }
+            hKey = hKeySource.decodeHKey(rowType);
+        }
+        return hKey;
+    }
+
+    @Override
+    protected ValueSource uncheckedValue(int i) {
+        Value value = values[i];
+        if (value == null) {
+            value = decodeValue(i);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isBindingsSensitive() {
+        return false;
+    }
+}
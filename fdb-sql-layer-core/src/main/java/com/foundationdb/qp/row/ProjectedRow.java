@@ -24,10 +24,10 @@ import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.types.TInstance;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TExpressionCompiler;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.AkibanAppender;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class ProjectedRow extends AbstractRow
@@ -110,13 +110,7 @@ public class ProjectedRow extends AbstractRow
     {
         if (pExpressions == null)
             return null;
-        int n = pExpressions.size();
-        List<TEvaluatableExpression> result = new ArrayList<>(n);
-        for (int i = 0; i < n; i++) {
-            TEvaluatableExpression eval = pExpressions.get(i).build();
-            result.add(eval);
-        }
-        return result;
+        return TExpressionCompiler.compile(pExpressions);
     }
 
 
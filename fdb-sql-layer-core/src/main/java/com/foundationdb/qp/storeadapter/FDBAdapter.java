@@ -18,11 +18,13 @@
 package com.foundationdb.qp.storeadapter;
 
 import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.GroupIndex;
 import com.foundationdb.ais.model.Sequence;
 import com.foundationdb.ais.model.TableIndex;
 import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.operator.API;
 import com.foundationdb.qp.operator.IndexScanSelector;
 import com.foundationdb.qp.operator.QueryBindings;
@@ -30,13 +32,16 @@ import com.foundationdb.qp.operator.QueryContext;
 import com.foundationdb.qp.operator.RowCursor;
 import com.foundationdb.qp.operator.StoreAdapter;
 import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
-import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter;
+import com.foundationdb.qp.storeadapter.indexcursor.NormalizedKeySorter;
 import com.foundationdb.qp.storeadapter.indexrow.IndexRowPool;
 import com.foundationdb.qp.storeadapter.indexrow.FDBIndexRow;
+import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.IndexRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.IndexRowType;
 import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.util.SchemaCache;
 import com.foundationdb.server.error.AkibanInternalException;
 import com.foundationdb.server.error.DuplicateKeyException;
 import com.foundationdb.server.error.FDBAdapterException;
@@ -51,12 +56,16 @@ import com.foundationdb.server.service.session.Session;
 import com.foundationdb.server.service.tree.KeyCreator;
 import com.foundationdb.server.store.FDBScanTransactionOptions;
 import com.foundationdb.server.store.FDBStore;
+import com.foundationdb.server.store.FDBStoreData;
 import com.foundationdb.server.store.FDBTransactionService;
 import com.foundationdb.util.tap.InOutTap;
 import com.foundationdb.FDBException;
 
 import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 public class FDBAdapter extends StoreAdapter {
     private static final IndexRowPool indexRowPool = new IndexRowPool();
@@ -75,6 +84,53 @@ public class FDBAdapter extends StoreAdapter {
         return new FDBGroupCursor(this, group, scanOptions());
     }
 
+    @Override
+    public FDBGroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum) {
+        return new FDBGroupCursor(this, group, scanOptions(expectedRows, lookaheadQuantum));
+    }
+
+    @Override
+    public FDBGroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum,
+                                         Set<Column> neededColumns) {
+        FDBGroupCursor cursor = newGroupCursor(group, expectedRows, lookaheadQuantum);
+        if (neededColumns != null) {
+            cursor.setNeededColumns(neededColumns);
+        }
+        return cursor;
+    }
+
+    @Override
+    public FDBGroupCursor newGroupCursor(Group group, long expectedRows, int lookaheadQuantum,
+                                         Set<Column> neededColumns, List<ScanColumnRange> columnRanges) {
+        FDBGroupCursor cursor = newGroupCursor(group, expectedRows, lookaheadQuantum, neededColumns);
+        if (columnRanges != null) {
+            cursor.setColumnRanges(columnRanges);
+        }
+        return cursor;
+    }
+
+    @Override
+    public List<Row> lookupGroupRows(Group group, List<HKey> hKeys) {
+        Schema schema = SchemaCache.globalSchema(group.getAIS());
+        // All the reads are in flight before waiting for any of them.
+        List<FDBStoreData> storeDatas = store.groupKeysIterators(getSession(), group, hKeys, scanOptions());
+        List<Row> rows = new ArrayList<>(hKeys.size());
+        for (int i = 0; i < hKeys.size(); i++) {
+            FDBStoreData storeData = storeDatas.get(i);
+            Row row = null;
+            if (storeData.next()) {
+                Row tempRow = store.expandGroupData(getSession(), storeData, schema);
+                row = new FDBGroupRow(getKeyCreator(), tempRow, storeData.persistitKey);
+                if (!hKeys.get(i).equals(row.hKey())) {
+                    row = null;
+                }
+            }
+            storeData.closeIterator();
+            rows.add(row);
+        }
+        return rows;
+    }
+
     /** The transaction scan options for normal operator scans. */
     public FDBScanTransactionOptions scanOptions() {
         if (txnService.isTransactionActive(getSession()))
@@ -84,6 +140,18 @@ public class FDBAdapter extends StoreAdapter {
         return FDBScanTransactionOptions.NORMAL;
     }
 
+    /** The transaction scan options for operator scans of a known shape.
+     * Large enough scans are split up and read in parallel, still in key order.
+     */
+    public FDBScanTransactionOptions scanOptions(long expectedRows, int lookaheadQuantum) {
+        FDBScanTransactionOptions options = scanOptions().withScanHints(expectedRows, lookaheadQuantum);
+        int parallelRanges = txnService.parallelScanRanges(expectedRows, lookaheadQuantum);
+        if (parallelRanges > 1) {
+            options = options.withParallelScan(parallelRanges);
+        }
+        return options;
+    }
+
     @Override
     public FDBGroupCursor newDumpGroupCursor(Group group, int commitFrequency) {
         FDBScanTransactionOptions transactionOptions;
@@ -113,6 +181,24 @@ public class FDBAdapter extends StoreAdapter {
                 scanSelector,
                 openAllSubCursors);
     }
+
+    @Override
+    public RowCursor newIndexCursor(QueryContext context,
+                                    IndexRowType rowType,
+                                    IndexKeyRange keyRange,
+                                    API.Ordering ordering,
+                                    IndexScanSelector scanSelector,
+                                    boolean openAllSubCursors,
+                                    long expectedRows,
+                                    int lookaheadQuantum) {
+        return new StoreAdapterIndexCursor(context,
+                rowType,
+                keyRange,
+                ordering,
+                scanSelector,
+                openAllSubCursors,
+                new FDBIterationHelper(this, rowType, expectedRows, lookaheadQuantum));
+    }
     
     @Override
     public void updateRow(Row oldRow, Row newRow) {
@@ -152,7 +238,7 @@ public class FDBAdapter extends StoreAdapter {
                                API.Ordering ordering,
                                API.SortOption sortOption,
                                InOutTap loadTap) {
-        return new MergeJoinSorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
+        return new NormalizedKeySorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
     }
 
     @Override
@@ -16,7 +16,9 @@
  */
 package com.foundationdb.qp.storeadapter;
 
+import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.operator.CursorLifecycle;
 import com.foundationdb.qp.operator.GroupCursor;
 import com.foundationdb.qp.operator.RowCursorImpl;
@@ -26,11 +28,16 @@ import com.foundationdb.qp.rowtype.Schema;
 import com.foundationdb.qp.util.SchemaCache;
 import com.foundationdb.server.store.FDBScanTransactionOptions;
 import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.store.FDBStoreDataHelper;
 import com.foundationdb.util.tap.PointTap;
 import com.foundationdb.util.tap.Tap;
 
+import java.util.List;
+import java.util.Set;
+
 public class FDBGroupCursor extends RowCursorImpl implements GroupCursor {
     private final FDBAdapter adapter;
+    private final Group group;
     private final FDBStoreData storeData;
     private final Schema schema;
     private final FDBScanTransactionOptions transactionOptions;
@@ -42,12 +49,27 @@ public class FDBGroupCursor extends RowCursorImpl implements GroupCursor {
 
     public FDBGroupCursor(FDBAdapter adapter, Group group, FDBScanTransactionOptions transactionOptions) {
         this.adapter = adapter;
+        this.group = group;
         this.storeData = adapter.getUnderlyingStore()
             .createStoreData(adapter.getSession(), group);
         this.schema = SchemaCache.globalSchema(group.getAIS());
         this.transactionOptions = transactionOptions;
     }
 
+    /** Only the given columns will be read from this cursor's rows, so
+     * the rest need never be decoded.
+     */
+    public void setNeededColumns(Set<Column> neededColumns) {
+        storeData.neededFields = FDBStoreDataHelper.neededFields(group, neededColumns);
+    }
+
+    /** Only rows within the given ranges will be kept, so the store
+     * may skip others that it can cheaply tell are outside.
+     */
+    public void setColumnRanges(List<ScanColumnRange> columnRanges) {
+        storeData.columnRanges = columnRanges;
+    }
+
     @Override
     public void rebind(HKey hKey, boolean deep) {
         CursorLifecycle.checkClosed(this);
@@ -20,6 +20,7 @@ import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
 import com.foundationdb.qp.row.IndexRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.IndexRowType;
+import com.foundationdb.server.store.FDBScanTransactionOptions;
 import com.foundationdb.server.store.FDBStoreData;
 import com.foundationdb.server.store.FDBStoreDataHelper;
 import com.persistit.Key;
@@ -39,15 +40,24 @@ public class FDBIterationHelper implements IterationHelper
     private final FDBAdapter adapter;
     private final IndexRowType rowType;
     private final FDBStoreData storeData;
+    private final long expectedRows;
+    private final int lookaheadQuantum;
     // Initialized upon traversal
     private long lastKeyGen;
     private Direction itDir;
 
     public FDBIterationHelper(FDBAdapter adapter, IndexRowType rowType) {
+        this(adapter, rowType, FDBScanTransactionOptions.UNKNOWN_ROW_COUNT, 1);
+    }
+
+    public FDBIterationHelper(FDBAdapter adapter, IndexRowType rowType,
+                              long expectedRows, int lookaheadQuantum) {
         this.adapter = adapter;
         this.rowType = rowType.physicalRowType();
         this.storeData = adapter.getUnderlyingStore().createStoreData(adapter.getSession(), rowType.index());
         this.storeData.persistitValue = new Value((Persistit)null);
+        this.expectedRows = expectedRows;
+        this.lookaheadQuantum = lookaheadQuantum;
     }
 
 
@@ -152,7 +162,7 @@ public class FDBIterationHelper implements IterationHelper
 
             adapter.getUnderlyingStore().indexIterator(adapter.getSession(), storeData,
                                                        true, exact, exactEnd, reverse,
-                                                       adapter.scanOptions());
+                                                       adapter.scanOptions(expectedRows, lookaheadQuantum));
             storeData.nudgeDir = null;
             storeData.persistitKey.setEncodedSize(saveSize);
             lastKeyGen = storeData.persistitKey.getGeneration();
@@ -36,7 +36,7 @@ import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.IndexRowType;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
-import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter;
+import com.foundationdb.qp.storeadapter.indexcursor.NormalizedKeySorter;
 import com.foundationdb.qp.storeadapter.indexrow.IndexRowPool;
 import com.foundationdb.qp.storeadapter.indexrow.MemoryIndexRow;
 import com.foundationdb.server.error.DuplicateKeyException;
@@ -118,7 +118,7 @@ public class MemoryAdapter extends StoreAdapter
                                Ordering ordering,
                                SortOption sortOption,
                                InOutTap loadTap) {
-        return new MergeJoinSorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
+        return new NormalizedKeySorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
     }
 
     @Override
@@ -95,11 +95,23 @@ class StoreAdapterIndexCursor extends RowCursorImpl implements BindingsAwareCurs
                             API.Ordering ordering,
                             IndexScanSelector selector,
                             boolean openAllSubCursors)
+    {
+        this(context, indexRowType, keyRange, ordering, selector, openAllSubCursors,
+             context.getStore().createIterationHelper(indexRowType));
+    }
+
+    StoreAdapterIndexCursor(QueryContext context,
+                            IndexRowType indexRowType,
+                            IndexKeyRange keyRange,
+                            API.Ordering ordering,
+                            IndexScanSelector selector,
+                            boolean openAllSubCursors,
+                            IterationHelper rowState)
     {
         this.indexRowType = indexRowType;
         this.isTableIndex = indexRowType.index().isTableIndex();
         this.selector = selector;
-        this.rowState = context.getStore().createIterationHelper(indexRowType);
+        this.rowState = rowState;
         this.indexCursor = IndexCursor.create(context, keyRange, ordering, rowState,  openAllSubCursors);
     }
 
@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.storeadapter.indexcursor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.CursorLifecycle;
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.operator.RowCursorImpl;
+import com.foundationdb.qp.row.ImmutableRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.storeadapter.Sorter;
+import com.foundationdb.server.error.StorageKeySizeExceededException;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import com.persistit.Key;
+import com.persistit.exception.KeyTooLongException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h1>Overview</h1>
+ *
+ * Sort rows in memory by a single normalized key per row, spilling sorted runs to disk if they do not fit.
+ *
+ * <h1>Behavior</h1>
+ *
+ * Each row's sort fields are encoded into one Persistit key, whose bytes compare the way the values do.
+ * The bytes of descending fields are inverted, and, when duplicates are preserved, the row's position in the
+ * input is appended, so that an unsigned byte comparison of the whole key gives the sort order. The keys
+ * of all the rows are kept end to end in one buffer and the rows themselves in an array.
+ *
+ * An array of row numbers is then sorted by key with a multikey (three-way radix) quicksort, which
+ * looks at each byte of common prefixes only once. Large inputs are divided into runs that are sorted on
+ * several threads and then merged.
+ *
+ * Whenever the keys and rows grow beyond <code>fdbsql.sort.memory</code>, those loaded so far are sorted
+ * and written to disk as a run by {@link SortSpill}, which merges all the runs at the end.
+ *
+ * <h1>Performance</h1>
+ *
+ * No IO for inputs that fit in memory. Otherwise, each row is written once and read once, plus once more for
+ * each additional merge pass needed when there are more runs than {@link SortSpill} can merge at once within
+ * <code>fdbsql.sort.memory</code>. Sorting threads come from a pool shared by all sorters, sized by
+ * <code>fdbsql.sort.threads</code>.
+ *
+ * <h1>Memory Requirements</h1>
+ *
+ * The rows, their keys, and two <code>int</code>s per row, up to <code>fdbsql.sort.memory</code>. Once spilled,
+ * these are let go before merging, which keeps its block buffers within the same amount.
+ */
+public class NormalizedKeySorter implements Sorter {
+    private static final Logger LOG = LoggerFactory.getLogger(NormalizedKeySorter.class);
+    private static final PointTap SPILL_TAP = Tap.createCount("sort: spill");
+
+    static final String THREADS_PROPERTY = "fdbsql.sort.threads";
+    /** Fewer rows than this are always sorted in the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+    /** Smallest run sorted by one thread. */
+    private static final int MIN_RUN_SIZE = 1 << 13;
+    private static final int INSERTION_SORT_SIZE = 16;
+    /** Approximate bytes for each row apart from its key and values. */
+    private static final int ROW_OVERHEAD = 64;
+
+    private static ForkJoinPool pool;
+    private static int poolParallelism;
+
+    private final QueryContext context;
+    private final RowCursor input;
+    private final RowType rowType;
+    private final API.SortOption sortOption;
+    private final InOutTap loadTap;
+    private final SorterAdapter<?, ?, ?> sorterAdapter;
+    private final Key sortKey;
+    private final boolean[] descending;
+    private final long maxMemory;
+
+    private Row[] rows = new Row[1024];
+    private int[] offsets = new int[1025];
+    private byte[] keys = new byte[1 << 16];
+    private int rowCount;
+    private long memoryUsed;
+    private int rowNumber;
+    private SortSpill spill;
+
+    public NormalizedKeySorter(QueryContext context,
+                               QueryBindings bindings,
+                               RowCursor input,
+                               RowType rowType,
+                               API.Ordering ordering,
+                               API.SortOption sortOption,
+                               InOutTap loadTap)
+    {
+        this.context = context;
+        this.input = input;
+        this.rowType = rowType;
+        this.sortOption = sortOption;
+        this.loadTap = loadTap;
+        this.sortKey = context.getStore().getKeyCreator().createKey();
+        this.sorterAdapter = new ValueSorterAdapter();
+        // init appends a field to the copy when preserving duplicates, which is done here with the row number instead.
+        sorterAdapter.init(rowType, ordering.copy(), sortKey, null, context, bindings, sortOption);
+        this.descending = new boolean[ordering.sortColumns()];
+        for (int i = 0; i < descending.length; i++) {
+            descending[i] = !ordering.ascending(i);
+        }
+        this.maxMemory = Long.parseLong(context.getServiceManager().getConfigurationService().getProperty("fdbsql.sort.memory"));
+    }
+
+    @Override
+    public RowCursor sort() {
+        while (!load()) {
+            if (spill == null) {
+                SPILL_TAP.hit();
+                spill = new SortSpill(context, rowType, maxMemory);
+            }
+            spillRun();
+        }
+        if (spill == null) {
+            return new SortedRowsCursor(sortRows());
+        }
+        if (rowCount > 0) {
+            spillRun();
+        }
+        // Leave the whole budget to the merge.
+        rows = null;
+        keys = null;
+        offsets = null;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sort of {} rows exceeded {} bytes, merging {} runs", new Object[] { rowNumber, maxMemory, spill.runCount() });
+        }
+        return spill.merge(sortOption == API.SortOption.SUPPRESS_DUPLICATES);
+    }
+
+    @Override
+    public void close() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        rows = null;
+        keys = null;
+        offsets = null;
+    }
+
+    // For use by this class
+
+    /** Read and encode the input, returning <code>false</code> if it did not all fit. */
+    private boolean load() {
+        boolean preserveDuplicates = sorterAdapter.preserveDuplicates();
+        while (true) {
+            Row row;
+            loadTap.in();
+            try {
+                row = input.next();
+                context.checkQueryCancelation();
+                if (row == null) {
+                    return true;
+                }
+                if (row.isBindingsSensitive()) {
+                    row = ImmutableRow.buildImmutableRow(row);
+                }
+                encodeKey(row);
+                if (rowCount == rows.length) {
+                    rows = Arrays.copyOf(rows, rowCount * 2);
+                    offsets = Arrays.copyOf(offsets, rowCount * 2 + 1);
+                }
+                int start = offsets[rowCount];
+                int size = sortKey.getEncodedSize();
+                int end = start + size + (preserveDuplicates ? 4 : 0);
+                if (end > keys.length) {
+                    keys = Arrays.copyOf(keys, Math.max(end, keys.length * 2));
+                }
+                System.arraycopy(sortKey.getEncodedBytes(), 0, keys, start, size);
+                if (preserveDuplicates) {
+                    // Same direction as the last field, like the row count MergeJoinSorter appends.
+                    int n = descending[descending.length - 1] ? ~rowNumber : rowNumber;
+                    keys[start + size] = (byte)(n >>> 24);
+                    keys[start + size + 1] = (byte)(n >>> 16);
+                    keys[start + size + 2] = (byte)(n >>> 8);
+                    keys[start + size + 3] = (byte)n;
+                }
+                rows[rowCount++] = row;
+                rowNumber++;
+                offsets[rowCount] = end;
+                memoryUsed += ROW_OVERHEAD + (end - start) + rowSize(row);
+            } finally {
+                loadTap.out();
+            }
+            if (memoryUsed > maxMemory) {
+                return false;
+            }
+        }
+    }
+
+    /** Encode the sort fields of the given row into <code>sortKey</code>, inverting descending ones. */
+    private void encodeKey(Row row) {
+        while (true) {
+            try {
+                sortKey.clear();
+                for (int i = 0; i < descending.length; i++) {
+                    int start = sortKey.getEncodedSize();
+                    sorterAdapter.evaluateToKey(row, i);
+                    if (descending[i]) {
+                        byte[] bytes = sortKey.getEncodedBytes();
+                        int end = sortKey.getEncodedSize();
+                        for (int j = start; j < end; j++) {
+                            bytes[j] = (byte)~bytes[j];
+                        }
+                    }
+                }
+                return;
+            } catch (KeyTooLongException | StorageKeySizeExceededException e) {
+                if (sortKey.getMaximumSize() == Key.MAX_KEY_LENGTH_UPPER_BOUND) {
+                    throw new KeyTooLongException("Maximum size exceeded=" + Key.MAX_KEY_LENGTH_UPPER_BOUND);
+                }
+                sortKey.setMaximumSize(Math.min((sortKey.getMaximumSize() * 2), Key.MAX_KEY_LENGTH_UPPER_BOUND));
+            }
+        }
+    }
+
+    private static int rowSize(Row row) {
+        int size = 0;
+        int nfields = row.rowType().nFields();
+        for (int i = 0; i < nfields; i++) {
+            ValueSource value = row.value(i);
+            if (value.isNull()) {
+                size += 8;
+                continue;
+            }
+            switch (TInstance.underlyingType(value.getType())) {
+            case STRING:
+                size += 40 + value.getString().length() * 2;
+                break;
+            case BYTES:
+                size += 16 + value.getBytes().length;
+                break;
+            default:
+                size += 16;
+                break;
+            }
+        }
+        return size;
+    }
+
+    /** Sort the rows loaded so far and write them out as a run. */
+    private void spillRun() {
+        int[] sorted = sortRows();
+        SortSpill.RunWriter writer = spill.newRun();
+        for (int row : sorted) {
+            writer.write(keys, offsets[row], offsets[row + 1] - offsets[row], rows[row]);
+            rows[row] = null;
+        }
+        writer.finish();
+        rowCount = 0;
+        memoryUsed = 0;
+    }
+
+    private int[] sortRows() {
+        int[] sorted = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            sorted[i] = i;
+        }
+        int parallelism = (rowCount < PARALLEL_THRESHOLD) ? 1 : parallelism(context);
+        if (parallelism <= 1) {
+            multikeySort(sorted, 0, rowCount, 0);
+        }
+        else {
+            int runSize = Math.max(MIN_RUN_SIZE, (rowCount + parallelism - 1) / parallelism);
+            pool.invoke(new SortRuns(sorted, new int[rowCount], 0, rowCount, runSize));
+        }
+        return sorted;
+    }
+
+    /** The number of threads sorts may use, making the pool on first use. Its
+     * threads are daemons, so it never needs shutting down. */
+    private static int parallelism(QueryContext context) {
+        synchronized (NormalizedKeySorter.class) {
+            if (pool == null) {
+                String threads = context.getServiceManager().getConfigurationService().getProperty(THREADS_PROPERTY);
+                int parallelism = Integer.parseInt(threads);
+                if (parallelism <= 0) {
+                    parallelism = Runtime.getRuntime().availableProcessors();
+                }
+                poolParallelism = parallelism;
+                if (parallelism > 1) {
+                    pool = new ForkJoinPool(parallelism);
+                }
+            }
+            return poolParallelism;
+        }
+    }
+
+    /** Byte at the given depth of the given row's key, or -1 past its end. */
+    private int byteAt(int row, int depth) {
+        int position = offsets[row] + depth;
+        return (position < offsets[row + 1]) ? (keys[position] & 0xFF) : -1;
+    }
+
+    private int compareKeys(int row1, int row2, int depth) {
+        int position1 = offsets[row1] + depth, end1 = offsets[row1 + 1];
+        int position2 = offsets[row2] + depth, end2 = offsets[row2 + 1];
+        while ((position1 < end1) && (position2 < end2)) {
+            int c = (keys[position1++] & 0xFF) - (keys[position2++] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return (end1 - position1) - (end2 - position2);
+    }
+
+    /** Sort <code>sorted[lo..hi)</code>, whose keys all agree before <code>depth</code>. */
+    private void multikeySort(int[] sorted, int lo, int hi, int depth) {
+        while (hi - lo > INSERTION_SORT_SIZE) {
+            int pivot = medianOfThree(byteAt(sorted[lo], depth),
+                                      byteAt(sorted[(lo + hi) >>> 1], depth),
+                                      byteAt(sorted[hi - 1], depth));
+            int lt = lo, gt = hi - 1, i = lo;
+            while (i <= gt) {
+                int b = byteAt(sorted[i], depth);
+                if (b < pivot) {
+                    swap(sorted, lt++, i++);
+                }
+                else if (b > pivot) {
+                    swap(sorted, i, gt--);
+                }
+                else {
+                    i++;
+                }
+            }
+            multikeySort(sorted, lo, lt, depth);
+            multikeySort(sorted, gt + 1, hi, depth);
+            if (pivot < 0) {
+                return;         // Those in the middle have all ended, so are equal.
+            }
+            lo = lt;
+            hi = gt + 1;
+            depth++;
+        }
+        for (int i = lo + 1; i < hi; i++) {
+            int row = sorted[i];
+            int j = i;
+            while ((j > lo) && (compareKeys(sorted[j - 1], row, depth) > 0)) {
+                sorted[j] = sorted[j - 1];
+                j--;
+            }
+            sorted[j] = row;
+        }
+    }
+
+    private static int medianOfThree(int a, int b, int c) {
+        if (a < b) {
+            return (b < c) ? b : ((a < c) ? c : a);
+        }
+        else {
+            return (a < c) ? a : ((b < c) ? c : b);
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    /** Merge the sorted <code>from[lo..mid)</code> and <code>from[mid..hi)</code> into <code>to</code>. */
+    private void merge(int[] from, int[] to, int lo, int mid, int hi) {
+        int i = lo, j = mid, k = lo;
+        while ((i < mid) && (j < hi)) {
+            to[k++] = (compareKeys(from[j], from[i], 0) < 0) ? from[j++] : from[i++];
+        }
+        System.arraycopy(from, i, to, k, mid - i);
+        System.arraycopy(from, j, to, k + (mid - i), hi - j);
+    }
+
+    // Inner classes
+
+    /** Sort runs of rows in parallel and merge them, leaving the result in <code>sorted</code>. */
+    private class SortRuns extends RecursiveAction {
+        private final int[] sorted, temp;
+        private final int lo, hi, runSize;
+
+        SortRuns(int[] sorted, int[] temp, int lo, int hi, int runSize) {
+            this.sorted = sorted;
+            this.temp = temp;
+            this.lo = lo;
+            this.hi = hi;
+            this.runSize = runSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= runSize) {
+                multikeySort(sorted, lo, hi, 0);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SortRuns(sorted, temp, lo, mid, runSize),
+                      new SortRuns(sorted, temp, mid, hi, runSize));
+            merge(sorted, temp, lo, mid, hi);
+            System.arraycopy(temp, lo, sorted, lo, hi - lo);
+        }
+    }
+
+    /** The rows in sorted order, skipping duplicate keys if asked to. */
+    private class SortedRowsCursor extends RowCursorImpl {
+        private final int[] sorted;
+        private int position;
+
+        SortedRowsCursor(int[] sorted) {
+            this.sorted = sorted;
+        }
+
+        @Override
+        public Row next() {
+            CursorLifecycle.checkIdleOrActive(this);
+            if (position >= sorted.length) {
+                setIdle();
+                return null;
+            }
+            int row = sorted[position++];
+            if (sortOption == API.SortOption.SUPPRESS_DUPLICATES) {
+                while ((position < sorted.length) && (compareKeys(row, sorted[position], 0) == 0)) {
+                    rows[sorted[position++]] = null;
+                }
+            }
+            Row result = rows[row];
+            rows[row] = null;
+            return result;
+        }
+    }
+}
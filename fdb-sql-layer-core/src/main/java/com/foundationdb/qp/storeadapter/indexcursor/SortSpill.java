@@ -0,0 +1,702 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.storeadapter.indexcursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.foundationdb.qp.operator.CursorLifecycle;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.operator.RowCursorImpl;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.PersistitValueValueSource;
+import com.foundationdb.server.PersistitValueValueTarget;
+import com.foundationdb.server.error.MergeSortIOException;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import com.persistit.Persistit;
+import com.persistit.Value;
+import com.persistit.exception.ConversionException;
+import com.persistit.exception.KeyTooLongException;
+
+/**
+ * The sorted runs that a {@link NormalizedKeySorter} spills to disk, and their merge.
+ * <p>
+ * Each run is its own temporary file, written through a <code>FileChannel</code> in blocks of about
+ * {@link #BLOCK_SIZE} bytes of records, each deflated (unless that does not make it smaller) and padded
+ * to a multiple of {@link #ALIGNMENT}. A record is a normalized key and the row's fields as a Persistit
+ * <code>Value</code>, each preceded by its length. Where the blocks are is kept in memory.
+ * <p>
+ * While merging, every run reads its next blocks ahead on a background thread, and records are compared
+ * and copied straight out of the block buffers, which are reused. The block buffers of all the runs being
+ * merged, and the writer of an intermediate merge, are kept within <code>fdbsql.sort.memory</code>: that
+ * decides how many runs are merged at once, up to {@link #MAX_MERGE_WIDTH}, with more than that first merged
+ * into longer runs, and then how many blocks each run reads ahead, up to {@link #MAX_READ_AHEAD}. However
+ * small the budget, at least two runs are merged at a time, a block each. The background threads come from
+ * a pool shared by all sorts, sized by <code>fdbsql.sort.threads</code>.
+ * <p>
+ * The files are deleted by {@link #close}, when the sort is closed at the end of its query, or as soon as
+ * they have been merged into another run.
+ */
+class SortSpill
+{
+    static final int BLOCK_SIZE = 256 * 1024;
+    static final int ALIGNMENT = 4096;
+    static final int MAX_MERGE_WIDTH = 64;
+    static final int MAX_READ_AHEAD = 4;
+    /** Memory for a block read back: its direct buffer and its stored and raw bytes. */
+    static final long BLOCK_MEMORY = 3L * BLOCK_SIZE;
+    /** Memory for writing a run: the same three buffers. */
+    static final long WRITER_MEMORY = 3L * BLOCK_SIZE;
+
+    private static final PointTap RUN_TAP = Tap.createCount("sort: spill run");
+    private static final PointTap BLOCK_TAP = Tap.createCount("sort: spill block");
+
+    private static ThreadPoolExecutor prefetchPool;
+
+    private final QueryContext context;
+    private final RowType rowType;
+    private final long maxMemory;
+    private final ThreadPoolExecutor prefetch;
+    private final File directory;
+    private final String prefix;
+    private final List<Run> runs = new ArrayList<>();
+    private final List<RunReader> readers = new ArrayList<>();
+    private final Value value = new Value((Persistit)null);
+    private final PersistitValueValueTarget valueTarget = new PersistitValueValueTarget();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    public SortSpill(QueryContext context, RowType rowType, long maxMemory) {
+        this.context = context;
+        this.rowType = rowType;
+        this.maxMemory = maxMemory;
+        this.prefetch = prefetchPool(context);
+        this.directory = new File(context.getServiceManager().getConfigurationService().getProperty("fdbsql.tmp_dir"));
+        this.prefix = "sort-" + context.getSessionId() + "-";
+        valueTarget.attach(value);
+    }
+
+    public int runCount() {
+        return runs.size();
+    }
+
+    /** Start a new run, to which records must be written in key order. */
+    public RunWriter newRun() {
+        try {
+            RunWriter writer = new RunWriter();
+            runs.add(writer.run);
+            RUN_TAP.hit();
+            return writer;
+        } catch (IOException e) {
+            throw new MergeSortIOException(e);
+        }
+    }
+
+    /** Merge all the runs, returning the rows in key order. */
+    public RowCursor merge(boolean suppressDuplicates) {
+        try {
+            int width = mergeWidth();
+            while (runs.size() > width) {
+                // The inputs stay in runs until merged, so that close deletes them if this fails.
+                List<Run> inputs = new ArrayList<>(runs.subList(0, width));
+                RunWriter writer = newRun();
+                Merger merger = new Merger(inputs, readAhead(inputs.size(), maxMemory - WRITER_MEMORY));
+                try {
+                    while (merger.next()) {
+                        RunReader reader = merger.current();
+                        writer.write(reader.block.raw, reader.keyOffset, reader.keyLength,
+                                     reader.block.raw, reader.valueOffset, reader.valueLength);
+                        context.checkQueryCancelation();
+                    }
+                    writer.finish();
+                }
+                finally {
+                    merger.close();
+                }
+                runs.removeAll(inputs);
+                for (Run run : inputs) {
+                    run.delete();
+                }
+            }
+            return new MergeCursor(new Merger(new ArrayList<>(runs), readAhead(runs.size(), maxMemory)),
+                                   suppressDuplicates);
+        } catch (IOException e) {
+            throw new MergeSortIOException(e);
+        }
+    }
+
+    public void close() {
+        for (RunReader reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        deflater.end();
+    }
+
+    // For use by this class
+
+    /** How many runs to merge at once: as many as can each have two blocks, one being read ahead,
+     * alongside the writer of an intermediate merge. */
+    private int mergeWidth() {
+        long width = (maxMemory - WRITER_MEMORY) / (2 * BLOCK_MEMORY);
+        return (int)Math.max(2, Math.min(MAX_MERGE_WIDTH, width));
+    }
+
+    /** How many blocks each of some runs being merged can have within some memory. */
+    private static int readAhead(int nruns, long memory) {
+        long blocks = memory / (Math.max(nruns, 1) * BLOCK_MEMORY);
+        return (int)Math.max(1, Math.min(MAX_READ_AHEAD + 1, blocks));
+    }
+
+    /** The pool that reads blocks ahead, making it on first use. Its threads are daemons that go away
+     * when idle, so it never needs shutting down. */
+    private static ThreadPoolExecutor prefetchPool(QueryContext context) {
+        synchronized (SortSpill.class) {
+            if (prefetchPool == null) {
+                String threads = context.getServiceManager().getConfigurationService().getProperty(NormalizedKeySorter.THREADS_PROPERTY);
+                int nthreads = Integer.parseInt(threads);
+                if (nthreads <= 0) {
+                    nthreads = Runtime.getRuntime().availableProcessors();
+                }
+                prefetchPool = new ThreadPoolExecutor(nthreads, nthreads, 60, TimeUnit.SECONDS,
+                                                      new LinkedBlockingQueue<Runnable>(),
+                                                      new ThreadFactory() {
+                        private int count;
+
+                        @Override
+                        public synchronized Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "sort-prefetch-" + (++count));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                prefetchPool.allowCoreThreadTimeOut(true);
+            }
+            return prefetchPool;
+        }
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    private static int compare(byte[] bytes1, int offset1, int length1, byte[] bytes2, int offset2, int length2) {
+        int n = Math.min(length1, length2);
+        for (int i = 0; i < n; i++) {
+            int c = (bytes1[offset1 + i] & 0xFF) - (bytes2[offset2 + i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length1 - length2;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+        if ((buffer == null) || (buffer.capacity() < size)) {
+            buffer = ByteBuffer.allocateDirect(align(Math.max(size, BLOCK_SIZE)));
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    // Inner classes
+
+    /** A spilled run: its file and where its blocks are. */
+    private class Run {
+        final File file;
+        final FileChannel channel;
+        long[] positions = new long[16];
+        int[] storedLengths = new int[16], rawLengths = new int[16];
+        int nblocks;
+
+        Run() throws IOException {
+            file = File.createTempFile(prefix, ".tmp", directory);
+            file.deleteOnExit();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void addBlock(long position, int storedLength, int rawLength) {
+            if (nblocks == positions.length) {
+                positions = Arrays.copyOf(positions, nblocks * 2);
+                storedLengths = Arrays.copyOf(storedLengths, nblocks * 2);
+                rawLengths = Arrays.copyOf(rawLengths, nblocks * 2);
+            }
+            positions[nblocks] = position;
+            storedLengths[nblocks] = storedLength;
+            rawLengths[nblocks] = rawLength;
+            nblocks++;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing more to do about it.
+            }
+            file.delete();
+        }
+    }
+
+    /** Appends records to a run, a block at a time. */
+    public class RunWriter {
+        final Run run;
+        private byte[] raw = new byte[BLOCK_SIZE];
+        private int rawSize;
+        private byte[] compressed = new byte[BLOCK_SIZE];
+        private ByteBuffer buffer;
+        private long position;
+
+        RunWriter() throws IOException {
+            this.run = new Run();
+        }
+
+        /** Write a key and the row it belongs to. */
+        public void write(byte[] keys, int keyOffset, int keyLength, Row row) {
+            encodeRow(row);
+            try {
+                write(keys, keyOffset, keyLength, value.getEncodedBytes(), 0, value.getEncodedSize());
+            } catch (IOException e) {
+                throw new MergeSortIOException(e);
+            }
+        }
+
+        void write(byte[] keys, int keyOffset, int keyLength,
+                   byte[] values, int valueOffset, int valueLength) throws IOException {
+            int size = 10 + keyLength + valueLength;
+            if ((rawSize > 0) && (rawSize + size > BLOCK_SIZE)) {
+                flush();
+            }
+            if (size > raw.length) {
+                raw = Arrays.copyOf(raw, size);
+            }
+            rawSize = putLength(keyLength, rawSize);
+            System.arraycopy(keys, keyOffset, raw, rawSize, keyLength);
+            rawSize += keyLength;
+            rawSize = putLength(valueLength, rawSize);
+            System.arraycopy(values, valueOffset, raw, rawSize, valueLength);
+            rawSize += valueLength;
+        }
+
+        /** Write out whatever is left. */
+        public void finish() {
+            try {
+                if (rawSize > 0) {
+                    flush();
+                }
+            } catch (IOException e) {
+                throw new MergeSortIOException(e);
+            }
+            raw = compressed = null;
+            buffer = null;
+        }
+
+        private int putLength(int length, int offset) {
+            while ((length & ~0x7F) != 0) {
+                raw[offset++] = (byte)((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            raw[offset++] = (byte)length;
+            return offset;
+        }
+
+        private void flush() throws IOException {
+            if (compressed.length < rawSize) {
+                compressed = new byte[rawSize];
+            }
+            deflater.reset();
+            deflater.setInput(raw, 0, rawSize);
+            deflater.finish();
+            int storedLength = deflater.deflate(compressed, 0, rawSize);
+            byte[] stored = compressed;
+            if (!deflater.finished() || (storedLength >= rawSize)) {
+                stored = raw;
+                storedLength = rawSize;
+            }
+            int alignedLength = align(storedLength);
+            buffer = ensureCapacity(buffer, alignedLength);
+            buffer.put(stored, 0, storedLength);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte)0);
+            }
+            buffer.flip();
+            long start = position;
+            while (buffer.hasRemaining()) {
+                position += run.channel.write(buffer, position);
+            }
+            run.addBlock(start, (stored == raw) ? -storedLength : storedLength, rawSize);
+            BLOCK_TAP.hit();
+            rawSize = 0;
+        }
+    }
+
+    private void encodeRow(Row row) {
+        int nfields = rowType.nFields();
+        while (true) {
+            try {
+                value.clear();
+                value.setStreamMode(true);
+                for (int i = 0; i < nfields; i++) {
+                    ValueSource field = row.value(i);
+                    if (field.isNull()) {
+                        valueTarget.putNull();
+                    } else {
+                        rowType.typeAt(i).writeCanonical(field, valueTarget);
+                    }
+                }
+                return;
+            } catch (ConversionException e) {
+                if (value.getMaximumSize() == Value.MAXIMUM_SIZE) {
+                    throw new KeyTooLongException("Maximum size exceeded=" + Value.MAXIMUM_SIZE);
+                }
+                value.setMaximumSize(Math.min(value.getMaximumSize() * 2, Value.MAXIMUM_SIZE));
+            }
+        }
+    }
+
+    /** A block read back from a run. Each has its own inflater, since several may be read at once. */
+    private static class Block {
+        final Inflater inflater = new Inflater(true);
+        ByteBuffer buffer;
+        byte[] stored = new byte[0];
+        byte[] raw = new byte[0];
+        int rawLength;
+    }
+
+    /** Reads a run's records, with the next blocks being read ahead in the background, as many as
+     * there are spare blocks. With no spare block, each block is read when the last is used up. */
+    private class RunReader {
+        final Run run;
+        final List<Block> blocks = new ArrayList<>();
+        final ArrayDeque<Block> spares = new ArrayDeque<>();
+        final ArrayDeque<Future<Block>> prefetches = new ArrayDeque<>();
+        Block block;
+        int nextBlock, position;
+        int keyOffset, keyLength, valueOffset, valueLength;
+
+        RunReader(Run run, int nblocks) {
+            this.run = run;
+            readers.add(this);
+            for (int i = 0; i < nblocks; i++) {
+                blocks.add(new Block());
+            }
+            block = blocks.get(0);
+            spares.addAll(blocks.subList(1, nblocks));
+            startPrefetch();
+        }
+
+        /** Move to the next record, returning <code>false</code> at the end of the run. */
+        boolean next() throws IOException {
+            if (position >= block.rawLength) {
+                if (!prefetches.isEmpty()) {
+                    Block next;
+                    try {
+                        next = prefetches.remove().get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException)cause;
+                        }
+                        throw (cause instanceof IOException) ? (IOException)cause : new IOException(cause);
+                    }
+                    spares.add(block);
+                    block = next;
+                    startPrefetch();
+                }
+                else if (nextBlock < run.nblocks) {
+                    try {
+                        readBlock(nextBlock++, block);
+                    } catch (DataFormatException e) {
+                        throw new IOException(e);
+                    }
+                }
+                else {
+                    return false;
+                }
+                position = 0;
+            }
+            keyLength = getLength();
+            keyOffset = position;
+            position += keyLength;
+            valueLength = getLength();
+            valueOffset = position;
+            position += valueLength;
+            return true;
+        }
+
+        void close() {
+            while (!prefetches.isEmpty()) {
+                try {
+                    prefetches.remove().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Closing anyway.
+                }
+            }
+            for (Block block : blocks) {
+                block.inflater.end();
+            }
+            blocks.clear();
+        }
+
+        private int getLength() {
+            int length = 0, shift = 0;
+            while (true) {
+                byte b = block.raw[position++];
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return length;
+                }
+                shift += 7;
+            }
+        }
+
+        private void startPrefetch() {
+            while (!spares.isEmpty() && (nextBlock < run.nblocks)) {
+                final int blockIndex = nextBlock++;
+                final Block into = spares.remove();
+                prefetches.add(prefetch.submit(new Callable<Block>() {
+                        @Override
+                        public Block call() throws IOException, DataFormatException {
+                            readBlock(blockIndex, into);
+                            return into;
+                        }
+                    }));
+            }
+        }
+
+        private void readBlock(int blockIndex, Block into) throws IOException, DataFormatException {
+            int storedLength = run.storedLengths[blockIndex];
+            boolean deflated = (storedLength >= 0);
+            if (!deflated) {
+                storedLength = -storedLength;
+            }
+            int rawLength = run.rawLengths[blockIndex];
+            long filePosition = run.positions[blockIndex];
+            into.buffer = ensureCapacity(into.buffer, align(storedLength));
+            while (into.buffer.hasRemaining()) {
+                int n = run.channel.read(into.buffer, filePosition);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of sort run " + run.file);
+                }
+                filePosition += n;
+            }
+            into.buffer.flip();
+            // One spare byte, so that inflating can reach the end of
+            // the stream and overlong data shows.
+            if (into.raw.length <= rawLength) {
+                into.raw = new byte[Math.max(rawLength + 1, BLOCK_SIZE)];
+            }
+            if (deflated) {
+                if (into.stored.length < storedLength) {
+                    into.stored = new byte[Math.max(storedLength, BLOCK_SIZE)];
+                }
+                into.buffer.get(into.stored, 0, storedLength);
+                into.inflater.reset();
+                into.inflater.setInput(into.stored, 0, storedLength);
+                int inflated = 0;
+                while (!into.inflater.finished() && (inflated < into.raw.length)) {
+                    int n = into.inflater.inflate(into.raw, inflated, into.raw.length - inflated);
+                    if ((n == 0) &&
+                        (into.inflater.needsInput() || into.inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                if ((inflated != rawLength) || !into.inflater.finished()) {
+                    throw new MergeSortIOException("Corrupt block " + blockIndex +
+                                                   " of sort run " + run.file +
+                                                   ": inflated " + inflated +
+                                                   " bytes of " + rawLength);
+                }
+            }
+            else {
+                into.buffer.get(into.raw, 0, rawLength);
+            }
+            into.rawLength = rawLength;
+        }
+    }
+
+    /** A k-way merge of runs, by a binary heap of their readers. */
+    private class Merger {
+        private final List<RunReader> inputReaders = new ArrayList<>();
+        private final RunReader[] heap;
+        private int size;
+        private boolean started;
+
+        Merger(List<Run> inputs, int nblocks) throws IOException {
+            heap = new RunReader[inputs.size()];
+            // Start all the reads before waiting for any.
+            for (Run run : inputs) {
+                inputReaders.add(new RunReader(run, nblocks));
+            }
+            for (RunReader reader : inputReaders) {
+                if (reader.next()) {
+                    heap[size++] = reader;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        /** Move to the next record in key order, returning <code>false</code> at the end. */
+        boolean next() throws IOException {
+            if (!started) {
+                started = true;
+            }
+            else if (size > 0) {
+                if (!heap[0].next()) {
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                siftDown(0);
+            }
+            return size > 0;
+        }
+
+        RunReader current() {
+            return heap[0];
+        }
+
+        void close() {
+            for (RunReader reader : inputReaders) {
+                reader.close();
+                readers.remove(reader);
+            }
+        }
+
+        private void siftDown(int i) {
+            RunReader reader = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if ((child + 1 < size) && (compare(heap[child + 1], heap[child]) < 0)) {
+                    child++;
+                }
+                if (compare(heap[child], reader) >= 0) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            if (i < size) {
+                heap[i] = reader;
+            }
+        }
+
+        private int compare(RunReader r1, RunReader r2) {
+            return SortSpill.compare(r1.block.raw, r1.keyOffset, r1.keyLength,
+                                     r2.block.raw, r2.keyOffset, r2.keyLength);
+        }
+    }
+
+    /** The merged rows, skipping duplicate keys if asked to. */
+    private class MergeCursor extends RowCursorImpl {
+        private final Merger merger;
+        private final boolean suppressDuplicates;
+        private final Value rowValue = new Value((Persistit)null);
+        private final PersistitValueValueSource valueSource = new PersistitValueValueSource();
+        private byte[] lastKey = new byte[0];
+        private int lastKeyLength = -1;
+
+        MergeCursor(Merger merger, boolean suppressDuplicates) {
+            this.merger = merger;
+            this.suppressDuplicates = suppressDuplicates;
+        }
+
+        @Override
+        public Row next() {
+            CursorLifecycle.checkIdleOrActive(this);
+            try {
+                while (merger.next()) {
+                    RunReader reader = merger.current();
+                    if (suppressDuplicates) {
+                        if (compare(lastKey, 0, lastKeyLength, reader.block.raw, reader.keyOffset, reader.keyLength) == 0) {
+                            continue;
+                        }
+                        if (lastKey.length < reader.keyLength) {
+                            lastKey = new byte[reader.keyLength];
+                        }
+                        System.arraycopy(reader.block.raw, reader.keyOffset, lastKey, 0, reader.keyLength);
+                        lastKeyLength = reader.keyLength;
+                    }
+                    return decodeRow(reader.block.raw, reader.valueOffset, reader.valueLength);
+                }
+            } catch (IOException e) {
+                throw new MergeSortIOException(e);
+            }
+            setIdle();
+            return null;
+        }
+
+        private Row decodeRow(byte[] bytes, int offset, int length) {
+            rowValue.clear();
+            if (length > rowValue.getMaximumSize()) {
+                rowValue.setMaximumSize(length);
+            }
+            rowValue.ensureFit(length);
+            System.arraycopy(bytes, offset, rowValue.getEncodedBytes(), 0, length);
+            rowValue.setEncodedSize(length);
+            valueSource.attach(rowValue);
+            ValuesHolderRow row = new ValuesHolderRow(rowType);
+            for (int i = 0; i < rowType.nFields(); i++) {
+                TInstance type = rowType.typeAt(i);
+                valueSource.getReady(type);
+                if (valueSource.isNull()) {
+                    row.valueAt(i).putNull();
+                } else {
+                    type.writeCanonical(valueSource, row.valueAt(i));
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -21,39 +21,171 @@ import com.foundationdb.qp.operator.QueryBindings;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.collation.AkCollatorFactory;
 import com.foundationdb.server.types.TClass;
 import com.foundationdb.server.types.TComparison;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.common.types.TString;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.value.UnderlyingType;
 import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.server.types.value.ValueTargets;
-import com.google.common.collect.ArrayListMultimap;
+import com.foundationdb.util.WrappingByteSource;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Rows filed under the values of some expressions, for lookup by the
+ * values of others, as the build side of a hash join.
+ * <p>
+ * Distinct keys are numbered, and found through an open addressing
+ * table of those numbers. Rows are kept in flat arrays, and once
+ * lookups begin are arranged so that the rows for each key are
+ * together, in the order they were put.
+ * <p>
+ * A single integer key is stored as a <code>long</code> and a single
+ * string or binary key as its sort key bytes, so that neither needs
+ * {@link TClass} comparison. Any other key is stored as copies of its
+ * values.
+ */
 public class HashTable {
-    private ArrayListMultimap<KeyWrapper, Row> hashTable = ArrayListMultimap.create();
-
     private RowType hashedRowType;
     private List<TComparison> tComparisons;
     private List<AkCollator> collators;
     private boolean matchNulls;
 
+    private static final int INITIAL_CAPACITY = 16;
+
+    private enum Layout { LONG, BYTES, VALUES }
+
+    private Layout layout;
+    private AkCollator bytesCollator;
+
+    // Key number + 1 in each occupied slot.
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int nkeys;
+    private int[] keyHashes = new int[INITIAL_CAPACITY];
+    private long[] longKeys;
+    private byte[][] bytesKeys;
+    private ValueSource[][] valuesKeys;
+
+    private int nrows;
+    private Row[] rows = new Row[INITIAL_CAPACITY];
+    private int[] rowKeys = new int[INITIAL_CAPACITY];
+    // Once arranged, the rows for key k are from keyStarts[k] up to keyStarts[k+1].
+    private boolean arranged;
+    private int[] keyStarts;
+
+    /** The values of the key expressions for one row at a time. */
+    public static class Key {
+        private final List<TEvaluatableExpression> expressions;
+        private final ValueSource[] values;
+        private boolean isNull;
+        // Set by the table.
+        private Layout layout;
+        private int hash;
+        private long longValue;
+        private byte[] bytesValue;
+
+        public Key(List<TEvaluatableExpression> expressions) {
+            this.expressions = expressions;
+            this.values = new ValueSource[expressions.size()];
+        }
+
+        public void evaluate(Row row, QueryBindings bindings) {
+            isNull = false;
+            layout = null;
+            for (int i = 0; i < values.length; i++) {
+                TEvaluatableExpression expression = expressions.get(i);
+                if (row != null)
+                    expression.with(row);
+                if (bindings != null)
+                    expression.with(bindings);
+                expression.evaluate();
+                ValueSource value = expression.resultValue();
+                if (value.isNull())
+                    isNull = true;
+                values[i] = value;
+            }
+        }
+
+        public boolean isNull() {
+            return isNull;
+        }
+
+        public ValueSource value(int index) {
+            return values[index];
+        }
+    }
+
     public List<Row> getMatchingRows(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings){
-        KeyWrapper key = new KeyWrapper(row, evaluatableComparisonFields, bindings);
-        if (!matchNulls && key.isNull())
+        Key key = new Key(evaluatableComparisonFields);
+        key.evaluate(row, bindings);
+        int match = find(key);
+        if (match < 0)
             return Collections.emptyList();
-        return hashTable.get(key);
+        return Arrays.asList(rows).subList(keyStarts[match], keyStarts[match + 1]);
     }
 
     public void put(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings){
-        KeyWrapper key = new KeyWrapper(row, evaluatableComparisonFields, bindings);
-        if (matchNulls || !key.isNull()) {
-            hashTable.put(key, row);
+        Key key = new Key(evaluatableComparisonFields);
+        key.evaluate(row, bindings);
+        put(key, row);
+    }
+
+    public void put(Key key, Row row){
+        if (key.isNull && !matchNulls)
+            return;
+        if (layout == null)
+            chooseLayout(key);
+        prepare(key);
+        int k = lookup(key);
+        if (k < 0)
+            k = addKey(~k, key);
+        if (nrows == rows.length) {
+            rows = Arrays.copyOf(rows, nrows * 2);
+            rowKeys = Arrays.copyOf(rowKeys, nrows * 2);
         }
+        rows[nrows] = row;
+        rowKeys[nrows] = k;
+        nrows++;
+        arranged = false;
+    }
+
+    /** Find the rows with the given key.
+     * @return a match number for {@link #getMatchCount} and {@link #getMatch},
+     * or <code>-1</code> if there are none.
+     */
+    public int find(Key key){
+        if ((layout == null) || (key.isNull && !matchNulls))
+            return -1;
+        prepare(key);
+        int k = lookup(key);
+        if (k < 0)
+            return -1;
+        if (!arranged)
+            arrange();
+        return k;
+    }
+
+    public int getMatchCount(int match) {
+        return keyStarts[match + 1] - keyStarts[match];
+    }
+
+    public Row getMatch(int match, int index) {
+        return rows[keyStarts[match] + index];
+    }
+
+    /** The well-mixed hash of a key, which must not be NULL unless matching NULLs. */
+    public int hash(Key key) {
+        if (layout == null)
+            chooseLayout(key);
+        prepare(key);
+        return key.hash;
     }
 
     public RowType getRowType() {
@@ -74,62 +206,235 @@ public class HashTable {
         this.matchNulls = matchNulls;
     }
 
-    public class KeyWrapper implements Comparable<KeyWrapper> {
-        List<ValueSource> values = new ArrayList<>();
-        int hashKey = 0;
-        boolean isNull;
+    /** Pick the layout from the type of the first key, since all will be alike. */
+    protected void chooseLayout(Key key) {
+        layout = Layout.VALUES;
+        if ((key.values.length == 1) && !matchNulls &&
+            ((tComparisons == null) || (tComparisons.get(0) == null))) {
+            TInstance type = key.values[0].getType();
+            AkCollator collator = (collators != null) ? collators.get(0) : null;
+            UnderlyingType underlyingType = TInstance.underlyingType(type);
+            if (underlyingType != null) {
+                switch (underlyingType) {
+                case INT_8:
+                case INT_16:
+                case UINT_16:
+                case INT_32:
+                case INT_64:
+                    if (collator == null)
+                        layout = Layout.LONG;
+                    break;
+                case BYTES:
+                    if (collator == null)
+                        layout = Layout.BYTES;
+                    break;
+                case STRING:
+                    if (collator == null)
+                        collator = TString.getCollator(type);
+                    if (collator == null)
+                        collator = AkCollatorFactory.UCS_BINARY_COLLATOR;
+                    bytesCollator = collator;
+                    layout = Layout.BYTES;
+                    break;
+                }
+            }
+        }
+        switch (layout) {
+        case LONG:
+            longKeys = new long[keyHashes.length];
+            break;
+        case BYTES:
+            bytesKeys = new byte[keyHashes.length][];
+            break;
+        default:
+            valuesKeys = new ValueSource[keyHashes.length][];
+            break;
+        }
+    }
 
-        @Override
-        public int hashCode() {
-            return hashKey;
+    protected void prepare(Key key) {
+        if (key.layout == layout)
+            return;
+        switch (layout) {
+        case LONG:
+            {
+                long value = longValue(key.values[0]);
+                key.longValue = value;
+                key.hash = mix((int)(value ^ (value >>> 32)));
+            }
+            break;
+        case BYTES:
+            {
+                byte[] value = bytesValue(key.values[0]);
+                key.bytesValue = value;
+                key.hash = mix(Arrays.hashCode(value));
+            }
+            break;
+        default:
+            {
+                int hash = 0;
+                for (int i = 0; i < key.values.length; i++) {
+                    AkCollator collator = (collators != null) ? collators.get(i) : null;
+                    hash = hash * 31 + ValueSources.hash(key.values[i], collator);
+                }
+                key.hash = mix(hash);
+            }
+            break;
         }
+        key.layout = layout;
+    }
 
-        @Override
-        public boolean equals(Object x) {
-            if ( !(x instanceof KeyWrapper) ||  ((KeyWrapper)x).values.size() != values.size() )
-                return false;
-            return (compareTo((KeyWrapper)x) == 0);
+    /** @return the key number or the complement of the empty slot where it would go. */
+    protected int lookup(Key key) {
+        int mask = slots.length - 1;
+        for (int i = key.hash & mask; ; i = (i + 1) & mask) {
+            int k = slots[i] - 1;
+            if (k < 0)
+                return ~i;
+            if ((keyHashes[k] == key.hash) && keyEquals(k, key))
+                return k;
         }
+    }
 
-        @Override
-        public int compareTo(KeyWrapper other) {
-            for (int i = 0; i < values.size(); i++) {
-                int compare;
-                if (tComparisons != null && tComparisons.get(i) != null) {
-                    compare = tComparisons.get(i).compare(values.get(i).getType(), values.get(i), other.values.get(i).getType(), other.values.get(i));
-                }
-                else {
-                    compare = TClass.compare(values.get(i).getType(), values.get(i), other.values.get(i).getType(), other.values.get(i));
-                }
-                if (compare != 0) {
-                    return compare;
+    protected boolean keyEquals(int k, Key key) {
+        switch (layout) {
+        case LONG:
+            return (longKeys[k] == key.longValue);
+        case BYTES:
+            return Arrays.equals(bytesKeys[k], key.bytesValue);
+        default:
+            {
+                ValueSource[] values = valuesKeys[k];
+                for (int i = 0; i < values.length; i++) {
+                    int compare;
+                    if (tComparisons != null && tComparisons.get(i) != null) {
+                        compare = tComparisons.get(i).compare(values[i].getType(), values[i], key.values[i].getType(), key.values[i]);
+                    }
+                    else {
+                        compare = TClass.compare(values[i].getType(), values[i], key.values[i].getType(), key.values[i]);
+                    }
+                    if (compare != 0) {
+                        return false;
+                    }
                 }
+                return true;
             }
-            return 0;
         }
+    }
 
-        public boolean isNull() {
-            return isNull;
+    protected int addKey(int slot, Key key) {
+        int k = nkeys++;
+        if (k == keyHashes.length) {
+            int capacity = k * 2;
+            keyHashes = Arrays.copyOf(keyHashes, capacity);
+            switch (layout) {
+            case LONG:
+                longKeys = Arrays.copyOf(longKeys, capacity);
+                break;
+            case BYTES:
+                bytesKeys = Arrays.copyOf(bytesKeys, capacity);
+                break;
+            default:
+                valuesKeys = Arrays.copyOf(valuesKeys, capacity);
+                break;
+            }
+        }
+        keyHashes[k] = key.hash;
+        switch (layout) {
+        case LONG:
+            longKeys[k] = key.longValue;
+            break;
+        case BYTES:
+            // The bytes may belong to the source value.
+            bytesKeys[k] = key.bytesValue.clone();
+            break;
+        default:
+            {
+                ValueSource[] values = new ValueSource[key.values.length];
+                for (int i = 0; i < values.length; i++) {
+                    Value valueCopy = new Value(key.values[i].getType());
+                    ValueTargets.copyFrom(key.values[i], valueCopy);
+                    values[i] = valueCopy;
+                }
+                valuesKeys[k] = values;
+            }
+            break;
+        }
+        slots[slot] = k + 1;
+        if (nkeys * 2 > slots.length) {
+            rehash();
         }
+        return k;
+    }
 
-        public KeyWrapper(Row row, List<TEvaluatableExpression> comparisonExpressions, QueryBindings bindings){
-            int i = 0;
-            for (TEvaluatableExpression expression : comparisonExpressions) {
-                if (row != null)
-                    expression.with(row);
-                if (bindings != null)
-                    expression.with(bindings);
-                expression.evaluate();
-                ValueSource columnValue = expression.resultValue();
-                if (columnValue.isNull())
-                    isNull = true;
-                Value valueCopy = new Value(columnValue.getType());
-                ValueTargets.copyFrom(columnValue, valueCopy);
-                AkCollator collator = (collators != null) ? collators.get(i) : null;
-                hashKey ^= ValueSources.hash(valueCopy, collator);
-                values.add(valueCopy);
-                i++;
+    protected void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int k = 0; k < nkeys; k++) {
+            int i = keyHashes[k] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
             }
+            slots[i] = k + 1;
+        }
+    }
+
+    /** Group the rows by key, keeping their order within each. */
+    protected void arrange() {
+        int[] starts = new int[nkeys + 1];
+        for (int r = 0; r < nrows; r++) {
+            starts[rowKeys[r] + 1]++;
         }
+        for (int k = 0; k < nkeys; k++) {
+            starts[k + 1] += starts[k];
+        }
+        int[] next = Arrays.copyOf(starts, nkeys);
+        Row[] arrangedRows = new Row[rows.length];
+        int[] arrangedKeys = new int[rowKeys.length];
+        for (int r = 0; r < nrows; r++) {
+            int k = rowKeys[r];
+            int i = next[k]++;
+            arrangedRows[i] = rows[r];
+            arrangedKeys[i] = k;
+        }
+        rows = arrangedRows;
+        rowKeys = arrangedKeys;
+        keyStarts = starts;
+        arranged = true;
+    }
+
+    protected static long longValue(ValueSource value) {
+        switch (TInstance.underlyingType(value.getType())) {
+        case INT_8:
+            return value.getInt8();
+        case INT_16:
+            return value.getInt16();
+        case UINT_16:
+            return value.getUInt16();
+        case INT_32:
+            return value.getInt32();
+        default:
+            return value.getInt64();
+        }
+    }
+
+    protected byte[] bytesValue(ValueSource value) {
+        if (bytesCollator == null)
+            return value.getBytes();
+        Object object = value.getObject();
+        if (object instanceof WrappingByteSource)
+            return ((WrappingByteSource)object).byteArray();
+        if (object instanceof byte[])
+            return (byte[])object;
+        return bytesCollator.encodeSortKeyBytes((String)object);
+    }
+
+    protected static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        hash *= 0xc2b2ae35;
+        hash ^= (hash >>> 16);
+        return hash;
     }
 }
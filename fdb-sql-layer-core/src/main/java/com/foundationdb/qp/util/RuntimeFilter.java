@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.server.types.value.ValueTargets;
+import com.foundationdb.util.BloomFilter;
+
+import java.util.List;
+
+/**
+ * What the build side of a join found out about its keys, for the
+ * probe side to drop rows that cannot possibly match as soon as it
+ * reads them, before any lookups.
+ * <p>
+ * For each key field, the least and greatest value and, while there
+ * are no more than {@link #MAX_SET_SIZE} of them, the distinct values
+ * themselves. Optionally also the {@link BloomFilter} of whole keys.
+ * <p>
+ * It only ever errs toward keeping a row: a probe value of a
+ * different type from the build side's, or a <code>NULL</code>, is
+ * not checked against the field's range or set.
+ */
+public class RuntimeFilter
+{
+    public static final int MAX_SET_SIZE = 16;
+
+    private BloomFilter bloomFilter;
+    private final TInstance[] types;
+    private final Value[] mins, maxes;
+    private final Value[][] sets;
+    private final int[] setSizes;
+    private final boolean[] stopped;
+    private long nkeys;
+
+    public RuntimeFilter(int nfields, BloomFilter bloomFilter) {
+        this.bloomFilter = bloomFilter;
+        this.types = new TInstance[nfields];
+        this.mins = new Value[nfields];
+        this.maxes = new Value[nfields];
+        this.sets = new Value[nfields][];
+        this.setSizes = new int[nfields];
+        this.stopped = new boolean[nfields];
+        for (int i = 0; i < nfields; i++) {
+            sets[i] = new Value[MAX_SET_SIZE];
+        }
+    }
+
+    public int nFields() {
+        return types.length;
+    }
+
+    /** Set the bloom filter, once it is sized from the number of keys. */
+    public void setBloomFilter(BloomFilter bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
+    /** Number of keys added, which may include duplicates. */
+    public long getKeyCount() {
+        return nkeys;
+    }
+
+    /** Add the key made up of the given row's leading fields. */
+    public void add(Row row) {
+        for (int i = 0; i < types.length; i++) {
+            add(i, row.value(i));
+        }
+        nkeys++;
+    }
+
+    /** Add a hash table key. */
+    public void add(HashTable.Key key) {
+        for (int i = 0; i < types.length; i++) {
+            add(i, key.value(i));
+        }
+        nkeys++;
+    }
+
+    /** The least value of a key field, or <code>null</code> if not known. */
+    public ValueSource getMin(int field) {
+        return mins[field];
+    }
+
+    /** The greatest value of a key field, or <code>null</code> if not known. */
+    public ValueSource getMax(int field) {
+        return maxes[field];
+    }
+
+    protected void add(int field, ValueSource value) {
+        if (value.isNull() || stopped[field])
+            return;             // Can't match, except as NULL, which isn't checked.
+        if (types[field] == null) {
+            types[field] = value.getType();
+            mins[field] = copy(value);
+            maxes[field] = copy(value);
+        }
+        else if (TClass.comparisonNeedsCasting(types[field], value.getType())) {
+            // Mixed types from the build side; just stop checking this field.
+            stopped[field] = true;
+            mins[field] = maxes[field] = null;
+            sets[field] = null;
+            return;
+        }
+        else if (TClass.compare(mins[field], value) > 0) {
+            mins[field] = copy(value);
+        }
+        else if (TClass.compare(maxes[field], value) < 0) {
+            maxes[field] = copy(value);
+        }
+        Value[] set = sets[field];
+        if (set != null) {
+            int size = setSizes[field];
+            for (int j = 0; j < size; j++) {
+                if (TClass.compare(set[j], value) == 0)
+                    return;
+            }
+            if (size < set.length) {
+                set[size] = copy(value);
+                setSizes[field] = size + 1;
+            }
+            else {
+                sets[field] = null; // Too many distinct values.
+            }
+        }
+    }
+
+    /**
+     * Whether the key made up of the given fields of a probe row might
+     * have been added. The collators are those the probe side uses to
+     * hash its keys for the bloom filter. Nothing matches when there
+     * were no keys at all.
+     */
+    public boolean mightMatch(Row row, int[] fields, List<AkCollator> collators) {
+        if (nkeys == 0)
+            return false;
+        long hash = 0;
+        for (int i = 0; i < fields.length; i++) {
+            ValueSource value = row.value(fields[i]);
+            if (bloomFilter != null) {
+                hash = BloomFilter.combineHash(hash, ValueSources.hash64(value, (collators == null) ? null : collators.get(i)));
+            }
+            if (value.isNull() || (mins[i] == null) ||
+                TClass.comparisonNeedsCasting(types[i], value.getType()))
+                continue;
+            if ((TClass.compare(mins[i], value) > 0) ||
+                (TClass.compare(maxes[i], value) < 0))
+                return false;
+            Value[] set = sets[i];
+            if (set != null) {
+                boolean found = false;
+                for (int j = 0; j < setSizes[i]; j++) {
+                    if (TClass.compare(set[j], value) == 0) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found)
+                    return false;
+            }
+        }
+        return (bloomFilter == null) || bloomFilter.maybePresent(hash);
+    }
+
+    private static Value copy(ValueSource value) {
+        Value copy = new Value(value.getType());
+        ValueTargets.copyFrom(value, copy);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("RuntimeFilter(");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) str.append(", ");
+            if (mins[i] == null)
+                str.append("*");
+            else if (sets[i] != null)
+                str.append(setSizes[i]).append(" values");
+            else
+                str.append(mins[i]).append(" .. ").append(maxes[i]);
+        }
+        if (bloomFilter != null)
+            str.append(", bloom");
+        str.append(")");
+        return str.toString();
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.PersistitValueValueSource;
+import com.foundationdb.server.PersistitValueValueTarget;
+import com.foundationdb.server.error.SpillIOException;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.ValueSource;
+import com.persistit.Persistit;
+import com.persistit.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A temporary file of rows of a single type, for operators that
+ * overflow their memory budget. Rows are all written, then read back
+ * once in the same order. The file lives in <code>fdbsql.tmp_dir</code>
+ * and is only created by the first write.
+ */
+public class SpillFile
+{
+    public SpillFile(QueryContext context, String prefix, RowType rowType) {
+        this.context = context;
+        this.prefix = prefix;
+        this.rowType = rowType;
+        this.types = new TInstance[rowType.nFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = rowType.typeAt(i);
+        }
+    }
+
+    public RowType getRowType() {
+        return rowType;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public void write(Row row) {
+        assert (input == null) : "already reading";
+        try {
+            if (output == null) {
+                open();
+            }
+            value.clear();
+            value.setStreamMode(true);
+            valueTarget.attach(value);
+            for (int i = 0; i < types.length; i++) {
+                ValueSource field = row.value(i);
+                if (field.isNull()) {
+                    valueTarget.putNull();
+                }
+                else {
+                    types[i].writeCanonical(field, valueTarget);
+                }
+            }
+            int size = value.getEncodedSize();
+            output.writeInt(size);
+            output.write(value.getEncodedBytes(), 0, size);
+            rowCount++;
+            byteCount += size + 4;
+        }
+        catch (IOException ex) {
+            throw new SpillIOException(ex);
+        }
+    }
+
+    /** Read the next row back, or <code>null</code> when all have been read. */
+    public Row read() {
+        if (rowsRead >= rowCount) {
+            return null;
+        }
+        try {
+            if (input == null) {
+                output.close();
+                output = null;
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            }
+            int size = input.readInt();
+            value.clear();
+            value.ensureFit(size);
+            input.readFully(value.getEncodedBytes(), 0, size);
+            value.setEncodedSize(size);
+            valueSource.attach(value);
+            ValuesHolderRow row = new ValuesHolderRow(rowType);
+            for (int i = 0; i < types.length; i++) {
+                valueSource.getReady(types[i]);
+                if (valueSource.isNull()) {
+                    row.valueAt(i).putNull();
+                }
+                else {
+                    types[i].writeCanonical(valueSource, row.valueAt(i));
+                }
+            }
+            rowsRead++;
+            return row;
+        }
+        catch (IOException ex) {
+            throw new SpillIOException(ex);
+        }
+    }
+
+    /** Close any streams and delete the file. */
+    public void close() {
+        try {
+            if (output != null) {
+                output.close();
+            }
+            if (input != null) {
+                input.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new SpillIOException(ex);
+        }
+        finally {
+            output = null;
+            input = null;
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+        }
+    }
+
+    protected void open() throws IOException {
+        File directory = new File(context.getServiceManager().getConfigurationService().getProperty("fdbsql.tmp_dir"));
+        file = File.createTempFile(prefix + "-" + context.getSessionId() + "-", ".tmp", directory);
+        file.deleteOnExit();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        value = new Value((Persistit)null, Value.INITIAL_SIZE, Value.MAXIMUM_SIZE);
+        valueTarget = new PersistitValueValueTarget();
+        valueSource = new PersistitValueValueSource();
+    }
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final QueryContext context;
+    private final String prefix;
+    private final RowType rowType;
+    private final TInstance[] types;
+    private File file;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private Value value;
+    private PersistitValueValueTarget valueTarget;
+    private PersistitValueValueSource valueSource;
+    private long rowCount, rowsRead, byteCount;
+}
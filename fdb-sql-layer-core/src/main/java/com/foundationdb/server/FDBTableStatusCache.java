@@ -21,9 +21,11 @@ import com.foundationdb.server.store.FDBHolder;
 import com.foundationdb.server.store.FDBStoreDataHelper;
 import com.foundationdb.server.store.FDBTransactionService;
 import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+import com.foundationdb.KeyValue;
 import com.foundationdb.MutationType;
 import com.foundationdb.Transaction;
 import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.storeadapter.FDBAdapter;
 import com.foundationdb.qp.virtualadapter.VirtualScanFactory;
 import com.foundationdb.server.service.session.Session;
 import com.foundationdb.tuple.ByteArrayUtil;
@@ -49,6 +51,13 @@ import java.util.Map;
  *     {@link Tuple} encoded longs and the row count is a little-endian encoded
  *     long (for {@link Transaction#mutate} usage).
  * </p>
+ * <p>
+ *     So that concurrent writers do not all hit the same key, the row count
+ *     is spread over a number of shards: the "rowCount" key itself, plus that
+ *     key with a {@link Tuple} encoded shard number appended for the others.
+ *     Each writer adds to the shard for its thread and the count is the sum
+ *     of them all.
+ * </p>
  */
 public class FDBTableStatusCache implements TableStatusCache {
     private static final List<String> TABLE_STATUS_DIR_PATH = Arrays.asList("tableStatus");
@@ -56,13 +65,19 @@ public class FDBTableStatusCache implements TableStatusCache {
     private static final byte[] ROW_COUNT_PACKED = Tuple2.from("rowCount").pack();
 
     private final FDBTransactionService txnService;
+    private final int rowCountShards;
     private final Map<Integer,VirtualTableStatus> virtualTableStatusMap = new HashMap<>();
 
     private byte[] packedTableStatusPrefix;
 
 
     public FDBTableStatusCache(FDBHolder holder, FDBTransactionService txnService) {
+        this(holder, txnService, 1);
+    }
+
+    public FDBTableStatusCache(FDBHolder holder, FDBTransactionService txnService, int rowCountShards) {
         this.txnService = txnService;
+        this.rowCountShards = Math.max(rowCountShards, 1);
         this.packedTableStatusPrefix = holder.getRootDirectory().createOrOpen(holder.getTransactionContext(),
                                                                               TABLE_STATUS_DIR_PATH).get().pack();
     }
@@ -114,16 +129,25 @@ public class FDBTableStatusCache implements TableStatusCache {
 
 
     /**
-     * Use FDBCounter for row count and single k/v for others.
+     * Use sharded atomic counter for row count and single k/v for others.
      */
     private class FDBTableStatus implements TableStatus {
         private final int tableID;
-        private volatile byte[] rowCountKey;
+        private final byte[] rowCountKey;
+        private final byte[] rowCountEnd;
+        private final byte[][] rowCountShardKeys;
 
         public FDBTableStatus(Table table) {
             this.tableID = table.getTableId();
             byte[] prefixBytes = FDBStoreDataHelper.prefixBytes(table.getPrimaryKeyIncludingInternal().getIndex());
             this.rowCountKey = ByteArrayUtil.join(packedTableStatusPrefix, prefixBytes, ROW_COUNT_PACKED);
+            this.rowCountEnd = ByteArrayUtil.strinc(rowCountKey);
+            this.rowCountShardKeys = new byte[rowCountShards][];
+            // Shard 0 is the unsharded key, so existing counts still add up.
+            rowCountShardKeys[0] = rowCountKey;
+            for (int i = 1; i < rowCountShards; i++) {
+                rowCountShardKeys[i] = ByteArrayUtil.join(rowCountKey, Tuple2.from(i).pack());
+            }
         }
 
         @Override
@@ -134,13 +158,12 @@ public class FDBTableStatusCache implements TableStatusCache {
         @Override
         public void rowsWritten(Session session, long count) {
             TransactionState txn = txnService.getTransaction(session);
-            txn.mutate(MutationType.ADD, rowCountKey, packForAtomicOp(count));
+            txn.mutate(MutationType.ADD, shardKey(), packForAtomicOp(count));
         }
 
         @Override
         public void truncate(Session session) {
-            TransactionState txn = txnService.getTransaction(session);
-            txn.setBytes(rowCountKey, packForAtomicOp(0));
+            setRowCount(session, 0);
         }
 
         @Override
@@ -162,20 +185,36 @@ public class FDBTableStatusCache implements TableStatusCache {
         @Override
         public void setRowCount(Session session, long rowCount) {
             TransactionState txn = txnService.getTransaction(session);
+            txn.clearRange(rowCountKey, rowCountEnd);
             txn.setBytes(rowCountKey, packForAtomicOp(rowCount));
         }
 
         private void clearState(Session session) {
             TransactionState txn = txnService.getTransaction(session);
-            txn.clearKey(rowCountKey);
+            txn.clearRange(rowCountKey, rowCountEnd);
+        }
+
+        /** Writers on different threads mostly add to different keys. */
+        private byte[] shardKey() {
+            return rowCountShardKeys[(int)(Thread.currentThread().getId() % rowCountShards)];
         }
 
         private long getRowCount(TransactionState txn, boolean snapshot) {
-            if (snapshot) {
-                return unpackForAtomicOp(txn.getSnapshotValue(rowCountKey));
-            } else {
-                return unpackForAtomicOp(txn.getValue(rowCountKey));
+            List<KeyValue> shards;
+            try {
+                if (snapshot) {
+                    shards = txn.getSnapshotRangeAsFutureList(rowCountKey, rowCountEnd, Transaction.ROW_LIMIT_UNLIMITED, false).get();
+                } else {
+                    shards = txn.getRangeAsValueList(rowCountKey, rowCountEnd);
+                }
+            } catch (RuntimeException e) {
+                throw FDBAdapter.wrapFDBException(txn.getSession(), e);
+            }
+            long count = 0;
+            for (KeyValue kv : shards) {
+                count += unpackForAtomicOp(kv.getValue());
             }
+            return count;
         }
     }
 }
@@ -63,6 +63,25 @@ public abstract class AkCollator {
         throw new AssertionError("no value");
     }
 
+    /** Like {@link #hashValue}, but with all 64 bits, for large sets of keys. */
+    public static long hashValue64(ValueSource valueSource, AkCollator collator) {
+        if (valueSource.isNull())
+            return 0;
+        Object obj = valueSource.getObject();
+        if (obj instanceof String) {
+            return collator.hashCode64(valueSource.getString());
+        }
+        if (obj instanceof WrappingByteSource) {
+            obj = ((WrappingByteSource)obj).byteArray();
+        }
+        if (obj instanceof byte[]) {
+            byte[] bytes = (byte[])obj;
+            assert (collator != null) : "encoded as bytes without collator";
+            return collator.hashCode64(bytes);
+        }
+        throw new AssertionError("no value");
+    }
+
     private final String collationScheme;
     private final int collationId;
 
@@ -154,6 +173,11 @@ public abstract class AkCollator {
 
     abstract public int hashCode(final byte[] bytes);
 
+    /** A 64-bit hash consistent with {@link #hashCode(String)}'s notion of equality. */
+    abstract public long hashCode64(final String string);
+
+    abstract public long hashCode64(final byte[] bytes);
+
     @Override
     public String toString() {
         return collationScheme;
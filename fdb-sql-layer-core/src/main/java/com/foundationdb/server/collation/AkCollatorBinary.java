@@ -78,6 +78,21 @@ public class AkCollatorBinary extends AkCollator {
         return hashCode(internalDecodeSortKeyBytes(bytes, 0, bytes.length));
     }
 
+    /** FNV-1a over the characters. */
+    @Override
+    public long hashCode64(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public long hashCode64(byte[] bytes) {
+        return hashCode64(internalDecodeSortKeyBytes(bytes, 0, bytes.length));
+    }
+
     private String internalDecodeSortKeyBytes(byte[] bytes, int index, int length) {
         return new String(bytes, index, length, UTF8);
     }
@@ -17,8 +17,10 @@
 package com.foundationdb.server.collation;
 
 
+import com.foundationdb.server.util.LRUCacheMap;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedBytes;
 import com.ibm.icu.text.Collator;
 import com.persistit.Key;
 import com.persistit.util.Util;
@@ -29,12 +31,28 @@ public class AkCollatorICU extends AkCollator {
 
     private final CollationSpecifier collationSpecifier;
 
+    /** Number of sort keys each thread keeps for repeated values. */
+    static final int KEY_CACHE_SIZE = 1024;
+    /** Longer strings are not worth keeping: they rarely repeat and take up the most room. */
+    static final int KEY_CACHE_MAX_LENGTH = 64;
+
     final ThreadLocal<Collator> collator = new ThreadLocal<Collator>() {
         protected Collator initialValue() {
             return AkCollatorFactory.forScheme(collationSpecifier);
         }
     };
 
+    /**
+     * Sort keys recently computed by this thread. Like the collator,
+     * thread-private, so no locking. The cached arrays are shared
+     * with callers and must not be modified.
+     */
+    final ThreadLocal<LRUCacheMap<String,byte[]>> keyCache = new ThreadLocal<LRUCacheMap<String,byte[]>>() {
+        protected LRUCacheMap<String,byte[]> initialValue() {
+            return new LRUCacheMap<>(KEY_CACHE_SIZE);
+        }
+    };
+
     /**
      * Create an AkCollator which may be used in across multiple threads. Each
      * instance of AkCollator has a ThreadLocal which optionally contains a
@@ -68,6 +86,18 @@ public class AkCollatorICU extends AkCollator {
 
     @Override
     public int compare(String source, String target) {
+        // When both sort keys are already known, comparing their
+        // bytes is cheaper than another ICU comparison.
+        if ((source.length() <= KEY_CACHE_MAX_LENGTH) && (target.length() <= KEY_CACHE_MAX_LENGTH)) {
+            LRUCacheMap<String,byte[]> cache = keyCache.get();
+            byte[] sourceKey = cache.get(source);
+            if (sourceKey != null) {
+                byte[] targetKey = cache.get(target);
+                if (targetKey != null) {
+                    return UnsignedBytes.lexicographicalComparator().compare(sourceKey, targetKey);
+                }
+            }
+        }
         return collator.get().compare(source, target);
     }
 
@@ -77,7 +107,9 @@ public class AkCollatorICU extends AkCollator {
     }
 
     /**
-     * Construct the sort key bytes for the given String value
+     * Construct the sort key bytes for the given String value. Short
+     * values are remembered, so the result may be shared and must not
+     * be modified.
      * 
      * @param value
      *            the String
@@ -85,6 +117,19 @@ public class AkCollatorICU extends AkCollator {
      */
     @Override
     public byte[] encodeSortKeyBytes(String value) {
+        if (value.length() > KEY_CACHE_MAX_LENGTH) {
+            return computeSortKeyBytes(value);
+        }
+        LRUCacheMap<String,byte[]> cache = keyCache.get();
+        byte[] bytes = cache.get(value);
+        if (bytes == null) {
+            bytes = computeSortKeyBytes(value);
+            cache.put(value, bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] computeSortKeyBytes(String value) {
         byte[] bytes = collator.get().getCollationKey(value).toByteArray();
         return Arrays.copyOf(bytes, bytes.length - 1); // Remove terminating null.
     }
@@ -99,9 +144,7 @@ public class AkCollatorICU extends AkCollator {
 
     @Override
     public int hashCode(String string) {
-        byte[] bytes = collator.get().getCollationKey(string).toByteArray();
-        bytes = Arrays.copyOfRange(bytes, 0, bytes.length-1); // remove null terminating character
-        return hashCode(bytes);
+        return hashCode(encodeSortKeyBytes(string));
     }
 
     @Override
@@ -119,5 +162,16 @@ public class AkCollatorICU extends AkCollator {
         return collationSpecifier.toString();
     }
 
+    @Override
+    public long hashCode64(String string) {
+        return hashCode64(encodeSortKeyBytes(string));
+    }
+
+    @Override
+    public long hashCode64(byte[] bytes) {
+        return hashFunction64.hashBytes(bytes, 0, bytes.length).asLong();
+    }
+
     private static final HashFunction hashFunction = Hashing.goodFastHash(32); // Because we're returning ints
+    private static final HashFunction hashFunction64 = Hashing.goodFastHash(64);
 }
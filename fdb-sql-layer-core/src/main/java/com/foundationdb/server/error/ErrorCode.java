@@ -260,7 +260,7 @@ public enum ErrorCode {
     
     // Class 40 - transaction rollback
     QUERY_TIMEOUT           ("40", "000", Importance.ERROR, QueryTimedOutException.class),
-    //40001
+    TRANSACTION_CONFLICT    ("40", "001", Importance.DEBUG, TransactionConflictException.class),
     FDB_NOT_COMMITTED       ("40", "002", Importance.ERROR, FDBNotCommittedException.class),
     FDB_COMMIT_UNKNOWN_RESULT ("40", "003", Importance.ERROR, FDBCommitUnknownResultException.class),
     FDB_PAST_VERSION        ("40", "004", Importance.ERROR, FDBPastVersionException.class),
@@ -481,6 +481,7 @@ public enum ErrorCode {
     NOT_ALLOWED_BY_CONFIG   ("53", "00G", Importance.ERROR, NotAllowedByConfigException.class),
     JOIN_GRAPH_FAILURE      ("53", "00H", Importance.ERROR, FailedJoinGraphCreationException.class),
     CORRUPTED_PLAN          ("53", "00I", Importance.ERROR, CorruptedPlanException.class),
+    SPILL_IO                ("53", "00J", Importance.ERROR, SpillIOException.class),
     
     // Class 55 - Type conversion errors
     UNKNOWN_TYPE            ("55", "001", Importance.DEBUG, UnknownDataTypeException.class),
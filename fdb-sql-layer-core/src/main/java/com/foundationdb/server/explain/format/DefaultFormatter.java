@@ -273,12 +273,19 @@ public class DefaultFormatter
         case UNION: // ALL
             appendUnionOperator(name, atts);
             break;
+        case INTERSECT:
+        case EXCEPT:
+            appendHashedSetOperator(name, atts);
+            break;
         case BUFFER_OPERATOR:
             appendBufferOperator(name, atts);
             break;
         case HKEY_OPERATOR:
             appendHKeyOperator(name, atts);
             break;
+        case EXCHANGE:
+            appendExchangeOperator(name, atts);
+            break;
         default:
             throw new UnsupportedOperationException("Formatter does not recognize " + 
                                                     explainer.getType());
@@ -633,6 +640,9 @@ public class DefaultFormatter
             if (atts.containsKey(Label.LIMIT)) {
                 sb.append("LIMIT ").append(atts.getValue(Label.LIMIT)).append(", ");
             }
+            if (atts.containsKey(Label.PRESORTED)) {
+                sb.append("PRESORTED ").append(atts.getValue(Label.PRESORTED)).append(", ");
+            }
             String opt = (String)atts.getValue(Label.SORT_OPTION);
             if (opt.equals("PRESERVE_DUPLICATES"))
                 sb.setLength(sb.length() - 2);
@@ -807,6 +817,9 @@ public class DefaultFormatter
         }
     }
 
+    protected void appendHashedSetOperator(String name, Attributes atts) {
+    }
+
     protected void appendBufferOperator(String name, Attributes atts) {
     }
 
@@ -820,6 +833,13 @@ public class DefaultFormatter
         }
     }
 
+    protected void appendExchangeOperator(String name, Attributes atts) {
+        sb.append(atts.getValue(Label.PARTITIONS));
+        if (levelOfDetail != LevelOfDetail.BRIEF) {
+            sb.append(", ").append(atts.getValue(Label.ORDERING));
+        }
+    }
+
     protected void appendProcedure(CompoundExplainer explainer, int depth) {
         sb.append("CALL ");
         Attributes atts = explainer.get();
@@ -1066,6 +1066,8 @@ public class BasicDDLFunctions implements DDLFunctions {
             if(!changeState.dataAffectedGI.containsKey(entry.getKey())) {
                 // TODO: Maybe need a way to say copy without the tree name part?
                 tempIndex.copyStorageDescription(origIndex);
+            } else if(origIndex.getStorageDescription() != null) {
+                tempIndex.setStorageDescription(getStorageFormatRegistry().rebuildStorageDescription(origIndex.getStorageDescription(), tempIndex));
             }
             indexesToBuild.add(tempIndex);
         }
@@ -19,6 +19,7 @@ package com.foundationdb.server.store;
 
 import com.foundationdb.KeyValue;
 import com.foundationdb.KeySelector;
+import com.foundationdb.StreamingMode;
 import com.foundationdb.Transaction;
 import com.foundationdb.async.AsyncIterator;
 import com.foundationdb.async.Future;
@@ -44,6 +45,7 @@ public class FDBScanCommittingIterator implements AsyncIterator<KeyValue>
     private final int limit;
     private final boolean reverse;
     private final FDBScanTransactionOptions options;
+    private final StreamingMode streamingMode;
     private AsyncIterator<KeyValue> underlying = null;
     private KeyValue lastKeyValue = null;
     private int count, totalCount = 0;
@@ -53,12 +55,21 @@ public class FDBScanCommittingIterator implements AsyncIterator<KeyValue>
                                      KeySelector start, KeySelector end,
                                      int limit, boolean reverse,
                                      FDBScanTransactionOptions options) {
+        this(transaction, start, end, limit, reverse, options, options.streamingMode(limit));
+    }
+
+    public FDBScanCommittingIterator(TransactionState transaction,
+                                     KeySelector start, KeySelector end,
+                                     int limit, boolean reverse,
+                                     FDBScanTransactionOptions options,
+                                     StreamingMode streamingMode) {
         this.transaction = transaction;
         this.start = start;
         this.end = end;
         this.limit = limit;
         this.reverse = reverse;
         this.options = options;
+        this.streamingMode = streamingMode;
     }
 
     @Override
@@ -146,10 +157,10 @@ public class FDBScanCommittingIterator implements AsyncIterator<KeyValue>
                 limit -= totalCount;
             }
             if (options.isSnapshot()) {
-                underlying = transaction.getSnapshotRangeIterator(start, end, limit, reverse);
+                underlying = transaction.getSnapshotRangeIterator(start, end, limit, reverse, streamingMode);
             }
             else {
-                underlying = transaction.getRangeIterator(start, end, limit, reverse);
+                underlying = transaction.getRangeIterator(start, end, limit, reverse, streamingMode);
             }
             count = 0;
             resetCount = transaction.getResetCount();
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.KeySelector;
+import com.foundationdb.KeyValue;
+import com.foundationdb.StreamingMode;
+import com.foundationdb.Transaction;
+import com.foundationdb.async.AsyncIterator;
+import com.foundationdb.async.Function;
+import com.foundationdb.async.Future;
+import com.foundationdb.async.ReadyFuture;
+import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over <code>KeyValue</code> pairs that splits its range
+ * at storage shard boundaries and reads all the pieces at once.
+ * <p>
+ * The pieces are returned one after the other, so the result is
+ * exactly that of a single range read, but later pieces are already
+ * fetching while earlier ones are consumed.
+ */
+public class FDBScanParallelIterator implements AsyncIterator<KeyValue>
+{
+    private static final Logger logger = LoggerFactory.getLogger(FDBScanParallelIterator.class);
+
+    private final List<AsyncIterator<KeyValue>> ranges;
+    private AsyncIterator<KeyValue> current;
+
+    /** Split the given forward range, if worthwhile.
+     * @return the parallel iterator or <code>null</code> if the range
+     * lies within a single known shard.
+     */
+    public static FDBScanParallelIterator create(TransactionState transaction,
+                                                 FDBShardBoundaries boundaries,
+                                                 KeySelector start, KeySelector end,
+                                                 FDBScanTransactionOptions options,
+                                                 StreamingMode streamingMode) {
+        if (boundaries == null) {
+            return null;
+        }
+        List<byte[]> splits = boundaries.splitPoints(start.getKey(), end.getKey(),
+                                                     options.getParallelRanges());
+        if (splits.isEmpty()) {
+            return null;
+        }
+        logger.debug("Splitting scan into {} ranges", splits.size() + 1);
+        List<AsyncIterator<KeyValue>> ranges = new ArrayList<>(splits.size() + 1);
+        KeySelector left = start;
+        for (byte[] split : splits) {
+            KeySelector right = KeySelector.firstGreaterOrEqual(split);
+            ranges.add(rangeIterator(transaction, left, right, options, streamingMode));
+            left = right;
+        }
+        ranges.add(rangeIterator(transaction, left, end, options, streamingMode));
+        return new FDBScanParallelIterator(ranges);
+    }
+
+    private static AsyncIterator<KeyValue> rangeIterator(TransactionState transaction,
+                                                         KeySelector start, KeySelector end,
+                                                         FDBScanTransactionOptions options,
+                                                         StreamingMode streamingMode) {
+        AsyncIterator<KeyValue> iter;
+        if (options.isSnapshot()) {
+            iter = transaction.getSnapshotRangeIterator(start, end, Transaction.ROW_LIMIT_UNLIMITED, false, streamingMode);
+        }
+        else {
+            iter = transaction.getRangeIterator(start, end, Transaction.ROW_LIMIT_UNLIMITED, false, streamingMode);
+        }
+        // Start the first batch now so that all ranges are in flight together.
+        iter.onHasNext();
+        return iter;
+    }
+
+    protected FDBScanParallelIterator(List<AsyncIterator<KeyValue>> ranges) {
+        this.ranges = ranges;
+    }
+
+    @Override
+    public boolean hasNext() {
+        current = nextInOrder();
+        return (current != null);
+    }
+
+    @Override
+    public KeyValue next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return current.next();
+    }
+
+    @Override
+    public Future<Boolean> onHasNext() {
+        if (ranges.isEmpty()) {
+            current = null;
+            return new ReadyFuture<>(Boolean.FALSE);
+        }
+        final AsyncIterator<KeyValue> range = ranges.get(0);
+        return range.onHasNext().flatMap(new Function<Boolean,Future<Boolean>>() {
+                @Override
+                public Future<Boolean> apply(Boolean hasNext) {
+                    if (hasNext) {
+                        current = range;
+                        return new ReadyFuture<>(Boolean.TRUE);
+                    }
+                    // Exhausted: move on to the next range, without waiting here.
+                    range.dispose();
+                    ranges.remove(0);
+                    return onHasNext();
+                }
+            });
+    }
+
+    @Override
+    public void cancel() {
+        for (AsyncIterator<KeyValue> range : ranges) {
+            range.cancel();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (AsyncIterator<KeyValue> range : ranges) {
+            range.dispose();
+        }
+        ranges.clear();
+        current = null;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** The first range that still has anything left. */
+    protected AsyncIterator<KeyValue> nextInOrder() {
+        while (!ranges.isEmpty()) {
+            AsyncIterator<KeyValue> range = ranges.get(0);
+            if (range.hasNext()) {
+                return range;
+            }
+            range.dispose();
+            ranges.remove(0);
+        }
+        return null;
+    }
+}
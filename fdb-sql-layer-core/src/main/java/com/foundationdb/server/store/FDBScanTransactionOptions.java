@@ -17,6 +17,9 @@
 
 package com.foundationdb.server.store;
 
+import com.foundationdb.StreamingMode;
+import com.foundationdb.Transaction;
+
 /**
  * Control how a scan of an index / group interacts with transactions.
  */
@@ -29,6 +32,18 @@ public class FDBScanTransactionOptions
     private final int commitAfterRows;
     private final long commitAfterMillis;
     private final long sleepAfterCommit;
+    private final StreamingMode streamingMode;
+    private final long expectedRows;
+    private final int lookaheadQuantum;
+    private final int parallelRanges;
+
+    /** Expected row count of a scan when the planner did not supply one. */
+    public static final long UNKNOWN_ROW_COUNT = -1;
+
+    /** Scans expected to return no more than this many rows use small batches. */
+    public static final long SMALL_SCAN_ROWS = 20;
+    /** Scans expected to return at least this many rows fetch everything eagerly. */
+    public static final long LARGE_SCAN_ROWS = 10000;
 
     public FDBScanTransactionOptions() {
         this(false, -1, -1, -1);
@@ -52,6 +67,53 @@ public class FDBScanTransactionOptions
         this.commitAfterRows = commitAfterRows;
         this.commitAfterMillis = commitAfterMillis;
         this.sleepAfterCommit = sleepAfterCommit;
+        this.streamingMode = null;
+        this.expectedRows = UNKNOWN_ROW_COUNT;
+        this.lookaheadQuantum = 1;
+        this.parallelRanges = 1;
+    }
+
+    private FDBScanTransactionOptions(FDBScanTransactionOptions other,
+                                      StreamingMode streamingMode,
+                                      long expectedRows, int lookaheadQuantum,
+                                      int parallelRanges) {
+        this.snapshot = other.snapshot;
+        this.commitAfterRows = other.commitAfterRows;
+        this.commitAfterMillis = other.commitAfterMillis;
+        this.sleepAfterCommit = other.sleepAfterCommit;
+        this.streamingMode = streamingMode;
+        this.expectedRows = expectedRows;
+        this.lookaheadQuantum = lookaheadQuantum;
+        this.parallelRanges = parallelRanges;
+    }
+
+    /** Same transaction behavior, but always using the given streaming mode. */
+    public FDBScanTransactionOptions withStreamingMode(StreamingMode streamingMode) {
+        if (streamingMode == this.streamingMode) return this;
+        return new FDBScanTransactionOptions(this, streamingMode, expectedRows, lookaheadQuantum,
+                                             parallelRanges);
+    }
+
+    /** Same transaction behavior, but with hints from the operator
+     * about the expected size of the scan.
+     * @param expectedRows planner's estimate of rows returned by each scan,
+     * or {@link #UNKNOWN_ROW_COUNT}
+     * @param lookaheadQuantum number of such scans kept open at once
+     */
+    public FDBScanTransactionOptions withScanHints(long expectedRows, int lookaheadQuantum) {
+        if ((expectedRows == this.expectedRows) && 
+            (lookaheadQuantum == this.lookaheadQuantum)) return this;
+        return new FDBScanTransactionOptions(this, streamingMode, expectedRows, lookaheadQuantum,
+                                             parallelRanges);
+    }
+
+    /** Same transaction behavior, but split unlimited forward range reads
+     * into as many as <code>maxRanges</code> sub-ranges read concurrently.
+     */
+    public FDBScanTransactionOptions withParallelScan(int maxRanges) {
+        if (maxRanges == this.parallelRanges) return this;
+        return new FDBScanTransactionOptions(this, streamingMode, expectedRows, lookaheadQuantum,
+                                             maxRanges);
     }
 
     /** Should scan use snapshot read to avoid generating conflicts? */
@@ -97,4 +159,85 @@ public class FDBScanTransactionOptions
             Thread.sleep(sleepAfterCommit);
         }
     }
+
+    /** Explicitly requested streaming mode, or <code>null</code> to choose per scan. */
+    public StreamingMode getStreamingMode() {
+        return streamingMode;
+    }
+
+    /** Planner's estimate of the number of rows in each scan. */
+    public long getExpectedRows() {
+        return expectedRows;
+    }
+
+    /** Number of scans the operator keeps open concurrently. */
+    public int getLookaheadQuantum() {
+        return lookaheadQuantum;
+    }
+
+    /** Should range reads be split up and read concurrently?
+     * Not compatible with committing in the middle of the scan, which
+     * needs to know where a single scan left off.
+     */
+    public boolean isParallel() {
+        return (parallelRanges > 1) && !isCommitting();
+    }
+
+    /** The most sub-ranges that a parallel scan is split into. */
+    public int getParallelRanges() {
+        return parallelRanges;
+    }
+
+    /** The streaming mode to use for a range read returning at most
+     * <code>limit</code> key / value pairs.
+     */
+    public StreamingMode streamingMode(int limit) {
+        return streamingMode(limit, 1);
+    }
+
+    /** The streaming mode to use for a range read returning at most
+     * <code>limit</code> rows, each of which is stored as
+     * <code>keysPerRow</code> key / value pairs.
+     */
+    public StreamingMode streamingMode(int limit, int keysPerRow) {
+        if (streamingMode != null) {
+            return streamingMode;
+        }
+        return chooseStreamingMode(limit, keysPerRow, expectedRows, lookaheadQuantum);
+    }
+
+    /** Pick the batch size for a range read.
+     * A limited read asks for exactly what it needs in one round trip.
+     * Otherwise, the planner's estimate sizes the batches; several
+     * concurrent lookahead scans each get smaller batches so that
+     * they do not over-fetch when only a few of them get consumed.
+     * With no estimate, the binding's default of growing batches is used.
+     */
+    public static StreamingMode chooseStreamingMode(int limit, int keysPerRow,
+                                                    long expectedRows, int lookaheadQuantum) {
+        if (limit != Transaction.ROW_LIMIT_UNLIMITED) {
+            if (keysPerRow == 1) {
+                return StreamingMode.EXACT;
+            }
+            if ((expectedRows < 0) || (expectedRows > limit)) {
+                expectedRows = limit;
+            }
+        }
+        if (expectedRows < 0) {
+            if (lookaheadQuantum > 1) {
+                return StreamingMode.SMALL;
+            }
+            return StreamingMode.ITERATOR;
+        }
+        long expectedKeys = expectedRows * keysPerRow;
+        if (expectedKeys <= SMALL_SCAN_ROWS) {
+            return StreamingMode.SMALL;
+        }
+        else if (expectedKeys < LARGE_SCAN_ROWS) {
+            return (lookaheadQuantum > 1) ? StreamingMode.SMALL : StreamingMode.MEDIUM;
+        }
+        else {
+            return (lookaheadQuantum > 1) ? StreamingMode.LARGE : StreamingMode.WANT_ALL;
+        }
+    }
 }
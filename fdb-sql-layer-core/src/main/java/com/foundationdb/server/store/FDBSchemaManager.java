@@ -114,6 +114,7 @@ public class FDBSchemaManager extends AbstractSchemaManager implements Service,
     private static final Logger LOG = LoggerFactory.getLogger(FDBSchemaManager.class);
 
     static final String CLEAR_INCOMPATIBLE_DATA_PROP = "fdbsql.fdb.clear_incompatible_data";
+    static final String ROW_COUNT_SHARDS_PROP = "fdbsql.fdb.row_count_shards";
     static final String EXTERNAL_CLEAR_MSG = "SQL Layer metadata has been externally modified. Restart required.";
     static final String EXTERNAL_VER_CHANGE_MSG = "SQL Layer version has been changed from another node.";
 
@@ -200,7 +201,8 @@ public class FDBSchemaManager extends AbstractSchemaManager implements Service,
 
         initSchemaManagerDirectory();
         this.virtualTableAIS = new AkibanInformationSchema();
-        this.tableStatusCache = new FDBTableStatusCache(holder, txnService);
+        this.tableStatusCache = new FDBTableStatusCache(holder, txnService,
+                                                        Integer.parseInt(config.getProperty(ROW_COUNT_SHARDS_PROP)));
 
         try(Session session = sessionService.createSession()) {
             txnService.run(session, new Runnable() {
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.Database;
+import com.foundationdb.LocalityUtil;
+import com.foundationdb.async.CloseableAsyncIterator;
+import com.foundationdb.tuple.ByteArrayUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A cache of the storage shard boundaries, for splitting up parallel scans.
+ * <p>
+ * Looking up boundaries is a round trip to the cluster, which a scan should
+ * not have to wait for. So lookups only consult the cache, and refreshing it
+ * happens in the background when it is older than <code>refreshMillis</code>.
+ * Until the first refresh finishes, nothing is split. Stale boundaries only
+ * make the pieces less even: any split points give the same rows.
+ */
+public class FDBShardBoundaries
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FDBShardBoundaries.class);
+
+    private static final byte[] USER_BEGIN = new byte[0];
+    private static final byte[] USER_END = { (byte)0xFF };
+
+    private static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] b1, byte[] b2) {
+            return ByteArrayUtil.compareUnsigned(b1, b2);
+        }
+    };
+
+    private final Database database;
+    private final long refreshMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService executor;
+    private volatile byte[][] boundaries;
+    private volatile long refreshedAt;
+
+    public FDBShardBoundaries(Database database, long refreshMillis) {
+        this.database = database;
+        this.refreshMillis = refreshMillis;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FDB_SHARD_BOUNDARIES");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /** Pick no more than <code>maxRanges - 1</code> known shard boundaries
+     * strictly inside of <code>begin</code> and <code>end</code>,
+     * spaced evenly among all of them.
+     */
+    public List<byte[]> splitPoints(byte[] begin, byte[] end, int maxRanges) {
+        byte[][] current = boundaries;
+        if (System.currentTimeMillis() - refreshedAt > refreshMillis) {
+            refreshInBackground();
+        }
+        if (current == null) {
+            return new ArrayList<>();
+        }
+        int from = Arrays.binarySearch(current, begin, UNSIGNED);
+        from = (from < 0) ? -(from + 1) : from + 1;
+        int to = Arrays.binarySearch(current, end, UNSIGNED);
+        to = (to < 0) ? -(to + 1) : to;
+        return choose(Arrays.asList(current).subList(from, Math.max(from, to)), maxRanges);
+    }
+
+    /** Spread no more than <code>maxRanges - 1</code> split points evenly among <code>boundaries</code>. */
+    public static List<byte[]> choose(List<byte[]> boundaries, int maxRanges) {
+        int nsplits = Math.min(boundaries.size(), maxRanges - 1);
+        if (nsplits <= 0) {
+            return new ArrayList<>();
+        }
+        if (nsplits == boundaries.size()) {
+            return new ArrayList<>(boundaries);
+        }
+        List<byte[]> splits = new ArrayList<>(nsplits);
+        for (int i = 1; i <= nsplits; i++) {
+            splits.add(boundaries.get((i * boundaries.size()) / (nsplits + 1)));
+        }
+        return splits;
+    }
+
+    /** Replace the cached boundaries, which must be in key order. */
+    public void setBoundaries(List<byte[]> boundaries) {
+        this.boundaries = boundaries.toArray(new byte[boundaries.size()][]);
+        this.refreshedAt = System.currentTimeMillis();
+    }
+
+    /** Read all the boundaries now. */
+    public void refresh() {
+        List<byte[]> keys = new ArrayList<>();
+        CloseableAsyncIterator<byte[]> iter = LocalityUtil.getBoundaryKeys(database, USER_BEGIN, USER_END);
+        try {
+            while (iter.hasNext()) {
+                keys.add(iter.next());
+            }
+        }
+        finally {
+            iter.close();
+        }
+        setBoundaries(keys);
+        LOG.debug("Found {} shard boundaries", keys.size());
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    protected void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresh();
+                        }
+                        catch (RuntimeException ex) {
+                            LOG.warn("Error reading shard boundaries", ex);
+                            // Do not try again right away.
+                            refreshedAt = System.currentTimeMillis();
+                        }
+                        finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+        }
+        catch (RuntimeException ex) {
+            // Shut down.
+            refreshing.set(false);
+        }
+    }
+}
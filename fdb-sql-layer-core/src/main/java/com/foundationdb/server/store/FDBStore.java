@@ -35,7 +35,9 @@ import com.foundationdb.ais.util.TableChangeValidator.ChangeLevel;
 import com.foundationdb.async.AsyncIterator;
 import com.foundationdb.directory.DirectorySubspace;
 import com.foundationdb.directory.PathUtil;
+import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.IndexRow;
+import com.foundationdb.qp.row.LazyDecodingRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.row.WriteIndexRow;
 import com.foundationdb.qp.row.OverlayingRow;
@@ -63,7 +65,6 @@ import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.foundationdb.server.types.aksql.aktypes.AkBlob;
 import com.foundationdb.server.types.aksql.aktypes.AkGUID;
 import com.foundationdb.server.types.service.TypesRegistryService;
-import com.foundationdb.server.util.ReadWriteMap;
 import com.foundationdb.tuple.Tuple2;
 import com.foundationdb.tuple.Tuple;
 import com.google.inject.Inject;
@@ -71,40 +72,41 @@ import com.persistit.Key;
 import com.persistit.Persistit;
 import com.persistit.Value;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.foundationdb.server.store.FDBStoreDataHelper.*;
 
 public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDescription> implements Service {
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
-    private static final Session.MapKey<Object, SequenceCache> SEQ_UPDATES_KEY = Session.MapKey.mapNamed("SEQ_UPDATE");
 
     private final FDBHolder holder;
     private final ConfigurationService configService;
     private final FDBSchemaManager schemaManager;
     private final FDBTransactionService txnService;
     private final MetricsService metricsService;
-    private final ReadWriteMap<Object, SequenceCache> sequenceCache;
+    private final ConcurrentMap<Object, SequenceCache> sequenceCache;
     private static LobService lobService;
 
     private static final String ROWS_FETCHED_METRIC = "SQLLayerRowsFetched";
     private static final String ROWS_STORED_METRIC = "SQLLayerRowsStored";
     private static final String ROWS_CLEARED_METRIC = "SQLLayerRowsCleared";
     private static final String CONFIG_SEQUENCE_CACHE_SIZE = "fdbsql.fdb.sequence_cache_size";
+    private static final String CONFIG_SEQUENCE_CACHE_MAX_SIZE = "fdbsql.fdb.sequence_cache_max_size";
+    private static final String CONFIG_SEQUENCE_CACHE_STRIPES = "fdbsql.fdb.sequence_cache_stripes";
 
     private LongMetric rowsFetchedMetric, rowsStoredMetric, rowsClearedMetric;
     private DirectorySubspace rootDir;
-    private int sequenceCacheSize;
+    private int sequenceCacheSize, sequenceCacheMaxSize, sequenceCacheStripes;
 
 
     @Inject
@@ -130,41 +132,33 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
             throw new IllegalStateException("Only usable with FDBTransactionService, found: " + txnService);
         }
         this.metricsService = metricsService;
-        this.sequenceCache = ReadWriteMap.wrapFair(new HashMap<Object, SequenceCache>());
+        this.sequenceCache = new ConcurrentHashMap<>();
         lobService = serviceManager.getServiceByClass(LobService.class);
     }
 
     @Override
     public long nextSequenceValue(Session session, Sequence sequence) {
-        Map<Object, SequenceCache> sessionMap = session.get(SEQ_UPDATES_KEY);
-        SequenceCache cache = null;
-        if(sessionMap != null) {
-            cache = sessionMap.get(SequenceCache.cacheKey(sequence));
-        }
+        Object key = SequenceCache.cacheKey(sequence);
+        SequenceCache cache = sequenceCache.get(key);
         if(cache == null) {
-            cache = sequenceCache.getOrCreateAndPut(SequenceCache.cacheKey(sequence), SEQUENCE_CACHE_VALUE_CREATOR);
-            long readTimestamp = txnService.getTransactionStartTimestamp(session);
-            if(readTimestamp < cache.getTimestamp()) {
-                cache = null;
+            SequenceCache newCache = new SequenceCache(sequenceCacheStripes, sequenceCacheSize, sequenceCacheMaxSize);
+            cache = sequenceCache.putIfAbsent(key, newCache);
+            if(cache == null) {
+                cache = newCache;
             }
         }
-        long rawValue = (cache != null) ? cache.nextCacheValue() : -1;
-        if(rawValue < 0) {
-            rawValue = updateSequenceCache(session, sequence);
-        }
+        long rawValue = cache.nextCacheValue(new SequenceBlockAllocator(session, prefixBytes(sequence)));
         return sequence.realValueForRawNumber(rawValue);
     }
 
     @Override
     public long curSequenceValue(Session session, Sequence sequence) {
         long rawValue = 0;
-        SequenceCache cache = sequenceCache.get(sequence.getStorageUniqueKey());
-        if(cache == null) {
-            cache = session.get(SEQ_UPDATES_KEY, sequence.getStorageUniqueKey());
-        }
+        SequenceCache cache = sequenceCache.get(SequenceCache.cacheKey(sequence));
         if (cache != null) {
             rawValue = cache.getCurrentValue();
-        } else {
+        }
+        if (rawValue == 0) {
             // TODO: Allow FDBStorageDescription to intervene?
             TransactionState txn = txnService.getTransaction(session);
             byte[] byteValue = txn.getValue(prefixBytes(sequence));
@@ -203,6 +197,8 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
 
         boolean withConcurrentDML = Boolean.parseBoolean(configService.getProperty(FEATURE_DDL_WITH_DML_PROP));
         this.sequenceCacheSize = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_CACHE_SIZE));
+        this.sequenceCacheMaxSize = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_CACHE_MAX_SIZE));
+        this.sequenceCacheStripes = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_CACHE_STRIPES));
         this.constraintHandler = new FDBConstraintHandler(this, configService, typesRegistryService, serviceManager, txnService);
         this.onlineHelper = new OnlineHelper(txnService, schemaManager, this, typesRegistryService, constraintHandler, withConcurrentDML);
         listenerService.registerRowListener(onlineHelper);
@@ -594,6 +590,32 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
         unpackKey(storeData);
         return expandRow(session, storeData, schema);
     }
+
+    @Override
+    public Row expandRow(Session session, FDBStoreData storeData, Schema schema) {
+        Row row = super.expandRow(session, storeData, schema);
+        setHKeySource(row, storeData);
+        return row;
+    }
+
+    /** Let a lazily decoded row decode its hKey from the stored key if asked. */
+    public void setHKeySource(Row row, FDBStoreData storeData) {
+        if ((row instanceof LazyDecodingRow) && (storeData.rawKey != null)) {
+            // The raw key array is not reused for the next key.
+            final FDBStorageDescription storageDescription = storeData.storageDescription;
+            final byte[] rawKey = storeData.rawKey;
+            ((LazyDecodingRow)row).setHKeySource(new LazyDecodingRow.HKeySource() {
+                    @Override
+                    public HKey decodeHKey(RowType rowType) {
+                        Key key = createKey();
+                        FDBStoreDataHelper.unpackTuple(storageDescription, key, rawKey);
+                        HKey hKey = newHKey(rowType.table().hKey());
+                        hKey.copyFrom(key);
+                        return hKey;
+                    }
+                });
+        }
+    }
     
     // Test only Traversal
     @Override
@@ -857,6 +879,22 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
                       1, transactionOptions);
     }
 
+    /** Start iterating over each of the given keys all at once, so that
+     * a whole block of lookups takes about one round trip.
+     * @return store data for each key, in the same order, with its iterator set up.
+     */
+    public List<FDBStoreData> groupKeysIterators(Session session, Group group, List<HKey> hKeys,
+                                                 FDBScanTransactionOptions transactionOptions) {
+        List<FDBStoreData> result = new ArrayList<>(hKeys.size());
+        for (HKey hKey : hKeys) {
+            FDBStoreData storeData = createStoreData(session, group);
+            hKey.copyTo(storeData.persistitKey.clear());
+            groupKeyIterator(session, storeData, transactionOptions);
+            result.add(storeData);
+        }
+        return result;
+    }
+
     /** Iterate over <code>storeData.persistitKey</code>'s descendants. */
     public void groupDescendantsIterator(Session session, FDBStoreData storeData) {
         groupIterator(session, storeData, 
@@ -968,33 +1006,45 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
 
     }
 
-    private long updateSequenceCache(Session session, Sequence s) {
-        Transaction tr = txnService.getTransaction(session).getTransaction();
-        byte[] prefixBytes = prefixBytes(s);
-        byte[] byteValue = tr.get(prefixBytes).get();
-        final long rawValue;
-        if(byteValue != null) {
-            Tuple2 tuple = Tuple2.fromBytes(byteValue);
-            rawValue = tuple.getLong(0);
-        } else {
-            rawValue = 1;
+    /** Allocate a block of sequence values in a transaction of its own,
+     * so that the user's transaction never conflicts on the sequence k/v.
+     */
+    private class SequenceBlockAllocator implements SequenceCache.BlockAllocator {
+        private final Session session;
+        private final byte[] prefixBytes;
+
+        public SequenceBlockAllocator(Session session, byte[] prefixBytes) {
+            this.session = session;
+            this.prefixBytes = prefixBytes;
         }
-        tr.set(prefixBytes, Tuple2.from(rawValue + sequenceCacheSize).pack());
 
-        Map<Object, SequenceCache> sessionMap = session.get(SEQ_UPDATES_KEY);
-        if(sessionMap == null) {
-            txnService.addCallback(session, TransactionService.CallbackType.COMMIT, SEQUENCE_UPDATES_PUT_CALLBACK);
-            txnService.addCallback(session, TransactionService.CallbackType.END, SEQUENCE_UPDATES_CLEAR_CALLBACK);
+        @Override
+        public long allocateBlock(final long size) {
+            try {
+                return holder.getDatabase().run(new Function<Transaction,Long>() {
+                        @Override
+                        public Long apply(Transaction tr) {
+                            byte[] byteValue = tr.get(prefixBytes).get();
+                            long rawValue;
+                            if(byteValue != null) {
+                                Tuple2 tuple = Tuple2.fromBytes(byteValue);
+                                rawValue = tuple.getLong(0);
+                            } else {
+                                rawValue = 1;
+                            }
+                            tr.set(prefixBytes, Tuple2.from(rawValue + size).pack());
+                            return rawValue;
+                        }
+                    });
+            } catch (RuntimeException e) {
+                throw FDBAdapter.wrapFDBException(session, e);
+            }
         }
-        SequenceCache newCache = SequenceCache.newLocal(rawValue, sequenceCacheSize);
-        session.put(SEQ_UPDATES_KEY, SequenceCache.cacheKey(s), newCache);
-        return rawValue;
     }
 
     private void removeFromCache(Session session, Collection<? extends Sequence> sequences) {
         for(Sequence s : sequences) {
-            session.remove(SEQ_UPDATES_KEY, SequenceCache.cacheKey(s));
-            sequenceCache.remove(s.getStorageUniqueKey());
+            sequenceCache.remove(SequenceCache.cacheKey(s));
         }
     }
 
@@ -1005,33 +1055,4 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
     int getSequenceCacheMapSize() {
         return sequenceCache.size();
     }
-
-    //
-    // Internal
-    //
-
-    private static final ReadWriteMap.ValueCreator<Object, SequenceCache> SEQUENCE_CACHE_VALUE_CREATOR =
-        new ReadWriteMap.ValueCreator<Object, SequenceCache>() {
-            public SequenceCache createValueForKey (Object key) {
-                return SequenceCache.newEmpty();
-            }
-        };
-
-    private static final TransactionService.Callback SEQUENCE_UPDATES_CLEAR_CALLBACK = new TransactionService.Callback() {
-        @Override
-        public void run(Session session, long timestamp) {
-            session.remove(SEQ_UPDATES_KEY);
-        }
-    };
-
-    private final TransactionService.Callback SEQUENCE_UPDATES_PUT_CALLBACK = new TransactionService.Callback() {
-        @Override
-        public void run(Session session, long timestamp) {
-            Map<Object, SequenceCache> map = session.get(SEQ_UPDATES_KEY);
-            for(Entry<Object, SequenceCache> entry : map.entrySet()) {
-                SequenceCache global = SequenceCache.newGlobal(timestamp, entry.getValue());
-                sequenceCache.put(entry.getKey(), global);
-            }
-        }
-    };
 }
@@ -16,11 +16,16 @@
  */
 package com.foundationdb.server.store;
 
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.server.service.session.Session;
 import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.persistit.Key;
 import com.persistit.Value;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * State used for traversing / modifying FDB storage.
  */
@@ -43,6 +48,10 @@ public class FDBStoreData {
     public NudgeDir nudgeDir;
     public Key endKey;
     public boolean exactEnd;
+    // Which fields of each table's rows will actually be read, if known
+    public Map<Table,boolean[]> neededFields;
+    // Bounds on column values of rows that will be kept, if known
+    public List<ScanColumnRange> columnRanges;
     
     public FDBStoreData(Session session, FDBStorageDescription storageDescription, Key persistitKey, Key endKey) {
         this.storageDescription = storageDescription;
@@ -17,10 +17,13 @@
 
 package com.foundationdb.server.store;
 
+import com.foundationdb.ais.model.AbstractVisitor;
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.HasStorage;
 import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.row.LazyDecodingRow;
 import com.foundationdb.qp.row.Row;
-import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.qp.rowtype.Schema;
 import com.foundationdb.qp.storeadapter.RowDataCreator;
@@ -36,9 +39,11 @@ import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
 import com.persistit.Key;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -124,23 +129,83 @@ public class FDBStoreDataHelper
         rowData.prepareRow(0);
 
         Table table = schema.ais().getTable(rowData.getRowDefId());
-        RowDef rowDef = table.rowDef();
-        RowDataExtractor extractor = new RowDataExtractor(rowData, rowDef);
-        List<Value> values = new ArrayList<>(rowDef.getFieldCount());
-        
         RowType rowType = schema.tableRowType(table);
-        assert rowDef.getFieldCount() == rowType.nFields() : rowData;
-        
-        for (int i = 0; i < rowDef.getFieldCount(); i++) {
+        assert table.rowDef().getFieldCount() == rowType.nFields() : rowData;
+        return new RowDataRow(rowType, table.rowDef(), rowData);
+    }
+
+    /** Fields are only extracted from the <code>RowData</code> as they are needed. */
+    static class RowDataRow extends LazyDecodingRow {
+        private final RowDef rowDef;
+        private final RowData rowData;
+        private RowDataExtractor extractor;
+
+        public RowDataRow(RowType rowType, RowDef rowDef, RowData rowData) {
+            super(rowType);
+            this.rowDef = rowDef;
+            this.rowData = rowData;
+        }
+
+        @Override
+        protected Value decodeValue(int i) {
+            if (extractor == null) {
+                extractor = new RowDataExtractor(rowData, rowDef);
+            }
             FieldDef fieldDef = rowDef.getFieldDef(i);
-            Value value = new Value (rowType.typeAt(i));
+            Value value = new Value(rowType().typeAt(i));
             ValueTargets.copyFrom(extractor.getValueSource(fieldDef), value);
-            values.add(value);
+            return value;
+        }
+    }
+
+    /** Which fields of each table in the group are among <code>neededColumns</code>.
+     * A table none of whose columns are needed is left out.
+     */
+    public static Map<Table,boolean[]> neededFields(Group group, final Set<Column> neededColumns) {
+        final Map<Table,boolean[]> result = new HashMap<>();
+        group.getRoot().visit(new AbstractVisitor() {
+                @Override
+                public void visit(Table table) {
+                    List<Column> columns = table.getColumnsIncludingInternal();
+                    boolean[] fields = new boolean[columns.size()];
+                    boolean any = false;
+                    for (int i = 0; i < fields.length; i++) {
+                        if (neededColumns.contains(columns.get(i))) {
+                            fields[i] = any = true;
+                        }
+                    }
+                    if (any) {
+                        result.put(table, fields);
+                    }
+                }
+            });
+        return result;
+    }
+
+    /** Whether the given field will be read, given {@link FDBStoreData#neededFields}. */
+    public static boolean isFieldNeeded(FDBStoreData storeData, Table table, int field) {
+        if (storeData.neededFields == null) {
+            return true;
+        }
+        boolean[] fields = storeData.neededFields.get(table);
+        return (fields != null) && fields[field];
+    }
+
+    /** The number of leading fields that include all those that will be read. */
+    public static int neededFieldsPrefix(FDBStoreData storeData, Table table) {
+        int nfields = table.getColumnsIncludingInternal().size();
+        if (storeData.neededFields == null) {
+            return nfields;
+        }
+        boolean[] fields = storeData.neededFields.get(table);
+        if (fields == null) {
+            return 0;
+        }
+        while ((nfields > 0) && !fields[nfields - 1]) {
+            nfields--;
         }
-        ValuesHolderRow row = new ValuesHolderRow(rowType, values);
-        return row;
+        return nfields;
     }
-    
 
     public static void packRow(Row row, FDBStoreData storeData) {
         RowDef rowDef = row.rowType().table().rowDef();
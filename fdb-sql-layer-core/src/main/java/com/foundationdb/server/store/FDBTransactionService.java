@@ -35,6 +35,7 @@ import com.foundationdb.KeySelector;
 import com.foundationdb.KeyValue;
 import com.foundationdb.MutationType;
 import com.foundationdb.Range;
+import com.foundationdb.StreamingMode;
 import com.foundationdb.Transaction;
 import com.foundationdb.async.AsyncIterable;
 import com.foundationdb.async.AsyncIterator;
@@ -87,6 +88,9 @@ public class FDBTransactionService implements TransactionService {
     protected static final String CONFIG_COMMIT_SCAN_LIMIT = "fdbsql.fdb.periodically_commit.scan_limit";
     protected static final String CONFIG_READ_AHEAD_DISABLE = "fdbsql.fdb.xact.read_ahead_disable";
     protected static final String CONFIG_READ_YOUR_WRITES_DISABLE = "fdbsql.fdb.xact.read_your_writes_disable";
+    protected static final String CONFIG_PARALLEL_SCAN_MAX_RANGES = "fdbsql.fdb.parallel_scan.max_ranges";
+    protected static final String CONFIG_PARALLEL_SCAN_MIN_ROWS = "fdbsql.fdb.parallel_scan.min_rows";
+    protected static final String CONFIG_PARALLEL_SCAN_BOUNDARY_REFRESH = "fdbsql.fdb.parallel_scan.boundary_refresh_millis";
     protected static final String UNIQUENESS_CHECKS_METRIC = "SQLLayerUniquenessPending";
 
     protected static final List<String> TRANSACTION_CHECK_DIR_PATH = Arrays.asList("transactionCheck");
@@ -97,6 +101,9 @@ public class FDBTransactionService implements TransactionService {
 
     private long commitAfterMillis, commitAfterBytes;
     private int commitScanLimit;
+    private int parallelScanMaxRanges;
+    private long parallelScanMinRows;
+    private FDBShardBoundaries shardBoundaries;
     private boolean readAheadDisable, readYourWritesDisable;
     private LongMetric uniquenessChecksMetric;
     private byte[] packedTransactionCheckPrefix;
@@ -207,9 +214,19 @@ public class FDBTransactionService implements TransactionService {
             return transaction.snapshot().getRange(start, end, limit, reverse).iterator();
         }
 
+        public AsyncIterator<KeyValue> getSnapshotRangeIterator(KeySelector start, KeySelector end, int limit, boolean reverse,
+                                                                StreamingMode streamingMode) {
+            return transaction.snapshot().getRange(start, end, limit, reverse, streamingMode).iterator();
+        }
+
         public AsyncIterator<KeyValue> getRangeIterator(KeySelector start, KeySelector end, int limit, boolean reverse) {
             return transaction.getRange(start, end, limit, reverse).iterator();
         }
+
+        public AsyncIterator<KeyValue> getRangeIterator(KeySelector start, KeySelector end, int limit, boolean reverse,
+                                                        StreamingMode streamingMode) {
+            return transaction.getRange(start, end, limit, reverse, streamingMode).iterator();
+        }
         
         public AsyncIterator<KeyValue> getRangeIterator(byte[] start, byte[] end) {
             return transaction.getRange(start, end, Transaction.ROW_LIMIT_UNLIMITED, false).iterator();
@@ -225,20 +242,43 @@ public class FDBTransactionService implements TransactionService {
 
         public AsyncIterator<KeyValue> getRangeIterator(byte[] start, byte[] end,
                                                         FDBScanTransactionOptions transactionOptions) {
-            return getRangeIterator(KeySelector.firstGreaterOrEqual(start), KeySelector.firstGreaterOrEqual(end), Transaction.ROW_LIMIT_UNLIMITED, false);
+            return getRangeIterator(start, end, transactionOptions,
+                                    transactionOptions.streamingMode(Transaction.ROW_LIMIT_UNLIMITED));
+        }
+
+        public AsyncIterator<KeyValue> getRangeIterator(byte[] start, byte[] end,
+                                                        FDBScanTransactionOptions transactionOptions,
+                                                        StreamingMode streamingMode) {
+            return getRangeIterator(KeySelector.firstGreaterOrEqual(start), KeySelector.firstGreaterOrEqual(end), Transaction.ROW_LIMIT_UNLIMITED, false,
+                                    streamingMode);
         }
 
         public AsyncIterator<KeyValue> getRangeIterator(KeySelector start, KeySelector end, int limit, boolean reverse,
                                                         FDBScanTransactionOptions transactionOptions) {
+            return getRangeIterator(start, end, limit, reverse, transactionOptions,
+                                    transactionOptions.streamingMode(limit));
+        }
+
+        public AsyncIterator<KeyValue> getRangeIterator(KeySelector start, KeySelector end, int limit, boolean reverse,
+                                                        FDBScanTransactionOptions transactionOptions,
+                                                        StreamingMode streamingMode) {
+            if (transactionOptions.isParallel() && !reverse &&
+                (limit == Transaction.ROW_LIMIT_UNLIMITED)) {
+                AsyncIterator<KeyValue> parallel = 
+                    FDBScanParallelIterator.create(this, shardBoundaries, start, end, transactionOptions, streamingMode);
+                if (parallel != null) {
+                    return parallel;
+                }
+            }
             if (transactionOptions.isCommitting()) {
                 return new FDBScanCommittingIterator(this, start, end, limit, reverse,
-                                                     transactionOptions);
+                                                     transactionOptions, streamingMode);
             }
             else if (transactionOptions.isSnapshot()) {
-                return getSnapshotRangeIterator(start, end, limit, reverse);
+                return getSnapshotRangeIterator(start, end, limit, reverse, streamingMode);
             }
             else {
-                return getRangeIterator(start, end, limit, reverse);
+                return getRangeIterator(start, end, limit, reverse, streamingMode);
             }
         }
 
@@ -372,6 +412,23 @@ public class FDBTransactionService implements TransactionService {
         session.put(ROLLBACK_KEY, Boolean.TRUE);
     }
 
+    /** Number of concurrent sub-ranges for a scan expected to return
+     * <code>expectedRows</code>, or 1 if it should not be split.
+     * Scans that are themselves part of a lookahead pipeline are not split.
+     */
+    public int parallelScanRanges(long expectedRows, int lookaheadQuantum) {
+        if ((parallelScanMaxRanges <= 1) || (lookaheadQuantum > 1) ||
+            (expectedRows < parallelScanMinRows)) {
+            return 1;
+        }
+        return parallelScanMaxRanges;
+    }
+
+    /** The shard boundaries used to split parallel scans. */
+    public FDBShardBoundaries getShardBoundaries() {
+        return shardBoundaries;
+    }
+
     public byte[] dirPathPrefix(List<String> dirPath) {
         return fdbHolder.getRootDirectory().createOrOpen(fdbHolder.getTransactionContext(), dirPath).get().pack();
     }
@@ -387,12 +444,20 @@ public class FDBTransactionService implements TransactionService {
         commitScanLimit =  Integer.parseInt(configService.getProperty(CONFIG_COMMIT_SCAN_LIMIT));
         readAheadDisable = Boolean.parseBoolean(configService.getProperty(CONFIG_READ_AHEAD_DISABLE));
         readYourWritesDisable = Boolean.parseBoolean(configService.getProperty(CONFIG_READ_YOUR_WRITES_DISABLE));
+        parallelScanMaxRanges = Integer.parseInt(configService.getProperty(CONFIG_PARALLEL_SCAN_MAX_RANGES));
+        parallelScanMinRows = Long.parseLong(configService.getProperty(CONFIG_PARALLEL_SCAN_MIN_ROWS));
+        shardBoundaries = new FDBShardBoundaries(fdbHolder.getDatabase(),
+                                                 Long.parseLong(configService.getProperty(CONFIG_PARALLEL_SCAN_BOUNDARY_REFRESH)));
         uniquenessChecksMetric = metricsService.addLongMetric(UNIQUENESS_CHECKS_METRIC);
         packedTransactionCheckPrefix = dirPathPrefix(TRANSACTION_CHECK_DIR_PATH);
     }
 
     @Override
     public void stop() {
+        if (shardBoundaries != null) {
+            shardBoundaries.close();
+            shardBoundaries = null;
+        }
     }
 
     @Override
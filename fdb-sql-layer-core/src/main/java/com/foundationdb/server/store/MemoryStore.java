@@ -27,9 +27,12 @@ import com.foundationdb.ais.model.Table;
 import com.foundationdb.ais.model.TableIndex;
 import com.foundationdb.ais.model.TableName;
 import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.IndexRow;
+import com.foundationdb.qp.row.LazyDecodingRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.row.WriteIndexRow;
+import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.qp.rowtype.Schema;
 import com.foundationdb.qp.storeadapter.MemoryAdapter;
 import com.foundationdb.qp.storeadapter.indexrow.SpatialColumnHandler;
@@ -462,6 +465,26 @@ public class MemoryStore extends AbstractStore<MemoryStore, MemoryStoreData, Mem
         return expandRow(session, storeData, schema);
     }
 
+    @Override
+    public Row expandRow(Session session, MemoryStoreData storeData, Schema schema) {
+        Row row = super.expandRow(session, storeData, schema);
+        if ((row instanceof LazyDecodingRow) && (storeData.rawKey != null)) {
+            final MemoryStorageDescription storageDescription = storeData.storageDescription;
+            final byte[] rawKey = storeData.rawKey;
+            ((LazyDecodingRow)row).setHKeySource(new LazyDecodingRow.HKeySource() {
+                    @Override
+                    public HKey decodeHKey(RowType rowType) {
+                        Key key = createKey();
+                        unpackKey(storageDescription, rawKey, key);
+                        HKey hKey = newHKey(rowType.table().hKey());
+                        hKey.copyFrom(key);
+                        return hKey;
+                    }
+                });
+        }
+        return row;
+    }
+
     /** Iterate over the whole group. */
     public void groupIterator(Session session, MemoryStoreData storeData) {
         assert storeData.storageDescription.getObject() instanceof Group : storeData.storageDescription;
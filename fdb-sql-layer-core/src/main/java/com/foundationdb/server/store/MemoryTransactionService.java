@@ -20,10 +20,9 @@ package com.foundationdb.server.store;
 import com.foundationdb.ais.model.ForeignKey;
 import com.foundationdb.server.error.AkibanInternalException;
 import com.foundationdb.server.error.InvalidOperationException;
-import com.foundationdb.server.error.LockTimeoutException;
 import com.foundationdb.server.error.NoTransactionInProgressException;
-import com.foundationdb.server.error.QueryCanceledException;
 import com.foundationdb.server.error.TransactionAbortedException;
+import com.foundationdb.server.error.TransactionConflictException;
 import com.foundationdb.server.error.TransactionInProgressException;
 import com.foundationdb.server.service.session.Session;
 import com.foundationdb.server.service.session.Session.Key;
@@ -37,40 +36,45 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * KV storage (via TreeMap<byte[],byte[]) and transaction provider.
+ * KV storage (via ConcurrentSkipListMap<byte[],Version>) and transaction provider.
  *
- * Per-key locking providing repeatable read semantics. No gap locking.
+ * Multi-version concurrency control providing snapshot reads and serializable commits.
  *
- * gets() take read (shared) locks, sets() and clears() take write (exclusive) locks
- * and shared can be upgraded to exclusive 'optimistically' via tag (StampedLock-ish).
+ * Each key maps to a chain of committed versions, newest first. A transaction reads
+ * the newest version no later than the commit version current when it began, without
+ * taking any locks, so readers never block and never see uncommitted data.
  *
- * Uncommitted writes go directly into master KV after (exclusive) lock is acquired and an
- * undo log is maintained to restore proper state on rollback.
+ * Writes are buffered in the transaction and read back by it. At commit, keys and
+ * ranges that were read are checked against the keys written by every commit since
+ * the transaction began (optimistic validation), so the cost depends on concurrent
+ * activity and not on how much was read. If any overlap, the commit fails with a
+ * retryable error. Otherwise all writes are installed under the next commit version
+ * at once. Only this validate and install step, and taking a snapshot, are serialized.
  *
- * Lock acquisition has an aggressive (1s) timeout after which a retryable error is thrown.
+ * Versions no longer visible to any active transaction are pruned as keys are written.
  */
 public class MemoryTransactionService implements TransactionService
 {
@@ -78,20 +82,33 @@ public class MemoryTransactionService implements TransactionService
 
     private static final int PERIODIC_COMMIT_MILLS = 500;
     private static final int PERIODIC_COMMIT_BYTES = 100000;
-    private static final int LOCK_TIMEOUT_MILLIS = 1 * 1000;
     private static final Key<MemoryTransactionImpl> TXN_KEY = Key.named("TXN");
     private static final StackKey<Callback> PRE_COMMIT_KEY = StackKey.stackNamed("TXN_PRE_COMMIT");
     private static final StackKey<Callback> AFTER_END_KEY = StackKey.stackNamed("TXN_AFTER_END");
     private static final StackKey<Callback> AFTER_COMMIT_KEY = StackKey.stackNamed("TXN_AFTER_COMMIT");
     private static final StackKey<Callback> AFTER_ROLLBACK_KEY = StackKey .stackNamed("TXN_AFTER_ROLLBACK");
 
-    private final ConcurrentMap<BytesHolder,TaggedLock> locks;
-    private final KVMap db;
+    private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+    // Marks a buffered clear; compared by identity
+    private static final byte[] CLEARED = new byte[0];
+
+    private final ConcurrentSkipListMap<byte[],Version> db;
+    private final AtomicLong commitVersion;
+    private final Set<MemoryTransactionImpl> activeTransactions;
+    // Keys last written as clears, in commit order; guarded by commitLock
+    private final Deque<byte[]> clearedKeys;
+    // Keys written by commits some active snapshot predates, oldest first; guarded by commitLock
+    private final Deque<CommittedWrites> recentCommits;
+    private final Object commitLock;
 
     @Inject
     public MemoryTransactionService() {
-        this.locks = new ConcurrentHashMap<>();
-        this.db = new KVMap();
+        this.db = new ConcurrentSkipListMap<>(COMPARATOR);
+        this.commitVersion = new AtomicLong(0);
+        this.activeTransactions = Collections.newSetFromMap(new ConcurrentHashMap<MemoryTransactionImpl,Boolean>());
+        this.clearedKeys = new ArrayDeque<>();
+        this.recentCommits = new ArrayDeque<>();
+        this.commitLock = new Object();
     }
 
     //
@@ -105,9 +122,11 @@ public class MemoryTransactionService implements TransactionService
 
     @Override
     public void stop() {
-        locks.clear();
-        synchronized(db) {
+        synchronized(commitLock) {
             db.clear();
+            clearedKeys.clear();
+            recentCommits.clear();
+            activeTransactions.clear();
         }
     }
 
@@ -206,8 +225,8 @@ public class MemoryTransactionService implements TransactionService
     public boolean periodicallyCommit(Session session) {
         MemoryTransactionImpl txn = getTransactionInternal(session);
         if(txn.isTimeToCommit()) {
+            // Not clearing state, so end() starts the next snapshot.
             commitInternal(session, false, false);
-            txn.reset();
             return true;
         } else {
             return false;
@@ -333,7 +352,7 @@ public class MemoryTransactionService implements TransactionService
     }
 
     //
-    // TreeMapTransactionImplService
+    // MemoryTransactionService
     //
 
     public void addPendingCheck(Session session, MemoryIndexChecks.IndexCheck check) {
@@ -395,9 +414,9 @@ public class MemoryTransactionService implements TransactionService
         private final byte[] key;
         private final byte[] value;
 
-        public CopiedEntry(Entry<byte[], byte[]> entry) {
-            this.key = copy(entry.getKey());
-            this.value = copy(entry.getValue());
+        public CopiedEntry(byte[] key, byte[] value) {
+            this.key = copy(key);
+            this.value = copy(value);
         }
 
         @Override
@@ -421,92 +440,78 @@ public class MemoryTransactionService implements TransactionService
         }
     }
 
-    private static class KVMap extends TreeMap<byte[], byte[]>
+    /** A committed value, or clear if <code>value</code> is <code>null</code>, and the ones before it. */
+    private static class Version
     {
-        private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
-
-        private static final Comparator<byte[]> REVERSE_COMPARATOR = new Comparator<byte[]>() {
-            @Override
-            public int compare(byte[] o1, byte[] o2) {
-                return COMPARATOR.compare(o2, o1);
-            }
-        };
-
-        public KVMap() {
-            this(Collections.<byte[],byte[]>emptyMap(), false);
-        }
+        final long version;
+        final byte[] value;
+        volatile Version prev;
 
-        public KVMap(Map<byte[], byte[]> map, boolean reverse) {
-            super(reverse ? REVERSE_COMPARATOR : COMPARATOR);
-            putAll(map);
+        public Version(long version, byte[] value, Version prev) {
+            this.version = version;
+            this.value = value;
+            this.prev = prev;
         }
-    }
-
-    private static class TaggedLock
-    {
-        private final ReadWriteLock rwLock;
-        // ReadWriteLock does not support upgrading read to write.
-        // Tag is checked pre-read.unlock() and must match post-write.lock().
-        private final AtomicLong tag;
 
-        public TaggedLock() {
-            this.rwLock = new ReentrantReadWriteLock(true);
-            this.tag = new AtomicLong(0);
+        /** The version visible at <code>readVersion</code>, if any. */
+        public Version at(long readVersion) {
+            Version v = this;
+            while((v != null) && (v.version > readVersion)) {
+                v = v.prev;
+            }
+            return v;
         }
 
-        public void readUnlock() {
-            rwLock.readLock().unlock();
+        /** Drop versions that no transaction as of <code>oldestVersion</code> or later can see. */
+        public void prune(long oldestVersion) {
+            Version v = at(oldestVersion);
+            if(v != null) {
+                v.prev = null;
+            }
         }
 
-        public void writeUnlock() {
-            rwLock.writeLock().unlock();
+        @Override
+        public String toString() {
+            return "Version(" + version + "=" + (value == null ? null : Strings.hex(value)) + ")";
         }
+    }
 
-        public void readLock(Session session) {
-            tryLock(session, rwLock.readLock(), "shared");
-        }
+    /** The keys one commit wrote, sorted. */
+    private static class CommittedWrites
+    {
+        final long version;
+        final byte[][] keys;
 
-        public void writeLock(Session session) {
-            tryLock(session, rwLock.writeLock(), "exclusive");
-            tag.incrementAndGet();
+        public CommittedWrites(long version, byte[][] keys) {
+            this.version = version;
+            this.keys = keys;
         }
 
-        public void upgradeLock(Session session) {
-            final long saveTag = tag.get();
-            readUnlock();
-            tryLock(session, rwLock.writeLock(), "upgrade");
-            if(saveTag != tag.get()) {
-                writeUnlock();
-                throwTimeout(session, "optimistic upgrade");
-            }
-            tag.incrementAndGet();
+        public boolean contains(byte[] key) {
+            return Arrays.binarySearch(keys, key, COMPARATOR) >= 0;
         }
 
-        private static void tryLock(Session session, Lock lock, String lockType) {
-            try {
-                if(!lock.tryLock(LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
-                    throwTimeout(session, lockType);
-                }
-            } catch(InterruptedException e) {
-                throw new QueryCanceledException(session);
+        /** Whether any key is in <code>[beginKey, endKey)</code>. */
+        public boolean overlaps(byte[] beginKey, byte[] endKey) {
+            int pos = Arrays.binarySearch(keys, beginKey, COMPARATOR);
+            if(pos >= 0) {
+                return true;
             }
-        }
-
-        private static void throwTimeout(Session session, String lockType) {
-            LOG.trace("lock timeout: {}", lockType);
-            // No telling where this happened, e.g. row could be half written.
-            getTransactionInternal(session).isRollbackPending = true;
-            throw new LockTimeoutException(LOCK_TIMEOUT_MILLIS, lockType, MemoryTransactionService.class.getSimpleName());
+            pos = -(pos + 1);
+            return (pos < keys.length) && (COMPARATOR.compare(keys[pos], endKey) < 0);
         }
     }
 
     private class MemoryTransactionImpl implements MemoryTransaction
     {
         final Session session;
-        final List<UndoOp> undoLog;
-        final Set<BytesHolder> readLocked;
-        final Set<BytesHolder> writeLocked;
+        // Buffered writes, with CLEARED for clears
+        final NavigableMap<byte[],byte[]> writes;
+        // Concurrent, since the partitions of an exchange read in parallel
+        final Set<BytesHolder> readKeys;
+        final Collection<byte[][]> readRanges;
 
+        long readVersion;
         long startMillis;
         long commitMillis;
         long bytesWritten;
@@ -516,53 +521,12 @@ public class MemoryTransactionService implements TransactionService
 
         private MemoryTransactionImpl(Session session) {
             this.session = session;
-            this.undoLog = new ArrayList<>();
-            this.readLocked = new HashSet<>();
-            this.writeLocked = new HashSet<>();
+            this.writes = new TreeMap<>(COMPARATOR);
+            this.readKeys = Collections.newSetFromMap(new ConcurrentHashMap<BytesHolder,Boolean>());
+            this.readRanges = new ConcurrentLinkedQueue<>();
             reset();
         }
 
-        private void readLock(byte[] rawKey) {
-            BytesHolder key = new BytesHolder(rawKey);
-            if(readLocked.contains(key) || writeLocked.contains(key)) {
-                // Already locked
-                return;
-            }
-            TaggedLock lock = locks.get(key);
-            if(lock == null) {
-                lock = new TaggedLock();
-                TaggedLock prevLock = locks.putIfAbsent(key, lock);
-                if(prevLock != null) {
-                    lock = prevLock;
-                }
-            }
-            lock.readLock(session);
-            readLocked.add(key);
-        }
-
-        private void writeLock(byte[] rawKey) {
-            BytesHolder key = new BytesHolder(rawKey);
-            if(writeLocked.contains(key)) {
-                // Already locked
-                return;
-            }
-            TaggedLock lock = locks.get(key);
-            if(lock == null) {
-                lock = new TaggedLock();
-                TaggedLock prevLock = locks.putIfAbsent(key, lock);
-                if(prevLock != null) {
-                    lock = prevLock;
-                }
-            }
-            if(readLocked.contains(key)) {
-                readLocked.remove(key);
-                lock.upgradeLock(session);
-            } else {
-                lock.writeLock(session);
-            }
-            writeLocked.add(key);
-        }
-
         public boolean isTimeToCommit() {
             if(bytesWritten > PERIODIC_COMMIT_BYTES) {
                 return true;
@@ -574,9 +538,15 @@ public class MemoryTransactionService implements TransactionService
         }
 
         public void reset() {
-            assert undoLog.isEmpty();
-            assert readLocked.isEmpty();
-            assert writeLocked.isEmpty();
+            assert writes.isEmpty();
+            assert readKeys.isEmpty();
+            assert readRanges.isEmpty();
+            // Atomic with respect to commits, so that nothing this snapshot
+            // needs gets pruned before it is seen to be active.
+            synchronized(commitLock) {
+                readVersion = commitVersion.get();
+                activeTransactions.add(this);
+            }
             startMillis = System.currentTimeMillis();
             commitMillis = -1;
             bytesWritten = 0;
@@ -589,55 +559,240 @@ public class MemoryTransactionService implements TransactionService
             }
         }
 
-        public void runUndo() {
-            if(undoLog.isEmpty()) {
+        public void discard() {
+            writes.clear();
+            readKeys.clear();
+            readRanges.clear();
+        }
+
+        /** Check reads against anything committed since and install writes. */
+        public void commitWrites() {
+            if(writes.isEmpty()) {
+                // Read-only: consistent as of readVersion.
+                discard();
                 return;
             }
-            // Undo in reverse order than applied
-            ListIterator<UndoOp> it = undoLog.listIterator(undoLog.size());
-            synchronized(db) {
-                while(it.hasPrevious()) {
-                    UndoOp op = it.previous();
-                    op.apply(db);
+            synchronized(commitLock) {
+                Iterator<CommittedWrites> commits = recentCommits.descendingIterator();
+                while(commits.hasNext()) {
+                    CommittedWrites commit = commits.next();
+                    if(commit.version <= readVersion) {
+                        break;
+                    }
+                    checkConflicts(commit);
                 }
+                long newVersion = commitVersion.get() + 1;
+                long oldestVersion = oldestActiveVersion();
+                List<byte[]> written = new ArrayList<>(writes.size());
+                for(Entry<byte[],byte[]> entry : writes.entrySet()) {
+                    byte[] value = (entry.getValue() == CLEARED) ? null : entry.getValue();
+                    Version prev = db.get(entry.getKey());
+                    if((value == null) && ((prev == null) || (prev.value == null))) {
+                        // Already clear.
+                        continue;
+                    }
+                    Version v = new Version(newVersion, value, prev);
+                    v.prune(oldestVersion);
+                    db.put(entry.getKey(), v);
+                    written.add(entry.getKey());
+                    if(value == null) {
+                        clearedKeys.add(entry.getKey());
+                    }
+                }
+                commitVersion.set(newVersion);
+                // In key order, since writes is sorted.
+                recentCommits.addLast(new CommittedWrites(newVersion, written.toArray(new byte[written.size()][])));
+                while(!recentCommits.isEmpty() && (recentCommits.peekFirst().version <= oldestVersion)) {
+                    recentCommits.removeFirst();
+                }
+                removeClearedKeys(oldestVersion);
             }
-            undoLog.clear();
+            discard();
         }
 
-        public void runUnlock() {
-            // Release all locks
-            for(BytesHolder key : readLocked) {
-                TaggedLock lock = locks.get(key);
-                lock.readUnlock();
+        /** Conflict if a later commit wrote anything this transaction read. */
+        private void checkConflicts(CommittedWrites commit) {
+            if(readKeys.size() < commit.keys.length) {
+                for(BytesHolder key : readKeys) {
+                    if(commit.contains(key.bytes)) {
+                        throwConflict();
+                    }
+                }
+            } else {
+                for(byte[] key : commit.keys) {
+                    if(readKeys.contains(new BytesHolder(key))) {
+                        throwConflict();
+                    }
+                }
             }
-            readLocked.clear();
-            for(BytesHolder key : writeLocked) {
-                TaggedLock lock = locks.get(key);
-                lock.writeUnlock();
+            for(byte[][] range : readRanges) {
+                if(commit.overlaps(range[0], range[1])) {
+                    throwConflict();
+                }
+            }
+        }
+
+        /** Remove keys whose clear is older than any snapshot, oldest clears first. */
+        private void removeClearedKeys(long oldestVersion) {
+            while(!clearedKeys.isEmpty()) {
+                byte[] key = clearedKeys.peekFirst();
+                Version v = db.get(key);
+                if((v != null) && (v.value == null)) {
+                    if(v.version > oldestVersion) {
+                        break;
+                    }
+                    db.remove(key, v);
+                }
+                clearedKeys.removeFirst();
+            }
+        }
+
+        public void retire() {
+            activeTransactions.remove(this);
+        }
+
+        private void throwConflict() {
+            LOG.trace("commit conflict");
+            discard();
+            throw new TransactionConflictException(MemoryTransactionService.class.getSimpleName());
+        }
+
+        private long oldestActiveVersion() {
+            long oldest = commitVersion.get();
+            for(MemoryTransactionImpl txn : activeTransactions) {
+                oldest = Math.min(oldest, txn.readVersion);
+            }
+            return oldest;
+        }
+
+        /** Committed value as of this transaction's snapshot. */
+        private byte[] snapshotValue(byte[] key) {
+            Version v = db.get(key);
+            if(v != null) {
+                v = v.at(readVersion);
+            }
+            return (v == null) ? null : v.value;
+        }
+
+        /** Snapshot plus own writes, the latter as of now so that the caller can write while iterating. */
+        private Iterator<Entry<byte[],byte[]>> visibleRange(byte[] beginKey, byte[] endKey, boolean reverse) {
+            NavigableMap<byte[],Version> committed = db.subMap(beginKey, endKey);
+            NavigableMap<byte[],byte[]> own = new TreeMap<>(writes.subMap(beginKey, true, endKey, false));
+            if(reverse) {
+                committed = committed.descendingMap();
+                own = own.descendingMap();
+            }
+            return new VisibleIterator(committed.entrySet().iterator(), own.entrySet().iterator(), reverse);
+        }
+
+        /** Merge committed versions visible to this snapshot with own writes, which win. */
+        private class VisibleIterator implements Iterator<Entry<byte[],byte[]>>
+        {
+            private final Iterator<Entry<byte[],Version>> committed;
+            private final Iterator<Entry<byte[],byte[]>> own;
+            private final boolean reverse;
+            private Entry<byte[],byte[]> nextCommitted, nextOwn, next;
+
+            public VisibleIterator(Iterator<Entry<byte[],Version>> committed,
+                                   Iterator<Entry<byte[],byte[]>> own,
+                                   boolean reverse) {
+                this.committed = committed;
+                this.own = own;
+                this.reverse = reverse;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if(next == null) {
+                    next = advance();
+                }
+                return (next != null);
+            }
+
+            @Override
+            public Entry<byte[],byte[]> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[],byte[]> entry = next;
+                next = null;
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private Entry<byte[],byte[]> advance() {
+                while(true) {
+                    if(nextCommitted == null) {
+                        while(committed.hasNext()) {
+                            Entry<byte[],Version> entry = committed.next();
+                            Version v = entry.getValue().at(readVersion);
+                            if((v != null) && (v.value != null)) {
+                                nextCommitted = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), v.value);
+                                break;
+                            }
+                        }
+                    }
+                    if((nextOwn == null) && own.hasNext()) {
+                        nextOwn = own.next();
+                    }
+                    if(nextOwn == null) {
+                        Entry<byte[],byte[]> entry = nextCommitted;
+                        nextCommitted = null;
+                        return entry;
+                    }
+                    if(nextCommitted != null) {
+                        int c = COMPARATOR.compare(nextCommitted.getKey(), nextOwn.getKey());
+                        if(reverse) {
+                            c = -c;
+                        }
+                        if(c < 0) {
+                            Entry<byte[],byte[]> entry = nextCommitted;
+                            nextCommitted = null;
+                            return entry;
+                        }
+                        if(c == 0) {
+                            // Overwritten or cleared.
+                            nextCommitted = null;
+                        }
+                    }
+                    Entry<byte[],byte[]> entry = nextOwn;
+                    nextOwn = null;
+                    if(entry.getValue() != CLEARED) {
+                        return entry;
+                    }
+                }
             }
-            writeLocked.clear();
         }
 
         //
-        // TreeMapTransaction
+        // MemoryTransaction
         //
 
         @Override
         public byte[] get(byte[] key) {
-            readLock(key);
-            byte[] value;
-            synchronized(db) {
-                value = db.get(key);
+            byte[] value = writes.get(key);
+            if(value == null) {
+                readKeys.add(new BytesHolder(copy(key)));
+                value = snapshotValue(key);
+            } else if(value == CLEARED) {
+                value = null;
             }
             return copy(value);
         }
 
         @Override
         public byte[] getUncommitted(byte[] key) {
-            // No lock
-            byte[] value;
-            synchronized(db) {
-                value = db.get(key);
+            // Latest committed, not part of the snapshot
+            byte[] value = writes.get(key);
+            if(value == null) {
+                Version v = db.get(key);
+                value = (v == null) ? null : v.value;
+            } else if(value == CLEARED) {
+                value = null;
             }
             return copy(value);
         }
@@ -649,15 +804,8 @@ public class MemoryTransactionService implements TransactionService
 
         @Override
         public Iterator<Entry<byte[], byte[]>> getRange(byte[] beginKey, byte[] endKey, boolean reverse) {
-            // Duplicate as some consumers want to iterate while calling set/clear
-            final KVMap subMap;
-            synchronized(db) {
-                subMap = new KVMap(db.subMap(beginKey, endKey), reverse);
-            }
-            for(byte[] key : subMap.keySet()) {
-                readLock(key);
-            }
-            final Iterator<Entry<byte[], byte[]>> it = subMap.entrySet().iterator();
+            readRanges.add(new byte[][] { copy(beginKey), copy(endKey) });
+            final Iterator<Entry<byte[], byte[]>> it = visibleRange(beginKey, endKey, reverse);
             return new Iterator<Entry<byte[], byte[]>>()  {
                 @Override
                 public boolean hasNext() {
@@ -667,7 +815,7 @@ public class MemoryTransactionService implements TransactionService
                 @Override
                 public Entry<byte[], byte[]> next() {
                     Entry<byte[], byte[]> entry = it.next();
-                    return new CopiedEntry(entry);
+                    return new CopiedEntry(entry.getKey(), entry.getValue());
                 }
 
                 @Override
@@ -679,73 +827,30 @@ public class MemoryTransactionService implements TransactionService
 
         @Override
         public void set(byte[] key, byte[] value) {
-            writeLock(key);
-            byte[] k = copy(key);
-            byte[] v = copy(value);
-            byte[] prev;
-            synchronized(db) {
-                prev = db.put(k, v);
-            }
+            writes.put(copy(key), copy(value));
             bytesWritten += key.length;
             bytesWritten += value.length;
-            undoLog.add(new UndoOp(k, prev));
         }
 
         @Override
         public void clear(byte[] key) {
-            writeLock(key);
-            byte[] prev;
-            synchronized(db) {
-                prev = db.remove(key);
-            }
+            writes.put(copy(key), CLEARED);
             bytesWritten += key.length;
-            undoLog.add(new UndoOp(copy(key), prev));
         }
 
         @Override
         public void clearRange(byte[] beginKey, byte[] endKey) {
-            KVMap subMap;
-            synchronized(db) {
-                subMap = new KVMap(db.subMap(beginKey, endKey), false);
-            }
-            for(Entry<byte[], byte[]> entry : subMap.entrySet()) {
-                writeLock(entry.getKey());
-                undoLog.add(new UndoOp(entry.getKey(), entry.getValue()));
-                bytesWritten += entry.getKey().length;
-            }
-            synchronized(db) {
-                for(byte[] key : subMap.keySet()) {
-                    db.remove(key);
-                }
-            }
-        }
-    }
-
-    private static class UndoOp
-    {
-        private final byte[] key;
-        private final byte[] value;
-
-        private UndoOp(byte[] key, byte[] value) {
-            this.key = key;
-            this.value = value;
-        }
-
-        public void apply(KVMap map) {
-            if(value == null) {
-                map.remove(key);
-            } else {
-                map.put(key, value);
+            // Anything committed into the range since also conflicts.
+            readRanges.add(new byte[][] { copy(beginKey), copy(endKey) });
+            Iterator<Entry<byte[],byte[]>> it = visibleRange(beginKey, endKey, false);
+            while(it.hasNext()) {
+                byte[] key = it.next().getKey();
+                writes.put(key, CLEARED);
+                bytesWritten += key.length;
             }
         }
-
-        @Override
-        public String toString() {
-            return "UndoOp(" + Strings.hex(key) + "=" + (value == null ? null : Strings.hex(value)) + ")";
-        }
     }
 
-
     private static void clearStack(Session session, Session.StackKey<Callback> key) {
         Deque<Callback> stack = session.get(key);
         if(stack != null) {
@@ -762,15 +867,14 @@ public class MemoryTransactionService implements TransactionService
                 txn.pendingChecks.performChecks(session, txn, MemoryIndexChecks.CheckPass.TRANSACTION);
             }
             runCallbacks(session, PRE_COMMIT_KEY, txn.startMillis, null);
-            // Not much to do, locks are cleared in end().
-            txn.undoLog.clear();
+            txn.commitWrites();
             txn.commitMillis = System.currentTimeMillis();
             runCallbacks(session, AFTER_COMMIT_KEY, txn.commitMillis, null);
         } catch(RuntimeException e1) {
             try {
                 rollbackInternal(session, txn);
                 // Only retryable exception from this store
-                if(allowRetry && (e1 instanceof LockTimeoutException)) {
+                if(allowRetry && (e1 instanceof TransactionConflictException)) {
                     clearState = false;
                     shouldRetry = true;
                 } else {
@@ -795,8 +899,12 @@ public class MemoryTransactionService implements TransactionService
             assert session.get(TXN_KEY) == txn;
             if(clearState) {
                 session.remove(TXN_KEY);
+                txn.retire();
+            } else {
+                // Retrying or periodic commit: start over from a new snapshot.
+                txn.discard();
+                txn.reset();
             }
-            txn.runUnlock();
         } catch(RuntimeException e) {
             re = MultipleCauseException.combine(re, e);
         } finally {
@@ -826,7 +934,7 @@ public class MemoryTransactionService implements TransactionService
     }
 
     private static void rollbackInternal(Session session, MemoryTransactionImpl txn) {
-        txn.runUndo();
+        txn.discard();
         runCallbacks(session, AFTER_ROLLBACK_KEY, -1, null);
     }
 
@@ -20,72 +20,139 @@ package com.foundationdb.server.store;
 
 import com.foundationdb.ais.model.Sequence;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Sequence storage, cache lifetime:
  * - Each sequence gets a directory, prefix used to store a single k/v pair
  *   - key: Allocated directory prefix
  *   - value: Largest value allocated (i.e. considered consumed) for the sequence
- * - Each SQL Layer keeps a local cache of pre-allocated values (class below, configurable size)
- * - When a transaction needs a value it looks in the local cache
- *   - If the cache is empty or from a future timestamp, read + write of current_value+cache_size
- *     is made on the sequence k/v
- *   - A session post-commit hook is scheduled to update the layer wide cache
- *   - Further values will come out of the session cache
+ * - Each SQL Layer keeps a cache of pre-allocated values per sequence (class below)
+ * - When a transaction needs a value it takes the next one from the cache
+ *   - If the cache is empty, a block is allocated by a read + write of
+ *     current_value+block_size on the sequence k/v in its own small transaction,
+ *     which commits before any of the values are handed out
+ *   - The user transaction never reads or writes the sequence k/v, so concurrent
+ *     inserters do not conflict with each other
+ * - The cache may be split into stripes, each with its own block, so that threads
+ *   mostly take values from different places
+ * - The block size starts at the configured cache size and doubles (up to a maximum)
+ *   whenever blocks are being used up quickly, and shrinks again when they are not
  * - Note:
- *   - The cost of updating the cache is amortized across cache_size many allocations
- *   - As there is a single k/v, updating the cache is currently serial
- *   - The layer wide cache update is a post-commit hook so it is possible to lose blocks if
- *     one connection sneaks in past a previous completed one. This only leads to gaps, not
- *     duplication.
+ *   - The cost of allocating a block is amortized across block_size many allocations
+ *   - Values from a rolled back transaction, and any left in the cache at shutdown,
+ *     are lost. This only leads to gaps, not duplication.
+ *   - With more than one stripe or more than one SQL Layer, values are unique but
+ *     not handed out in increasing order.
  */
 class SequenceCache
 {
-    private final long timestamp;
-    private final long maxValue;
-    private long value;
+    /** Allocate blocks of raw values for a sequence. */
+    public interface BlockAllocator {
+        /** Allocate <code>size</code> consecutive raw values, committed.
+         * @return the first of them
+         */
+        long allocateBlock(long size);
+    }
 
-    public static Object cacheKey(Sequence s) {
-        return s.getStorageUniqueKey();
+    // Blocks used up faster than this grow; ones lasting much longer shrink.
+    static final long FAST_REFILL_NANOS = 100L * 1000 * 1000;
+    static final long SLOW_REFILL_NANOS = 10 * FAST_REFILL_NANOS;
+
+    private final Stripe[] stripes;
+    private final long minBlockSize, maxBlockSize;
+    private volatile long blockSize;
+    private volatile long lastRefillNanos;
+    private final AtomicLong currentValue = new AtomicLong();
+
+    static final class Block {
+        final long end;
+        final AtomicLong next;
+
+        Block(long start, long size) {
+            this.end = start + size;
+            this.next = new AtomicLong(start);
+        }
     }
 
-    public static SequenceCache newEmpty() {
-        return new SequenceCache(Long.MAX_VALUE, 0, 1);
+    static final class Stripe {
+        volatile Block block;
     }
 
-    public static SequenceCache newLocal(long startValue, long cacheSize) {
-        return new SequenceCache(Long.MAX_VALUE, startValue, startValue + cacheSize);
+    public static Object cacheKey(Sequence s) {
+        return s.getStorageUniqueKey();
     }
 
-    public static SequenceCache newGlobal(long timestamp, SequenceCache prevLocal) {
-        return new SequenceCache(timestamp, prevLocal.value, prevLocal.maxValue);
+    public SequenceCache(int nstripes, long minBlockSize, long maxBlockSize) {
+        this.stripes = new Stripe[Math.max(nstripes, 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.minBlockSize = Math.max(minBlockSize, 1);
+        this.maxBlockSize = Math.max(maxBlockSize, this.minBlockSize);
+        this.blockSize = this.minBlockSize;
+        this.lastRefillNanos = System.nanoTime() - SLOW_REFILL_NANOS;
     }
 
+    /** Take the next raw value, allocating a new block from
+     * <code>allocator</code> only if this thread's stripe is used up.
+     */
+    public long nextCacheValue(BlockAllocator allocator) {
+        Stripe stripe = stripes[(int)(Thread.currentThread().getId() % stripes.length)];
+        while (true) {
+            Block block = stripe.block;
+            if (block != null) {
+                long value = block.next.getAndIncrement();
+                if (value < block.end) {
+                    updateCurrentValue(value);
+                    return value;
+                }
+            }
+            synchronized (stripe) {
+                // Only one thread refills; the others find the new block.
+                if (stripe.block == block) {
+                    long size = nextBlockSize();
+                    stripe.block = new Block(allocator.allocateBlock(size), size);
+                }
+            }
+        }
+    }
 
-    private SequenceCache(long timestamp, long startValue, long maxValue) {
-        this.timestamp = timestamp;
-        this.value = startValue;
-        this.maxValue = maxValue;
+    /** The last raw value handed out, or <code>0</code> if none yet. */
+    public long getCurrentValue() {
+        return currentValue.get();
     }
 
-    public synchronized long nextCacheValue() {
-        if (++value == maxValue) {
-            // ensure the next call to nextCacheValue also fails
-            --value;
-            return -1;
-        }
-        return value;
+    public long getBlockSize() {
+        return blockSize;
     }
 
-    public synchronized long getCurrentValue() {
-        return value;
+    private void updateCurrentValue(long value) {
+        while (true) {
+            long current = currentValue.get();
+            if ((value <= current) || currentValue.compareAndSet(current, value)) {
+                return;
+            }
+        }
     }
 
-    public long getTimestamp() {
-        return timestamp;
+    private synchronized long nextBlockSize() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+        lastRefillNanos = now;
+        // With several stripes, blocks are refilled proportionally more often.
+        elapsed *= stripes.length;
+        if (elapsed < FAST_REFILL_NANOS) {
+            blockSize = Math.min(blockSize * 2, maxBlockSize);
+        }
+        else if (elapsed > SLOW_REFILL_NANOS) {
+            blockSize = Math.max(blockSize / 2, minBlockSize);
+        }
+        return blockSize;
     }
 
     @Override
     public String toString() {
-        return String.format("SequenceCache(@%s, %d, %d, %d)", Integer.toHexString(hashCode()), timestamp, value, maxValue);
+        return String.format("SequenceCache(@%s, %d, %d)", Integer.toHexString(hashCode()), currentValue.get(), blockSize);
     }
 }
@@ -23,6 +23,8 @@ import com.foundationdb.ais.model.validation.AISValidationFailure;
 import com.foundationdb.ais.model.validation.AISValidationOutput;
 import com.foundationdb.ais.protobuf.AISProtobuf.Storage;
 import com.foundationdb.ais.protobuf.FDBProtobuf;
+import com.foundationdb.qp.row.AbstractRow;
+import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.Schema;
 import com.foundationdb.qp.rowtype.RowType;
@@ -43,6 +45,7 @@ import com.foundationdb.server.service.blob.BlobRef;
 import com.foundationdb.KeySelector;
 import com.foundationdb.Transaction;
 import com.foundationdb.async.Future;
+import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
@@ -181,37 +184,123 @@ public class FDBStorageDescription extends StoreStorageDescription<FDBStore,FDBS
     }
 
     protected Row overlayBlobData(RowType rowType, Row row, FDBStore store, Session session) {
+        return overlayBlobData(rowType, row, store, session, null);
+    }
+
+    /** Fetch blob data up front for the fields that <code>storeData</code>
+     * says will be read, and for any others only when read.
+     */
+    protected Row overlayBlobData(RowType rowType, Row row, FDBStore store, Session session,
+                                  FDBStoreData storeData) {
         Row result = row;
         if (store.isBlobReturnModeUnwrapped()) {
             OverlayingRow newRow = new OverlayingRow(row);
+            boolean[] deferred = null;
             for( int blobIndex = 0; blobIndex < rowType.nFields(); blobIndex ++) {
                 if (AkBlob.isBlob(rowType.typeAt(blobIndex).typeClass())) {
-                    BlobRef oldBlob = getBlobFromRow(row.value(blobIndex));
-                    if (oldBlob == null) {
+                    if ((storeData != null) &&
+                        !FDBStoreDataHelper.isFieldNeeded(storeData, rowType.table(), blobIndex)) {
+                        // Not expected to be read, but fetch it if it is.
+                        if (deferred == null) {
+                            deferred = new boolean[rowType.nFields()];
+                        }
+                        deferred[blobIndex] = true;
                         continue;
                     }
-                    
-                    byte[] blobData = store.getBlobData(session, oldBlob);
-                    if (blobData == null) {
-                        blobData = new byte[0];
-                    }
-
-                    BlobRef newBlob = new BlobRef(blobData, BlobRef.LeadingBitState.NO);
-                    newBlob.setIsReturnedBlobInUnwrappedMode(true);
-                    if (oldBlob.isLongLob()) {
-                        newBlob.setId(oldBlob.getId());
-                        newBlob.setLobType(BlobRef.LobType.LONG_LOB);
-                    } else {
-                        newBlob.setLobType(BlobRef.LobType.SHORT_LOB);
+                    BlobRef newBlob = unwrapBlob(row.value(blobIndex), store, session);
+                    if (newBlob == null) {
+                        continue;
                     }
                     newRow.overlay(blobIndex, newBlob);
                     result = newRow;
                 }
             }
+            if (deferred != null) {
+                result = new DeferredBlobRow(result, deferred, store, session);
+            }
+            if ((result != row) && (storeData != null)) {
+                // The caller will not see the row itself any more.
+                store.setHKeySource(row, storeData);
+            }
         }
         return result;
     }
 
+    private BlobRef unwrapBlob(ValueSource value, FDBStore store, Session session) {
+        BlobRef oldBlob = getBlobFromRow(value);
+        if (oldBlob == null) {
+            return null;
+        }
+
+        byte[] blobData = store.getBlobData(session, oldBlob);
+        if (blobData == null) {
+            blobData = new byte[0];
+        }
+
+        BlobRef newBlob = new BlobRef(blobData, BlobRef.LeadingBitState.NO);
+        newBlob.setIsReturnedBlobInUnwrappedMode(true);
+        if (oldBlob.isLongLob()) {
+            newBlob.setId(oldBlob.getId());
+            newBlob.setLobType(BlobRef.LobType.LONG_LOB);
+        } else {
+            newBlob.setLobType(BlobRef.LobType.SHORT_LOB);
+        }
+        return newBlob;
+    }
+
+    /** A row whose blob fields outside the needed set are only
+     * unwrapped if someone reads them after all.
+     */
+    private class DeferredBlobRow extends AbstractRow {
+        private final Row underlying;
+        private final boolean[] deferred;
+        private final Value[] unwrapped;
+        private final FDBStore store;
+        private final Session session;
+
+        public DeferredBlobRow(Row underlying, boolean[] deferred, FDBStore store, Session session) {
+            this.underlying = underlying;
+            this.deferred = deferred;
+            this.unwrapped = new Value[deferred.length];
+            this.store = store;
+            this.session = session;
+        }
+
+        @Override
+        public RowType rowType() {
+            return underlying.rowType();
+        }
+
+        @Override
+        protected ValueSource uncheckedValue(int i) {
+            if (!deferred[i]) {
+                return underlying.value(i);
+            }
+            if (unwrapped[i] == null) {
+                ValueSource value = underlying.value(i);
+                BlobRef newBlob = unwrapBlob(value, store, session);
+                if (newBlob == null) {
+                    deferred[i] = false;
+                    return value;
+                }
+                Value newValue = new Value(rowType().typeAt(i));
+                newValue.putObject(newBlob);
+                unwrapped[i] = newValue;
+            }
+            return unwrapped[i];
+        }
+
+        @Override
+        public HKey hKey() {
+            return underlying.hKey();
+        }
+
+        @Override
+        public boolean isBindingsSensitive() {
+            return underlying.isBindingsSensitive();
+        }
+    }
+
     private BlobRef getBlobFromRow(ValueSource value) {
         Object object = value.getObject();
         if ( object == null ) {
@@ -238,7 +327,7 @@ public class FDBStorageDescription extends StoreStorageDescription<FDBStore,FDBS
                                                storeData.persistitValue.getEncodedSize());
         }
         store.getTransaction(session, storeData)
-            .setBytes(storeData.rawKey, storeData.rawValue);
+            .setBytes(storeData.rawKey, encodeValueBytes(storeData.rawValue));
     }
 
     /** Fetch contents of database into <code>storeData</code>.
@@ -250,6 +339,14 @@ public class FDBStorageDescription extends StoreStorageDescription<FDBStore,FDBS
         return (storeData.rawValue != null);
     }
 
+    /** Convert a value as produced by {@link #packRow} into the bytes actually stored.
+     * Normally these are the same. Fetches and iterators leave the bytes
+     * as stored, so {@link #expandRow} must undo any change.
+     */
+    public byte[] encodeValueBytes(byte[] value) {
+        return value;
+    }
+
     /** Clear contents of database based on <code>storeData</code>.
      * Usually, key comes from <code>storeData.rawKey</code> via {@link getKeyBytes}.
      */
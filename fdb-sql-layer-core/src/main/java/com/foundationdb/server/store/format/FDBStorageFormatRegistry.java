@@ -17,25 +17,37 @@
 
 package com.foundationdb.server.store.format;
 
+import com.foundationdb.ais.model.FullTextIndex;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.HasStorage;
 import com.foundationdb.ais.model.Index;
 import com.foundationdb.ais.model.NameGenerator;
 import com.foundationdb.ais.model.Sequence;
+import com.foundationdb.ais.model.Table;
 import com.foundationdb.ais.model.StorageDescription;
 import com.foundationdb.ais.model.TableName;
 import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
 import com.foundationdb.server.service.config.ConfigurationService;
 import com.foundationdb.server.store.FDBNameGenerator;
+import com.foundationdb.server.store.format.columnchunks.ColumnChunksStorageFormat;
 import com.foundationdb.server.store.format.columnkeys.ColumnKeysStorageFormat;
+import com.foundationdb.server.store.format.compressed.CompressedStorageFormat;
 import com.foundationdb.server.store.format.protobuf.FDBProtobufStorageFormat;
+import com.foundationdb.server.store.format.tuple.TupleRowDataConverter;
 import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
 import com.foundationdb.server.store.format.tuple.TupleStorageFormat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class FDBStorageFormatRegistry extends StorageFormatRegistry
 {
+    private final ConfigurationService configService;
+    private boolean upgradeTupleKeys;
+
     public FDBStorageFormatRegistry(ConfigurationService configService) {
         super(configService);
+        this.configService = configService;
     }
 
     @Override
@@ -44,7 +56,10 @@ public class FDBStorageFormatRegistry extends StorageFormatRegistry
         TupleStorageFormat.register(this);
         FDBProtobufStorageFormat.register(this);
         ColumnKeysStorageFormat.register(this);
+        CompressedStorageFormat.register(this);
+        ColumnChunksStorageFormat.register(this);
         super.registerStandardFormats();
+        upgradeTupleKeys = Boolean.parseBoolean(configService.getProperty("fdbsql.fdb.upgrade_tuple_keys"));
     }
 
     @Override
@@ -61,6 +76,55 @@ public class FDBStorageFormatRegistry extends StorageFormatRegistry
         return sd;
     }
 
+    /** When enabled, a group or index that still keeps Persistit keys
+     * wrapped in a tuple gets proper tuple keys when its data is rebuilt
+     * by an <code>ALTER</code>. A group's rows themselves stay as they were.
+     */
+    @Override
+    public StorageDescription rebuildStorageDescription(StorageDescription storageDescription, HasStorage forObject) {
+        if (upgradeTupleKeys &&
+            hasWrappedKeys(storageDescription) &&
+            tupleKeysAllowed(forObject)) {
+            TupleStorageDescription tsd = new TupleStorageDescription(forObject, TupleStorageFormat.identifier);
+            tsd.setUsage(TupleUsage.KEY_ONLY);
+            return tsd;
+        }
+        return super.rebuildStorageDescription(storageDescription, forObject);
+    }
+
+    protected static boolean tupleKeysAllowed(HasStorage forObject) {
+        if (forObject instanceof Group) {
+            // The group is still being put together, so go by its
+            // tables rather than by joins from its root.
+            Group group = (Group)forObject;
+            List<Table> tables = new ArrayList<>();
+            for (Table table : group.getAIS().getTables().values()) {
+                if (table.getGroup() == group) {
+                    tables.add(table);
+                }
+            }
+            return (!tables.isEmpty() &&
+                    TupleRowDataConverter.checkKeyTypes(tables).isEmpty());
+        }
+        else if ((forObject instanceof Index) && !(forObject instanceof FullTextIndex)) {
+            return TupleRowDataConverter.checkTypes((Index)forObject, TupleUsage.KEY_ONLY).isEmpty();
+        }
+        else {
+            return false;
+        }
+    }
+
+    /** Does this storage just wrap the Persistit key bytes in a tuple? */
+    protected static boolean hasWrappedKeys(StorageDescription storageDescription) {
+        if (storageDescription.getClass() == FDBStorageDescription.class) {
+            return true;
+        }
+        if (storageDescription.getClass() == TupleStorageDescription.class) {
+            return (((TupleStorageDescription)storageDescription).getUsage() == null);
+        }
+        return false;
+    }
+
     public boolean isDescriptionClassAllowed(Class<? extends StorageDescription> descriptionClass) {
         return (super.isDescriptionClassAllowed(descriptionClass) ||
                 FDBStorageDescription.class.isAssignableFrom(descriptionClass));
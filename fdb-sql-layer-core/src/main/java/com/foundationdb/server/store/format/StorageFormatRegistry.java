@@ -20,6 +20,7 @@ package com.foundationdb.server.store.format;
 import com.foundationdb.ais.model.FullTextIndex;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.HasStorage;
+import com.foundationdb.ais.model.Index;
 import com.foundationdb.ais.model.NameGenerator;
 import com.foundationdb.ais.model.StorageDescription;
 import com.foundationdb.ais.model.TableName;
@@ -201,6 +202,18 @@ public abstract class StorageFormatRegistry
         return format.storageFormat.parseSQL(node, forObject);
     }
 
+    /** Get the storage for an object whose data is about to be rebuilt
+     * from that of an existing one. Normally a group keeps the same format
+     * and an index gets <code>null</code>, so that it is finished just like
+     * a new one, but a registry may take the chance to upgrade either.
+     */
+    public StorageDescription rebuildStorageDescription(StorageDescription storageDescription, HasStorage forObject) {
+        if (forObject instanceof Index) {
+            return null;
+        }
+        return storageDescription.cloneForObjectWithoutState(forObject);
+    }
+
     public void finishStorageDescription(HasStorage object, NameGenerator nameGenerator) {
         if (object.getStorageDescription() == null) {
             if (object instanceof Group) {
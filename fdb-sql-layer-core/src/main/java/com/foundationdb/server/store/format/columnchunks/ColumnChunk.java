@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.qp.expression.ScanColumnRange;
+import com.foundationdb.tuple.ByteArrayUtil;
+import com.foundationdb.tuple.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A run of consecutive rows of a table, held column by column.
+ * <p>
+ * Under the group's prefix, a chunk whose <em>chunk key</em> is the
+ * packed hkey of (no more than) its first row is stored as:<ul>
+ * <li><code>("h")</code> + chunk key: header of row count, column
+ * count, min and max of each column, then the packed hkey of each row</li>
+ * <li><code>("c", <i>n</i>)</code> + chunk key: all the values of
+ * column <i>n</i> as a single tuple</li></ul>
+ * So all the headers are together and can be scanned without touching
+ * any column, and each column's chunks are together, too.
+ * Only integer columns get a real min and max, which keeps the header
+ * small and is all that {@link ScanColumnRange} can use.
+ * <p>
+ * Columns can be left unloaded when not needed.
+ */
+public class ColumnChunk
+{
+    protected static final byte[] HEADER = Tuple2.from("h").pack();
+    protected static final String COLUMN = "c";
+    // In place of min and max for a column with some non-integer values.
+    protected static final byte[] NOT_SUMMARIZED = new byte[0];
+
+    private final byte[] chunkKey;
+    private final int ncols;
+    private final List<byte[]> rowKeys;
+    private final List<List<Object>> columns;
+    private final Object[] mins, maxs;
+
+    public ColumnChunk(byte[] chunkKey, int ncols) {
+        this.chunkKey = chunkKey;
+        this.ncols = ncols;
+        this.rowKeys = new ArrayList<>();
+        this.columns = new ArrayList<>(ncols);
+        for (int i = 0; i < ncols; i++) {
+            columns.add(new ArrayList<>());
+        }
+        this.mins = new Object[ncols];
+        this.maxs = new Object[ncols];
+    }
+
+    protected ColumnChunk(byte[] chunkKey, int ncols, List<byte[]> rowKeys, Object[] mins, Object[] maxs) {
+        this.chunkKey = chunkKey;
+        this.ncols = ncols;
+        this.rowKeys = rowKeys;
+        this.columns = new ArrayList<>(ncols);
+        for (int i = 0; i < ncols; i++) {
+            columns.add(null);
+        }
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    public byte[] getChunkKey() {
+        return chunkKey;
+    }
+
+    public int getColumnCount() {
+        return ncols;
+    }
+
+    public int size() {
+        return rowKeys.size();
+    }
+
+    public byte[] getRowKey(int row) {
+        return rowKeys.get(row);
+    }
+
+    public boolean isLoaded(int column) {
+        return (columns.get(column) != null);
+    }
+
+    public boolean isLoaded() {
+        for (List<Object> column : columns) {
+            if (column == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Object getValue(int row, int column) {
+        return columns.get(column).get(row);
+    }
+
+    public Object[] getRow(int row) {
+        Object[] values = new Object[ncols];
+        for (int i = 0; i < ncols; i++) {
+            List<Object> column = columns.get(i);
+            if (column != null) {
+                values[i] = column.get(row);
+            }
+        }
+        return values;
+    }
+
+    /** Binary search for the given packed hkey.
+     * @return the row's position or <code>-(insertion point) - 1</code>
+     */
+    public int find(byte[] rowKey) {
+        int lo = 0, hi = rowKeys.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = ByteArrayUtil.compareUnsigned(rowKeys.get(mid), rowKey);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /** Insert or replace a row. All columns must be loaded. */
+    public void put(byte[] rowKey, Object[] values) {
+        int pos = find(rowKey);
+        if (pos >= 0) {
+            for (int i = 0; i < ncols; i++) {
+                columns.get(i).set(pos, values[i]);
+            }
+        }
+        else {
+            pos = -(pos + 1);
+            rowKeys.add(pos, rowKey);
+            for (int i = 0; i < ncols; i++) {
+                columns.get(i).add(pos, values[i]);
+            }
+        }
+    }
+
+    /** Remove a row. All columns must be loaded. */
+    public void remove(int row) {
+        rowKeys.remove(row);
+        for (int i = 0; i < ncols; i++) {
+            columns.get(i).remove(row);
+        }
+    }
+
+    /** Move the upper half of the rows into a new chunk. */
+    public ColumnChunk split() {
+        int from = rowKeys.size() / 2;
+        int to = rowKeys.size();
+        ColumnChunk upper = new ColumnChunk(rowKeys.get(from), ncols);
+        upper.rowKeys.addAll(rowKeys.subList(from, to));
+        rowKeys.subList(from, to).clear();
+        for (int i = 0; i < ncols; i++) {
+            List<Object> column = columns.get(i);
+            upper.columns.get(i).addAll(column.subList(from, to));
+            column.subList(from, to).clear();
+        }
+        return upper;
+    }
+
+    /** Could any of the rows satisfy all of the given ranges? */
+    public boolean mayMatch(List<ScanColumnRange> ranges, int[] rangeColumns) {
+        for (int i = 0; i < rangeColumns.length; i++) {
+            int column = rangeColumns[i];
+            if (!ranges.get(i).mayOverlap(mins[column], maxs[column])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] headerKey(byte[] prefixBytes, byte[] chunkKey) {
+        return ByteArrayUtil.join(prefixBytes, HEADER, chunkKey);
+    }
+
+    public static byte[] columnKey(byte[] prefixBytes, int column, byte[] chunkKey) {
+        return ByteArrayUtil.join(prefixBytes, Tuple2.from(COLUMN, column).pack(), chunkKey);
+    }
+
+    public static byte[] headersBegin(byte[] prefixBytes) {
+        return ByteArrayUtil.join(prefixBytes, HEADER);
+    }
+
+    public static byte[] headersEnd(byte[] prefixBytes) {
+        return ByteArrayUtil.strinc(headersBegin(prefixBytes));
+    }
+
+    /** The chunk key from a header's key. */
+    public static byte[] chunkKey(byte[] prefixBytes, byte[] headerKey) {
+        int start = prefixBytes.length + HEADER.length;
+        byte[] chunkKey = new byte[headerKey.length - start];
+        System.arraycopy(headerKey, start, chunkKey, 0, chunkKey.length);
+        return chunkKey;
+    }
+
+    public byte[] encodeHeader() {
+        List<Object> items = new ArrayList<>(2 + ncols * 2 + rowKeys.size());
+        items.add((long)rowKeys.size());
+        items.add((long)ncols);
+        for (int i = 0; i < ncols; i++) {
+            Object min = null, max = null;
+            for (Object value : columns.get(i)) {
+                if (value == null) continue;
+                if (!((value instanceof Long) || (value instanceof Integer) ||
+                      (value instanceof Short) || (value instanceof Byte))) {
+                    min = max = NOT_SUMMARIZED;
+                    break;
+                }
+                long n = ((Number)value).longValue();
+                if ((min == null) || (n < (Long)min)) {
+                    min = n;
+                }
+                if ((max == null) || (n > (Long)max)) {
+                    max = n;
+                }
+            }
+            mins[i] = min;
+            maxs[i] = max;
+            items.add(min);
+            items.add(max);
+        }
+        items.addAll(rowKeys);
+        return Tuple2.fromList(items).pack();
+    }
+
+    public static ColumnChunk decodeHeader(byte[] chunkKey, byte[] headerValue) {
+        Tuple2 t = Tuple2.fromBytes(headerValue);
+        int nrows = (int)t.getLong(0);
+        int ncols = (int)t.getLong(1);
+        Object[] mins = new Object[ncols];
+        Object[] maxs = new Object[ncols];
+        int pos = 2;
+        for (int i = 0; i < ncols; i++) {
+            mins[i] = t.get(pos++);
+            maxs[i] = t.get(pos++);
+        }
+        List<byte[]> rowKeys = new ArrayList<>(nrows);
+        for (int i = 0; i < nrows; i++) {
+            rowKeys.add(t.getBytes(pos++));
+        }
+        return new ColumnChunk(chunkKey, ncols, rowKeys, mins, maxs);
+    }
+
+    public byte[] encodeColumn(int column) {
+        return Tuple2.fromList(columns.get(column)).pack();
+    }
+
+    public void decodeColumn(int column, byte[] columnValue) {
+        List<Object> values;
+        if (columnValue == null) {
+            // Never written, so all null.
+            values = new ArrayList<>(rowKeys.size());
+            for (int i = 0; i < rowKeys.size(); i++) {
+                values.add(null);
+            }
+        }
+        else {
+            values = Tuple2.fromBytes(columnValue).getItems();
+        }
+        columns.set(column, values);
+    }
+}
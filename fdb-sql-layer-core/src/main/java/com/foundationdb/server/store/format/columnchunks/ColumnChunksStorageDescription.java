@@ -0,0 +1,450 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.HasStorage;
+import com.foundationdb.ais.model.StorageDescription;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.model.validation.AISValidationFailure;
+import com.foundationdb.ais.model.validation.AISValidationOutput;
+import com.foundationdb.ais.protobuf.AISProtobuf.Storage;
+import com.foundationdb.ais.protobuf.FDBProtobuf;
+import com.foundationdb.ais.protobuf.FDBProtobuf.ColumnChunks;
+import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.qp.expression.ScanColumnRange;
+import com.foundationdb.qp.row.AbstractRow;
+import com.foundationdb.qp.row.HKey;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.server.error.StorageDescriptionInvalidException;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.store.FDBScanTransactionOptions;
+import com.foundationdb.server.store.FDBStore;
+import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+import com.foundationdb.server.store.format.FDBStorageDescription;
+import com.foundationdb.server.store.format.tuple.TupleRowDataConverter;
+import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.KeySelector;
+import com.foundationdb.KeyValue;
+import com.foundationdb.Transaction;
+import com.foundationdb.async.AsyncIterator;
+import com.foundationdb.async.Future;
+import com.foundationdb.tuple.ByteArrayUtil;
+import com.foundationdb.tuple.Tuple2;
+import com.persistit.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.foundationdb.server.store.FDBStoreDataHelper.*;
+
+/**
+ * Store the rows of a single-table group column by column, in
+ * {@link ColumnChunk}s of up to <code>chunk_rows</code> consecutive rows.
+ * <p>
+ * Scans read only the chunk headers plus the columns that are
+ * actually needed, and skip any chunk whose min / max show that no row
+ * in it can satisfy the scan's {@link ScanColumnRange}s. Since those are
+ * only kept for integer columns, a table without any is always scanned
+ * in full.
+ * Writing a single row reads and rewrites its entire chunk, so point
+ * updates are much more expensive than for other formats.
+ */
+public class ColumnChunksStorageDescription extends FDBStorageDescription
+{
+    public static final int DEFAULT_CHUNK_ROWS = 256;
+    // Split a chunk whose header or any column would be near the FDB value limit.
+    protected static final int MAX_VALUE_SIZE = 90000;
+
+    private int chunkRows;
+
+    public ColumnChunksStorageDescription(HasStorage forObject, String storageFormat) {
+        super(forObject, storageFormat);
+    }
+
+    public ColumnChunksStorageDescription(HasStorage forObject, ColumnChunksStorageDescription other, String storageFormat) {
+        super(forObject, other, storageFormat);
+        this.chunkRows = other.chunkRows;
+    }
+
+    @Override
+    public StorageDescription cloneForObject(HasStorage forObject) {
+        return new ColumnChunksStorageDescription(forObject, this, storageFormat);
+    }
+    
+    @Override
+    public StorageDescription cloneForObjectWithoutState(HasStorage forObject) {
+        ColumnChunksStorageDescription sd = new ColumnChunksStorageDescription(forObject, storageFormat);
+        sd.setChunkRows(this.chunkRows);
+        return sd;
+    }
+
+    /** The most rows in a chunk, or <code>0</code> for the default. */
+    public int getChunkRows() {
+        return chunkRows;
+    }
+    public void setChunkRows(int chunkRows) {
+        this.chunkRows = chunkRows;
+    }
+
+    protected int maxChunkRows() {
+        return (chunkRows > 0) ? chunkRows : DEFAULT_CHUNK_ROWS;
+    }
+
+    @Override
+    public void writeProtobuf(Storage.Builder builder) {
+        super.writeProtobuf(builder);
+        ColumnChunks.Builder chunks = ColumnChunks.newBuilder();
+        if (chunkRows > 0) {
+            chunks.setChunkRows(chunkRows);
+        }
+        builder.setExtension(FDBProtobuf.columnChunks, chunks.build());
+        writeUnknownFields(builder);
+    }
+
+    @Override
+    public void validate(AISValidationOutput output) {
+        super.validate(output);
+        if (!(object instanceof Group)) {
+            output.reportFailure(new AISValidationFailure(new StorageDescriptionInvalidException(object, "is not a Group")));
+            return;
+        }
+        Table root = ((Group)object).getRoot();
+        if ((root != null) && !root.getChildJoins().isEmpty()) {
+            output.reportFailure(new AISValidationFailure(new StorageDescriptionInvalidException(object, "has more than one table")));
+            return;
+        }
+        List<String> illegal = TupleRowDataConverter.checkTypes((Group)object, TupleUsage.KEY_AND_ROW);
+        if (!illegal.isEmpty()) {
+            output.reportFailure(new AISValidationFailure(new StorageDescriptionInvalidException(object, "has some types that cannot be stored in a Tuple: " + illegal)));
+        }
+    }
+
+    @Override
+    public byte[] getKeyBytes(Key key, FDBStoreData.NudgeDir nudged) {
+        return TupleStorageDescription.getKeyBytesInternal(key, nudged);
+    }
+    
+    @Override
+    public byte[] getKeyBytes(Key key) {
+        return TupleStorageDescription.getKeyBytesInternal(key, null);
+    }
+        
+    @Override
+    public void getTupleKey(Tuple2 t, Key key) {
+        key.clear();
+        TupleStorageDescription.appendHKeySegments(t, key, ((Group)object));
+    }
+
+    @Override
+    public void packRow(FDBStore store, Session session, 
+                        FDBStoreData storeData, Row row) {
+        int nfields = row.rowType().nFields();
+        Object[] values = new Object[nfields];
+        for (int i = 0; i < nfields; i++) {
+            values[i] = ValueSources.toObject(row.value(i));
+        }
+        storeData.otherValue = values;
+    }
+    
+    @Override 
+    public Row expandRow(FDBStore store, Session session, 
+                         FDBStoreData storeData, Schema schema) {
+        Table table = ((Group)object).getRoot();
+        RowType rowType = schema.tableRowType(table);
+        Row row;
+        if (storeData.otherValue instanceof ColumnChunksStorageIterator.PartialRow) {
+            row = new PartialColumnsRow(rowType, (ColumnChunksStorageIterator.PartialRow)storeData.otherValue);
+        }
+        else {
+            row = new ValuesHolderRow(rowType, (Object[])storeData.otherValue);
+        }
+        row = overlayBlobData(rowType, row, store, session, storeData);
+        return row;
+    }
+
+    @Override
+    public void store(FDBStore store, Session session, FDBStoreData storeData) {
+        TransactionState txn = store.getTransaction(session, storeData);
+        byte[] prefix = prefixBytes(storeData);
+        byte[] rowKey = rowKey(prefix, storeData.rawKey);
+        ColumnChunk chunk = findChunk(txn, prefix, rowKey);
+        if (chunk != null) {
+            loadColumns(txn, prefix, chunk);
+        }
+        else {
+            // Before all the others: take over the first chunk, if any.
+            ColumnChunk first = firstChunk(txn, prefix);
+            chunk = new ColumnChunk(rowKey, columnCount());
+            if (first != null) {
+                loadColumns(txn, prefix, first);
+                for (int i = 0; i < first.size(); i++) {
+                    chunk.put(first.getRowKey(i), first.getRow(i));
+                }
+                clearChunk(txn, prefix, first);
+            }
+        }
+        chunk.put(rowKey, (Object[])storeData.otherValue);
+        if (chunk.size() > maxChunkRows()) {
+            writeChunk(txn, prefix, chunk.split());
+        }
+        writeChunk(txn, prefix, chunk);
+    }
+
+    @Override
+    public boolean fetch(FDBStore store, Session session, FDBStoreData storeData) {
+        TransactionState txn = store.getTransaction(session, storeData);
+        byte[] prefix = prefixBytes(storeData);
+        ColumnChunk chunk = findChunk(txn, prefix, rowKey(prefix, storeData.rawKey));
+        if (chunk == null) {
+            return false;
+        }
+        int row = chunk.find(rowKey(prefix, storeData.rawKey));
+        if (row < 0) {
+            return false;
+        }
+        loadColumns(txn, prefix, chunk);
+        storeData.otherValue = chunk.getRow(row);
+        return true;
+    }
+
+    @Override
+    public void clear(FDBStore store, Session session, FDBStoreData storeData) {
+        TransactionState txn = store.getTransaction(session, storeData);
+        byte[] prefix = prefixBytes(storeData);
+        byte[] rowKey = rowKey(prefix, storeData.rawKey);
+        ColumnChunk chunk = findChunk(txn, prefix, rowKey);
+        if (chunk == null) {
+            return;
+        }
+        int row = chunk.find(rowKey);
+        if (row < 0) {
+            return;
+        }
+        loadColumns(txn, prefix, chunk);
+        chunk.remove(row);
+        if (chunk.size() == 0) {
+            clearChunk(txn, prefix, chunk);
+        }
+        else {
+            writeChunk(txn, prefix, chunk);
+        }
+    }
+
+    @Override
+    public void groupIterator(FDBStore store, Session session, FDBStoreData storeData,
+                              FDBStore.GroupIteratorBoundary left, FDBStore.GroupIteratorBoundary right,
+                              int limit, FDBScanTransactionOptions transactionOptions) {
+        byte[] prefix = prefixBytes(storeData);
+        byte[] lo, hi;
+        switch (left) {
+        case START:
+            lo = null;
+            break;
+        case KEY:
+            lo = rowKey(prefix, packKey(storeData));
+            break;
+        case NEXT_KEY:
+            lo = ByteArrayUtil.join(rowKey(prefix, packKey(storeData)), new byte[1]);
+            break;
+        case FIRST_DESCENDANT:
+            lo = rowKey(prefix, packKey(storeData, Key.BEFORE));
+            break;
+        default:
+            throw new IllegalArgumentException(left.toString());
+        }
+        switch (right) {
+        case END:
+            hi = null;
+            break;
+        case NEXT_KEY:
+            hi = ByteArrayUtil.join(rowKey(prefix, packKey(storeData)), new byte[1]);
+            break;
+        case LAST_DESCENDANT:
+            hi = rowKey(prefix, packKey(storeData, Key.AFTER));
+            break;
+        default:
+            throw new IllegalArgumentException(right.toString());
+        }
+        TransactionState txn = store.getTransaction(session, storeData);
+        KeySelector begin = KeySelector.firstGreaterOrEqual(ColumnChunk.headersBegin(prefix));
+        if (lo != null) {
+            // Start with the chunk that would hold lo.
+            ColumnChunk chunk = findChunk(txn, prefix, lo);
+            if (chunk != null) {
+                begin = KeySelector.firstGreaterOrEqual(ColumnChunk.headerKey(prefix, chunk.getChunkKey()));
+            }
+        }
+        KeySelector end = KeySelector.firstGreaterOrEqual((hi == null) ?
+                                                          ColumnChunk.headersEnd(prefix) :
+                                                          ColumnChunk.headerKey(prefix, hi));
+        storeData.iterator = new ColumnChunksStorageIterator(storeData, txn, prefix,
+                                                             txn.getRangeIterator(begin, end, 
+                                                                                  Transaction.ROW_LIMIT_UNLIMITED, false,
+                                                                                  transactionOptions),
+                                                             lo, hi, limit,
+                                                             neededColumns(storeData),
+                                                             storeData.columnRanges,
+                                                             transactionOptions);
+    }
+
+    @Override
+    public void indexIterator(FDBStore store, Session session, FDBStoreData storeData,
+                              boolean key, boolean startInclusive, boolean endInclusive, boolean reverse,
+                              FDBScanTransactionOptions transactionOptions) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected int columnCount() {
+        return ((Group)object).getRoot().getColumnsIncludingInternal().size();
+    }
+
+    /** Which columns to load for a scan, or <code>null</code> for all. */
+    protected boolean[] neededColumns(FDBStoreData storeData) {
+        if (storeData.neededFields == null) {
+            return null;
+        }
+        boolean[] fields = storeData.neededFields.get(((Group)object).getRoot());
+        if (fields == null) {
+            fields = new boolean[columnCount()];
+        }
+        return fields;
+    }
+
+    /** A row whose values are converted as they are asked for, since
+     * some of them may not have been fetched yet.
+     */
+    private static class PartialColumnsRow extends AbstractRow {
+        private final RowType rowType;
+        private final ColumnChunksStorageIterator.PartialRow partial;
+        private final Value[] values;
+
+        public PartialColumnsRow(RowType rowType, ColumnChunksStorageIterator.PartialRow partial) {
+            this.rowType = rowType;
+            this.partial = partial;
+            this.values = new Value[rowType.nFields()];
+        }
+
+        @Override
+        public RowType rowType() {
+            return rowType;
+        }
+
+        @Override
+        protected ValueSource uncheckedValue(int i) {
+            if (values[i] == null) {
+                values[i] = ValueSources.valuefromObject(partial.getValue(i), rowType.typeAt(i));
+            }
+            return values[i];
+        }
+
+        @Override
+        public HKey hKey() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isBindingsSensitive() {
+            return false;
+        }
+    }
+
+    protected static byte[] rowKey(byte[] prefix, byte[] rawKey) {
+        return Arrays.copyOfRange(rawKey, prefix.length, rawKey.length);
+    }
+
+    /** The chunk, with just its header, that does or would hold the
+     * given row, or <code>null</code> if it would come before all of them.
+     */
+    protected static ColumnChunk findChunk(TransactionState txn, byte[] prefix, byte[] rowKey) {
+        return oneChunk(txn, prefix,
+                        KeySelector.firstGreaterThan(ColumnChunk.headerKey(prefix, rowKey)),
+                        true);
+    }
+
+    protected static ColumnChunk firstChunk(TransactionState txn, byte[] prefix) {
+        return oneChunk(txn, prefix,
+                        KeySelector.firstGreaterOrEqual(ColumnChunk.headersEnd(prefix)),
+                        false);
+    }
+
+    private static ColumnChunk oneChunk(TransactionState txn, byte[] prefix,
+                                        KeySelector end, boolean last) {
+        AsyncIterator<KeyValue> iter =
+            txn.getRangeIterator(KeySelector.firstGreaterOrEqual(ColumnChunk.headersBegin(prefix)),
+                                 end, 1, last);
+        try {
+            if (!iter.hasNext()) {
+                return null;
+            }
+            KeyValue kv = iter.next();
+            return ColumnChunk.decodeHeader(ColumnChunk.chunkKey(prefix, kv.getKey()), kv.getValue());
+        }
+        finally {
+            iter.dispose();
+        }
+    }
+
+    /** Load all of the chunk's columns, fetching them together. */
+    protected static void loadColumns(TransactionState txn, byte[] prefix, ColumnChunk chunk) {
+        List<Future<byte[]>> futures = new ArrayList<>(chunk.getColumnCount());
+        for (int i = 0; i < chunk.getColumnCount(); i++) {
+            futures.add(txn.getFuture(ColumnChunk.columnKey(prefix, i, chunk.getChunkKey())));
+        }
+        for (int i = 0; i < chunk.getColumnCount(); i++) {
+            chunk.decodeColumn(i, futures.get(i).get());
+        }
+    }
+
+    protected static void writeChunk(TransactionState txn, byte[] prefix, ColumnChunk chunk) {
+        byte[] header = chunk.encodeHeader();
+        byte[][] columns = new byte[chunk.getColumnCount()][];
+        boolean tooBig = (header.length > MAX_VALUE_SIZE);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = chunk.encodeColumn(i);
+            if (columns[i].length > MAX_VALUE_SIZE) {
+                tooBig = true;
+            }
+        }
+        if (tooBig && (chunk.size() > 1)) {
+            ColumnChunk upper = chunk.split();
+            writeChunk(txn, prefix, chunk);
+            writeChunk(txn, prefix, upper);
+            return;
+        }
+        txn.setBytes(ColumnChunk.headerKey(prefix, chunk.getChunkKey()), header);
+        for (int i = 0; i < columns.length; i++) {
+            txn.setBytes(ColumnChunk.columnKey(prefix, i, chunk.getChunkKey()), columns[i]);
+        }
+    }
+
+    protected static void clearChunk(TransactionState txn, byte[] prefix, ColumnChunk chunk) {
+        txn.clearKey(ColumnChunk.headerKey(prefix, chunk.getChunkKey()));
+        for (int i = 0; i < chunk.getColumnCount(); i++) {
+            txn.clearKey(ColumnChunk.columnKey(prefix, i, chunk.getChunkKey()));
+        }
+    }
+}
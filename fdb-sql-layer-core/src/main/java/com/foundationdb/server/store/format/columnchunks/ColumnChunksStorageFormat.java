@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.HasStorage;
+import com.foundationdb.ais.protobuf.AISProtobuf.Storage;
+import com.foundationdb.ais.protobuf.FDBProtobuf;
+import com.foundationdb.ais.protobuf.FDBProtobuf.ColumnChunks;
+import com.foundationdb.server.error.InvalidParameterValueException;
+import com.foundationdb.server.error.UnsupportedSQLException;
+import com.foundationdb.server.store.format.StorageFormat;
+import com.foundationdb.server.store.format.StorageFormatRegistry;
+import com.foundationdb.sql.parser.StorageFormatNode;
+
+public class ColumnChunksStorageFormat extends StorageFormat<ColumnChunksStorageDescription>
+{
+    public final static String identifier = "column_chunks";
+
+    private ColumnChunksStorageFormat() {
+    }
+
+    public static void register(StorageFormatRegistry registry) {
+        registry.registerStorageFormat(FDBProtobuf.columnChunks, identifier, ColumnChunksStorageDescription.class, new ColumnChunksStorageFormat());
+    }
+
+    public ColumnChunksStorageDescription readProtobuf(Storage pbStorage, HasStorage forObject, ColumnChunksStorageDescription storageDescription) {
+        if (storageDescription == null) {
+            storageDescription = new ColumnChunksStorageDescription(forObject, identifier);
+        }
+        ColumnChunks chunks = pbStorage.getExtension(FDBProtobuf.columnChunks);
+        if (chunks.hasChunkRows()) {
+            storageDescription.setChunkRows(chunks.getChunkRows());
+        }
+        return storageDescription;
+    }
+
+    /** <code>STORAGE_FORMAT column_chunks(chunk_rows = <i>n</i>)</code>. */
+    public ColumnChunksStorageDescription parseSQL(StorageFormatNode node, HasStorage forObject) {
+        if (!(forObject instanceof Group)) {
+            throw new UnsupportedSQLException("STORAGE_FORMAT " + identifier + " only applies to tables", node);
+        }
+        ColumnChunksStorageDescription storageDescription = new ColumnChunksStorageDescription(forObject, identifier);
+        String chunkRows = node.getOptions().get("chunk_rows");
+        if (chunkRows != null) {
+            int n;
+            try {
+                n = Integer.parseInt(chunkRows);
+            }
+            catch (NumberFormatException ex) {
+                n = -1;
+            }
+            if (n <= 0) {
+                throw new InvalidParameterValueException("chunk_rows must be a positive integer: " + chunkRows);
+            }
+            storageDescription.setChunkRows(n);
+        }
+        return storageDescription;
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.expression.ScanColumnRange;
+import com.foundationdb.qp.storeadapter.FDBAdapter;
+import com.foundationdb.server.store.FDBScanTransactionOptions;
+import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.store.FDBStoreDataIterator;
+import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.KeyValue;
+import com.foundationdb.async.AsyncIterator;
+import com.foundationdb.async.Future;
+import com.foundationdb.tuple.ByteArrayUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterate over chunk headers, fetching only the needed columns of
+ * those chunks that might have matching rows, a few chunks ahead of
+ * the one whose rows are being returned. Any other column is fetched
+ * when a row first asks for it.
+ */
+public class ColumnChunksStorageIterator extends FDBStoreDataIterator
+{
+    private static final PointTap CHUNKS_SKIPPED = Tap.createCount("fdb: column chunks skipped");
+    protected static final int LOOKAHEAD = 4;
+
+    private final TransactionState txn;
+    private final byte[] prefix;
+    private final AsyncIterator<KeyValue> headers;
+    private final byte[] lo, hi;
+    private final int limit;
+    private final boolean[] neededColumns;
+    private final List<ScanColumnRange> ranges;
+    private final int[] rangeColumns;
+    private final FDBScanTransactionOptions transactionOptions;
+    private final Deque<PendingChunk> pending = new ArrayDeque<>();
+    private ColumnChunk current;
+    private int position, count;
+    private boolean done;
+
+    /** A chunk whose columns have been requested but maybe not arrived. */
+    class PendingChunk {
+        final ColumnChunk chunk;
+        final List<Future<byte[]>> columns;
+
+        PendingChunk(ColumnChunk chunk) {
+            this.chunk = chunk;
+            this.columns = new ArrayList<>(chunk.getColumnCount());
+            for (int i = 0; i < chunk.getColumnCount(); i++) {
+                Future<byte[]> future = null;
+                if ((neededColumns == null) ||
+                    ((i < neededColumns.length) && neededColumns[i])) {
+                    future = txn.getFuture(ColumnChunk.columnKey(prefix, i, chunk.getChunkKey()),
+                                           transactionOptions);
+                }
+                columns.add(future);
+            }
+        }
+
+        ColumnChunk load() {
+            for (int i = 0; i < columns.size(); i++) {
+                Future<byte[]> future = columns.get(i);
+                if (future != null) {
+                    chunk.decodeColumn(i, future.get());
+                }
+            }
+            return chunk;
+        }
+
+        void dispose() {
+            for (Future<byte[]> future : columns) {
+                if (future != null) {
+                    future.dispose();
+                }
+            }
+        }
+    }
+
+    /** A row of a chunk that was loaded without some of its columns,
+     * which are then fetched for the whole chunk the first time any
+     * of its rows asks for them.
+     */
+    public class PartialRow {
+        private final ColumnChunk chunk;
+        private final int row;
+
+        PartialRow(ColumnChunk chunk, int row) {
+            this.chunk = chunk;
+            this.row = row;
+        }
+
+        public Object getValue(int column) {
+            if (!chunk.isLoaded(column)) {
+                try {
+                    chunk.decodeColumn(column,
+                                       txn.getFuture(ColumnChunk.columnKey(prefix, column, chunk.getChunkKey()),
+                                                     transactionOptions).get());
+                }
+                catch (RuntimeException e) {
+                    throw FDBAdapter.wrapFDBException(storeData.session, e);
+                }
+            }
+            return chunk.getValue(row, column);
+        }
+    }
+
+    public ColumnChunksStorageIterator(FDBStoreData storeData,
+                                       TransactionState txn, byte[] prefix,
+                                       AsyncIterator<KeyValue> headers,
+                                       byte[] lo, byte[] hi, int limit,
+                                       boolean[] neededColumns,
+                                       List<ScanColumnRange> ranges,
+                                       FDBScanTransactionOptions transactionOptions) {
+        super(storeData);
+        this.txn = txn;
+        this.prefix = prefix;
+        this.headers = headers;
+        this.lo = lo;
+        this.hi = hi;
+        this.limit = limit;
+        this.neededColumns = neededColumns;
+        this.transactionOptions = transactionOptions;
+        // Only ranges on this table's columns can be checked.
+        Table table = ((Group)storeData.storageDescription.getObject()).getRoot();
+        List<ScanColumnRange> tableRanges = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        if (ranges != null) {
+            for (ScanColumnRange range : ranges) {
+                Column column = range.getColumn();
+                if (column.getTable() == table) {
+                    tableRanges.add(range);
+                    positions.add(column.getPosition());
+                }
+            }
+        }
+        this.ranges = tableRanges.isEmpty() ? Collections.<ScanColumnRange>emptyList() : tableRanges;
+        this.rangeColumns = new int[positions.size()];
+        for (int i = 0; i < rangeColumns.length; i++) {
+            rangeColumns[i] = positions.get(i);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done || ((limit > 0) && (count >= limit))) {
+            return false;
+        }
+        try {
+            while (true) {
+                if (current != null) {
+                    while ((lo != null) && (position < current.size()) &&
+                           (ByteArrayUtil.compareUnsigned(current.getRowKey(position), lo) < 0)) {
+                        position++;
+                    }
+                    if (position < current.size()) {
+                        if ((hi != null) &&
+                            (ByteArrayUtil.compareUnsigned(current.getRowKey(position), hi) >= 0)) {
+                            done = true;
+                            return false;
+                        }
+                        return true;
+                    }
+                    current = null;
+                }
+                fill();
+                if (pending.isEmpty()) {
+                    done = true;
+                    return false;
+                }
+                current = pending.removeFirst().load();
+                position = 0;
+            }
+        } catch (RuntimeException e) {
+            throw FDBAdapter.wrapFDBException(storeData.session, e);
+        }
+    }
+
+    @Override
+    public Void next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        storeData.rawKey = ByteArrayUtil.join(prefix, current.getRowKey(position));
+        if (current.isLoaded()) {
+            storeData.otherValue = current.getRow(position);
+        }
+        else {
+            storeData.otherValue = new PartialRow(current, position);
+        }
+        position++;
+        count++;
+        return null;
+    }
+
+    @Override
+    public void close() {
+        headers.dispose();
+        for (PendingChunk chunk : pending) {
+            chunk.dispose();
+        }
+        pending.clear();
+        current = null;
+    }
+
+    /** Read ahead enough headers to have a few chunks in flight. */
+    protected void fill() {
+        while ((pending.size() < LOOKAHEAD) && headers.hasNext()) {
+            KeyValue kv = headers.next();
+            ColumnChunk chunk = ColumnChunk.decodeHeader(ColumnChunk.chunkKey(prefix, kv.getKey()),
+                                                         kv.getValue());
+            if (!chunk.mayMatch(ranges, rangeColumns)) {
+                CHUNKS_SKIPPED.hit();
+                continue;
+            }
+            pending.addLast(new PendingChunk(chunk));
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.foundationdb.server.store.format.columnkeys;
 
+import com.foundationdb.ais.model.AbstractVisitor;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.HasStorage;
 import com.foundationdb.ais.model.StorageDescription;
@@ -64,6 +65,8 @@ public class ColumnKeysStorageDescription extends FDBStorageDescription
 {
     protected static final byte[] FIRST_NUMERIC = { 0x0C };
 
+    private int keysPerRow;
+
     public ColumnKeysStorageDescription(HasStorage forObject, String storageFormat) {
         super(forObject, storageFormat);
 
@@ -220,13 +223,31 @@ public class ColumnKeysStorageDescription extends FDBStorageDescription
         default:
             throw new IllegalArgumentException(right.toString());
         }
+        // Every row is several keys, so the row limit cannot be passed down,
+        // but it still bounds the batch size.
         storeData.iterator = 
             new ColumnKeysStorageIterator(storeData,
                                           store.getTransaction(session, storeData)
-                                          .getRangeIterator(begin, end, transactionOptions),
+                                          .getRangeIterator(begin, end, transactionOptions,
+                                                            transactionOptions.streamingMode(limit, keysPerRow())),
                                           limit);
     }
 
+    /** The most keys that a single row of any table in the group can take. */
+    protected int keysPerRow() {
+        if (keysPerRow == 0) {
+            final int[] max = { 1 };
+            ((Group)object).getRoot().visit(new AbstractVisitor() {
+                    @Override
+                    public void visit(Table table) {
+                        max[0] = Math.max(max[0], table.getColumnsIncludingInternal().size());
+                    }
+                });
+            keysPerRow = max[0];
+        }
+        return keysPerRow;
+    }
+
     public void indexIterator(FDBStore store, Session session, FDBStoreData storeData,
                               boolean key, boolean inclusive, boolean reverse) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.compressed;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.HasStorage;
+import com.foundationdb.ais.model.StorageDescription;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.model.validation.AISValidationFailure;
+import com.foundationdb.ais.model.validation.AISValidationOutput;
+import com.foundationdb.ais.protobuf.AISProtobuf.Storage;
+import com.foundationdb.ais.protobuf.FDBProtobuf;
+import com.foundationdb.ais.protobuf.FDBProtobuf.CompressedValues;
+import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.qp.row.LazyDecodingRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.server.error.StorageDescriptionInvalidException;
+import com.foundationdb.server.rowdata.FieldDef;
+import com.foundationdb.server.rowdata.RowData;
+import com.foundationdb.server.rowdata.RowDataExtractor;
+import com.foundationdb.server.rowdata.RowDef;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.store.FDBStore;
+import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueTargets;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import com.google.protobuf.ByteString;
+
+/**
+ * Keys as for {@link TupleStorageDescription} with <code>KEY_ONLY</code>,
+ * but each row value compressed by {@link ValueCompressor}, using
+ * the group's dictionary, if it has one.
+ * Values are left compressed as the store fetches or iterates over them,
+ * and a row only inflates its value when one of its fields is first
+ * read, so rows that are passed over by their hKey alone never are.
+ */
+public class CompressedStorageDescription extends TupleStorageDescription
+{
+    private static final PointTap INFLATED = Tap.createCount("fdb: compressed values inflated");
+
+    private byte[] dictionary;
+
+    public CompressedStorageDescription(HasStorage forObject, String storageFormat) {
+        super(forObject, storageFormat);
+        setUsage(TupleUsage.KEY_ONLY);
+    }
+
+    public CompressedStorageDescription(HasStorage forObject, CompressedStorageDescription other, String storageFormat) {
+        super(forObject, other, storageFormat);
+        this.dictionary = other.dictionary;
+    }
+
+    @Override
+    public StorageDescription cloneForObject(HasStorage forObject) {
+        return new CompressedStorageDescription(forObject, this, storageFormat);
+    }
+
+    @Override
+    public StorageDescription cloneForObjectWithoutState(HasStorage forObject) {
+        CompressedStorageDescription sd = new CompressedStorageDescription(forObject, storageFormat);
+        sd.setDictionary(this.dictionary);
+        return sd;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void writeProtobuf(Storage.Builder builder) {
+        super.writeProtobuf(builder);
+        CompressedValues.Builder values = CompressedValues.newBuilder();
+        if (dictionary != null) {
+            values.setDictionary(ByteString.copyFrom(dictionary));
+        }
+        builder.setExtension(FDBProtobuf.compressedValues, values.build());
+        writeUnknownFields(builder);
+    }
+
+    @Override
+    public void validate(AISValidationOutput output) {
+        if (!(object instanceof Group)) {
+            output.reportFailure(new AISValidationFailure(new StorageDescriptionInvalidException(object, "is not a Group and has no values to compress")));
+            return;
+        }
+        if (getUsage() != TupleUsage.KEY_ONLY) {
+            output.reportFailure(new AISValidationFailure(new StorageDescriptionInvalidException(object, "must use tuple keys only")));
+            return;
+        }
+        super.validate(output);
+    }
+
+    @Override
+    public byte[] encodeValueBytes(byte[] value) {
+        return ValueCompressor.compress(value, dictionary);
+    }
+
+    @Override
+    public Row expandRow(FDBStore store, Session session,
+                        FDBStoreData storeData, Schema schema) {
+        Table table = tableFromOrdinals((Group)object, storeData.persistitKey);
+        return new InflatingRow(schema.tableRowType(table), table.rowDef(),
+                                storeData.rawValue, dictionary);
+    }
+
+    /** A row over a value as stored, which is only inflated, all at
+     * once, when one of its fields is first read.
+     */
+    private static class InflatingRow extends LazyDecodingRow {
+        private final RowDef rowDef;
+        private final byte[] storedValue;
+        private final byte[] dictionary;
+        private RowDataExtractor extractor;
+
+        public InflatingRow(RowType rowType, RowDef rowDef, byte[] storedValue, byte[] dictionary) {
+            super(rowType);
+            this.rowDef = rowDef;
+            this.storedValue = storedValue;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected Value decodeValue(int i) {
+            if (extractor == null) {
+                INFLATED.hit();
+                RowData rowData = new RowData();
+                rowData.reset(ValueCompressor.decompress(storedValue, dictionary));
+                rowData.prepareRow(0);
+                extractor = new RowDataExtractor(rowData, rowDef);
+            }
+            FieldDef fieldDef = rowDef.getFieldDef(i);
+            Value value = new Value(rowType().typeAt(i));
+            ValueTargets.copyFrom(extractor.getValueSource(fieldDef), value);
+            return value;
+        }
+    }
+}
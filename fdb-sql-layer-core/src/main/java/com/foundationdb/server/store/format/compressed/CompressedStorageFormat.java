@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.compressed;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.HasStorage;
+import com.foundationdb.ais.protobuf.AISProtobuf.Storage;
+import com.foundationdb.ais.protobuf.FDBProtobuf;
+import com.foundationdb.ais.protobuf.FDBProtobuf.CompressedValues;
+import com.foundationdb.server.error.UnsupportedSQLException;
+import com.foundationdb.server.store.format.StorageFormat;
+import com.foundationdb.server.store.format.StorageFormatRegistry;
+import com.foundationdb.sql.parser.StorageFormatNode;
+
+import java.nio.charset.StandardCharsets;
+
+public class CompressedStorageFormat extends StorageFormat<CompressedStorageDescription>
+{
+    public final static String identifier = "compressed";
+
+    private CompressedStorageFormat() {
+    }
+
+    public static void register(StorageFormatRegistry registry) {
+        registry.registerStorageFormat(FDBProtobuf.compressedValues, identifier, CompressedStorageDescription.class, new CompressedStorageFormat());
+    }
+
+    public CompressedStorageDescription readProtobuf(Storage pbStorage, HasStorage forObject, CompressedStorageDescription storageDescription) {
+        if (storageDescription == null) {
+            storageDescription = new CompressedStorageDescription(forObject, identifier);
+        }
+        CompressedValues values = pbStorage.getExtension(FDBProtobuf.compressedValues);
+        if (values.hasDictionary()) {
+            storageDescription.setDictionary(values.getDictionary().toByteArray());
+        }
+        return storageDescription;
+    }
+
+    /** <code>STORAGE_FORMAT compressed(dictionary = '...')</code>, where
+     * the optional dictionary is text likely to occur in the rows. It is
+     * kept as its UTF-8 bytes, just as string values in the rows are.
+     * <p>
+     * The dictionary is not trained from the rows themselves. There are
+     * none when the group is created, and every stored value needs the
+     * exact dictionary it was compressed with, so replacing it later
+     * would mean rewriting the whole group.
+     */
+    public CompressedStorageDescription parseSQL(StorageFormatNode node, HasStorage forObject) {
+        if (!(forObject instanceof Group)) {
+            throw new UnsupportedSQLException("STORAGE_FORMAT " + identifier + " only applies to tables", node);
+        }
+        CompressedStorageDescription storageDescription = new CompressedStorageDescription(forObject, identifier);
+        String dictionary = node.getOptions().get("dictionary");
+        if ((dictionary != null) && !dictionary.isEmpty()) {
+            storageDescription.setDictionary(dictionary.getBytes(StandardCharsets.UTF_8));
+        }
+        return storageDescription;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.compressed;
+
+import com.foundationdb.server.error.AkibanInternalException;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress individual stored values with raw deflate at its fastest
+ * level, optionally primed with a preset dictionary.
+ * <p>
+ * A compressed value is a marker byte, the original length as a
+ * varint, and then the deflated bytes. A value that does not get any
+ * smaller is kept as is after a different marker byte, so that
+ * decompressing it is just a copy.
+ * <p>
+ * The <code>Deflater</code> and <code>Inflater</code> are kept per
+ * thread and reset for each value, so that a scan does not allocate
+ * any native state per row.
+ */
+public class ValueCompressor
+{
+    public static final byte STORED = 0;
+    public static final byte DEFLATED = 1;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private ValueCompressor() {
+    }
+
+    public static byte[] compress(byte[] value, byte[] dictionary) {
+        if (value == null) {
+            return null;
+        }
+        int headerLength = 1 + varintLength(value.length);
+        // Only worth keeping if strictly smaller than storing.
+        byte[] buffer = new byte[value.length];
+        int length = 0;
+        if (value.length > headerLength) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(value);
+            deflater.finish();
+            int limit = buffer.length - headerLength;
+            while (!deflater.finished() && (length < limit)) {
+                length += deflater.deflate(buffer, headerLength + length, limit - length);
+            }
+            if (!deflater.finished()) {
+                length = -1;
+            }
+        }
+        else {
+            length = -1;
+        }
+        if (length < 0) {
+            byte[] stored = new byte[value.length + 1];
+            stored[0] = STORED;
+            System.arraycopy(value, 0, stored, 1, value.length);
+            return stored;
+        }
+        buffer[0] = DEFLATED;
+        writeVarint(buffer, 1, value.length);
+        return Arrays.copyOf(buffer, headerLength + length);
+    }
+
+    public static byte[] decompress(byte[] stored, byte[] dictionary) {
+        if (stored == null) {
+            return null;
+        }
+        if (stored.length == 0) {
+            throw new AkibanInternalException("Empty compressed value");
+        }
+        switch (stored[0]) {
+        case STORED:
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        case DEFLATED:
+            break;
+        default:
+            throw new AkibanInternalException("Unknown compressed value marker: " + stored[0]);
+        }
+        int length = 0, shift = 0, pos = 1;
+        while (true) {
+            byte b = stored[pos++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+            shift += 7;
+        }
+        byte[] value = new byte[length];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(stored, pos, stored.length - pos);
+        try {
+            int n = 0;
+            while (n < length) {
+                int nn = inflater.inflate(value, n, length - n);
+                if (nn == 0) {
+                    throw new AkibanInternalException("Truncated compressed value");
+                }
+                n += nn;
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new AkibanInternalException("Corrupt compressed value", ex);
+        }
+        return value;
+    }
+
+    static int varintLength(int n) {
+        int length = 1;
+        while ((n >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    static void writeVarint(byte[] bytes, int pos, int n) {
+        while ((n & ~0x7F) != 0) {
+            bytes[pos++] = (byte)((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        bytes[pos] = (byte)n;
+    }
+}
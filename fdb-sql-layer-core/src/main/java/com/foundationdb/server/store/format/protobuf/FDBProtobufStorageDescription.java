@@ -131,7 +131,7 @@ public class FDBProtobufStorageDescription extends TupleStorageDescription imple
             throw nex;
         }
         Row row = rowConverter.decode(msg);
-        row = overlayBlobData(row.rowType(), row, store, session);
+        row = overlayBlobData(row.rowType(), row, store, session, storeData);
         return row;
     }
 }
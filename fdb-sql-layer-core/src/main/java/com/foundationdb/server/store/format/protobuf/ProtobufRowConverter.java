@@ -21,10 +21,12 @@ import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.Join;
 import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.row.LazyDecodingRow;
 import com.foundationdb.qp.row.Row;
-import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSources;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FileDescriptor;
@@ -220,23 +222,28 @@ public abstract class ProtobufRowConverter
 
         @Override
         public Row decode(DynamicMessage msg) {
-            Object[] objects = new Object[fields.length];
-            for (FieldDescriptor field : msg.getAllFields().keySet()) {
-                Integer columnIndex = columnIndexesByField.get(field);
-                if (columnIndex != null) {
-                    objects[columnIndex] = conversions[columnIndex].getValue(msg, field);
-                }
-                else {
-                    Integer nullIndex = nullableIndexesByField.get(field);
-                    if (nullIndex != null) {
-                        // TODO: It's already null, because we aren't
-                        // handling defaults yet.
-                        objects[nullIndex] = null;
-                    }
+            return new LazyMessageRow(msg);
+        }
+
+        /** Only convert fields of the message as they are needed. */
+        class LazyMessageRow extends LazyDecodingRow {
+            private final DynamicMessage msg;
+
+            public LazyMessageRow(DynamicMessage msg) {
+                super(rowType);
+                this.msg = msg;
+            }
+
+            @Override
+            protected Value decodeValue(int i) {
+                Object object = null;
+                FieldDescriptor field = fields[i];
+                // An absent field, or one whose null field is present, is null.
+                if ((field != null) && msg.hasField(field)) {
+                    object = conversions[i].getValue(msg, field);
                 }
+                return ValueSources.valuefromObject(object, rowType.typeAt(i));
             }
-            ValuesHolderRow row = new ValuesHolderRow (rowType, objects);
-            return row;
         }
     }
 }
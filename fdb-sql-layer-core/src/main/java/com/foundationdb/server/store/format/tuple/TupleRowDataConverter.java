@@ -25,6 +25,7 @@ import com.foundationdb.ais.model.Join;
 import com.foundationdb.ais.model.PrimaryKey;
 import com.foundationdb.ais.model.Table;
 import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.qp.row.LazyDecodingRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.RowType;
@@ -38,11 +39,13 @@ import com.foundationdb.server.types.mcompat.mtypes.MBinary;
 import com.foundationdb.server.types.mcompat.mtypes.MDateAndTime;
 import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
 import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.tuple.Tuple2;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -99,6 +102,22 @@ public class TupleRowDataConverter
         return illegal;
     }
 
+    /** Check just the primary keys of the given tables, which need not
+     * be joined together yet.
+     */
+    public static List<String> checkKeyTypes(Collection<Table> tables) {
+        List<String> illegal = new ArrayList<>();
+        for (Table table : tables) {
+            PrimaryKey pkey = table.getPrimaryKeyIncludingInternal();
+            if (pkey != null) {
+                for (Column column : pkey.getColumns()) {
+                    checkColumn(column, illegal);
+                }
+            }
+        }
+        return illegal;
+    }
+
     public static List<String> checkTypes(Index index, TupleUsage usage) {
         List<String> illegal = new ArrayList<>();
         for (IndexColumn indexColumn : index.getKeyColumns()) {
@@ -128,4 +147,35 @@ public class TupleRowDataConverter
         ValuesHolderRow newRow = new ValuesHolderRow (rowType, objects);
         return newRow;
     }
+
+    /** A row over the packed tuple that only unpacks it when a field is
+     * needed and then only through the last of <code>prefix</code> fields.
+     */
+    public static Row tupleBytesToRow (byte[] tupleBytes, RowType rowType, int prefix) {
+        return new LazyTupleRow(tupleBytes, rowType, prefix);
+    }
+
+    static class LazyTupleRow extends LazyDecodingRow {
+        private final byte[] tupleBytes;
+        private final int prefix;
+        private Tuple2 tuple;
+
+        public LazyTupleRow(byte[] tupleBytes, RowType rowType, int prefix) {
+            super(rowType);
+            this.tupleBytes = tupleBytes;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected Value decodeValue(int i) {
+            if ((tuple == null) || (i >= tuple.size())) {
+                // The first time, go as far as the caller said it would.
+                // If it then goes beyond that, just get everything.
+                int count = (tuple == null) ? Math.max(prefix, i + 1) : rowType().nFields();
+                tuple = Tuple2.fromBytes(tupleBytes, 0, tupleBytes.length, count);
+                assert (i < tuple.size()) : "Row Type " + rowType() + " does not match tuple size: " + tuple.size();
+            }
+            return ValueSources.valuefromObject(tuple.get(i), rowType().typeAt(i));
+        }
+    }
 }
@@ -39,6 +39,7 @@ import com.foundationdb.server.service.blob.BlobRef;
 import com.foundationdb.server.service.session.Session;
 import com.foundationdb.server.store.FDBStore;
 import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.store.FDBStoreDataHelper;
 import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.foundationdb.server.types.aksql.aktypes.AkBlob;
 import com.foundationdb.server.types.value.ValueSource;
@@ -265,11 +266,11 @@ public class TupleStorageDescription extends FDBStorageDescription
     public Row expandRow(FDBStore store, Session session, 
                             FDBStoreData storeData, Schema schema) {
         if (usage == TupleUsage.KEY_AND_ROW) {
-            Tuple2 tuple = Tuple2.fromBytes(storeData.rawValue);
             Table table = tableFromOrdinals((Group)object, storeData.persistitKey);
             RowType rowType = schema.tableRowType(table);
-            Row row = TupleRowDataConverter.tupleToRow(tuple, rowType);
-            row = overlayBlobData(rowType, row, store, session);
+            Row row = TupleRowDataConverter.tupleBytesToRow(storeData.rawValue, rowType,
+                                                            FDBStoreDataHelper.neededFieldsPrefix(storeData, table));
+            row = overlayBlobData(rowType, row, store, session, storeData);
             return row; 
         } else {
             return super.expandRow(store, session, storeData, schema);
@@ -18,17 +18,37 @@
 package com.foundationdb.server.types.texpressions;
 
 import com.foundationdb.server.error.InvalidParameterValueException;
+import com.foundationdb.server.util.LRUCacheMap;
 
 import java.util.Arrays;
-import java.util.BitSet;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 public final class Matchers
 {
+    /** Number of compiled patterns kept for reuse across statements. */
+    public static final int CACHE_SIZE = 256;
+
+    private static final Map<MatcherKey, Matcher> cache = new LRUCacheMap<>(CACHE_SIZE);
+
     public static Matcher getMatcher(String pattern, char escape, boolean ignoreCase) {
+        MatcherKey key = new MatcherKey(pattern, escape, ignoreCase);
+        Matcher matcher;
+        synchronized(cache) {
+            matcher = cache.get(key);
+        }
+        if(matcher == null) {
+            // Matchers are immutable, so a racing thread compiling the same one is harmless.
+            matcher = compileMatcher(pattern, escape, ignoreCase);
+            synchronized(cache) {
+                cache.put(key, matcher);
+            }
+        }
+        return matcher;
+    }
+
+    private static Matcher compileMatcher(String pattern, char escape, boolean ignoreCase) {
         if(pattern.isEmpty()) {
             return new EmptyMatcher();
         }
@@ -40,29 +60,88 @@ public final class Matchers
         return new GenericMatcher(pattern, escape, ignoreCase, ts);
     }
 
+    private static final class MatcherKey
+    {
+        private final String pattern;
+        private final char escape;
+        private final boolean ignoreCase;
+
+        private MatcherKey(String pattern, char escape, boolean ignoreCase) {
+            this.pattern = pattern;
+            this.escape = escape;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof MatcherKey)) {
+                return false;
+            }
+            MatcherKey other = (MatcherKey)o;
+            return pattern.equals(other.pattern) && (escape == other.escape) && (ignoreCase == other.ignoreCase);
+        }
+
+        @Override
+        public int hashCode() {
+            return (pattern.hashCode() * 31 + escape) * 2 + (ignoreCase ? 1 : 0);
+        }
+    }
+
     private static final class Token
     {
+        /** Characters below this have their right-most index in a table. */
+        private static final int TABLE_SIZE = 256;
+
         final char[] chunk;
-        final Map<Character, Integer> rightIndex;
-        final BitSet wildIndex;
+        final boolean[] wild;
+        private final int[] rightIndex;
+        private final char[] otherChars;
+        private final int[] otherIndex;
+        private final int lastWild;
 
-        private Token(char[] chunk, Map<Character, Integer> rightIndex, BitSet wildIndex) {
-            this.rightIndex = rightIndex;
+        private Token(char[] chunk, boolean[] wild) {
             this.chunk = chunk;
-            this.wildIndex = wildIndex;
+            this.wild = wild;
+            this.rightIndex = new int[TABLE_SIZE];
+            Arrays.fill(rightIndex, -1);
+            int nothers = 0, lastWild = -1;
+            for(int i = 0; i < chunk.length; ++i) {
+                if(chunk[i] < TABLE_SIZE) {
+                    rightIndex[chunk[i]] = i;
+                } else {
+                    ++nothers;
+                }
+                if(wild[i]) {
+                    lastWild = i;
+                }
+            }
+            this.lastWild = lastWild;
+            // Any other characters are few enough to search, right-most first.
+            this.otherChars = new char[nothers];
+            this.otherIndex = new int[nothers];
+            for(int i = chunk.length - 1, j = 0; i >= 0; --i) {
+                if(chunk[i] >= TABLE_SIZE) {
+                    otherChars[j] = chunk[i];
+                    otherIndex[j++] = i;
+                }
+            }
         }
 
-        /** Get right most index that would match {@code c}. */
-        public Integer getRightIndex(char c) {
-            Integer r = rightIndex.get(c);
-            // If no match, find the right-most wildcard as it matches anything.
-            if(r == null) {
-                r = wildIndex.length() - 1;
-                if(r == -1) {
-                    r = null;
+        /** Get right most index that would match {@code c}, or -1 if none. */
+        public int getRightIndex(char c) {
+            int r = -1;
+            if(c < TABLE_SIZE) {
+                r = rightIndex[c];
+            } else {
+                for(int j = 0; j < otherChars.length; ++j) {
+                    if(otherChars[j] == c) {
+                        r = otherIndex[j];
+                        break;
+                    }
                 }
             }
-            return r;
+            // A wildcard matches anything.
+            return Math.max(r, lastWild);
         }
     }
 
@@ -79,75 +158,55 @@ public final class Matchers
         }
     }
 
-    private static void checkEndEscape(String pattern, char escape) {
-        int len = pattern.length();
-        if(pattern.charAt(len - 1) == escape) {
-            if(((len - 2) < 0) || (pattern.charAt(len - 2) != escape)) {
-                throw new InvalidParameterValueException("Illegal escape sequence");
-            }
-        }
-    }
-
-    private static boolean isExactStart(String pattern, char escape) {
-        return (pattern.charAt(0) != '%') && (escape != '%');
-    }
-
-    private static boolean isExactEnd(String pattern, char escape) {
-        int len = pattern.length();
-        if(pattern.charAt(len - 1) != '%') {
-            return true;
-        }
-        // Still exact if percent is escaped but not if the escape is escaped
-        boolean hasN2 = (len - 2) >= 0;
-        boolean hasN3 = (len - 3) >= 0;
-        return hasN2 && (pattern.charAt(len - 2) == escape) && (hasN3 && pattern.charAt(len - 3) != escape);
-    }
-
     /** Split the pattern into (unescaped) % delimited Tokens. */
     private static TokenSet buildTokenSet(String pattern, char escape, boolean doLowerCase) {
         assert !pattern.isEmpty();
-        checkEndEscape(pattern, escape);
         final int patLength = pattern.length();
         List<Token> tokens = new LinkedList<>();
+        // Exact unless the first or last character is an unescaped %
+        boolean exactStart = true, exactEnd = true;
         for(int n = 0; n < patLength; /*none*/) {
             char[] chunk = new char[patLength - n];
+            boolean[] wild = new boolean[patLength - n];
             int chunkLen = 0;
-            Map<Character, Integer> rightIndex = new HashMap<>();
-            BitSet wildIndex = new BitSet();
             for(; n < patLength; ++n) {
                 char ch = pattern.charAt(n);
                 if(ch == escape) {
-                    assert (n + 1) < patLength : pattern;
+                    if((n + 1) == patLength) {
+                        throw new InvalidParameterValueException("Illegal escape sequence");
+                    }
                     ch = pattern.charAt(++n);
                 } else if(ch == '%') {
-                    ++n;
+                    if(n == 0) {
+                        exactStart = false;
+                    }
+                    if(++n == patLength) {
+                        exactEnd = false;
+                    }
                     // Split
                     break;
                 } else if(ch == '_') {
-                    wildIndex.set(chunkLen);
+                    wild[chunkLen] = true;
                 }
                 if(doLowerCase) {
                     ch = Character.toLowerCase(ch);
                 }
-                chunk[chunkLen] = ch;
-                rightIndex.put(ch, chunkLen++);
+                chunk[chunkLen++] = ch;
             }
             if(chunkLen > 0) {
                 if(chunk.length != chunkLen) {
                     chunk = Arrays.copyOf(chunk, chunkLen);
+                    wild = Arrays.copyOf(wild, chunkLen);
                 }
-                if(wildIndex.size() < chunkLen) {
-                    wildIndex.set(chunkLen, false);
-                }
-                tokens.add(new Token(chunk, rightIndex, wildIndex));
+                tokens.add(new Token(chunk, wild));
             }
         }
         Token startsWith = null;
-        if(!tokens.isEmpty() && isExactStart(pattern, escape)) {
+        if(!tokens.isEmpty() && exactStart) {
             startsWith = tokens.remove(0);
         }
         Token endsWith = null;
-        if(isExactEnd(pattern, escape)) {
+        if(exactEnd) {
             if(tokens.isEmpty()) {
                 endsWith = startsWith;
             } else {
@@ -157,10 +216,12 @@ public final class Matchers
         return new TokenSet(startsWith, tokens.toArray(new Token[tokens.size()]), endsWith);
     }
 
-    /** Find the first location of the token and return the following index, -1 if not found. */
-    private static int findToken(Token token, String str, int startIndex, boolean doLowerCase) {
+    /**
+     * Find the first location of the token that ends before {@code strLength}
+     * and return the following index, -1 if not found.
+     */
+    private static int findToken(Token token, String str, int startIndex, int strLength, boolean doLowerCase) {
         final int tokMax = token.chunk.length - 1;
-        final int strLength = str.length();
         int left = startIndex;
         outer:
         while(left < strLength) {
@@ -175,16 +236,16 @@ public final class Matchers
                 ch = Character.toLowerCase(ch);
             }
             int right = tokMax;
-            if((ch == token.chunk[right]) || token.wildIndex.get(right)) {
+            if((ch == token.chunk[right]) || token.wild[right]) {
                 int nextStart = tail + 1;
                 while((--tail >= left) && (--right >= 0)) {
                     ch = str.charAt(tail);
                     if(doLowerCase) {
                         ch = Character.toLowerCase(ch);
                     }
-                    if((ch != token.chunk[right]) && !token.wildIndex.get(right)) {
-                        Integer d = token.getRightIndex(ch);
-                        if((d != null) && (d < right)) {
+                    if((ch != token.chunk[right]) && !token.wild[right]) {
+                        int d = token.getRightIndex(ch);
+                        if(d < right) {
                             // Mismatch is in pattern and rightmost is within how much of pattern has been used
                             left += right - d;
                         } else {
@@ -198,20 +259,20 @@ public final class Matchers
                 return nextStart;
             } else {
                 // Mismatch occurs at the end;
-                Integer d = token.getRightIndex(ch);
-                left += (d == null) ? token.chunk.length : right - d;
+                int d = token.getRightIndex(ch);
+                left += right - d;
             }
         }
         // Would have already returned true if there was a match
         return -1;
     }
 
-    /** Check if {@code tokens} matches {@code str} at {@code startIndex}. */
-    private static boolean tokensMatch(Token[] tokens, String str, int startIndex, boolean doLowerCase) {
+    /** Check if {@code tokens} all match in order between {@code startIndex} and {@code endIndex}. */
+    private static boolean tokensMatch(Token[] tokens, String str, int startIndex, int endIndex, boolean doLowerCase) {
         int nextStart = startIndex;
         boolean matched = true;
         for(int i = 0; matched && (i < tokens.length); ++i) {
-            nextStart = findToken(tokens[i], str, nextStart, doLowerCase);
+            nextStart = findToken(tokens[i], str, nextStart, endIndex, doLowerCase);
             matched = (nextStart >= 0);
         }
         return matched;
@@ -228,7 +289,7 @@ public final class Matchers
             if(doLowerCase) {
                 sch = Character.toLowerCase(sch);
             }
-            if((tch != sch) && !token.wildIndex.get(ti)) {
+            if((tch != sch) && !token.wild[ti]) {
                 return false;
             }
         }
@@ -293,9 +354,12 @@ public final class Matchers
 
         @Override
         public boolean matches(String str) {
+            // The start and end may not overlap each other or anything between.
             int startIndex = (tokenSet.startsWith != null) ? tokenSet.startsWith.chunk.length : 0;
-            return matchesStartsWith(str) &&
-                tokensMatch(tokenSet.contains, str, startIndex, ignoreCase) &&
+            int endIndex = str.length() - ((tokenSet.endsWith != null) ? tokenSet.endsWith.chunk.length : 0);
+            return (startIndex <= endIndex) &&
+                matchesStartsWith(str) &&
+                tokensMatch(tokenSet.contains, str, startIndex, endIndex, ignoreCase) &&
                 matchesEndsWith(str);
         }
 
@@ -318,11 +382,7 @@ public final class Matchers
 
         public IndexMatcher(String pattern) {
             this.pattern = pattern;
-            Map<Character, Integer> rightPos = new HashMap<>();
-            for(int i = 0; i < pattern.length(); ++i) {
-                rightPos.put(pattern.charAt(i), i);
-            }
-            this.token = new Token(pattern.toCharArray(), rightPos, new BitSet(pattern.length()));
+            this.token = new Token(pattern.toCharArray(), new boolean[pattern.length()]);
         }
 
         @Override
@@ -339,7 +399,7 @@ public final class Matchers
         public int matchesAt(String str, int count) {
             int nextStart = 0;
             for(int i = 0; i < count; ++i) {
-                nextStart = findToken(token, str, nextStart, false);
+                nextStart = findToken(token, str, nextStart, str.length(), false);
                 if(nextStart < 0) {
                     return -1;
                 }
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.mcompat.mtypes.MApproximateNumber;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.value.UnderlyingType;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds evaluations for a prepared expression tree that are
+ * specialized to its types when the plan is made, instead of the
+ * general ones from {@link TPreparedExpression#build}.
+ * <p>
+ * A comparison of two numbers of the same class, or of two strings
+ * under a known collator, compares primitives straight from the row's
+ * fields, with no copying of the operands into intermediate values
+ * and no dispatch on their types for each row. Functions keep their
+ * own evaluation, but with their inputs compiled. Everything else is
+ * interpreted as before.
+ */
+public final class TExpressionCompiler
+{
+    public static TEvaluatableExpression compile(TPreparedExpression expression) {
+        if (expression instanceof TComparisonExpression) {
+            TEvaluatableExpression compiled = compileComparison((TComparisonExpression)expression);
+            if (compiled != null)
+                return compiled;
+        }
+        else if (expression instanceof TPreparedFunction) {
+            TPreparedFunction function = (TPreparedFunction)expression;
+            return function.build(compile(function.getInputs()));
+        }
+        return expression.build();
+    }
+
+    public static List<TEvaluatableExpression> compile(List<? extends TPreparedExpression> expressions) {
+        List<TEvaluatableExpression> result = new ArrayList<>(expressions.size());
+        for (TPreparedExpression expression : expressions) {
+            result.add(compile(expression));
+        }
+        return result;
+    }
+
+    /** A specialized comparison, or <code>null</code> if the operand types do not allow one. */
+    private static TEvaluatableExpression compileComparison(TComparisonExpression expression) {
+        TPreparedExpression left = expression.getLeft(), right = expression.getRight();
+        TInstance leftType = left.resultType(), rightType = right.resultType();
+        if ((leftType == null) || (rightType == null))
+            return null;
+        AkCollator collator = expression.getCollator();
+        if (collator != null) {
+            return new CollatedComparison(operand(left), expression.getComparison(), operand(right), collator);
+        }
+        TClass tClass = leftType.typeClass();
+        if (tClass != rightType.typeClass())
+            return null;
+        UnderlyingType underlyingType = tClass.underlyingType();
+        if ((tClass instanceof MNumeric) && (tClass != MNumeric.BIGINT_UNSIGNED)) {
+            switch (underlyingType) {
+            case INT_8:
+            case INT_16:
+            case INT_32:
+            case INT_64:
+                return new LongComparison(operand(left), expression.getComparison(), operand(right));
+            default:
+                return null;
+            }
+        }
+        if (tClass instanceof MApproximateNumber) {
+            switch (underlyingType) {
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleComparison(operand(left), expression.getComparison(), operand(right));
+            default:
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** Fields are read in place, since the comparison is done with them
+     * before the row can change. */
+    private static TEvaluatableExpression operand(TPreparedExpression expression) {
+        if (expression instanceof TPreparedField) {
+            return new FieldReference(((TPreparedField)expression).getIndex());
+        }
+        return compile(expression);
+    }
+
+    private TExpressionCompiler() {
+    }
+
+    private static final class FieldReference implements TEvaluatableExpression
+    {
+        @Override
+        public ValueSource resultValue() {
+            return value;
+        }
+
+        @Override
+        public void evaluate() {
+            value = row.value(index);
+        }
+
+        @Override
+        public void with(Row row) {
+            this.row = row;
+            this.value = null;
+        }
+
+        @Override
+        public void with(QueryContext context) {
+        }
+
+        @Override
+        public void with(QueryBindings bindings) {
+        }
+
+        FieldReference(int index) {
+            this.index = index;
+        }
+
+        private final int index;
+        private Row row;
+        private ValueSource value;
+    }
+
+    private static abstract class CompiledComparison implements TEvaluatableExpression
+    {
+        protected abstract int compare(ValueSource left, ValueSource right);
+
+        @Override
+        public ValueSource resultValue() {
+            return value;
+        }
+
+        @Override
+        public void evaluate() {
+            left.evaluate();
+            ValueSource leftSource = left.resultValue();
+            if (leftSource.isNull()) {
+                value.putNull();
+                return;
+            }
+            right.evaluate();
+            ValueSource rightSource = right.resultValue();
+            if (rightSource.isNull()) {
+                value.putNull();
+                return;
+            }
+            value.putBool(comparison.matchesCompareTo(compare(leftSource, rightSource)));
+        }
+
+        @Override
+        public void with(Row row) {
+            left.with(row);
+            right.with(row);
+        }
+
+        @Override
+        public void with(QueryContext context) {
+            left.with(context);
+            right.with(context);
+        }
+
+        @Override
+        public void with(QueryBindings bindings) {
+            left.with(bindings);
+            right.with(bindings);
+        }
+
+        protected CompiledComparison(TEvaluatableExpression left, Comparison comparison, TEvaluatableExpression right) {
+            this.left = left;
+            this.comparison = comparison;
+            this.right = right;
+        }
+
+        private final TEvaluatableExpression left, right;
+        private final Comparison comparison;
+        private final Value value = new Value(AkBool.INSTANCE.instance(true));
+    }
+
+    private static final class LongComparison extends CompiledComparison
+    {
+        @Override
+        protected int compare(ValueSource left, ValueSource right) {
+            return Long.compare(ValueSources.getLong(left), ValueSources.getLong(right));
+        }
+
+        LongComparison(TEvaluatableExpression left, Comparison comparison, TEvaluatableExpression right) {
+            super(left, comparison, right);
+        }
+    }
+
+    private static final class DoubleComparison extends CompiledComparison
+    {
+        @Override
+        protected int compare(ValueSource left, ValueSource right) {
+            return Double.compare(doubleValue(left), doubleValue(right));
+        }
+
+        private static double doubleValue(ValueSource source) {
+            if (ValueSources.underlyingType(source) == UnderlyingType.FLOAT)
+                return source.getFloat();
+            else
+                return source.getDouble();
+        }
+
+        DoubleComparison(TEvaluatableExpression left, Comparison comparison, TEvaluatableExpression right) {
+            super(left, comparison, right);
+        }
+    }
+
+    private static final class CollatedComparison extends CompiledComparison
+    {
+        @Override
+        protected int compare(ValueSource left, ValueSource right) {
+            return collator.compare(left.getString(), right.getString());
+        }
+
+        CollatedComparison(TEvaluatableExpression left, Comparison comparison, TEvaluatableExpression right,
+                           AkCollator collator) {
+            super(left, comparison, right);
+            this.collator = collator;
+        }
+
+        private final AkCollator collator;
+    }
+}
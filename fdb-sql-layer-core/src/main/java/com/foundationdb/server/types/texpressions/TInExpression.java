@@ -17,6 +17,8 @@
 package com.foundationdb.server.types.texpressions;
 
 import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.collation.AkCollatorFactory;
 import com.foundationdb.server.types.LazyList;
 import com.foundationdb.server.types.TClass;
 import com.foundationdb.server.types.TComparison;
@@ -25,7 +27,11 @@ import com.foundationdb.server.types.TInstance;
 import com.foundationdb.server.types.TKeyComparable;
 import com.foundationdb.server.types.TOverloadResult;
 import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.common.types.StringAttribute;
+import com.foundationdb.server.types.common.types.TString;
+import com.foundationdb.server.types.value.UnderlyingType;
 import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.server.types.value.ValueTarget;
 
 import java.util.ArrayList;
@@ -33,6 +39,10 @@ import java.util.List;
 
 public final class TInExpression {
 
+    /** Right-hand sides at least this long, made up of only literals and
+     * parameters, are looked up in a hash set instead of one at a time. */
+    public static final int HASH_SET_THRESHOLD = 8;
+
     public static TPreparedExpression prepare(TPreparedExpression lhs, List<? extends TPreparedExpression> rhs,
                                               QueryContext queryContext) {
         return prepare(lhs, rhs, null, null, queryContext);
@@ -54,7 +64,7 @@ public final class TInExpression {
         }
         TValidatedScalar overload;        
         if (comparable == null)
-            overload = noKey;
+            overload = (rhs.size() >= HASH_SET_THRESHOLD) && allConstant(rhs) ? hashedNoKey : noKey;
         else {
             TInstance lhsInstance = lhs.resultType();
             boolean reverse;
@@ -78,6 +88,15 @@ public final class TInExpression {
         return new TPreparedFunction(overload, AkBool.INSTANCE.instance(nullable), all);
     }
     
+    /** Whether every expression has the same value for a whole execution. */
+    private static boolean allConstant(List<? extends TPreparedExpression> expressions) {
+        for (TPreparedExpression expression : expressions) {
+            if (!((expression instanceof TPreparedLiteral) || (expression instanceof TPreparedParameter)))
+                return false;
+        }
+        return true;
+    }
+
     static abstract class InScalarBase extends TScalarBase {
         protected abstract int doCompare(TInstance lhsInstance, ValueSource lhsSource,
                                          TInstance rhsInstance, ValueSource rhsSource);
@@ -126,6 +145,143 @@ public final class TInExpression {
         }
     });
 
+    /**
+     * Puts the right-hand side in an {@link InSet} the first time it is
+     * evaluated, and looks the left-hand side up there after that. This
+     * is only correct when the right-hand side cannot change during an
+     * execution. The result is the same as comparing one at a time: a
+     * NULL left-hand side gives NULL, and NULLs on the right never match.
+     */
+    static class InSetScalar extends InScalarBase {
+        @Override
+        protected int doCompare(TInstance lhsInstance, ValueSource lhsSource,
+                                TInstance rhsInstance, ValueSource rhsSource) {
+            return TClass.compare(lhsInstance, lhsSource, rhsInstance, rhsSource);
+        }
+
+        @Override
+        protected void doEvaluate(TExecutionContext context, LazyList<? extends ValueSource> inputs, ValueTarget output) {
+            ValueSource lhsSource = inputs.get(0);
+            Object set = context.exectimeObjectAt(SET_INDEX);
+            if (set == null) {
+                set = InSet.build(lhsSource.getType(), inputs);
+                if (set == null)
+                    set = NO_SET;
+                context.putExectimeObject(SET_INDEX, set);
+            }
+            if ((set == NO_SET) || !((InSet)set).accepts(lhsSource.getType())) {
+                super.doEvaluate(context, inputs, output);
+                return;
+            }
+            output.putBool(((InSet)set).contains(lhsSource));
+        }
+
+        private static final int SET_INDEX = 0;
+        /** Cached when the right-hand side cannot be hashed consistently with comparing it. */
+        private static final Object NO_SET = new Object();
+    }
+
+    private static final TValidatedScalar hashedNoKey = new TValidatedScalar(new InSetScalar());
+
+    /**
+     * The non-NULL values of the right-hand side of an IN, hashed
+     * consistently with {@link TClass#compare} against a left-hand side
+     * of a particular type. Strings are hashed under the collation
+     * they would be compared with.
+     */
+    static final class InSet {
+        /** A set for <code>inputs</code> after the first, or
+         * <code>null</code> if they cannot all be hashed alike. */
+        public static InSet build(TInstance lhsInstance, LazyList<? extends ValueSource> inputs) {
+            if (lhsInstance == null)
+                return null;
+            TClass tClass = lhsInstance.typeClass();
+            UnderlyingType underlyingType = tClass.underlyingType();
+            if (underlyingType == UnderlyingType.BYTES)
+                // Includes DECIMAL, whose equal values can have different bytes.
+                return null;
+            int nvalues = inputs.size() - 1;
+            InSet set = new InSet(lhsInstance, nvalues);
+            for (int i = 1; i <= nvalues; i++) {
+                ValueSource rhsSource = inputs.get(i);
+                if (rhsSource.isNull())
+                    continue;
+                TInstance rhsInstance = rhsSource.getType();
+                if ((rhsInstance == null) || (rhsInstance.typeClass() != tClass) ||
+                    TClass.comparisonNeedsCasting(lhsInstance, rhsInstance))
+                    return null;
+                if (underlyingType == UnderlyingType.STRING) {
+                    AkCollator collator = TString.mergeAkCollators(StringAttribute.characterTypeAttributes(lhsInstance),
+                                                                   StringAttribute.characterTypeAttributes(rhsInstance));
+                    if (collator == null)
+                        collator = AkCollatorFactory.UCS_BINARY_COLLATOR;
+                    if (set.collator == null)
+                        set.collator = collator;
+                    else if (set.collator.getCollationId() != collator.getCollationId())
+                        return null;
+                }
+                set.add(rhsInstance, rhsSource);
+            }
+            return set;
+        }
+
+        /** Whether a left-hand side of this type can be looked up. */
+        public boolean accepts(TInstance instance) {
+            return (instance == lhsInstance) || lhsInstance.equalsExcludingNullable(instance);
+        }
+
+        public boolean contains(ValueSource lhsSource) {
+            int hash = hash(lhsSource);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int n = slots[slot] - 1;
+                if ((hashes[n] == hash) &&
+                    (TClass.compare(lhsInstance, lhsSource, instances[n], values[n]) == 0))
+                    return true;
+            }
+            return false;
+        }
+
+        private InSet(TInstance lhsInstance, int capacity) {
+            this.lhsInstance = lhsInstance;
+            this.instances = new TInstance[capacity];
+            this.values = new ValueSource[capacity];
+            this.hashes = new int[capacity];
+            // At most half full.
+            this.slots = new int[Integer.highestOneBit(Math.max(capacity, 1) * 2) * 2];
+        }
+
+        private void add(TInstance instance, ValueSource value) {
+            int hash = hash(value);
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            instances[size] = instance;
+            values[size] = value;
+            hashes[size] = hash;
+            slots[slot] = ++size;
+        }
+
+        private int hash(ValueSource value) {
+            int hash = ValueSources.hash(value, collator);
+            // Spread the bits, since only the low ones pick the slot.
+            hash ^= (hash >>> 16);
+            hash *= 0x85ebca6b;
+            hash ^= (hash >>> 13);
+            return hash;
+        }
+
+        private final TInstance lhsInstance;
+        private AkCollator collator;
+        private final TInstance[] instances;
+        private final ValueSource[] values;
+        private final int[] hashes;
+        private final int[] slots;
+        private int size;
+    }
+
     static class InKeyScalar extends InScalarBase {
         protected final TComparison comparison;
 
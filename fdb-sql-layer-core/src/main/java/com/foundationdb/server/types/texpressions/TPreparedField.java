@@ -64,6 +64,10 @@ public final class TPreparedField implements TPreparedExpression {
         return false;
     }
 
+    public int getIndex() {
+        return fieldIndex;
+    }
+
     public TPreparedField(TInstance typeInstance, int fieldIndex) {
         this.typeInstance = typeInstance;
         this.fieldIndex = fieldIndex;
@@ -64,6 +64,11 @@ public final class TPreparedFunction implements TPreparedExpression {
         List<TEvaluatableExpression> children = new ArrayList<>(inputs.size());
         for (TPreparedExpression input : inputs)
             children.add(input.build());
+        return build(children);
+    }
+
+    /** Build with the given evaluations of the inputs. */
+    TEvaluatableExpression build(List<TEvaluatableExpression> children) {
         TExecutionContext executionContext = 
             new TExecutionContext(preptimeValues,
                                   inputTypes,
@@ -93,6 +98,10 @@ public final class TPreparedFunction implements TPreparedExpression {
         return false;
     }
 
+    List<? extends TPreparedExpression> getInputs() {
+        return inputs;
+    }
+
     public TPreparedFunction(TValidatedScalar overload,
                              TInstance resultType,
                              List<? extends TPreparedExpression> inputs)
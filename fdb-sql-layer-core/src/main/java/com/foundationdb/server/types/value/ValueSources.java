@@ -437,6 +437,46 @@ public final class ValueSources {
         return ((int) (hash >> 32)) ^ (int) hash;
     }
 
+    /**
+     * Like {@link #hash}, but keeping all 64 bits, so that large sets of
+     * single values, such as bloom filter keys, do not collide as often.
+     */
+    public static long hash64(ValueSource source, AkCollator collator) {
+        if (source.isNull())
+            return 0;
+        switch (underlyingType(source)) {
+        case BOOL:
+            return source.getBoolean() ? 1 : 0;
+        case INT_8:
+            return source.getInt8();
+        case INT_16:
+            return source.getInt16();
+        case UINT_16:
+            return source.getUInt16();
+        case INT_32:
+            return source.getInt32();
+        case INT_64:
+            return source.getInt64();
+        case FLOAT:
+            return Float.floatToRawIntBits(source.getFloat());
+        case DOUBLE:
+            return Double.doubleToRawLongBits(source.getDouble());
+        case BYTES:
+            {
+                // FNV-1a
+                long hash = 0xcbf29ce484222325L;
+                for (byte b : source.getBytes()) {
+                    hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+                }
+                return hash;
+            }
+        case STRING:
+            return AkCollator.hashValue64(source, collator);
+        default:
+            throw new AssertionError(source.getType());
+        }
+    }
+
     public static ValueSource getNullSource(TInstance underlying) {
         Value result = new Value(underlying);
         result.putNull();
@@ -22,13 +22,21 @@ package com.foundationdb.sql.optimizer.plan;
 public class HashTable extends BaseHashTable
 {
     private long estimatedSize;
+    private boolean spillable;
 
-    public HashTable(long estimatedSize) {
+    public HashTable(long estimatedSize, boolean spillable) {
         this.estimatedSize = estimatedSize;
+        this.spillable = spillable;
     }
 
     public long getEstimatedSize() {
         return estimatedSize;
     }
 
+    /** Can the join be done in several passes over parts of the
+     * table when it does not fit in memory? */
+    public boolean isSpillable() {
+        return spillable;
+    }
+
 }
\ No newline at end of file
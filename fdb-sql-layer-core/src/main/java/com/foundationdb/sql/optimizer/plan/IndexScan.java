@@ -122,6 +122,8 @@ public abstract class IndexScan extends BaseScan implements IndexIntersectionNod
 
     public abstract List<OrderByExpression> getOrdering();
     public abstract OrderEffectiveness getOrderEffectiveness();
+    /** Number of leading ORDER BY columns by which the scan's rows come out sorted. */
+    public abstract int getNPresorted();
     public abstract List<ExpressionNode> getColumns();
     public abstract List<IndexColumn> getIndexColumns();
     public abstract int getNKeyColumns();
@@ -87,6 +87,11 @@ public final class MultiIndexIntersectScan extends IndexScan {
         return outputScan.getOrderEffectiveness();
     }
 
+    @Override
+    public int getNPresorted() {
+        return 0;
+    }
+
     @Override
     public List<ExpressionNode> getEqualityComparands() {
         return outputScan.getEqualityComparands();
@@ -42,6 +42,7 @@ public final class SingleIndexScan extends IndexScan implements EqualityColumnsS
     private List<OrderByExpression> ordering;
 
     private OrderEffectiveness orderEffectiveness;
+    private int npresorted;
     private boolean usesAllColumns;
 
     // Conditions subsumed by this index.
@@ -245,6 +246,15 @@ public final class SingleIndexScan extends IndexScan implements EqualityColumnsS
         this.orderEffectiveness = orderEffectiveness;
     }
 
+    @Override
+    public int getNPresorted() {
+        return npresorted;
+    }
+
+    public void setNPresorted(int npresorted) {
+        this.npresorted = npresorted;
+    }
+
     @Override
     public List<IndexColumn> getIndexColumns() {
         return index.getAllColumns();
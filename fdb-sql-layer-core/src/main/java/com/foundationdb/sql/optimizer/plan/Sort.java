@@ -52,6 +52,7 @@ public class Sort extends BasePlanWithInput
     }
 
     private List<OrderByExpression> orderBy;
+    private int npresorted;
 
     public Sort(PlanNode input, List<OrderByExpression> orderBy) {
         super(input);
@@ -62,6 +63,14 @@ public class Sort extends BasePlanWithInput
         return orderBy;
     }
 
+    /** Number of leading ORDER BY columns by which the input already comes sorted. */
+    public int getNPresorted() {
+        return npresorted;
+    }
+    public void setNPresorted(int npresorted) {
+        this.npresorted = npresorted;
+    }
+
     @Override
     public boolean accept(PlanVisitor v) {
         if (v.visitEnter(this)) {
@@ -183,6 +183,7 @@ public class JoinAndIndexPicker extends BaseRule
             BaseScan scan = groupGoal.pickBestScan();
             groupGoal.install(scan, null, true, false);
             query.setCostEstimate(scan.getCostEstimate());
+            queryGoal.installHashImplementations(scan.getCostEstimate());
         }
 
         protected void pickJoinsAndIndexes (JoinNode joins) {
@@ -321,6 +322,7 @@ public class JoinAndIndexPicker extends BaseRule
             joinable.getOutput().replaceInput(joinable, 
                                               moveInSemiJoins(rootPlan.install(copy, true)));
             query.setCostEstimate(rootPlan.costEstimate);
+            queryGoal.installHashImplementations(rootPlan.costEstimate);
         }
 
         // If any semi-joins to VALUES are left over at the top, they
@@ -1424,7 +1426,16 @@ public class JoinAndIndexPicker extends BaseRule
                 return null;
             int outerColumnCount = DEFAULT_COLUMN_COUNT;
             int innerColumnCount = DEFAULT_COLUMN_COUNT;
-            HashTable hashTable = new HashTable(loaderPlan.costEstimate.getRowCount());
+            // Several passes only work if unmatched rows are not output and
+            // the order of the input is not needed. And not under DML, where
+            // rereading both sides could see rows already changed.
+            boolean spillable = ((joinPlan.joinType == JoinType.INNER) ||
+                                 (joinPlan.joinType == JoinType.SEMI)) &&
+                !(picker.planContext.getPlan() instanceof DMLStatement) &&
+                (picker.queryGoal.getOrdering() == null) &&
+                (picker.queryGoal.getGrouping() == null) &&
+                (picker.queryGoal.getProjectDistinct() == null);
+            HashTable hashTable = new HashTable(loaderPlan.costEstimate.getRowCount(), spillable);
             for (ExpressionNode expression : hashTableColumns.matchColumns) {
                 if (expression instanceof ColumnExpression) {
                     ColumnSource columnSource = ((ColumnExpression)expression).getTable();
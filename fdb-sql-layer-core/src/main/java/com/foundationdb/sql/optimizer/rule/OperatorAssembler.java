@@ -31,6 +31,7 @@ import com.foundationdb.sql.optimizer.rule.ExpressionAssembler.ColumnExpressionC
 import com.foundationdb.sql.optimizer.rule.ExpressionAssembler.ColumnExpressionToIndex;
 import com.foundationdb.sql.optimizer.rule.ExpressionAssembler.SubqueryOperatorAssembler;
 import com.foundationdb.sql.optimizer.rule.range.ColumnRanges;
+import com.foundationdb.sql.optimizer.rule.range.RangeEndpoint;
 import com.foundationdb.sql.optimizer.rule.range.RangeSegment;
 import com.foundationdb.sql.types.DataTypeDescriptor;
 import com.foundationdb.sql.parser.ParameterNode;
@@ -44,7 +45,6 @@ import com.foundationdb.ais.model.TableName;
 import com.foundationdb.qp.operator.API.InputPreservationOption;
 import com.foundationdb.qp.operator.API.JoinType;
 import com.foundationdb.server.collation.AkCollator;
-import com.foundationdb.server.collation.AkCollatorFactory;
 import com.foundationdb.server.types.service.TypesRegistryService;
 import com.foundationdb.server.types.common.types.TypesTranslator;
 import com.foundationdb.server.types.texpressions.AnySubqueryTExpression;
@@ -55,12 +55,12 @@ import com.foundationdb.server.types.texpressions.TCastExpression;
 import com.foundationdb.server.types.texpressions.TNullExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.server.types.texpressions.TPreparedField;
+import com.foundationdb.server.types.texpressions.TValidatedAggregator;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.error.AkibanInternalException;
 import com.foundationdb.server.error.UnsupportedSQLException;
 import com.foundationdb.qp.operator.API;
-import com.foundationdb.qp.operator.API.IntersectOption;
 import com.foundationdb.qp.operator.IndexScanSelector;
 import com.foundationdb.qp.operator.Operator;
 import com.foundationdb.qp.operator.UpdateFunction;
@@ -71,6 +71,7 @@ import com.foundationdb.qp.rowtype.*;
 import com.foundationdb.qp.expression.IndexBound;
 import com.foundationdb.qp.expression.IndexKeyRange;
 import com.foundationdb.qp.expression.RowBasedUnboundExpressions;
+import com.foundationdb.qp.expression.ScanColumnRange;
 import com.foundationdb.qp.expression.UnboundExpressions;
 import com.foundationdb.server.service.text.FullTextQueryBuilder;
 import com.foundationdb.server.service.text.FullTextQueryExpression;
@@ -116,6 +117,8 @@ public class OperatorAssembler extends BaseRule
         private final Schema schema;
         private final ExpressionAssembler expressionAssembler;
         private final Set<Table> affectedTables;
+        private Set<Column> queryColumns;
+        private Map<GroupScan,List<ScanColumnRange>> scanRanges;
 
         public Assembler(PlanContext planContext) {
             this.planContext = planContext;
@@ -146,6 +149,8 @@ public class OperatorAssembler extends BaseRule
 
         protected PhysicalSelect selectQuery(SelectQuery selectQuery) {
             PlanNode planQuery = selectQuery.getQuery();
+            queryColumns = new QueryColumnsFinder().find(selectQuery);
+            scanRanges = new ScanRangesFinder().find(selectQuery);
             RowStream stream = assembleQuery(planQuery);
             List<PhysicalResultColumn> resultColumns;
             if (planQuery instanceof ResultSet) {
@@ -609,11 +614,31 @@ public class OperatorAssembler extends BaseRule
                 stream.rowType = indexRowType;
             }
             else if (indexScan.getConditionRange() == null) {
-                stream.operator = API.indexScan_Default(indexRowType,
-                                                        assembleIndexKeyRange(indexScan, null),
-                                                        assembleIndexOrdering(indexScan, indexRowType),
-                                                        selector,
-                                                        rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum());
+                RuntimeFilterCheck runtimeFilterCheck = runtimeFilterChecks.get(indexScan);
+                int[] runtimeFilterFields = null;
+                if (runtimeFilterCheck != null) {
+                    runtimeFilterFields = runtimeFilterCheck.fields(indexScan, indexRowType);
+                }
+                if (runtimeFilterFields != null) {
+                    runtimeFilterCheck.position = assignBindingPosition(runtimeFilterCheck);
+                    stream.operator = API.indexScan_Default(indexRowType,
+                                                            assembleIndexKeyRange(indexScan, null),
+                                                            assembleIndexOrdering(indexScan, indexRowType),
+                                                            selector,
+                                                            rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum(),
+                                                            expectedRows(indexScan.getScanCostEstimate(), 1),
+                                                            runtimeFilterCheck.position,
+                                                            runtimeFilterFields,
+                                                            runtimeFilterCheck.collators);
+                }
+                else {
+                    stream.operator = API.indexScan_Default(indexRowType,
+                                                            assembleIndexKeyRange(indexScan, null),
+                                                            assembleIndexOrdering(indexScan, indexRowType),
+                                                            selector,
+                                                            rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum(),
+                                                            expectedRows(indexScan.getScanCostEstimate(), 1));
+                }
                 stream.rowType = indexRowType;
             }
             else {
@@ -626,7 +651,7 @@ public class OperatorAssembler extends BaseRule
                 // willing to do the more expensive ordered union.
                 // Determine whether anything is taking advantage of this:
                 // * Index is being intersected.
-                // * Index is effective for query ordering.
+                // * Index is effective for query ordering, even partially.
                 // ** See also special case in AggregateSplitter.directIndexMinMax().
                 boolean unionOrdered = false, unionOrderedAll = false;
                 if (range.isAllSingle()) {
@@ -636,16 +661,20 @@ public class OperatorAssembler extends BaseRule
                             unionOrderedAll = true;
                         }
                     }
-                    else if (indexScan.getOrderEffectiveness() != IndexScan.OrderEffectiveness.NONE) {
+                    else if ((indexScan.getOrderEffectiveness() != IndexScan.OrderEffectiveness.NONE) ||
+                             (indexScan.getNPresorted() > 0)) {
                         unionOrderedAll = unionOrdered = true;
                     }
                 }
+                long segmentRows = expectedRows(indexScan.getScanCostEstimate(),
+                                                range.getSegments().size());
                 for (RangeSegment rangeSegment : range.getSegments()) {
                     Operator scan = API.indexScan_Default(indexRowType,
                                                           assembleIndexKeyRange(indexScan, null, rangeSegment),
                                                           assembleIndexOrdering(indexScan, indexRowType),
                                                           selector,
-                                                          rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum());
+                                                          rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum(),
+                                                          segmentRows);
                     if (stream.operator == null) {
                         stream.operator = scan;
                         stream.rowType = indexRowType;
@@ -688,6 +717,13 @@ public class OperatorAssembler extends BaseRule
             explainContext.putExtraInfo(operator, new CompoundExplainer(Type.EXTRA_INFO, atts));
         }
 
+        /** Rows expected from each of <code>nscans</code> scans, or -1 if not estimated. */
+        protected long expectedRows(CostEstimate costEstimate, int nscans) {
+            if (costEstimate == null)
+                return -1;
+            return costEstimate.getRowCount() / Math.max(nscans, 1);
+        }
+
         protected void explainCostEstimate(Attributes atts, CostEstimate costEstimate) {
             if (costEstimate != null)
                 atts.put(Label.COST, PrimitiveExplainer.getInstance(costEstimate.toString()));
@@ -733,11 +769,203 @@ public class OperatorAssembler extends BaseRule
         protected RowStream assembleGroupScan(GroupScan groupScan) {
             RowStream stream = new RowStream();
             Group group = groupScan.getGroup().getGroup();
-            stream.operator = API.groupScan_Default(group);
+            RuntimeFilterCheck runtimeFilterCheck = runtimeFilterChecks.get(groupScan);
+            if (runtimeFilterCheck != null) {
+                runtimeFilterCheck.position = assignBindingPosition(runtimeFilterCheck);
+                stream.operator = API.groupScan_Default(group,
+                                                        expectedRows(groupScan.getCostEstimate(), 1),
+                                                        queryColumns,
+                                                        (scanRanges == null) ? null : scanRanges.get(groupScan),
+                                                        runtimeFilterCheck.position,
+                                                        runtimeFilterCheck.table.getTable().getTable(),
+                                                        runtimeFilterCheck.columnFields(),
+                                                        runtimeFilterCheck.collators);
+            }
+            else {
+                stream.operator = API.groupScan_Default(group, 
+                                                        expectedRows(groupScan.getCostEstimate(), 1),
+                                                        queryColumns,
+                                                        (scanRanges == null) ? null : scanRanges.get(groupScan));
+            }
             stream.unknownTypesPresent = true;
             return stream;
         }
 
+        /** All the table columns that a query reads anywhere, so that
+         * scans can avoid decoding the rest. Only done for queries,
+         * since updates need the whole row.
+         */
+        static class QueryColumnsFinder implements PlanVisitor, ExpressionVisitor {
+            private Set<Column> columns;
+
+            public Set<Column> find(PlanNode plan) {
+                columns = new HashSet<>();
+                plan.accept(this);
+                return columns;
+            }
+
+            @Override
+            public boolean visitEnter(PlanNode n) {
+                return visit(n);
+            }
+
+            @Override
+            public boolean visitLeave(PlanNode n) {
+                return true;
+            }
+
+            @Override
+            public boolean visit(PlanNode n) {
+                return true;
+            }
+
+            @Override
+            public boolean visitEnter(ExpressionNode n) {
+                return visit(n);
+            }
+
+            @Override
+            public boolean visitLeave(ExpressionNode n) {
+                return true;
+            }
+
+            @Override
+            public boolean visit(ExpressionNode n) {
+                if (n instanceof ColumnExpression) {
+                    Column column = ((ColumnExpression)n).getColumn();
+                    if (column != null) {
+                        columns.add(column);
+                    }
+                }
+                return true;
+            }
+        }
+
+        /** Integer bounds from the conditions of a <code>Select</code>
+         * directly over the scan of a single-table group, so that a
+         * store can skip blocks of rows that cannot match.
+         */
+        static class ScanRangesFinder implements PlanVisitor, ExpressionVisitor {
+            private Map<GroupScan,List<ScanColumnRange>> ranges;
+
+            public Map<GroupScan,List<ScanColumnRange>> find(PlanNode plan) {
+                ranges = new HashMap<>();
+                plan.accept(this);
+                return ranges;
+            }
+
+            @Override
+            public boolean visitEnter(PlanNode n) {
+                return visit(n);
+            }
+
+            @Override
+            public boolean visitLeave(PlanNode n) {
+                return true;
+            }
+
+            @Override
+            public boolean visit(PlanNode n) {
+                if (n instanceof Select) {
+                    PlanNode input = ((Select)n).getInput();
+                    while (input instanceof Flatten) {
+                        input = ((Flatten)input).getInput();
+                    }
+                    if ((input instanceof GroupScan) &&
+                        ((GroupScan)input).getGroup().getGroup().getRoot().getChildJoins().isEmpty()) {
+                        addRanges((GroupScan)input, ((Select)n).getConditions());
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitEnter(ExpressionNode n) {
+                return visit(n);
+            }
+
+            @Override
+            public boolean visitLeave(ExpressionNode n) {
+                return true;
+            }
+
+            @Override
+            public boolean visit(ExpressionNode n) {
+                return true;
+            }
+
+            protected void addRanges(GroupScan groupScan, ConditionList conditions) {
+                List<ScanColumnRange> scanRanges = null;
+                for (ConditionExpression condition : conditions) {
+                    ColumnRanges columnRanges = ColumnRanges.rangeAtNode(condition);
+                    if (columnRanges == null) continue;
+                    ScanColumnRange scanRange = scanRange(columnRanges);
+                    if (scanRange == null) continue;
+                    if (scanRanges == null) {
+                        scanRanges = new ArrayList<>();
+                        ranges.put(groupScan, scanRanges);
+                    }
+                    scanRanges.add(scanRange);
+                }
+            }
+
+            /** The smallest single integer range covering all the segments. */
+            protected static ScanColumnRange scanRange(ColumnRanges columnRanges) {
+                Column column = columnRanges.getColumnExpression().getColumn();
+                if ((column == null) || !ScanColumnRange.isIntegerColumn(column)) {
+                    return null;
+                }
+                Long low = null, high = null;
+                boolean lowInclusive = false, highInclusive = false;
+                boolean lowUnbounded = false, highUnbounded = false, nullAllowed = false;
+                for (RangeSegment segment : columnRanges.getSegments()) {
+                    RangeEndpoint start = segment.getStart();
+                    RangeEndpoint end = segment.getEnd();
+                    if (start.isUpperWild()) {
+                        return null;
+                    }
+                    if (start.getValue() == null) {
+                        lowUnbounded = true;
+                        if (start.isInclusive()) {
+                            nullAllowed = true;
+                        }
+                    }
+                    else {
+                        Long value = integerValue(start.getValue());
+                        if (value == null) return null;
+                        int c = (low == null) ? -1 : value.compareTo(low);
+                        if ((c < 0) || ((c == 0) && start.isInclusive())) {
+                            low = value;
+                            lowInclusive = start.isInclusive();
+                        }
+                    }
+                    if (end.isUpperWild()) {
+                        highUnbounded = true;
+                    }
+                    else if (end.getValue() != null) {
+                        Long value = integerValue(end.getValue());
+                        if (value == null) return null;
+                        int c = (high == null) ? 1 : value.compareTo(high);
+                        if ((c > 0) || ((c == 0) && end.isInclusive())) {
+                            high = value;
+                            highInclusive = end.isInclusive();
+                        }
+                    }
+                }
+                if (lowUnbounded) low = null;
+                if (highUnbounded) high = null;
+                return new ScanColumnRange(column, low, lowInclusive, high, highInclusive, nullAllowed);
+            }
+
+            protected static Long integerValue(Object value) {
+                if ((value instanceof Long) || (value instanceof Integer) ||
+                    (value instanceof Short) || (value instanceof Byte)) {
+                    return ((Number)value).longValue();
+                }
+                return null;
+            }
+        }
+
         protected RowStream assembleExpressionsSource(ExpressionsSource expressionsSource) {
             RowStream stream = new RowStream();
             stream.rowType = valuesRowType(expressionsSource);
@@ -989,34 +1217,15 @@ public class OperatorAssembler extends BaseRule
             RowStream leftStream = assembleStream(left);
             RowStream rightStream = assembleStream(right);
 
-            if (union.isAll()) {
-                leftStream.operator =
-                        API.unionAll_Default(leftStream.operator, leftStream.rowType,
-                                rightStream.operator, rightStream.rowType,
-                                rulesContext.getPipelineConfiguration().isUnionAllOpenBoth());
-            } else {
-
-                //Union ordered assumes sorted order, so sort the input streams.
-                //TODO: Is there a way to determine if this is a requirement?
-                leftStream.operator = API.sort_General(leftStream.operator, leftStream.rowType,
-                        assembleSetOrdering(leftStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                leftStream.rowType = leftStream.operator.rowType();
-
-                rightStream.operator = API.sort_General(rightStream.operator, rightStream.rowType,
-                        assembleSetOrdering(rightStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                rightStream.rowType = rightStream.operator.rowType();
-
-                boolean[] ascending = new boolean[rightStream.rowType.nFields()];
-                Arrays.fill(ascending, Boolean.TRUE);
-                RowType leftRowType = leftStream.rowType;
-                RowType rightRowType = rightStream.rowType;
-                int leftOrderingFields = leftRowType.nFields();
-                int rightOrderingFields = rightRowType.nFields();
-                leftStream.operator =
-                        API.union_Ordered(leftStream.operator, rightStream.operator, leftRowType, rightRowType,
-                                leftOrderingFields, rightOrderingFields, ascending, false);
-            }
+            leftStream.operator =
+                    API.unionAll_Default(leftStream.operator, leftStream.rowType,
+                            rightStream.operator, rightStream.rowType,
+                            rulesContext.getPipelineConfiguration().isUnionAllOpenBoth());
             leftStream.rowType = leftStream.operator.rowType();
+            if (!union.isAll()) {
+                // Neither input need be sorted or distinct to begin with.
+                leftStream.operator = API.distinct_Hashed(leftStream.operator, leftStream.rowType);
+            }
             return leftStream;
         }
 
@@ -1032,52 +1241,12 @@ public class OperatorAssembler extends BaseRule
             RowStream leftStream = assembleStream (left);
             RowStream rightStream = assembleStream (right);
 
-            boolean[] ascending = new boolean[rightStream.rowType.nFields()];
-            Arrays.fill(ascending, Boolean.TRUE);
-            RowType leftRowType = leftStream.rowType;
-            RowType rightRowType = rightStream.rowType;
-            int leftOrderingFields = leftRowType.nFields();
-            int rightOrderingFields = rightRowType.nFields();
-
-            if (intersect.isAll()) {
-                leftStream.operator = API.sort_General(leftStream.operator, leftStream.rowType,
-                        assembleSetOrdering(leftStream.rowType), API.SortOption.PRESERVE_DUPLICATES);
-                leftStream.rowType = leftStream.operator.rowType();
-
-                rightStream.operator = API.sort_General(rightStream.operator, rightStream.rowType,
-                        assembleSetOrdering(rightStream.rowType), API.SortOption.PRESERVE_DUPLICATES);
-                rightStream.rowType = rightStream.operator.rowType();
-                leftStream.operator =
-                        API.intersect_Ordered(leftStream.operator,
-                                                rightStream.operator,
-                                                leftRowType,
-                                                rightRowType,
-                                                leftOrderingFields,
-                                                rightOrderingFields,
-                                                ascending,
-                                                JoinType.INNER_JOIN,
-                                                EnumSet.of(IntersectOption.OUTPUT_LEFT, IntersectOption.SEQUENTIAL_SCAN),
-                                                null);
-            } else {
-                leftStream.operator = API.sort_General(leftStream.operator, leftStream.rowType,
-                        assembleSetOrdering(leftStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                leftStream.rowType = leftStream.operator.rowType();
-
-                rightStream.operator = API.sort_General(rightStream.operator, rightStream.rowType,
-                        assembleSetOrdering(rightStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                rightStream.rowType = rightStream.operator.rowType();
-                leftStream.operator = API.intersect_Ordered(leftStream.operator,
-                                                rightStream.operator,
-                                                leftRowType,
-                                                rightRowType,
-                                                leftOrderingFields,
-                                                rightOrderingFields,
-                                                ascending,
-                                                JoinType.INNER_JOIN,
-                                                EnumSet.of(IntersectOption.OUTPUT_LEFT, IntersectOption.SEQUENTIAL_SCAN),
-                                                null);
-
-            }//TODO add instance if input rows are already sorted
+            if (!intersect.isAll()) {
+                // Each distinct left row then matches at most once.
+                leftStream.operator = API.distinct_Hashed(leftStream.operator, leftStream.rowType);
+            }
+            leftStream.operator = API.intersect_Hashed(leftStream.operator, rightStream.operator,
+                                                       leftStream.rowType, rightStream.rowType);
             leftStream.rowType = leftStream.operator.rowType();
             return leftStream;
         }
@@ -1094,54 +1263,16 @@ public class OperatorAssembler extends BaseRule
             RowStream leftStream = assembleStream (left);
             RowStream rightStream = assembleStream (right);
 
-            boolean[] ascending = new boolean[rightStream.rowType.nFields()];
-            Arrays.fill(ascending, Boolean.TRUE);
-            RowType leftRowType = leftStream.rowType;
-            RowType rightRowType = rightStream.rowType;
-            int leftOrderingFields = leftRowType.nFields();
-            int rightOrderingFields = rightRowType.nFields();
-
-            if (except.isAll()) {
-                leftStream.operator = API.sort_General(leftStream.operator, leftStream.rowType,
-                        assembleSetOrdering(leftStream.rowType), API.SortOption.PRESERVE_DUPLICATES);
-                leftStream.rowType = leftStream.operator.rowType();
-
-                rightStream.operator = API.sort_General(rightStream.operator, rightStream.rowType,
-                        assembleSetOrdering(rightStream.rowType), API.SortOption.PRESERVE_DUPLICATES);
-                rightStream.rowType = rightStream.operator.rowType();
-                leftStream.operator =
-                        API.except_Ordered(leftStream.operator, rightStream.operator, leftRowType, rightRowType,
-                                leftOrderingFields, rightOrderingFields, ascending, false);
-            } else {
-                leftStream.operator = API.sort_General(leftStream.operator, leftStream.rowType,
-                        assembleSetOrdering(leftStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                leftStream.rowType = leftStream.operator.rowType();
-
-                rightStream.operator = API.sort_General(rightStream.operator, rightStream.rowType,
-                        assembleSetOrdering(rightStream.rowType), API.SortOption.SUPPRESS_DUPLICATES);
-                rightStream.rowType = rightStream.operator.rowType();
-                leftStream.operator =
-                        API.except_Ordered(leftStream.operator, rightStream.operator, leftRowType, rightRowType,
-                                leftOrderingFields, rightOrderingFields, ascending, false);
-
-            }//TODO add instance if input rows are already sorted
+            if (!except.isAll()) {
+                // Each distinct left row is then removed by any match.
+                leftStream.operator = API.distinct_Hashed(leftStream.operator, leftStream.rowType);
+            }
+            leftStream.operator = API.except_Hashed(leftStream.operator, rightStream.operator,
+                                                    leftStream.rowType, rightStream.rowType);
             leftStream.rowType = leftStream.operator.rowType();
             return leftStream;
         }
 
-        protected API.Ordering assembleSetOrdering(RowType rowType) {
-            API.Ordering ordering = createOrdering();
-            for (int i = 0; i < rowType.nFields(); i++) {
-                TPreparedExpression tExpr = field(rowType, i);
-
-                if(rowType.fieldHasColumn(i))
-                    ordering.append(tExpr, true, rowType.fieldColumn(i).getCollator());
-                else
-                    ordering.append(tExpr, true, AkCollatorFactory.UCS_BINARY_COLLATOR );
-            }
-            return ordering;
-        }
-
         protected RowStream assembleMapJoin(MapJoin mapJoin) {
             PlanNode outer = mapJoin.getOuter();
             RowStream ostream = assembleStream(outer);
@@ -1244,10 +1375,16 @@ public class OperatorAssembler extends BaseRule
                 }                
             }
             assert aggregateSource.isProjectSplitOff();
+            if (impl == AggregateSource.Implementation.UNGROUPED) {
+                stream = assembleExchangeAggregate(aggregateSource);
+                if (stream != null)
+                    return stream;
+            }
             stream = assembleStream(aggregateSource.getInput());
             switch (impl) {
             case PRESORTED:
             case UNGROUPED:
+            case HASH:
                 break;
             case FIRST_FROM_INDEX:
                 {
@@ -1273,6 +1410,123 @@ public class OperatorAssembler extends BaseRule
             return stream;
         }
 
+        /** Default for the number of partitions to aggregate a large
+         * index scan in, which is none. */
+        public static final int EXCHANGE_PARTITIONS_DEFAULT = 0;
+        /** Default for the number of index rows a partition should have. */
+        public static final long EXCHANGE_MIN_ROWS_DEFAULT = 100000;
+
+        protected int exchangePartitions(long nrows) {
+            int partitions;
+            String prop = rulesContext.getProperty("exchangePartitions");
+            if (prop != null)
+                partitions = Integer.valueOf(prop);
+            else
+                partitions = EXCHANGE_PARTITIONS_DEFAULT;
+            long minRows;
+            prop = rulesContext.getProperty("exchangeMinRows");
+            if (prop != null)
+                minRows = Long.valueOf(prop);
+            else
+                minRows = EXCHANGE_MIN_ROWS_DEFAULT;
+            if ((minRows > 0) && (nrows / minRows < partitions))
+                partitions = (int)(nrows / minRows);
+            return partitions;
+        }
+
+        /** An ungrouped <code>COUNT</code>, <code>SUM</code>,
+         * <code>MIN</code> or <code>MAX</code> of a whole covering index
+         * scan, split by ranges of its leading integer column among the
+         * partitions of an exchange. Each partition aggregates its own
+         * range and a final aggregate combines them. <code>null</code>
+         * if the aggregate is not of that form or not big enough.
+         */
+        protected RowStream assembleExchangeAggregate(AggregateSource aggregateSource) {
+            // The partitions share the query's transaction, which must not be written.
+            if (!(planContext.getPlan() instanceof SelectQuery) || !boundRows.isEmpty())
+                return null;
+            if (!(aggregateSource.getInput() instanceof Project))
+                return null;
+            Project project = (Project)aggregateSource.getInput();
+            for (ExpressionNode field : project.getFields()) {
+                if (field instanceof CastExpression)
+                    field = ((CastExpression)field).getOperand();
+                if (!((field instanceof ColumnExpression) || (field instanceof ConstantExpression)))
+                    return null;
+            }
+            if (!(project.getInput() instanceof SingleIndexScan))
+                return null;
+            SingleIndexScan indexScan = (SingleIndexScan)project.getInput();
+            Index index = indexScan.getIndex();
+            if (!index.isTableIndex() || index.isSpatial() || !indexScan.isCovering() ||
+                indexScan.hasConditions() ||
+                (indexScan.getEqualityComparands() != null) ||
+                (indexScan.getLowComparand() != null) || (indexScan.getHighComparand() != null) ||
+                (indexScan.getConditionRange() != null) ||
+                runtimeFilterChecks.containsKey(indexScan))
+                return null;
+            Column column = index.getKeyColumns().get(0).getColumn();
+            if (column.getNullable() || !ScanColumnRange.isIntegerColumn(column))
+                return null;
+            List<String> functions = aggregateSource.getAggregateFunctions();
+            List<ResolvableExpression<TValidatedAggregator>> resolved = aggregateSource.getResolved();
+            List<TAggregator> finalAggregators = new ArrayList<>(functions.size());
+            List<TInstance> finalTypes = new ArrayList<>(functions.size());
+            for (int i = 0; i < functions.size(); i++) {
+                ResolvableExpression<TValidatedAggregator> aggregate = resolved.get(i);
+                if (((AggregateFunctionExpression)aggregate).isDistinct())
+                    return null;
+                String function = functions.get(i);
+                if ("COUNT".equals(function) || "COUNT(*)".equals(function)) {
+                    // Add up the partitions' counts.
+                    TPreptimeValue count = new TPreptimeValue(aggregate.getType());
+                    finalAggregators.add(rulesContext.getTypesRegistry().getAggregatesResolver()
+                                         .get("SUM", Collections.singletonList(count)).getOverload());
+                }
+                else if ("SUM".equals(function) || "MIN".equals(function) || "MAX".equals(function)) {
+                    finalAggregators.add(aggregate.getResolved());
+                }
+                else {
+                    return null;
+                }
+                finalTypes.add(aggregate.getType());
+            }
+            CostEstimate costEstimate = indexScan.getScanCostEstimate();
+            int npartitions = exchangePartitions((costEstimate == null) ? 0 : costEstimate.getRowCount());
+            if (npartitions < 2)
+                return null;
+            List<Object> splits = rulesContext.getCostEstimator().leadingColumnSplits(index, npartitions);
+            if (splits.isEmpty())
+                return null;
+            List<Operator> partitions = new ArrayList<>(splits.size() + 1);
+            RowType partialRowType = null;
+            for (int i = 0; i <= splits.size(); i++) {
+                partitionedScan = indexScan;
+                partitionLow = (i > 0) ? new ConstantExpression(splits.get(i - 1), column.getType()) : null;
+                partitionHigh = (i < splits.size()) ? new ConstantExpression(splits.get(i), column.getType()) : null;
+                RowStream stream;
+                try {
+                    stream = assembleStream(project);
+                }
+                finally {
+                    partitionedScan = null;
+                    partitionLow = partitionHigh = null;
+                }
+                Operator partial = assembleAggregates(stream.operator, stream.rowType, 0, aggregateSource);
+                partialRowType = partial.rowType();
+                partitions.add(partial);
+            }
+            RowStream stream = new RowStream();
+            stream.operator = API.exchange_Default(partitions, partialRowType, false);
+            stream.operator = API.aggregate_Partial(stream.operator, partialRowType, 0,
+                                                    finalAggregators, finalTypes,
+                                                    aggregateSource.getOptions());
+            stream.rowType = stream.operator.rowType();
+            stream.fieldOffsets = new ColumnSourceFieldOffsets(aggregateSource,
+                                                               stream.rowType);
+            return stream;
+        }
+
         protected RowStream assembleDistinct(Distinct distinct) {
             Distinct.Implementation impl = distinct.getImplementation();
             if (impl == Distinct.Implementation.EXPLICIT_SORT) {
@@ -1297,6 +1551,9 @@ public class OperatorAssembler extends BaseRule
                     throw new UnsupportedOperationException("Cannot find collators for Distinct_Partial from " + distinct.getInput());
                 }
                 break;
+            case HASH:
+                stream.operator = API.distinct_Hashed(stream.operator, stream.rowType);
+                break;
             default:
                 assembleSort(stream, stream.rowType.nFields(), distinct.getInput(),
                              API.SortOption.SUPPRESS_DUPLICATES);
@@ -1346,13 +1603,20 @@ public class OperatorAssembler extends BaseRule
                         stream.fieldOffsets);
                 ordering.append(tExpr, orderBy.isAscending(), orderBy.getCollator());
             }
-            assembleSort(stream, ordering, sort.getInput(), output, sortOption);
+            assembleSort(stream, ordering, sort.getInput(), output, sortOption,
+                         sort.getNPresorted());
             return stream;
         }
 
         protected void assembleSort(RowStream stream, API.Ordering ordering,
                                     PlanNode input, PlanNode output, 
                                     API.SortOption sortOption) {
+            assembleSort(stream, ordering, input, output, sortOption, 0);
+        }
+
+        protected void assembleSort(RowStream stream, API.Ordering ordering,
+                                    PlanNode input, PlanNode output, 
+                                    API.SortOption sortOption, int npresorted) {
             int maxrows = -1;
             if (output instanceof Project) {
                 output = output.getOutput();
@@ -1370,7 +1634,8 @@ public class OperatorAssembler extends BaseRule
             }
             if ((maxrows >= 0) && (maxrows <= INSERTION_SORT_MAX_LIMIT))
                 stream.operator = API.sort_InsertionLimited(stream.operator, stream.rowType,
-                                                            ordering, sortOption, maxrows);
+                                                            ordering, sortOption, maxrows,
+                                                            npresorted);
             else
                 stream.operator = API.sort_General(stream.operator, stream.rowType, ordering, sortOption);
         }
@@ -1431,19 +1696,92 @@ public class OperatorAssembler extends BaseRule
             RowStream lstream = assembleStream(usingBloomFilter.getLoader());
             RowStream stream = assembleStream(usingBloomFilter.getInput());
             List<AkCollator> collators = findCollators(usingBloomFilter.getLoader());
+            Integer runtimeFilterPos = runtimeFilterPositions.remove(bloomFilter);
             stream.operator = API.using_BloomFilter(lstream.operator,
                                                     lstream.rowType,
                                                     bloomFilter.getEstimatedSize(),
                                                     pos,
+                                                    (runtimeFilterPos == null) ? -1 : runtimeFilterPos,
                                                     stream.operator,
                                                     collators);
             return stream;
         }
 
+        /** The scan under a join's probe side that can itself drop
+         * rows that cannot match, if any. That is an index scan, if it
+         * has all the lookup columns, or a group scan just flattened,
+         * if they all come from one inner joined table.
+         */
+        protected PlanNode runtimeFilterScan(PlanNode input, List<ExpressionNode> lookupExpressions) {
+            while (input instanceof Select)
+                input = ((Select)input).getInput();
+            if (input instanceof SingleIndexScan)
+                return input;
+            if (input instanceof Flatten) {
+                Flatten flatten = (Flatten)input;
+                if (flatten.getInput() instanceof GroupScan) {
+                    TableSource table = RuntimeFilterCheck.keyTable(lookupExpressions);
+                    if ((table != null) && flatten.getInnerJoinedTables().contains(table))
+                        return flatten.getInput();
+                }
+            }
+            return null;
+        }
+
+        /** Register a runtime filter check for the given probe scan, if any. */
+        protected RuntimeFilterCheck addRuntimeFilterCheck(PlanNode runtimeFilterScan,
+                                                           List<ExpressionNode> lookupExpressions,
+                                                           List<AkCollator> collators) {
+            if (runtimeFilterScan == null)
+                return null;
+            RuntimeFilterCheck runtimeFilterCheck = new RuntimeFilterCheck(lookupExpressions, collators);
+            if (runtimeFilterScan instanceof GroupScan)
+                runtimeFilterCheck.table = RuntimeFilterCheck.keyTable(lookupExpressions);
+            runtimeFilterChecks.put(runtimeFilterScan, runtimeFilterCheck);
+            return runtimeFilterCheck;
+        }
+
+        /** The lookup in a hash join's inner side, if a probe row with
+         * no match there is dropped, as opposed to kept or negated.
+         */
+        protected HashTableLookup droppingHashTableLookup(PlanNode input, HashTable hashTable) {
+            if (!(input instanceof MapJoin))
+                return null;
+            MapJoin mapJoin = (MapJoin)input;
+            if (!(mapJoin.getJoinType().isInner() || mapJoin.getJoinType().isSemi()))
+                return null;
+            PlanNode inner = mapJoin.getInner();
+            while (true) {
+                if (inner instanceof HashTableLookup) {
+                    HashTableLookup lookup = (HashTableLookup)inner;
+                    return (lookup.getHashTable() == hashTable) ? lookup : null;
+                }
+                else if ((inner instanceof Project) ||
+                         (inner instanceof Select) ||
+                         (inner instanceof Limit))
+                    inner = ((BasePlanWithInput)inner).getInput();
+                else
+                    return null;
+            }
+        }
+
         protected RowStream assembleBloomFilterFilter(BloomFilterFilter bloomFilterFilter) {
             BloomFilter bloomFilter = bloomFilterFilter.getBloomFilter();
             int pos = getBindingPosition(bloomFilter);
+            List<AkCollator> collators = findCollators(bloomFilterFilter.getInput());
+            // When the input is just a scan, it can drop rows that
+            // would fail here before anything else is done with them.
+            PlanNode runtimeFilterScan = runtimeFilterScan(bloomFilterFilter.getInput(),
+                                                           bloomFilterFilter.getLookupExpressions());
+            RuntimeFilterCheck runtimeFilterCheck = addRuntimeFilterCheck(runtimeFilterScan,
+                                                                          bloomFilterFilter.getLookupExpressions(),
+                                                                          collators);
             RowStream stream = assembleStream(bloomFilterFilter.getInput());
+            if (runtimeFilterCheck != null) {
+                runtimeFilterChecks.remove(runtimeFilterScan);
+                if (runtimeFilterCheck.position >= 0)
+                    runtimeFilterPositions.put(bloomFilter, runtimeFilterCheck.position);
+            }
             bindingPositions.put(stream.fieldOffsets, pos); // Shares the slot.
             boundRows.push(stream.fieldOffsets);
             nestedBindingsDepth++;
@@ -1451,7 +1789,6 @@ public class OperatorAssembler extends BaseRule
             boundRows.pop();
             List<TPreparedExpression> tFields = assembleExpressions(bloomFilterFilter.getLookupExpressions(),
                     stream.fieldOffsets);
-            List<AkCollator> collators = findCollators(bloomFilterFilter.getInput());
             stream.operator = API.select_BloomFilter(stream.operator,
                                                      cstream.operator,
                                                      tFields,
@@ -1468,7 +1805,24 @@ public class OperatorAssembler extends BaseRule
             int pos = assignBindingPosition(hashTable);
             RowStream lstream = assembleStream(usingHashTable.getLoader());
             hashTableLoaders.put(hashTable, lstream);
+            // When probe rows that find nothing are dropped anyway,
+            // the probe scan can drop them itself, by the build keys.
+            PlanNode runtimeFilterScan = null;
+            RuntimeFilterCheck runtimeFilterCheck = null;
+            HashTableLookup hashTableLookup = droppingHashTableLookup(usingHashTable.getInput(), hashTable);
+            if (hashTableLookup != null) {
+                runtimeFilterScan = runtimeFilterScan(((MapJoin)usingHashTable.getInput()).getOuter(),
+                                                      hashTableLookup.getLookupExpressions());
+                runtimeFilterCheck = addRuntimeFilterCheck(runtimeFilterScan,
+                                                           hashTableLookup.getLookupExpressions(),
+                                                           usingHashTable.getCollators());
+            }
             RowStream stream = assembleStream(usingHashTable.getInput());
+            int runtimeFilterPos = -1;
+            if (runtimeFilterCheck != null) {
+                runtimeFilterChecks.remove(runtimeFilterScan);
+                runtimeFilterPos = runtimeFilterCheck.position;
+            }
             List<ExpressionNode> expressionNodes = usingHashTable.getLookupExpressions();
             List<TPreparedExpression> tFields = assembleExpressions(expressionNodes,lstream.fieldOffsets);
 
@@ -1498,9 +1852,11 @@ public class OperatorAssembler extends BaseRule
                     lstream.rowType,
                     tFields,
                     pos,
+                    runtimeFilterPos,
                     stream.operator,
                     tComparisons,
-                    collators);
+                    collators,
+                    hashTable.isSpillable());
             return stream;
         }
 
@@ -1558,6 +1914,17 @@ public class OperatorAssembler extends BaseRule
 
         // Generate key range bounds.
         protected IndexKeyRange assembleIndexKeyRange(SingleIndexScan index, ColumnExpressionToIndex fieldOffsets) {
+            if (index == partitionedScan) {
+                // One exchange partition's range of the leading column.
+                return assembleIndexKeyRange(
+                        index,
+                        fieldOffsets,
+                        partitionLow,
+                        true,
+                        partitionHigh,
+                        false
+                );
+            }
             return assembleIndexKeyRange(
                     index,
                     fieldOffsets,
@@ -2072,6 +2439,13 @@ public class OperatorAssembler extends BaseRule
         protected List<Object> bindings = new ArrayList<>();
         protected Map<Object,Integer> bindingPositions = new HashMap<>();
         protected Map<HashTable,RowStream> hashTableLoaders = new HashMap<>();
+        // Runtime filters a join would like checked, by the scan that could, and
+        // the positions of those that will be, by the join that loads them.
+        protected Map<PlanNode,RuntimeFilterCheck> runtimeFilterChecks = new HashMap<>();
+        protected Map<BloomFilter,Integer> runtimeFilterPositions = new HashMap<>();
+        // The scan being assembled for an exchange partition, and its range.
+        protected SingleIndexScan partitionedScan;
+        protected ExpressionNode partitionLow, partitionHigh;
 
         protected int assignBindingPosition(Object binding) {
             int position = bindings.size();
@@ -2242,6 +2616,56 @@ public class OperatorAssembler extends BaseRule
         }
     }
 
+    /** A join key that a scan might check against a runtime filter. */
+    static class RuntimeFilterCheck {
+        final List<ExpressionNode> lookupExpressions;
+        final List<AkCollator> collators;
+        // For a group scan, the table all the key columns come from.
+        TableSource table;
+        int position = -1;
+
+        public RuntimeFilterCheck(List<ExpressionNode> lookupExpressions, List<AkCollator> collators) {
+            this.lookupExpressions = lookupExpressions;
+            this.collators = collators;
+        }
+
+        /** The index row fields of the key, or <code>null</code> if not all there. */
+        public int[] fields(IndexScan index, RowType indexRowType) {
+            int[] fields = new int[lookupExpressions.size()];
+            for (int i = 0; i < fields.length; i++) {
+                int field = index.getColumns().indexOf(lookupExpressions.get(i));
+                if ((field < 0) || (field >= indexRowType.nFields()))
+                    return null;
+                fields[i] = field;
+            }
+            return fields;
+        }
+
+        /** The table row fields of the key. */
+        public int[] columnFields() {
+            int[] fields = new int[lookupExpressions.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = ((ColumnExpression)lookupExpressions.get(i)).getPosition();
+            }
+            return fields;
+        }
+
+        /** The one table whose columns make up the whole key, or <code>null</code>. */
+        public static TableSource keyTable(List<ExpressionNode> lookupExpressions) {
+            TableSource table = null;
+            for (ExpressionNode expression : lookupExpressions) {
+                if (!(expression instanceof ColumnExpression))
+                    return null;
+                ColumnSource source = ((ColumnExpression)expression).getTable();
+                if (!(source instanceof TableSource) ||
+                    ((table != null) && (table != source)))
+                    return null;
+                table = (TableSource)source;
+            }
+            return table;
+        }
+    }
+
     // Index used as field source (e.g., covering).
     static class IndexFieldOffsets extends BaseColumnExpressionToIndex {
         private IndexScan index;
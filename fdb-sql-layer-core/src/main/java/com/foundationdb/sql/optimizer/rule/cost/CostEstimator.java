@@ -17,6 +17,7 @@
 
 package com.foundationdb.sql.optimizer.rule.cost;
 
+import com.foundationdb.server.PersistitKeyValueSource;
 import com.foundationdb.server.PersistitKeyValueTarget;
 import com.foundationdb.server.store.statistics.Histogram;
 import com.foundationdb.server.store.statistics.HistogramEntry;
@@ -985,6 +986,101 @@ public abstract class CostEstimator implements TableRowCounts
         return new CostEstimate(size, model.sort((int)size, false));
     }
 
+    /** Estimate the cost of aggregating the given number of rows into
+     * the given number of groups using a hash table. */
+    public CostEstimate costHashAggregate(long size, long ngroups) {
+        return new CostEstimate(ngroups, model.hashAggregate((int)size, (int)ngroups));
+    }
+
+    /** Estimate the cost of eliminating duplicates from the given
+     * number of rows, leaving the given number, using a hash table. */
+    public CostEstimate costHashDistinct(long size, long ndistinct) {
+        return new CostEstimate(ndistinct, model.hashDistinct((int)size, (int)ndistinct));
+    }
+
+    /** Estimate the number of distinct combinations of the given
+     * expressions among <code>size</code> rows. Only columns with
+     * statistics can be estimated; anything else is assumed distinct.
+     */
+    public long estimateDistinctCount(List<ExpressionNode> expressions, long size) {
+        double count = 1.0;
+        for (ExpressionNode expression : expressions) {
+            if (!(expression instanceof ColumnExpression))
+                return size;
+            Column column = ((ColumnExpression)expression).getColumn();
+            if (column == null)
+                return size;
+            Histogram histogram = leadingColumnHistogram(column);
+            if (histogram == null)
+                return size;
+            IndexStatistics indexStatistics = histogram.getIndexStatistics();
+            double distinct = histogram.totalDistinctCount();
+            if (mostlyDistinct(histogram))
+                distinct = distinct * indexStatistics.getRowCount() / Math.max(indexStatistics.getSampledCount(), 1);
+            count *= Math.max(distinct, 1.0);
+            if (count >= size)
+                return size;
+        }
+        return (long)count;
+    }
+
+    /** A histogram for <code>column</code> from an analyzed index that starts with it. */
+    protected Histogram leadingColumnHistogram(Column column) {
+        for (TableIndex index : column.getTable().getIndexes()) {
+            if (index.getKeyColumns().get(0).getColumn() == column) {
+                IndexStatistics indexStatistics = getIndexStatistics(index);
+                if (indexStatistics != null) {
+                    Histogram histogram = indexStatistics.getHistogram(0, 1);
+                    if (histogram != null)
+                        return histogram;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Values of the leading column of <code>index</code> that split
+     * its entries into about <code>nparts</code> equal parts, ascending
+     * and each the first value of its part. Skewed data may give fewer,
+     * and an index without statistics none.
+     */
+    public List<Object> leadingColumnSplits(Index index, int nparts) {
+        List<Object> splits = new ArrayList<>();
+        IndexStatistics indexStatistics = getIndexStatistics(index);
+        if (indexStatistics == null)
+            return splits;
+        Histogram histogram = indexStatistics.getHistogram(0, 1);
+        if (histogram == null)
+            return splits;
+        long total = 0;
+        for (HistogramEntry entry : histogram.getEntries()) {
+            total += entry.getLessCount() + entry.getEqualCount();
+        }
+        TInstance type = index.getKeyColumns().get(0).getColumn().getType();
+        PersistitKeyValueSource keySource = new PersistitKeyValueSource(type);
+        long before = 0;
+        int part = 1;
+        for (HistogramEntry entry : histogram.getEntries()) {
+            before += entry.getLessCount();
+            if ((before > 0) && (before * nparts >= total * part)) {
+                byte[] bytes = entry.getKeyBytes();
+                key.setEncodedSize(bytes.length);
+                System.arraycopy(bytes, 0, key.getEncodedBytes(), 0, bytes.length);
+                keySource.attach(key, 0, type);
+                if (!keySource.isNull()) {
+                    splits.add(ValueSources.toObject(keySource));
+                }
+                while (before * nparts >= total * part) {
+                    part++;
+                }
+                if (part >= nparts)
+                    break;
+            }
+            before += entry.getEqualCount();
+        }
+        return splits;
+    }
+
     /** Estimate the cost of a sort of the given size and limit. */
     public CostEstimate costSortWithLimit(long size, long limit, int nfields) {
         return new CostEstimate(Math.min(size, limit),
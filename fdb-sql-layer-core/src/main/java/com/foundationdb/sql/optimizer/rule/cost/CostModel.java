@@ -89,6 +89,16 @@ public abstract class CostModel
         return SORT_SETUP + SORT_PER_ROW * nRows * (mixedMode ? 1 : SORT_MIXED_MODE_FACTOR);
     }
 
+    public double hashAggregate(int nRows, int nGroups)
+    {
+        return nRows * HASH_AGGREGATE_PER_ROW + nGroups * HASH_AGGREGATE_PER_GROUP;
+    }
+
+    public double hashDistinct(int nRows, int nDistinct)
+    {
+        return nRows * HASH_DISTINCT_PER_ROW + nDistinct * HASH_DISTINCT_PER_GROUP;
+    }
+
     public double sortWithLimit(int nRows, int sortFields)
     {
         return nRows * SORT_LIMIT_PER_ROW * (1 + sortFields * SORT_LIMIT_PER_FIELD_FACTOR);
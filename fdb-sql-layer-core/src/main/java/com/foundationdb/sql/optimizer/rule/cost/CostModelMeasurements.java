@@ -56,5 +56,14 @@ public interface CostModelMeasurements
     final double HASH_TABLE_SCAN_PER_ROW =  .18;
     final double HASH_TABLE_DIFF_PER_JOIN = .144;
     final double HASH_TABLE_COLUMN_COUNT_OFFSET = .0001;
+    // Derived from the above rather than measured. Each row evaluates its key, probes the
+    // table and updates the aggregator states, like a projection.
+    final double HASH_AGGREGATE_PER_ROW = EXPRESSION_PER_FIELD + HASH_TABLE_SCAN_PER_ROW + PROJECT_PER_ROW;
+    // Each group adds an entry and then has an output row made from its key and states,
+    // which is about what Flatten does to make a row from two.
+    final double HASH_AGGREGATE_PER_GROUP = HASH_TABLE_LOAD_PER_ROW + FLATTEN_PER_ROW;
+    // Not measured: like hash aggregation, but keeping just a copy of each distinct row.
+    final double HASH_DISTINCT_PER_ROW = 1;
+    final double HASH_DISTINCT_PER_GROUP = 20;
 
 }
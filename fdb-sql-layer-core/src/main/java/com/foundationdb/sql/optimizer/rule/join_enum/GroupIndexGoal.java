@@ -557,6 +557,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
         if (nequals - nunions > 0) {
             equalityColumns = index.getColumns().subList(0, nequals - nunions);
         }
+        // The index column matching each leading target column, or null when fixed by equality.
+        List<OrderByExpression> presortedColumns = new ArrayList<>();
         try_sorted:
         if (queryGoal.getOrdering() != null) {
             int idx = nequals-nunions;
@@ -588,6 +590,7 @@ public class GroupIndexGoal implements Comparator<BaseScan>
                         }
                         if (idx >= index.getNKeyColumns())
                             index.setUsesAllColumns(true);
+                        presortedColumns.add(indexColumn);
                         idx++;
                         continue;
                     }
@@ -597,8 +600,10 @@ public class GroupIndexGoal implements Comparator<BaseScan>
                     // in fact unchanged due to equality condition.
                     // TODO: Should this have been noticed earlier on
                     // so that it can be taken out of the sort?
-                    if (equalityColumns.contains(targetExpression))
+                    if (equalityColumns.contains(targetExpression)) {
+                        presortedColumns.add(null);
                         continue;
+                    }
                 }
                 break try_sorted;
             }
@@ -622,6 +627,20 @@ public class GroupIndexGoal implements Comparator<BaseScan>
                 result = IndexScan.OrderEffectiveness.SORTED;
             }
         }
+        if (queryGoal.getOrdering() != null) {
+            // Even when not completely sorted, a Sort with a limit
+            // can stop early if the leading columns are.
+            List<OrderByExpression> orderBy = queryGoal.getOrdering().getOrderBy();
+            int npresorted = 0;
+            while (npresorted < presortedColumns.size()) {
+                OrderByExpression indexColumn = presortedColumns.get(npresorted);
+                if ((indexColumn != null) &&
+                    (indexColumn.isAscending() != orderBy.get(npresorted).isAscending()))
+                    break;
+                npresorted++;
+            }
+            index.setNPresorted(npresorted);
+        }
         if (queryGoal.getGrouping() != null) {
             boolean anyFound = false, allFound = true;
             List<ExpressionNode> groupBy = queryGoal.getGrouping().getGroupBy();
@@ -1535,7 +1554,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
             installConditions(indexScan.getConditions(), conditionSources);
             conditionsToRemove = indexScan.getConditions();
             if (sortAllowed)
-                queryGoal.installOrderEffectiveness(indexScan.getOrderEffectiveness());
+                queryGoal.installOrderEffectiveness(indexScan.getOrderEffectiveness(),
+                                                    indexScan.getNPresorted());
         }
         else {
             if (scan instanceof GroupLoopScan) {
@@ -1562,7 +1582,7 @@ public class GroupIndexGoal implements Comparator<BaseScan>
                 conditionsToRemove = new ConditionList();
             }
             if (sortAllowed)
-                queryGoal.installOrderEffectiveness(IndexScan.OrderEffectiveness.NONE);
+                queryGoal.installOrderEffectiveness(IndexScan.OrderEffectiveness.NONE, 0);
         }
         return new JoinAndIndexPicker.Plan.JoinableWithConditionsToRemove(result, conditionsToRemove);
     }
@@ -115,9 +115,11 @@ public class QueryIndexGoal
     }
 
     /** Change GROUP BY, and ORDER BY upstream of <code>node</code> as
-     * a consequence of <code>orderEffectiveness</code> being used.
+     * a consequence of <code>orderEffectiveness</code> being used, with
+     * <code>npresorted</code> leading ORDER BY columns already in order.
      */
-    public void installOrderEffectiveness(OrderEffectiveness orderEffectiveness) {
+    public void installOrderEffectiveness(OrderEffectiveness orderEffectiveness,
+                                          int npresorted) {
         if (grouping != null) {
             AggregateSource.Implementation implementation;
             switch (orderEffectiveness) {
@@ -139,6 +141,10 @@ public class QueryIndexGoal
                 // Sort not needed: splice it out.
                 ordering.getOutput().replaceInput(ordering, ordering.getInput());
             }
+            else if (grouping == null) {
+                // Otherwise the aggregation is in between.
+                ordering.setNPresorted(npresorted);
+            }
         }
         if (projectDistinct != null) {
             Distinct distinct = (Distinct)projectDistinct.getOutput();
@@ -155,6 +161,38 @@ public class QueryIndexGoal
         }
     }
 
+    /** If the GROUP BY or DISTINCT is going to need a sort of
+     * <code>inputCost</code>'s rows, use a hash table instead when
+     * that is cheaper, which is when there are many fewer groups or
+     * distinct rows than input rows.
+     */
+    public void installHashImplementations(CostEstimate inputCost) {
+        if (inputCost == null)
+            return;
+        CostEstimator costEstimator = getCostEstimator();
+        long nrows = inputCost.getRowCount();
+        if (grouping != null) {
+            long ngroups = costEstimator.estimateDistinctCount(grouping.getGroupBy(), nrows);
+            if ((grouping.getImplementation() == AggregateSource.Implementation.SORT) &&
+                (costEstimator.costHashAggregate(nrows, ngroups).getCost() <
+                 costEstimator.costSort(nrows).getCost())) {
+                grouping.setImplementation(AggregateSource.Implementation.HASH);
+            }
+            nrows = ngroups;
+        }
+        // With an ORDER BY, the DISTINCT sort is also the ordering one.
+        if ((projectDistinct != null) && (ordering == null)) {
+            Distinct distinct = (Distinct)projectDistinct.getOutput();
+            if (distinct.getImplementation() == Distinct.Implementation.SORT) {
+                long ndistinct = costEstimator.estimateDistinctCount(projectDistinct.getFields(), nrows);
+                if (costEstimator.costHashDistinct(nrows, ndistinct).getCost() <
+                    costEstimator.costSort(nrows).getCost()) {
+                    distinct.setImplementation(Distinct.Implementation.HASH);
+                }
+            }
+        }
+    }
+
     public long getLimit() {
         if ((limit == null) || limit.isOffsetParameter() || limit.isLimitParameter())
             return -1;
@@ -17,6 +17,10 @@
 
 package com.foundationdb.sql.optimizer.rule.range;
 
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.common.types.StringAttribute;
+import com.foundationdb.server.types.common.types.TString;
 import com.foundationdb.server.types.texpressions.Comparison;
 import com.foundationdb.sql.optimizer.plan.ColumnExpression;
 import com.foundationdb.sql.optimizer.plan.ComparisonCondition;
@@ -66,6 +70,9 @@ public final class ColumnRanges {
                     }
                 }
             }
+            else if ("like".equals(condition.getFunction())) {
+                return likeToRange(condition);
+            }
         }
         else if (node instanceof InListCondition) {
             InListCondition inListCondition = (InListCondition) node;
@@ -238,6 +245,83 @@ public final class ColumnRanges {
         return new ColumnRanges(columnExpression, inListCondition, rangeSegments);
     }
 
+    /**
+     * A <code>LIKE</code> whose pattern is a literal, optionally followed
+     * by a single <code>%</code>, is the same as an equality or a range
+     * from that literal to just past it. Only when the comparison is by
+     * code point, as with binary collation, and then only for characters
+     * below the surrogates, where UTF-16 order agrees.
+     */
+    private static ColumnRanges likeToRange(FunctionCondition likeCondition) {
+        List<ExpressionNode> operands = likeCondition.getOperands();
+        if ((operands.size() < 2) ||
+            !(operands.get(0) instanceof ColumnExpression) ||
+            !(operands.get(1) instanceof ConstantExpression))
+            return null;
+        ColumnExpression columnExpression = (ColumnExpression)operands.get(0);
+        ConstantExpression patternExpression = (ConstantExpression)operands.get(1);
+        char escape = '\\';
+        if (operands.size() > 2) {
+            if (!(operands.get(2) instanceof ConstantExpression))
+                return null;
+            Object escapeValue = ((ConstantExpression)operands.get(2)).getValue();
+            if (!(escapeValue instanceof String) || (((String)escapeValue).length() != 1))
+                return null;
+            escape = ((String)escapeValue).charAt(0);
+            if ((escape == '%') || (escape == '_'))
+                return null;
+        }
+        Object patternValue = patternExpression.getValue();
+        if (!(patternValue instanceof String) ||
+            !isBinaryCollation(columnExpression.getType(), patternExpression.getType()))
+            return null;
+        String pattern = (String)patternValue;
+        StringBuilder literal = new StringBuilder(pattern.length());
+        int i = 0, len = pattern.length();
+        for (; i < len; i++) {
+            char ch = pattern.charAt(i);
+            if (ch == escape) {
+                if (++i >= len)
+                    return null;
+                ch = pattern.charAt(i);
+            }
+            else if ((ch == '%') || (ch == '_')) {
+                break;
+            }
+            if (ch >= Character.MIN_SURROGATE - 1)
+                return null;
+            literal.append(ch);
+        }
+        TInstance type = patternExpression.getType();
+        List<RangeSegment> rangeSegments;
+        if (i == len) {
+            rangeSegments = RangeSegment.fromComparison(Comparison.EQ,
+                                                        new ConstantExpression(literal.toString(), type));
+        }
+        else if ((i == len - 1) && (pattern.charAt(i) == '%') && (literal.length() > 0)) {
+            ConstantExpression start = new ConstantExpression(literal.toString(), type);
+            int last = literal.length() - 1;
+            literal.setCharAt(last, (char)(literal.charAt(last) + 1));
+            ConstantExpression end = new ConstantExpression(literal.toString(), type);
+            rangeSegments = Collections.singletonList(new RangeSegment(RangeEndpoint.inclusive(start),
+                                                                       RangeEndpoint.exclusive(end)));
+        }
+        else {
+            return null;
+        }
+        return new ColumnRanges(columnExpression, likeCondition, rangeSegments);
+    }
+
+    private static boolean isBinaryCollation(TInstance columnType, TInstance patternType) {
+        if ((columnType == null) || (patternType == null) ||
+            !(columnType.typeClass() instanceof TString) ||
+            !(patternType.typeClass() instanceof TString))
+            return false;
+        AkCollator collator = TString.mergeAkCollators(StringAttribute.characterTypeAttributes(columnType),
+                                                       StringAttribute.characterTypeAttributes(patternType));
+        return (collator == null) || collator.isRecoverable();
+    }
+
     private ColumnExpression columnExpression;
     private Set<? extends ConditionExpression> rootConditions;
     private List<RangeSegment> segments;
@@ -265,6 +265,20 @@ public class Tuple2 extends Tuple {
         return t;
     }
 
+    /**
+     * Construct a new {@code Tuple} with just the leading elements decoded from a supplied {@code byte} array.
+     *
+     * @param bytes encoded {@code Tuple} source. Must not be {@code null}
+     * @param count the maximum number of elements to decode
+     *
+     * @return a newly constructed object.
+     */
+    public static Tuple2 fromBytes(byte[] bytes, int offset, int length, int count) {
+        Tuple2 t = new Tuple2();
+        t.elements = TupleFloatingUtil.unpack(bytes, offset, length, count);
+        return t;
+    }
+
     /**
      * Gets the number of elements in this {@code Tuple}.
      *
@@ -23,7 +23,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
@@ -236,10 +235,14 @@ class TupleFloatingUtil {
     }
     
     static List<Object> unpack(byte[] bytes, int start, int length) {
-        List<Object> items = new LinkedList<Object>();
+        return unpack(bytes, start, length, Integer.MAX_VALUE);
+    }
+
+    static List<Object> unpack(byte[] bytes, int start, int length, int count) {
+        List<Object> items = new ArrayList<Object>();
         int pos = start;
         int end = start + length;
-        while(pos < bytes.length) {
+        while(pos < bytes.length && items.size() < count) {
             DecodeResult decoded = decode(bytes, pos, end);
             items.add(decoded.o);
             pos = decoded.end;
@@ -17,48 +17,114 @@
 
 package com.foundationdb.util;
 
+import static java.lang.Math.ceil;
 import static java.lang.Math.log;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.Math.round;
 
+/**
+ * A blocked bloom filter: each key sets and tests bits within a single
+ * cache-line-sized block of {@link #BLOCK_BITS} bits, so a probe touches
+ * one cache line, and the number of blocks is a power of two, so picking
+ * the block is a mask instead of a division.
+ * <p>
+ * Hashes are 64 bits. The low bits of the mixed hash select the block, and
+ * the positions within it are taken {@link #POSITION_BITS} at a time from
+ * successive rehashes. (Double hashing's arithmetic progressions collide
+ * too often within so small a block.) Keys made up of several values
+ * should fold their hashes together with {@link #combineHash}.
+ */
 public class BloomFilter
 {
-    public void add(int hashValue)
+    public void add(long hashValue)
     {
+        long mixed = mix(hashValue);
+        int block = ((int) mixed & blockMask) << BLOCK_SHIFT;
+        long bits = mixed;
+        int shift = -1;
         for (int h = 0; h < hashFunctions; h++) {
-            int position = position(hashValue, h);
-            filter[position >> SHIFT] |= 1L << (position & MASK);
+            if (shift < 0) {
+                bits = bits * REHASH_MULTIPLIER + REHASH_INCREMENT;
+                shift = BITS - POSITION_BITS;
+            }
+            int position = (int) (bits >>> shift) & BLOCK_MASK;
+            shift -= POSITION_BITS;
+            filter[block + (position >> SHIFT)] |= 1L << (position & MASK);
         }
     }
 
-    public boolean maybePresent(int hashValue)
+    public boolean maybePresent(long hashValue)
     {
+        long mixed = mix(hashValue);
+        int block = ((int) mixed & blockMask) << BLOCK_SHIFT;
+        long bits = mixed;
+        int shift = -1;
         for (int h = 0; h < hashFunctions; h++) {
-            int position = position(hashValue, h);
-            if ((filter[position >> SHIFT] & (1L << (position & MASK))) == 0) {
+            if (shift < 0) {
+                bits = bits * REHASH_MULTIPLIER + REHASH_INCREMENT;
+                shift = BITS - POSITION_BITS;
+            }
+            int position = (int) (bits >>> shift) & BLOCK_MASK;
+            shift -= POSITION_BITS;
+            if ((filter[block + (position >> SHIFT)] & (1L << (position & MASK))) == 0) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Fold the hash of one more value of a key into the hash of the key so far. */
+    public static long combineHash(long hash, long valueHash)
+    {
+        return (hash ^ valueHash) * 0x9E3779B97F4A7C15L;
+    }
+
+    public long getBitCount()
+    {
+        return (long) filter.length * BITS;
+    }
+
+    public int getHashFunctions()
+    {
+        return hashFunctions;
+    }
+
+    /** The false positive rate to be expected once <code>keys</code> keys have been added, ignoring blocking. */
+    public double expectedErrorRate(long keys)
+    {
+        return Math.pow(1 - Math.exp(-(double) hashFunctions * keys / getBitCount()), hashFunctions);
+    }
+
     public BloomFilter(long maxKeys, double errorRate)
     {
-        // Formulae from http://en.wikipedia.org/wiki/Bloom_filter.
+        // Formulae from http://en.wikipedia.org/wiki/Bloom_filter, with some extra room
+        // for the uneven loading of blocks.
         double ln2 = log(2);
-        filterSize = (int) -round(maxKeys * log(errorRate) / (ln2 * ln2));
-        hashFunctions = (int) round(((double) filterSize / maxKeys) * ln2);
-        filter = new long[1 + filterSize / BITS];
+        double bitsPerKey = -log(errorRate) / (ln2 * ln2) * BLOCKING_OVERHEAD;
+        long bits = (long) ceil(max(maxKeys, 1) * bitsPerKey);
+        long blocks = (bits + BLOCK_BITS - 1) / BLOCK_BITS;
+        int nblocks = 1;
+        while ((nblocks < blocks) && (nblocks < MAX_BLOCKS)) {
+            nblocks <<= 1;
+        }
+        blockMask = nblocks - 1;
+        filter = new long[nblocks << BLOCK_SHIFT];
+        double actualBitsPerKey = (double) nblocks * BLOCK_BITS / max(maxKeys, 1);
+        hashFunctions = (int) max(1, min(MAX_HASH_FUNCTIONS, round(actualBitsPerKey * ln2)));
     }
 
     // For use by this class
 
-    private int position(int x, int h)
+    // Finalizer from MurmurHash3, so that every bit of the input affects every bit of the output.
+    private static long mix(long h)
     {
-        int hash = x * PRIMES[h];
-        if (hash < 0) {
-            hash = hash == Integer.MIN_VALUE ? 0 : -hash;
-        }
-        return hash % filterSize;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
     // Class state
@@ -66,34 +132,19 @@ public class BloomFilter
     private static final int BITS = 64;
     private static final int SHIFT = 6; // log2(BITS)
     private static final int MASK = (1 << SHIFT) - 1;
-
-    // First 100 primes > 1e9
-    private static int[] PRIMES = {
-        1000000007, 1000000009, 1000000021, 1000000033, 1000000087,
-        1000000093, 1000000097, 1000000103, 1000000123, 1000000181,
-        1000000207, 1000000223, 1000000241, 1000000271, 1000000289,
-        1000000297, 1000000321, 1000000349, 1000000363, 1000000403,
-        1000000409, 1000000411, 1000000427, 1000000433, 1000000439,
-        1000000447, 1000000453, 1000000459, 1000000483, 1000000513,
-        1000000531, 1000000579, 1000000607, 1000000613, 1000000637,
-        1000000663, 1000000711, 1000000753, 1000000787, 1000000801,
-        1000000829, 1000000861, 1000000871, 1000000891, 1000000901,
-        1000000919, 1000000931, 1000000933, 1000000993, 1000001011,
-        1000001021, 1000001053, 1000001087, 1000001099, 1000001137,
-        1000001161, 1000001203, 1000001213, 1000001237, 1000001263,
-        1000001269, 1000001273, 1000001279, 1000001311, 1000001329,
-        1000001333, 1000001351, 1000001371, 1000001393, 1000001413,
-        1000001447, 1000001449, 1000001491, 1000001501, 1000001531,
-        1000001537, 1000001539, 1000001581, 1000001617, 1000001621,
-        1000001633, 1000001647, 1000001663, 1000001677, 1000001699,
-        1000001759, 1000001773, 1000001789, 1000001791, 1000001801,
-        1000001803, 1000001819, 1000001857, 1000001887, 1000001917,
-        1000001927, 1000001957, 1000001963, 1000001969, 1000002043,
-    };
+    private static final int BLOCK_BITS = 512; // A typical cache line
+    private static final int BLOCK_MASK = BLOCK_BITS - 1;
+    private static final int BLOCK_SHIFT = 3; // log2(BLOCK_BITS / BITS)
+    private static final int POSITION_BITS = 9; // log2(BLOCK_BITS)
+    private static final long REHASH_MULTIPLIER = 0xc4ceb9fe1a85ec53L;
+    private static final long REHASH_INCREMENT = 0x9E3779B97F4A7C15L;
+    private static final int MAX_BLOCKS = 1 << 22; // 256MB
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    private static final double BLOCKING_OVERHEAD = 1.2;
 
     // Object state
 
-    private final int filterSize;
+    private final int blockMask;
     private final int hashFunctions;
     private final long[] filter;
 
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+import static com.foundationdb.qp.operator.API.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowBatchTest {
+    private static final int NROWS = 300;
+
+    @Test
+    public void rowAtATime() {
+        Operator plan = input();
+        Cursor cursor = OperatorTestHelper.open(plan);
+        assertFalse(cursor instanceof BatchCursor);
+        checkBatches(cursor, 0);
+    }
+
+    @Test
+    public void filter() {
+        Operator input = input();
+        Operator plan = filter_Default(input, Collections.singleton(input.rowType()));
+        Cursor cursor = OperatorTestHelper.open(plan);
+        assertTrue(cursor instanceof BatchCursor);
+        checkBatches(cursor, 0);
+        assertTrue(cursor.isIdle());
+    }
+
+    @Test
+    public void project() {
+        Operator input = input();
+        List<TPreparedExpression> fields = new ArrayList<>();
+        fields.add(new TPreparedField(input.rowType().typeAt(0), 0));
+        Operator plan = project_Default(input, input.rowType(), fields);
+        Cursor cursor = OperatorTestHelper.open(plan);
+        assertTrue(cursor instanceof BatchCursor);
+        checkBatches(cursor, 0);
+    }
+
+    @Test
+    public void projectOutOfOrder() {
+        Operator input = input();
+        List<TPreparedExpression> fields = new ArrayList<>();
+        fields.add(new TPreparedField(input.rowType().typeAt(0), 0));
+        Operator plan = project_Default(input, input.rowType(), fields);
+        Cursor cursor = OperatorTestHelper.open(plan);
+        RowBatch batch = new RowBatch();
+        try {
+            assertTrue(RowBatch.fill(cursor, batch));
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                assertEquals(i, batch.get(i).value(0).getInt32());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(i, batch.get(i).value(0).getInt32());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void mixed() {
+        Operator input = input();
+        Operator plan = filter_Default(input, Collections.singleton(input.rowType()));
+        Cursor cursor = OperatorTestHelper.open(plan);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, cursor.next().value(0).getInt32());
+        }
+        checkBatches(cursor, 10);
+    }
+
+    private static Operator input() {
+        RowsBuilder rows = new RowsBuilder(MNumeric.INT.instance(false));
+        for (long i = 0; i < NROWS; i++) {
+            rows.row(i);
+        }
+        return new TestOperator(rows);
+    }
+
+    private static void checkBatches(Cursor cursor, int start) {
+        RowBatch batch = new RowBatch();
+        int expected = start;
+        try {
+            while (RowBatch.fill(cursor, batch)) {
+                assertEquals(Math.min(batch.capacity(), NROWS - expected), batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    Row row = batch.get(i);
+                    assertEquals(expected++, row.value(0).getInt32());
+                }
+            }
+            assertEquals(NROWS, expected);
+            assertFalse(RowBatch.fill(cursor, batch));
+        } finally {
+            cursor.close();
+        }
+    }
+}
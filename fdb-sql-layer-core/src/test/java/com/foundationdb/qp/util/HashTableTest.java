@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.ValuesRowType;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public final class HashTableTest {
+    private static final TInstance INT = MNumeric.INT.instance(true);
+    private static final TInstance VARCHAR = MString.varchar();
+
+    @Test
+    public void longKeys() {
+        RowType rowType = rowType(INT, VARCHAR);
+        HashTable hashTable = hashTable(rowType);
+        HashTable.Key key = key(rowType, 0);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Row row = new ValuesHolderRow(rowType, i % 100, "r" + i);
+            rows.add(row);
+            key.evaluate(row, null);
+            hashTable.put(key, row);
+        }
+        for (int k = 0; k < 100; k++) {
+            key.evaluate(new ValuesHolderRow(rowType, k, null), null);
+            int match = hashTable.find(key);
+            assertEquals(10, hashTable.getMatchCount(match));
+            for (int j = 0; j < 10; j++) {
+                assertSame("in put order", rows.get(j * 100 + k), hashTable.getMatch(match, j));
+            }
+        }
+        key.evaluate(new ValuesHolderRow(rowType, 100, null), null);
+        assertEquals(-1, hashTable.find(key));
+    }
+
+    @Test
+    public void nullKeys() {
+        RowType rowType = rowType(INT, VARCHAR);
+        HashTable hashTable = hashTable(rowType);
+        HashTable.Key key = key(rowType, 0);
+        Row row = new ValuesHolderRow(rowType, null, "a");
+        key.evaluate(row, null);
+        hashTable.put(key, row);
+        assertEquals(-1, hashTable.find(key));
+    }
+
+    @Test
+    public void stringKeys() {
+        RowType rowType = rowType(VARCHAR, INT);
+        HashTable hashTable = hashTable(rowType);
+        HashTable.Key key = key(rowType, 0);
+        String[] names = { "ori", "david", "jack", "tom" };
+        for (int i = 0; i < names.length; i++) {
+            Row row = new ValuesHolderRow(rowType, names[i], i);
+            key.evaluate(row, null);
+            hashTable.put(key, row);
+        }
+        for (int i = 0; i < names.length; i++) {
+            key.evaluate(new ValuesHolderRow(rowType, names[i], null), null);
+            int match = hashTable.find(key);
+            assertEquals(1, hashTable.getMatchCount(match));
+            assertEquals(i, hashTable.getMatch(match, 0).value(1).getInt32());
+        }
+        key.evaluate(new ValuesHolderRow(rowType, "yuval", null), null);
+        assertEquals(-1, hashTable.find(key));
+    }
+
+    @Test
+    public void swappedColumns() {
+        RowType rowType = rowType(INT, INT);
+        HashTable hashTable = hashTable(rowType);
+        HashTable.Key key = key(rowType, 0, 1);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                Row row = new ValuesHolderRow(rowType, i, j);
+                key.evaluate(row, null);
+                hashTable.put(key, row);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                key.evaluate(new ValuesHolderRow(rowType, i, j), null);
+                int match = hashTable.find(key);
+                assertEquals(1, hashTable.getMatchCount(match));
+                Row row = hashTable.getMatch(match, 0);
+                assertEquals(i, row.value(0).getInt32());
+                assertEquals(j, row.value(1).getInt32());
+            }
+        }
+    }
+
+    private static RowType rowType(TInstance... types) {
+        return new ValuesRowType(null, 1, types);
+    }
+
+    private static HashTable hashTable(RowType rowType) {
+        HashTable hashTable = new HashTable();
+        hashTable.setRowType(rowType);
+        return hashTable;
+    }
+
+    private static HashTable.Key key(RowType rowType, int... fields) {
+        List<TEvaluatableExpression> expressions = new ArrayList<>();
+        for (int field : fields) {
+            expressions.add(new TPreparedField(rowType.typeAt(field), field).build());
+        }
+        return new HashTable.Key(expressions);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.ValuesRowType;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.util.BloomFilter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class RuntimeFilterTest {
+    private static final TInstance INT = MNumeric.INT.instance(true);
+    private static final TInstance VARCHAR = MString.varchar();
+    private static final int[] FIRST = { 0 };
+
+    @Test
+    public void smallSet() {
+        RowType rowType = rowType(INT, VARCHAR);
+        RuntimeFilter filter = new RuntimeFilter(1, null);
+        for (int i : new int[] { 10, 3, 7, 3 }) {
+            filter.add(new ValuesHolderRow(rowType, i, "x"));
+        }
+        assertEquals(4, filter.getKeyCount());
+        assertEquals(true, mightMatch(filter, rowType, 3));
+        assertEquals(true, mightMatch(filter, rowType, 7));
+        assertEquals(true, mightMatch(filter, rowType, 10));
+        assertEquals("in range, not in set", false, mightMatch(filter, rowType, 5));
+        assertEquals("below range", false, mightMatch(filter, rowType, 2));
+        assertEquals("above range", false, mightMatch(filter, rowType, 11));
+        assertEquals("null not checked", true, mightMatch(filter, rowType, null));
+    }
+
+    @Test
+    public void rangeOnly() {
+        RowType rowType = rowType(INT, VARCHAR);
+        RuntimeFilter filter = new RuntimeFilter(1, null);
+        for (int i = 0; i < RuntimeFilter.MAX_SET_SIZE * 2; i++) {
+            filter.add(new ValuesHolderRow(rowType, 100 + i * 2, "x"));
+        }
+        assertEquals(100, filter.getMin(0).getInt32());
+        assertEquals(100 + (RuntimeFilter.MAX_SET_SIZE * 2 - 1) * 2, filter.getMax(0).getInt32());
+        assertEquals("too many for set", true, mightMatch(filter, rowType, 101));
+        assertEquals(false, mightMatch(filter, rowType, 99));
+        assertEquals(false, mightMatch(filter, rowType, 100 + RuntimeFilter.MAX_SET_SIZE * 4));
+    }
+
+    @Test
+    public void nullsIgnored() {
+        RowType rowType = rowType(INT, VARCHAR);
+        RuntimeFilter filter = new RuntimeFilter(1, null);
+        filter.add(new ValuesHolderRow(rowType, null, "x"));
+        assertEquals("nothing known", true, mightMatch(filter, rowType, 1));
+        assertEquals(null, filter.getMin(0));
+        filter.add(new ValuesHolderRow(rowType, 5, "x"));
+        assertEquals(true, mightMatch(filter, rowType, 5));
+        assertEquals(false, mightMatch(filter, rowType, 1));
+    }
+
+    @Test
+    public void withBloomFilter() {
+        RowType rowType = rowType(INT, VARCHAR);
+        BloomFilter bloomFilter = new BloomFilter(100, 0.0001);
+        RuntimeFilter filter = new RuntimeFilter(1, bloomFilter);
+        for (int i = 0; i < 100; i++) {
+            Row row = new ValuesHolderRow(rowType, i * 3, "x");
+            bloomFilter.add(BloomFilter.combineHash(0, ValueSources.hash64(row.value(0), null)));
+            filter.add(row);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(true, mightMatch(filter, rowType, i * 3));
+        }
+        int positives = 0;
+        for (int i = 0; i < 100; i++) {
+            if (mightMatch(filter, rowType, i * 3 + 1))
+                positives++;
+        }
+        assertEquals("no more than occasional false positives", true, positives < 5);
+    }
+
+    private static boolean mightMatch(RuntimeFilter filter, RowType rowType, Integer value) {
+        return filter.mightMatch(new ValuesHolderRow(rowType, value, "y"), FIRST, null);
+    }
+
+    private static RowType rowType(TInstance... types) {
+        return new ValuesRowType(null, 1, types);
+    }
+}
@@ -168,4 +168,22 @@ public class AkCollatorFactoryTest {
             AkCollatorFactory.setCollationMode(saveMode);
         }
     }
+
+    @Test
+    public void cachedSortKeys() throws Exception {
+        AkCollatorFactory.Mode saveMode = AkCollatorFactory.getCollationMode();
+        try {
+            AkCollatorFactory.setCollationMode(DEFAULT_MODE);
+            AkCollator c = AkCollatorFactory.getAkCollator("en_us_ci");
+            int before = Integer.signum(c.compare("abc", "ABD"));
+            byte[] key = c.encodeSortKeyBytes("abc");
+            assertTrue("Should reuse key", key == c.encodeSortKeyBytes("abc"));
+            c.encodeSortKeyBytes("ABD");
+            assertEquals("Same order from keys", before, Integer.signum(c.compare("abc", "ABD")));
+            assertEquals("Case-insensitive equal", 0, c.compare("ABC", "abc"));
+            assertEquals("Case-insensitive hash", c.hashCode("ABC"), c.hashCode("abc"));
+        } finally {
+            AkCollatorFactory.setCollationMode(saveMode);
+        }
+    }
 }
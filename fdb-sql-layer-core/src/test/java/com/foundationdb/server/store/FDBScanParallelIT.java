@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.KeySelector;
+import com.foundationdb.KeyValue;
+import com.foundationdb.StreamingMode;
+import com.foundationdb.Transaction;
+import com.foundationdb.async.AsyncIterator;
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+import com.foundationdb.server.store.format.FDBStorageDescription;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FDBScanParallelIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+
+    private byte[] prefix;
+
+    static final int NT1 = 5, NT2 = 10;
+
+    @Before
+    public void populate() {
+        createFromDDL(SCHEMA,
+                      "CREATE TABLE t1(id INT PRIMARY KEY, name VARCHAR(16));\n" +
+                      "CREATE TABLE t2(id INT PRIMARY KEY, pid INT, GROUPING FOREIGN KEY(pid) REFERENCES t1(id), name VARCHAR(16));");
+        int tid1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        int tid2 = ddl().getTableId(session(), new TableName(SCHEMA, "t2"));
+        Group group = getTable(tid1).getGroup();
+        prefix = ((FDBStorageDescription)group.getStorageDescription()).getPrefixBytes();
+
+        txnService().beginTransaction(session());
+        for (int i1 = 0; i1 < NT1; i1++) {
+            writeRow(tid1, i1, Integer.toString(i1));
+            for (int i2 = 0; i2 < NT2; i2++) {
+                writeRow(tid2, i1 * 1000 + i2, i1, String.format("%d-%d", i1, i2));
+            }
+        }
+        txnService().commitTransaction(session());
+    }
+
+    @After
+    public void restoreBoundaries() {
+        fdbTxnService().getShardBoundaries().refresh();
+    }
+
+    protected List<KeyValue> serialScan(TransactionState txn) {
+        List<KeyValue> result = new ArrayList<>();
+        AsyncIterator<KeyValue> iter = txn.getRangeIterator(KeySelector.firstGreaterOrEqual(prefix),
+                                                            KeySelector.firstGreaterOrEqual(ByteArrayUtil.strinc(prefix)),
+                                                            Transaction.ROW_LIMIT_UNLIMITED, false);
+        while (iter.hasNext()) {
+            result.add(iter.next());
+        }
+        return result;
+    }
+
+    /** Split at every <code>step</code>'th key, as though those were shard boundaries. */
+    protected FDBScanParallelIterator splitScan(TransactionState txn, List<KeyValue> serial,
+                                                int step) {
+        List<AsyncIterator<KeyValue>> ranges = new ArrayList<>();
+        KeySelector left = KeySelector.firstGreaterOrEqual(prefix);
+        for (int i = step; i < serial.size(); i += step) {
+            KeySelector right = KeySelector.firstGreaterOrEqual(serial.get(i).getKey());
+            ranges.add(txn.getRangeIterator(left, right, Transaction.ROW_LIMIT_UNLIMITED, false, StreamingMode.WANT_ALL));
+            left = right;
+        }
+        ranges.add(txn.getRangeIterator(left, KeySelector.firstGreaterOrEqual(ByteArrayUtil.strinc(prefix)),
+                                        Transaction.ROW_LIMIT_UNLIMITED, false, StreamingMode.WANT_ALL));
+        return new FDBScanParallelIterator(ranges);
+    }
+
+    @Test
+    public void ordered() {
+        txnService().beginTransaction(session());
+        TransactionState txn = fdbTxnService().getTransaction(session());
+        List<KeyValue> serial = serialScan(txn);
+        assertEquals(NT1 * (NT2 + 1), serial.size());
+        FDBScanParallelIterator parallel = splitScan(txn, serial, 7);
+        for (KeyValue expected : serial) {
+            KeyValue actual = parallel.next();
+            assertArrayEquals(expected.getKey(), actual.getKey());
+            assertArrayEquals(expected.getValue(), actual.getValue());
+        }
+        assertEquals(false, parallel.hasNext());
+        parallel.dispose();
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void orderedAsync() {
+        txnService().beginTransaction(session());
+        TransactionState txn = fdbTxnService().getTransaction(session());
+        List<KeyValue> serial = serialScan(txn);
+        FDBScanParallelIterator parallel = splitScan(txn, serial, 7);
+        for (KeyValue expected : serial) {
+            assertEquals(Boolean.TRUE, parallel.onHasNext().get());
+            KeyValue actual = parallel.next();
+            assertArrayEquals(expected.getKey(), actual.getKey());
+            assertArrayEquals(expected.getValue(), actual.getValue());
+        }
+        assertEquals(Boolean.FALSE, parallel.onHasNext().get());
+        parallel.dispose();
+        txnService().commitTransaction(session());
+    }
+
+    /** Pretend that every <code>step</code>'th key, along with some keys
+     * outside of the group, are shard boundaries.
+     */
+    protected List<byte[]> fakeBoundaries(List<KeyValue> serial, int step) {
+        List<byte[]> boundaries = new ArrayList<>();
+        boundaries.add(new byte[] { 0x01 });
+        for (int i = step; i < serial.size(); i += step) {
+            boundaries.add(serial.get(i).getKey());
+        }
+        boundaries.add(ByteArrayUtil.strinc(prefix));
+        return boundaries;
+    }
+
+    @Test
+    public void splitPointsWithinRange() {
+        txnService().beginTransaction(session());
+        TransactionState txn = fdbTxnService().getTransaction(session());
+        List<KeyValue> serial = serialScan(txn);
+        txnService().commitTransaction(session());
+        FDBShardBoundaries boundaries = fdbTxnService().getShardBoundaries();
+        boundaries.setBoundaries(fakeBoundaries(serial, 5));
+        // 10 boundaries inside, of which 3 are picked evenly.
+        List<byte[]> splits = boundaries.splitPoints(prefix, ByteArrayUtil.strinc(prefix), 4);
+        assertEquals(3, splits.size());
+        assertArrayEquals(serial.get(15).getKey(), splits.get(0));
+        assertArrayEquals(serial.get(30).getKey(), splits.get(1));
+        assertArrayEquals(serial.get(40).getKey(), splits.get(2));
+        // Boundaries equal to the ends are not inside.
+        splits = boundaries.splitPoints(serial.get(5).getKey(), serial.get(15).getKey(), 8);
+        assertEquals(1, splits.size());
+        assertArrayEquals(serial.get(10).getKey(), splits.get(0));
+    }
+
+    @Test
+    public void throughTransaction() {
+        txnService().beginTransaction(session());
+        TransactionState txn = fdbTxnService().getTransaction(session());
+        List<KeyValue> serial = serialScan(txn);
+        fdbTxnService().getShardBoundaries().setBoundaries(fakeBoundaries(serial, 7));
+        FDBScanTransactionOptions options = FDBScanTransactionOptions.NORMAL.withParallelScan(4);
+        AsyncIterator<KeyValue> iter = txn.getRangeIterator(KeySelector.firstGreaterOrEqual(prefix),
+                                                            KeySelector.firstGreaterOrEqual(ByteArrayUtil.strinc(prefix)),
+                                                            Transaction.ROW_LIMIT_UNLIMITED, false, options);
+        assertTrue(iter instanceof FDBScanParallelIterator);
+        for (KeyValue expected : serial) {
+            assertEquals(true, iter.hasNext());
+            KeyValue actual = iter.next();
+            assertArrayEquals(expected.getKey(), actual.getKey());
+            assertArrayEquals(expected.getValue(), actual.getValue());
+        }
+        assertEquals(false, iter.hasNext());
+        iter.dispose();
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void notSplitWithoutBoundaries() {
+        txnService().beginTransaction(session());
+        TransactionState txn = fdbTxnService().getTransaction(session());
+        List<KeyValue> serial = serialScan(txn);
+        fdbTxnService().getShardBoundaries().setBoundaries(new ArrayList<byte[]>());
+        FDBScanTransactionOptions options = FDBScanTransactionOptions.NORMAL.withParallelScan(4);
+        AsyncIterator<KeyValue> iter = txn.getRangeIterator(KeySelector.firstGreaterOrEqual(prefix),
+                                                            KeySelector.firstGreaterOrEqual(ByteArrayUtil.strinc(prefix)),
+                                                            Transaction.ROW_LIMIT_UNLIMITED, false, options);
+        assertEquals(false, iter instanceof FDBScanParallelIterator);
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(serial.size(), count);
+        txnService().commitTransaction(session());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.StreamingMode;
+import com.foundationdb.Transaction;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FDBScanTransactionOptionsTest
+{
+    static final int UNLIMITED = Transaction.ROW_LIMIT_UNLIMITED;
+    static final long UNKNOWN = FDBScanTransactionOptions.UNKNOWN_ROW_COUNT;
+
+    static StreamingMode choose(int limit, int keysPerRow, long expectedRows, int lookaheadQuantum) {
+        return FDBScanTransactionOptions.chooseStreamingMode(limit, keysPerRow, expectedRows, lookaheadQuantum);
+    }
+
+    @Test
+    public void limitedSingleKeyRowsAreExact() {
+        assertEquals(StreamingMode.EXACT, choose(1, 1, UNKNOWN, 1));
+        assertEquals(StreamingMode.EXACT, choose(5000, 1, 1000000, 4));
+    }
+
+    @Test
+    public void limitCapsEstimate() {
+        // Multi-key rows cannot ask for an exact count, but the limit still bounds the estimate.
+        assertEquals(StreamingMode.SMALL, choose(2, 3, UNKNOWN, 1));
+        assertEquals(StreamingMode.SMALL, choose(5, 2, 1000000, 1));
+        assertEquals(StreamingMode.MEDIUM, choose(100, 2, 1000000, 1));
+        assertEquals(StreamingMode.MEDIUM, choose(1000000, 2, 100, 1));
+    }
+
+    @Test
+    public void unknownEstimate() {
+        assertEquals(StreamingMode.ITERATOR, choose(UNLIMITED, 1, UNKNOWN, 1));
+        assertEquals(StreamingMode.SMALL, choose(UNLIMITED, 1, UNKNOWN, 4));
+    }
+
+    @Test
+    public void rowEstimate() {
+        assertEquals(StreamingMode.SMALL, choose(UNLIMITED, 1, 0, 1));
+        assertEquals(StreamingMode.SMALL, choose(UNLIMITED, 1, FDBScanTransactionOptions.SMALL_SCAN_ROWS, 1));
+        assertEquals(StreamingMode.MEDIUM, choose(UNLIMITED, 1, FDBScanTransactionOptions.SMALL_SCAN_ROWS + 1, 1));
+        assertEquals(StreamingMode.MEDIUM, choose(UNLIMITED, 1, FDBScanTransactionOptions.LARGE_SCAN_ROWS - 1, 1));
+        assertEquals(StreamingMode.WANT_ALL, choose(UNLIMITED, 1, FDBScanTransactionOptions.LARGE_SCAN_ROWS, 1));
+        // Keys per row scale the estimate.
+        assertEquals(StreamingMode.WANT_ALL, choose(UNLIMITED, 2, FDBScanTransactionOptions.LARGE_SCAN_ROWS / 2, 1));
+    }
+
+    @Test
+    public void lookaheadShrinksBatches() {
+        assertEquals(StreamingMode.SMALL, choose(UNLIMITED, 1, 1000, 4));
+        assertEquals(StreamingMode.LARGE, choose(UNLIMITED, 1, 1000000, 4));
+    }
+
+    @Test
+    public void snapshotChoosesTheSame() {
+        FDBScanTransactionOptions normal = FDBScanTransactionOptions.NORMAL.withScanHints(1000000, 1);
+        FDBScanTransactionOptions snapshot = FDBScanTransactionOptions.SNAPSHOT.withScanHints(1000000, 1);
+        assertTrue(snapshot.isSnapshot());
+        assertEquals(false, normal.isSnapshot());
+        assertEquals(StreamingMode.WANT_ALL, normal.streamingMode(UNLIMITED));
+        assertEquals(StreamingMode.WANT_ALL, snapshot.streamingMode(UNLIMITED));
+        assertEquals(StreamingMode.EXACT, snapshot.streamingMode(10));
+        assertEquals(StreamingMode.ITERATOR, FDBScanTransactionOptions.SNAPSHOT.streamingMode(UNLIMITED));
+    }
+
+    @Test
+    public void explicitModeWins() {
+        FDBScanTransactionOptions options = FDBScanTransactionOptions.SNAPSHOT
+            .withScanHints(1000000, 1)
+            .withStreamingMode(StreamingMode.SERIAL);
+        assertTrue(options.isSnapshot());
+        assertEquals(StreamingMode.SERIAL, options.streamingMode(UNLIMITED));
+        assertEquals(StreamingMode.SERIAL, options.streamingMode(10, 3));
+        // Hints made afterwards keep the mode.
+        assertEquals(StreamingMode.SERIAL, options.withScanHints(5, 1).streamingMode(UNLIMITED));
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.server.error.TransactionConflictException;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.test.it.MemoryITBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MemoryTransactionServiceIT extends MemoryITBase
+{
+    private MemoryTransactionService memoryTxnService() {
+        return (MemoryTransactionService)txnService();
+    }
+
+    private static byte[] key(int n) {
+        return new byte[] { (byte)0xFE, 'T', (byte)n };
+    }
+
+    private static byte[] value(long n) {
+        return Long.toString(n).getBytes();
+    }
+
+    private static long longValue(byte[] bytes) {
+        return (bytes == null) ? 0 : Long.parseLong(new String(bytes));
+    }
+
+    private void set(Session session, int k, long v) {
+        txnService().beginTransaction(session);
+        memoryTxnService().getTransaction(session).set(key(k), value(v));
+        txnService().commitTransaction(session);
+    }
+
+    @Test
+    public void snapshotReads() {
+        try(Session other = createNewSession()) {
+            set(session(), 1, 10);
+            txnService().beginTransaction(session());
+            MemoryTransaction txn = memoryTxnService().getTransaction(session());
+            assertEquals(10, longValue(txn.get(key(1))));
+            set(other, 1, 20);
+            set(other, 2, 30);
+            assertEquals(10, longValue(txn.get(key(1))));
+            assertNull(txn.get(key(2)));
+            assertEquals(20, longValue(txn.getUncommitted(key(1))));
+            // Read-only, so no conflict.
+            txnService().commitTransaction(session());
+        }
+    }
+
+    @Test
+    public void ownWrites() {
+        set(session(), 1, 10);
+        set(session(), 2, 20);
+        set(session(), 3, 30);
+        txnService().beginTransaction(session());
+        MemoryTransaction txn = memoryTxnService().getTransaction(session());
+        txn.set(key(4), value(40));
+        txn.clear(key(2));
+        assertNull(txn.get(key(2)));
+        List<Long> values = new ArrayList<>();
+        Iterator<Entry<byte[],byte[]>> it = txn.getRange(key(0), key(10), true);
+        while(it.hasNext()) {
+            values.add(longValue(it.next().getValue()));
+        }
+        assertEquals("[40, 30, 10]", values.toString());
+        txn.clearRange(key(3), key(10));
+        assertFalse(txn.getRange(key(3), key(10)).hasNext());
+        txnService().rollbackTransaction(session());
+
+        txnService().beginTransaction(session());
+        txn = memoryTxnService().getTransaction(session());
+        assertArrayEquals(value(20), txn.get(key(2)));
+        assertNull(txn.get(key(4)));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void readWriteConflict() {
+        try(Session other = createNewSession()) {
+            set(session(), 1, 10);
+            txnService().beginTransaction(session());
+            MemoryTransaction txn = memoryTxnService().getTransaction(session());
+            txn.set(key(2), value(longValue(txn.get(key(1))) + 1));
+            set(other, 1, 20);
+            try {
+                txnService().commitTransaction(session());
+                fail("expected conflict");
+            } catch(TransactionConflictException e) {
+                // Expected
+            }
+            txnService().beginTransaction(session());
+            txn = memoryTxnService().getTransaction(session());
+            assertNull(txn.get(key(2)));
+            txnService().commitTransaction(session());
+        }
+    }
+
+    @Test
+    public void rangeConflict() {
+        try(Session other = createNewSession()) {
+            txnService().beginTransaction(session());
+            MemoryTransaction txn = memoryTxnService().getTransaction(session());
+            assertFalse(txn.getRange(key(0), key(10)).hasNext());
+            txn.set(key(20), value(1));
+            set(other, 5, 50);
+            try {
+                txnService().commitTransaction(session());
+                fail("expected conflict");
+            } catch(TransactionConflictException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void writesDuringRangeScan() {
+        set(session(), 1, 10);
+        set(session(), 2, 20);
+        set(session(), 3, 30);
+        txnService().beginTransaction(session());
+        MemoryTransaction txn = memoryTxnService().getTransaction(session());
+        txn.set(key(4), value(40));
+        List<Long> values = new ArrayList<>();
+        Iterator<Entry<byte[],byte[]>> it = txn.getRange(key(0), key(10));
+        while(it.hasNext()) {
+            Entry<byte[],byte[]> entry = it.next();
+            values.add(longValue(entry.getValue()));
+            txn.set(entry.getKey(), value(longValue(entry.getValue()) + 1));
+            txn.set(key(5), value(50));
+        }
+        assertEquals("[10, 20, 30, 40]", values.toString());
+        assertEquals(21, longValue(txn.get(key(2))));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void snapshotKeptWhileOthersCommit() {
+        try(Session other = createNewSession()) {
+            set(session(), 1, 10);
+            txnService().beginTransaction(session());
+            MemoryTransaction txn = memoryTxnService().getTransaction(session());
+            for(int i = 1; i <= 10; i++) {
+                set(other, 1, 10 + i);
+                set(other, 2, 20 + i);
+            }
+            assertEquals(10, longValue(txn.get(key(1))));
+            assertFalse(txn.getRange(key(2), key(3)).hasNext());
+            txnService().commitTransaction(session());
+        }
+    }
+
+    @Test
+    public void noConflictWithEarlierCommits() {
+        try(Session other = createNewSession()) {
+            set(other, 5, 50);
+            txnService().beginTransaction(session());
+            MemoryTransaction txn = memoryTxnService().getTransaction(session());
+            assertEquals(1, count(txn.getRange(key(0), key(10))));
+            txn.set(key(20), value(1));
+            // Outside what was read.
+            set(other, 15, 150);
+            txnService().commitTransaction(session());
+        }
+    }
+
+    private static int count(Iterator<?> it) {
+        int n = 0;
+        while(it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void concurrentIncrements() throws Exception {
+        final int nthreads = 4, nincrements = 250;
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < nthreads; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try(final Session session = createNewSession()) {
+                        for(int i = 0; i < nincrements; i++) {
+                            txnService().run(session, new Runnable() {
+                                @Override
+                                public void run() {
+                                    MemoryTransaction txn = memoryTxnService().getTransaction(session);
+                                    txn.set(key(1), value(longValue(txn.get(key(1))) + 1));
+                                }
+                            });
+                        }
+                    }
+                }
+            });
+        }
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        txnService().beginTransaction(session());
+        assertEquals(nthreads * nincrements, longValue(memoryTxnService().getTransaction(session()).get(key(1))));
+        txnService().commitTransaction(session());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SequenceCacheTest
+{
+    /** Like the single sequence k/v: the next unallocated raw value. */
+    static class CountingAllocator implements SequenceCache.BlockAllocator {
+        final AtomicLong stored = new AtomicLong(1);
+        final AtomicLong blocks = new AtomicLong();
+
+        @Override
+        public long allocateBlock(long size) {
+            blocks.incrementAndGet();
+            return stored.getAndAdd(size);
+        }
+    }
+
+    @Test
+    public void consecutive() {
+        CountingAllocator allocator = new CountingAllocator();
+        SequenceCache cache = new SequenceCache(1, 5, 5);
+        assertEquals(0, cache.getCurrentValue());
+        for (long i = 1; i <= 12; i++) {
+            assertEquals(i, cache.nextCacheValue(allocator));
+            assertEquals(i, cache.getCurrentValue());
+        }
+        assertEquals(3, allocator.blocks.get());
+        assertEquals(16, allocator.stored.get());
+    }
+
+    @Test
+    public void blocksGrowWhenUsedQuickly() {
+        CountingAllocator allocator = new CountingAllocator();
+        SequenceCache cache = new SequenceCache(1, 10, 1000);
+        for (int i = 0; i < 10000; i++) {
+            cache.nextCacheValue(allocator);
+        }
+        assertEquals(1000, cache.getBlockSize());
+        assertTrue(allocator.blocks.get() < 100);
+    }
+
+    @Test
+    public void concurrentUnique() throws Exception {
+        final CountingAllocator allocator = new CountingAllocator();
+        final SequenceCache cache = new SequenceCache(3, 7, 100);
+        final Set<Long> values = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+        final int nthreads = 8, nvalues = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nthreads; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < nvalues; i++) {
+                        values.add(cache.nextCacheValue(allocator));
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(nthreads * nvalues, values.size());
+        for (Long value : values) {
+            assertTrue(value >= 1);
+            assertTrue(value < allocator.stored.get());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.qp.expression.ScanColumnRange;
+import com.foundationdb.tuple.Tuple2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ColumnChunkTest
+{
+    private static byte[] key(long id) {
+        return Tuple2.from(1L, id).pack();
+    }
+
+    private static ColumnChunk chunk(long... ids) {
+        ColumnChunk chunk = new ColumnChunk(key(ids[0]), 2);
+        for (long id : ids) {
+            chunk.put(key(id), new Object[] { id * 10, (id % 2 == 0) ? null : "s" + id });
+        }
+        return chunk;
+    }
+
+    @Test
+    public void putKeepsOrder() {
+        ColumnChunk chunk = chunk(5, 1, 3);
+        assertEquals(3, chunk.size());
+        assertArrayEquals(key(1), chunk.getRowKey(0));
+        assertArrayEquals(key(3), chunk.getRowKey(1));
+        assertArrayEquals(key(5), chunk.getRowKey(2));
+        assertEquals(1, chunk.find(key(3)));
+        assertEquals(-2, chunk.find(key(2)));
+        chunk.put(key(3), new Object[] { 99L, "x" });
+        assertEquals(3, chunk.size());
+        assertEquals(Arrays.<Object>asList(99L, "x"), Arrays.asList(chunk.getRow(1)));
+        chunk.remove(0);
+        assertEquals(2, chunk.size());
+        assertEquals(-1, chunk.find(key(1)));
+    }
+
+    @Test
+    public void split() {
+        ColumnChunk lower = chunk(1, 2, 3, 4, 5);
+        ColumnChunk upper = lower.split();
+        assertEquals(2, lower.size());
+        assertEquals(3, upper.size());
+        assertArrayEquals(key(3), upper.getChunkKey());
+        assertEquals(30L, upper.getValue(0, 0));
+        assertEquals(20L, lower.getValue(1, 0));
+    }
+
+    @Test
+    public void encodeDecode() {
+        ColumnChunk chunk = chunk(1, 2, 3);
+        byte[] header = chunk.encodeHeader();
+        byte[] column0 = chunk.encodeColumn(0);
+        ColumnChunk decoded = ColumnChunk.decodeHeader(chunk.getChunkKey(), header);
+        assertEquals(3, decoded.size());
+        assertEquals(2, decoded.getColumnCount());
+        assertFalse(decoded.isLoaded(0));
+        decoded.decodeColumn(0, column0);
+        decoded.decodeColumn(1, null);
+        assertTrue(decoded.isLoaded(0));
+        assertEquals(20L, decoded.getValue(1, 0));
+        assertNull(decoded.getValue(0, 1));
+        assertArrayEquals(key(3), decoded.getRowKey(2));
+    }
+
+    @Test
+    public void headerKeys() {
+        byte[] prefix = { 0x15, 0x07 };
+        byte[] chunkKey = key(42);
+        byte[] headerKey = ColumnChunk.headerKey(prefix, chunkKey);
+        assertArrayEquals(chunkKey, ColumnChunk.chunkKey(prefix, headerKey));
+    }
+
+    @Test
+    public void skipping() {
+        ColumnChunk chunk = chunk(2, 4, 6);
+        ColumnChunk decoded = ColumnChunk.decodeHeader(chunk.getChunkKey(), chunk.encodeHeader());
+        int[] column0 = { 0 };
+        int[] column1 = { 1 };
+        assertTrue(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, 40L, true, null, false, false)), column0));
+        assertFalse(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, 60L, false, null, false, false)), column0));
+        assertFalse(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, null, false, 20L, false, false)), column0));
+        assertTrue(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, null, false, 20L, true, false)), column0));
+        // All null in column 1.
+        assertFalse(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, 0L, true, null, false, false)), column1));
+        assertTrue(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, null, false, null, false, true)), column1));
+    }
+
+    @Test
+    public void onlyIntegersSummarized() {
+        ColumnChunk chunk = chunk(1, 3, 5);
+        ColumnChunk decoded = ColumnChunk.decodeHeader(chunk.getChunkKey(), chunk.encodeHeader());
+        int[] column1 = { 1 };
+        // Column 1 has strings, so no range can rule the chunk out.
+        assertTrue(decoded.mayMatch(Collections.singletonList(new ScanColumnRange(null, 0L, true, 10L, true, false)), column1));
+    }
+}
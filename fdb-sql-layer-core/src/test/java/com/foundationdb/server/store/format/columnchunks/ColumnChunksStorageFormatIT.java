@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.columnchunks;
+
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.qp.expression.ScanColumnRange;
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.error.StorageDescriptionInvalidException;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.server.test.it.qp.TestRow;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ColumnChunksStorageFormatIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+    private static final int NROWS = 100;
+
+    private int t1;
+    private RowType t1Type;
+    private StoreAdapter adapter;
+
+    @Before
+    public void createTable() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, n INT, s VARCHAR(32)) STORAGE_FORMAT column_chunks(chunk_rows = 8)");
+        t1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        assertTrue(getTable(t1).getGroup().getStorageDescription() instanceof ColumnChunksStorageDescription);
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        t1Type = schema.tableRowType(getTable(t1));
+        adapter = newStoreAdapter();
+    }
+
+    protected Object[] row(long id) {
+        return new Object[] { id, id * 10, "row " + id };
+    }
+
+    protected void populate() {
+        txnService().beginTransaction(session());
+        // Out of order, so that chunks get split in the middle.
+        for (int i = 0; i < NROWS; i++) {
+            writeRow(t1, row((i * 37) % NROWS));
+        }
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void scanAll() {
+        populate();
+        List<Row> expected = new ArrayList<>();
+        for (long id = 0; id < NROWS; id++) {
+            expected.add(new TestRow(t1Type, row(id)));
+        }
+        txnService().beginTransaction(session());
+        compareRows(expected.toArray(new Row[expected.size()]), adapter.newGroupCursor(t1Type.table().getGroup()));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void updateAndDelete() {
+        populate();
+        txnService().beginTransaction(session());
+        updateRow(new TestRow(t1Type, row(5)), new TestRow(t1Type, new Object[] { 5L, -1L, "five" }));
+        for (long id = 50; id < NROWS; id++) {
+            deleteRow(t1, row(id));
+        }
+        txnService().commitTransaction(session());
+        List<Row> expected = new ArrayList<>();
+        for (long id = 0; id < 50; id++) {
+            expected.add(new TestRow(t1Type, (id == 5) ? new Object[] { 5L, -1L, "five" } : row(id)));
+        }
+        txnService().beginTransaction(session());
+        compareRows(expected.toArray(new Row[expected.size()]), adapter.newGroupCursor(t1Type.table().getGroup()));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void skipChunks() {
+        populate();
+        Column n = getTable(t1).getColumn("n");
+        List<ScanColumnRange> ranges = Collections.singletonList(new ScanColumnRange(n, 500L, true, 520L, false, false));
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        List<Row> rows = runPlan(session(), schema,
+                                 API.groupScan_Default(t1Type.table().getGroup(), 0, null, ranges));
+        // Everything from any chunk that might match, but not much else.
+        assertTrue(rows.size() >= 2);
+        assertTrue(rows.size() < NROWS / 2);
+        int matches = 0;
+        for (Row row : rows) {
+            long value = row.value(1).getInt32();
+            if ((value >= 500) && (value < 520)) matches++;
+        }
+        assertEquals(2, matches);
+    }
+
+    @Test
+    public void unneededColumnsLoadedOnDemand() {
+        populate();
+        Set<Column> needed = new HashSet<>();
+        needed.add(getTable(t1).getColumn("n"));
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        txnService().beginTransaction(session());
+        List<Row> rows = runPlan(session(), schema,
+                                 API.groupScan_Default(t1Type.table().getGroup(), 0, needed));
+        assertEquals(NROWS, rows.size());
+        // Read out of order, so that some come from earlier chunks.
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            Row row = rows.get(i);
+            assertEquals(i, row.value(0).getInt32());
+            assertEquals("row " + i, row.value(2).getString());
+        }
+        txnService().commitTransaction(session());
+    }
+
+    @Test(expected = StorageDescriptionInvalidException.class)
+    public void childTableNotAllowed() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t2(id INT PRIMARY KEY NOT NULL, t1id INT, GROUPING FOREIGN KEY(t1id) REFERENCES t1(id))");
+    }
+
+    @Test
+    public void noIntegerColumns() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t3(id VARCHAR(8) PRIMARY KEY NOT NULL, s VARCHAR(32)) STORAGE_FORMAT column_chunks(chunk_rows = 4)");
+        int t3 = ddl().getTableId(session(), new TableName(SCHEMA, "t3"));
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t3Type = schema.tableRowType(getTable(t3));
+        txnService().beginTransaction(session());
+        for (int i = 0; i < 10; i++) {
+            writeRow(t3, "k" + i, "row " + i);
+        }
+        updateRow(new TestRow(t3Type, new Object[] { "k3", "row 3" }), new TestRow(t3Type, new Object[] { "k3", "three" }));
+        deleteRow(t3, "k7", "row 7");
+        txnService().commitTransaction(session());
+        List<Row> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            if (i == 7) continue;
+            expected.add(new TestRow(t3Type, new Object[] { "k" + i, (i == 3) ? "three" : "row " + i }));
+        }
+        txnService().beginTransaction(session());
+        compareRows(expected.toArray(new Row[expected.size()]), adapter.newGroupCursor(t3Type.table().getGroup()));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void updateAndDeleteInLargeChunk() {
+        final int nrows = 1000;
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t4(id INT PRIMARY KEY NOT NULL, n INT, s VARCHAR(32)) STORAGE_FORMAT column_chunks(chunk_rows = 1000)");
+        int t4 = ddl().getTableId(session(), new TableName(SCHEMA, "t4"));
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t4Type = schema.tableRowType(getTable(t4));
+        txnService().beginTransaction(session());
+        for (int i = 0; i < nrows; i++) {
+            writeRow(t4, row((i * 37) % nrows));
+        }
+        txnService().commitTransaction(session());
+        // Move values at both ends and in the middle of the one chunk
+        // well outside its old min / max, and delete every third row.
+        txnService().beginTransaction(session());
+        for (long id : new long[] { 0, 500, 999 }) {
+            updateRow(new TestRow(t4Type, row(id)), new TestRow(t4Type, new Object[] { id, 100000L + id, "moved " + id }));
+        }
+        for (long id = 1; id < nrows; id += 3) {
+            deleteRow(t4, row(id));
+        }
+        txnService().commitTransaction(session());
+        List<Row> expected = new ArrayList<>();
+        for (long id = 0; id < nrows; id++) {
+            if (id % 3 == 1) continue;
+            boolean moved = (id == 0) || (id == 500) || (id == 999);
+            expected.add(new TestRow(t4Type, moved ? new Object[] { id, 100000L + id, "moved " + id } : row(id)));
+        }
+        txnService().beginTransaction(session());
+        compareRows(expected.toArray(new Row[expected.size()]), adapter.newGroupCursor(t4Type.table().getGroup()));
+        txnService().commitTransaction(session());
+        // The chunk's min / max must have followed the updates.
+        Column n = getTable(t4).getColumn("n");
+        List<ScanColumnRange> ranges = Collections.singletonList(new ScanColumnRange(n, 100000L, true, null, false, false));
+        List<Row> rows = runPlan(session(), schema,
+                                 API.groupScan_Default(t4Type.table().getGroup(), 0, null, ranges));
+        List<Long> movedIds = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.value(1).getInt32() >= 100000) {
+                movedIds.add((long)row.value(0).getInt32());
+            }
+        }
+        assertEquals(Arrays.asList(0L, 500L, 999L), movedIds);
+        // Nor do deleted rows come back from a range scan.
+        ranges = Collections.singletonList(new ScanColumnRange(n, 10L, true, 11L, true, false));
+        rows = runPlan(session(), schema,
+                       API.groupScan_Default(t4Type.table().getGroup(), 0, null, ranges));
+        for (Row row : rows) {
+            assertTrue(row.value(1).getInt32() != 10);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.compressed;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.qp.operator.GroupCursor;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.error.AkibanInternalException;
+import com.foundationdb.server.store.FDBScanTransactionOptions;
+import com.foundationdb.server.store.FDBStoreData;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.server.test.it.qp.TestRow;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.util.tap.TapReport;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedStorageFormatIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+    private static final String INFLATED_TAP = "fdb: compressed values inflated";
+
+    @Test
+    public void groupWithDictionary() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE parent(id INT PRIMARY KEY NOT NULL, s VARCHAR(128)) STORAGE_FORMAT compressed(dictionary = 'March sisters');" +
+          "CREATE TABLE child(id INT PRIMARY KEY NOT NULL, pid INT, GROUPING FOREIGN KEY(pid) REFERENCES parent(id), s VARCHAR(128));");
+        int parent = ddl().getTableId(session(), new TableName(SCHEMA, "parent"));
+        int child = ddl().getTableId(session(), new TableName(SCHEMA, "child"));
+        assertTrue(getTable(parent).getGroup().getStorageDescription() instanceof CompressedStorageDescription);
+        CompressedStorageDescription storage = (CompressedStorageDescription)getTable(parent).getGroup().getStorageDescription();
+        assertArrayEquals("March sisters".getBytes(StandardCharsets.UTF_8), storage.getDictionary());
+
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType parentType = schema.tableRowType(getTable(parent));
+        RowType childType = schema.tableRowType(getTable(child));
+        StoreAdapter adapter = newStoreAdapter();
+
+        txnService().beginTransaction(session());
+
+        Object[] r1 = { 1L, "Margaret March, the eldest of the March sisters" };
+        Object[] r1a = { 101L, 1L, "Meg" };
+        Object[] r1b = { 102L, 1L, "Jo" };
+        Object[] r2 = { 2L, "Josephine March, the second of the March sisters" };
+        writeRow(parent, r1);
+        writeRow(child, r1a);
+        writeRow(child, r1b);
+        writeRow(parent, r2);
+
+        Row[] expected = {
+            new TestRow(parentType, r1),
+            new TestRow(childType, r1a),
+            new TestRow(childType, r1b),
+            new TestRow(parentType, r2)
+        };
+        compareRows(expected, adapter.newGroupCursor(parentType.table().getGroup()));
+
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void groupWithoutDictionary() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, s VARCHAR(128)) STORAGE_FORMAT compressed");
+        int t1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t1Type = schema.tableRowType(getTable(t1));
+        StoreAdapter adapter = newStoreAdapter();
+
+        txnService().beginTransaction(session());
+
+        Object[] r1 = { 1L, "Fred" };
+        Object[] r2 = { 2L, "Barney Barney Barney Barney Barney Barney" };
+        writeRow(t1, r1);
+        writeRow(t1, r2);
+
+        Row[] expected = {
+            new TestRow(t1Type, r1),
+            new TestRow(t1Type, r2)
+        };
+        compareRows(expected, adapter.newGroupCursor(t1Type.table().getGroup()));
+
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void storedWithDictionary() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, s VARCHAR(128)) STORAGE_FORMAT compressed(dictionary = 'March sisters')");
+        int t1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        Group group = getTable(t1).getGroup();
+        CompressedStorageDescription storage = (CompressedStorageDescription)group.getStorageDescription();
+
+        txnService().beginTransaction(session());
+        writeRow(t1, 1L, "Amy March, the youngest of the March sisters, and Beth March");
+        FDBStoreData storeData = fdbStore().createStoreData(session(), storage);
+        fdbStore().groupIterator(session(), storeData, FDBScanTransactionOptions.NORMAL);
+        assertTrue(storeData.next());
+        // Left as stored by the iterator.
+        byte[] stored = storeData.rawValue;
+        assertFalse(storeData.next());
+        txnService().commitTransaction(session());
+
+        assertEquals(ValueCompressor.DEFLATED, stored[0]);
+        byte[] value = ValueCompressor.decompress(stored, storage.getDictionary());
+        assertTrue(stored.length + " < " + value.length, stored.length < value.length);
+        // Back references into the dictionary make no sense without it.
+        try {
+            assertFalse(Arrays.equals(value, ValueCompressor.decompress(stored, null)));
+        }
+        catch (AkibanInternalException ex) {
+            // Just as good.
+        }
+    }
+
+    @Test
+    public void inflatedOnlyWhenRead() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, s VARCHAR(128)) STORAGE_FORMAT compressed");
+        int t1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t1Type = schema.tableRowType(getTable(t1));
+        StoreAdapter adapter = newStoreAdapter();
+
+        txnService().beginTransaction(session());
+        for (long i = 1; i <= 10; i++) {
+            writeRow(t1, i, "Wilma Wilma Wilma Wilma Wilma " + i);
+        }
+        Tap.setEnabled(INFLATED_TAP, true);
+        Tap.reset(INFLATED_TAP);
+        try {
+            GroupCursor cursor = adapter.newGroupCursor(t1Type.table().getGroup());
+            cursor.open();
+            int nrows = 0;
+            Row row;
+            while ((row = cursor.next()) != null) {
+                row.hKey();
+                nrows++;
+            }
+            cursor.close();
+            assertEquals(10, nrows);
+            assertEquals(0, inflatedCount());
+
+            cursor = adapter.newGroupCursor(t1Type.table().getGroup());
+            cursor.open();
+            while ((row = cursor.next()) != null) {
+                assertEquals("Wilma Wilma Wilma Wilma Wilma " + row.value(0).getInt32(),
+                             row.value(1).getString());
+            }
+            cursor.close();
+            assertEquals(10, inflatedCount());
+        }
+        finally {
+            Tap.setEnabled(INFLATED_TAP, false);
+            Tap.reset(INFLATED_TAP);
+        }
+        txnService().commitTransaction(session());
+    }
+
+    private static long inflatedCount() {
+        for (TapReport report : Tap.getReport(INFLATED_TAP)) {
+            if (report.getName().equals(INFLATED_TAP))
+                return report.getInCount();
+        }
+        return 0;
+    }
+}
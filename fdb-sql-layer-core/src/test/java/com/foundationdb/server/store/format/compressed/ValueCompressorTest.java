@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.compressed;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValueCompressorTest
+{
+    static final String TEXT =
+        "The quick brown fox jumps over the lazy dog. " +
+        "The quick brown fox jumps over the lazy dog again. " +
+        "And then the quick brown fox went home.";
+
+    static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void textShrinks() {
+        byte[] value = bytes(TEXT + TEXT + TEXT);
+        byte[] stored = ValueCompressor.compress(value, null);
+        assertEquals(ValueCompressor.DEFLATED, stored[0]);
+        assertTrue("compressed to " + stored.length, stored.length < value.length / 2);
+        assertArrayEquals(value, ValueCompressor.decompress(stored, null));
+    }
+
+    @Test
+    public void randomStored() {
+        byte[] value = new byte[200];
+        new Random(1).nextBytes(value);
+        byte[] stored = ValueCompressor.compress(value, null);
+        assertEquals(ValueCompressor.STORED, stored[0]);
+        assertEquals(value.length + 1, stored.length);
+        assertArrayEquals(value, ValueCompressor.decompress(stored, null));
+    }
+
+    @Test
+    public void smallAndEmpty() {
+        for (String str : new String[] { "", "a", "abc" }) {
+            byte[] value = bytes(str);
+            assertArrayEquals(str, value,
+                              ValueCompressor.decompress(ValueCompressor.compress(value, null), null));
+        }
+        assertNull(ValueCompressor.compress(null, null));
+        assertNull(ValueCompressor.decompress(null, null));
+    }
+
+    @Test
+    public void dictionaryHelps() {
+        byte[] dictionary = bytes(TEXT);
+        byte[] value = bytes("the lazy dog and the quick brown fox");
+        byte[] plain = ValueCompressor.compress(value, null);
+        byte[] primed = ValueCompressor.compress(value, dictionary);
+        assertTrue(primed.length + " < " + plain.length, primed.length < plain.length);
+        assertArrayEquals(value, ValueCompressor.decompress(primed, dictionary));
+    }
+
+    @Test
+    public void longLength() {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            str.append(TEXT);
+        }
+        byte[] value = bytes(str.toString());
+        assertArrayEquals(value,
+                          ValueCompressor.decompress(ValueCompressor.compress(value, null), null));
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.tuple;
+
+import com.foundationdb.ais.model.Index;
+import com.foundationdb.ais.model.StorageDescription;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.ais.util.TableChangeValidator.ChangeLevel;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.store.format.FDBStorageDescription;
+import com.foundationdb.server.store.format.protobuf.FDBProtobufStorageDescription;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.server.test.it.qp.TestRow;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Groups and indexes with wrapped Persistit keys get tuple keys when ALTER rebuilds them. */
+public class TupleKeysUpgradeIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>();
+        props.putAll(super.startupConfigProperties());
+        props.put("fdbsql.fdb.upgrade_tuple_keys", "true");
+        return props;
+    }
+
+    @Test
+    public void wrappedKeysUpgraded() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, n INT, s VARCHAR(32)) STORAGE_FORMAT rowdata;" +
+          "CREATE INDEX i1 ON t1(n) STORAGE_FORMAT rowdata;");
+        Table table = getTable(SCHEMA, "t1");
+        assertEquals("group before", FDBStorageDescription.class,
+                     table.getGroup().getStorageDescription().getClass());
+        int t1 = table.getTableId();
+        writeRow(t1, 1L, 10L, "Fred");
+        writeRow(t1, 2L, 20L, "Barney");
+
+        runAlter(ChangeLevel.TABLE, SCHEMA, "ALTER TABLE t1 ALTER COLUMN n SET DATA TYPE BIGINT");
+
+        table = getTable(SCHEMA, "t1");
+        assertTupleKeys("group", table.getGroup().getStorageDescription());
+        Index index = table.getIndex("i1");
+        assertTupleKeys("index", index.getStorageDescription());
+
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t1Type = schema.tableRowType(table);
+        StoreAdapter adapter = newStoreAdapter();
+        txnService().beginTransaction(session());
+        Row[] expected = {
+            new TestRow(t1Type, new Object[] { 1L, 10L, "Fred" }),
+            new TestRow(t1Type, new Object[] { 2L, 20L, "Barney" })
+        };
+        compareRows(expected, adapter.newGroupCursor(table.getGroup()));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void otherFormatsKept() {
+        createFromDDL(SCHEMA,
+          "CREATE TABLE t1(id INT PRIMARY KEY NOT NULL, n INT) STORAGE_FORMAT protobuf");
+        int t1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        writeRow(t1, 1L, 10L);
+
+        runAlter(ChangeLevel.TABLE, SCHEMA, "ALTER TABLE t1 ALTER COLUMN n SET DATA TYPE BIGINT");
+
+        assertEquals("group after", FDBProtobufStorageDescription.class,
+                     getTable(SCHEMA, "t1").getGroup().getStorageDescription().getClass());
+    }
+
+    private static void assertTupleKeys(String what, StorageDescription storageDescription) {
+        assertTrue(what + " is tuple", storageDescription instanceof TupleStorageDescription);
+        assertEquals(what + " usage", TupleUsage.KEY_ONLY,
+                     ((TupleStorageDescription)storageDescription).getUsage());
+    }
+}
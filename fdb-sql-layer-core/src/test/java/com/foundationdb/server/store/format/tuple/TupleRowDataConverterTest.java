@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.tuple;
+
+import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.qp.row.LazyDecodingRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.server.rowdata.SchemaFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TupleRowDataConverterTest {
+    private static final String SCHEMA = "test";
+
+    private RowType rowType;
+
+    @Before
+    public void createRowType() {
+        AkibanInformationSchema ais = new SchemaFactory(SCHEMA).aisWithRowDefs(
+          "CREATE TABLE t(id INT PRIMARY KEY NOT NULL, s VARCHAR(16), d DOUBLE, n INT)");
+        rowType = new Schema(ais).tableRowType(ais.getTable(new TableName(SCHEMA, "t")));
+    }
+
+    protected byte[] pack(Object... values) {
+        return TupleRowDataConverter.tupleFromRow(new ValuesHolderRow(rowType, values)).pack();
+    }
+
+    @Test
+    public void lazyMatchesEager() {
+        byte[] bytes = pack(1, "Fred", 3.14, null);
+        Row lazy = TupleRowDataConverter.tupleBytesToRow(bytes, rowType, rowType.nFields());
+        Row eager = new ValuesHolderRow(rowType, 1, "Fred", 3.14, null);
+        assertEquals(0, eager.compareTo(lazy, 0, 0, rowType.nFields()));
+    }
+
+    @Test
+    public void onlyNeededFieldsDecoded() {
+        byte[] bytes = pack(2, "Barney", 2.72, 17);
+        LazyDecodingRow lazy = (LazyDecodingRow)TupleRowDataConverter.tupleBytesToRow(bytes, rowType, 2);
+        assertEquals("Barney", lazy.value(1).getString());
+        assertTrue(lazy.isDecoded(1));
+        assertFalse(lazy.isDecoded(0));
+        assertFalse(lazy.isDecoded(3));
+        // Beyond the needed prefix still works.
+        assertEquals(17, lazy.value(3).getInt32());
+        assertEquals(2, lazy.value(0).getInt32());
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.TAggregator;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.aggr.MCount;
+import com.foundationdb.server.types.mcompat.aggr.MMinMaxAggregation;
+import com.foundationdb.server.types.mcompat.aggr.MSum;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+
+public class Aggregate_HashedIT extends SpillingOperatorITBase
+{
+    public Aggregate_HashedIT(boolean spilling) {
+        super(spilling);
+    }
+
+    @Override
+    protected String memoryProperty() {
+        return "fdbsql.aggregate.memory";
+    }
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        valuesRowType = schema.newValuesType(MString.VARCHAR.instance(true), MNumeric.BIGINT.instance(false));
+        Row[] dbRows = new Row[]{
+            row(customer, 1L, "northbridge"),
+            row(customer, 2L, "foundation"),
+            row(customer, 4L, "highland"),
+            row(customer, 5L, "matrix"),
+            row(order, 11L, 1L, "ori"),
+            row(order, 12L, 1L, "david"),
+            row(order, 21L, 2L, "david"),
+            row(order, 22L, 2L, "jack"),
+            row(order, 31L, 3L, "david"),
+            row(order, 51L, 5L, "yuval"),
+            row(item, 111L, 11L),
+            row(item, 112L, 11L),
+            row(item, 121L, 12L),
+            row(item, 122L, 12L),
+            row(item, 211L, 21L),
+            row(item, 212L, 21L),
+            row(item, 221L, 22L),
+            row(item, 222L, 22L),
+        };
+        use(dbRows);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInputsIndexTooLarge()
+    {
+        Operator project = ordersBy(2);
+        aggregate_Hashed(project, project.rowType(), 2, COUNT, COUNT_TYPE, OPTIONS);
+    }
+
+    @Test
+    public void testCountBySalesman()
+    {
+        Operator plan = countOrdersBy(2);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, "david", 3L),
+            row(rowType, "jack", 1L),
+            row(rowType, "ori", 1L),
+            row(rowType, "yuval", 1L),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCountByCid()
+    {
+        Operator plan = countOrdersBy(1);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, 1L, 2L),
+            row(rowType, 2L, 2L),
+            row(rowType, 3L, 1L),
+            row(rowType, 5L, 1L),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testSumMinMax()
+    {
+        Operator plan = aggregate_Hashed(values(), valuesRowType, 1, SUM_MIN_MAX, SUM_MIN_MAX_TYPES, SUM_MIN_MAX_OPTIONS);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, null, 10L, 4L, 6L),
+            row(rowType, "a", 7L, 1L, 3L),
+            row(rowType, "b", 7L, 2L, 5L),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCountNullGroupKeys()
+    {
+        Operator plan = aggregate_Hashed(values(), valuesRowType, 1, COUNT, COUNT_TYPE, OPTIONS);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, null, 2L),
+            row(rowType, "a", 3L),
+            row(rowType, "b", 2L),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCountDistinct()
+    {
+        // COUNT(DISTINCT) is planned as a DISTINCT of the GROUP BY
+        // columns and the argument ahead of the aggregate.
+        Operator plan =
+            aggregate_Hashed(
+                distinct_Hashed(values(), valuesRowType),
+                valuesRowType, 1, COUNT, COUNT_TYPE, OPTIONS);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, null, 2L),
+            row(rowType, "a", 2L),
+            row(rowType, "b", 2L),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testManyGroups()
+    {
+        RowType inputRowType = schema.newValuesType(MNumeric.BIGINT.instance(false), MNumeric.BIGINT.instance(false));
+        List<Row> input = new ArrayList<>();
+        for (long i = 0; i < MANY_ROWS; i++) {
+            input.add(row(inputRowType, i % MANY_GROUPS, i));
+        }
+        Operator plan =
+            aggregate_Hashed(
+                rowsToValueScan(input.toArray(new Row[input.size()])),
+                inputRowType, 1, COUNT, COUNT_TYPE, OPTIONS);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[MANY_GROUPS];
+        for (int i = 0; i < MANY_GROUPS; i++) {
+            expected[i] = row(rowType, (long)i, (long)(MANY_ROWS / MANY_GROUPS));
+        }
+        compareRowsSpilling(expected, sorted(plan), TAP_SPILL);
+    }
+
+    @Test
+    public void testEmptyWithGroupBy()
+    {
+        Operator project =
+            project_DefaultTest(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(addressRowType)),
+                addressRowType,
+                Arrays.asList(field(addressRowType, 1), field(addressRowType, 0)));
+        Operator plan = aggregate_Hashed(project, project.rowType(), 1, COUNT, COUNT_TYPE, OPTIONS);
+        compareRows(new Row[0], cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testEmptyWithoutGroupBy()
+    {
+        Operator project =
+            project_DefaultTest(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(addressRowType)),
+                addressRowType,
+                Arrays.asList(field(addressRowType, 0)));
+        Operator plan = aggregate_Hashed(project, project.rowType(), 0, COUNT, COUNT_TYPE, OPTIONS);
+        Row[] expected = new Row[]{
+            row(plan.rowType(), 0L),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCursor()
+    {
+        Operator plan = sorted(countOrdersBy(2));
+        final RowType rowType = plan.rowType();
+        CursorLifecycleTestCase testCase = new CursorLifecycleTestCase()
+        {
+            @Override
+            public Row[] firstExpectedRows()
+            {
+                return new Row[] {
+                    row(rowType, "david", 3L),
+                    row(rowType, "jack", 1L),
+                    row(rowType, "ori", 1L),
+                    row(rowType, "yuval", 1L),
+                };
+            }
+        };
+        testCursorLifecycle(plan, testCase);
+    }
+
+    /** A GROUP BY value, including <code>NULL</code>, and a number to aggregate. */
+    private Operator values()
+    {
+        return rowsToValueScan(
+            row(valuesRowType, "a", 1L),
+            row(valuesRowType, "b", 2L),
+            row(valuesRowType, "a", 3L),
+            row(valuesRowType, null, 4L),
+            row(valuesRowType, "b", 5L),
+            row(valuesRowType, null, 6L),
+            row(valuesRowType, "a", 3L));
+    }
+
+    private Operator ordersBy(int field)
+    {
+        return project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(orderRowType)),
+            orderRowType,
+            Arrays.asList(field(orderRowType, field), field(orderRowType, 0)));
+    }
+
+    private Operator countOrdersBy(int field)
+    {
+        Operator project = ordersBy(field);
+        return aggregate_Hashed(project, project.rowType(), 1, COUNT, COUNT_TYPE, OPTIONS);
+    }
+
+    private Operator sorted(Operator plan)
+    {
+        Ordering ordering = API.ordering();
+        ordering.append(field(plan.rowType(), 0), true);
+        return sort_General(plan, plan.rowType(), ordering, SortOption.PRESERVE_DUPLICATES);
+    }
+
+    private static final List<TAggregator> COUNT = Arrays.asList(MCount.INSTANCES[3]);
+    private static final List<TInstance> COUNT_TYPE = Arrays.asList(MNumeric.BIGINT.instance(false));
+    private static final List<Object> OPTIONS = Arrays.asList((Object)null);
+    private static final List<TAggregator> SUM_MIN_MAX = Arrays.asList(MSum.INSTANCES[2], MMinMaxAggregation.MIN, MMinMaxAggregation.MAX);
+    private static final List<TInstance> SUM_MIN_MAX_TYPES = Arrays.asList(MNumeric.BIGINT.instance(true), MNumeric.BIGINT.instance(true), MNumeric.BIGINT.instance(true));
+    private static final List<Object> SUM_MIN_MAX_OPTIONS = Arrays.asList(null, null, null);
+    private static final String TAP_SPILL = "operator: Aggregate_Hashed spill";
+    private static final int MANY_ROWS = 400;
+    private static final int MANY_GROUPS = 100;
+
+    private RowType valuesRowType;
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+
+public class Except_HashedIT extends SpillingOperatorITBase
+{
+    public Except_HashedIT(boolean spilling) {
+        super(spilling);
+    }
+
+    @Override
+    protected String memoryProperty() {
+        return "fdbsql.distinct.memory";
+    }
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        numberRowType = schema.newValuesType(MNumeric.BIGINT.instance(false));
+        Row[] dbRows = new Row[]{
+            row(customer, 1L, "northbridge"),
+            row(customer, 2L, "foundation"),
+            row(customer, 4L, "highland"),
+            row(customer, 5L, "matrix"),
+            row(order, 11L, 1L, "ori"),
+            row(order, 12L, 1L, "david"),
+            row(order, 21L, 2L, "david"),
+            row(order, 22L, 2L, "jack"),
+            row(order, 31L, 3L, "david"),
+            row(order, 51L, 5L, "yuval"),
+        };
+        use(dbRows);
+    }
+
+    @Test
+    public void testSomeMatch()
+    {
+        Operator plan = except(orderCids(), customerCids());
+        compareRows(cids(plan.rowType(), 1L, 2L, 3L), cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testOtherWay()
+    {
+        Operator plan = except(customerCids(), orderCids());
+        compareRows(cids(plan.rowType(), 4L), cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testAllMatch()
+    {
+        Operator plan = except(orderCids(), orderCids());
+        compareRows(new Row[0], cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testDistinct()
+    {
+        Operator left = orderCids();
+        Operator plan = except(distinct_Hashed(left, left.rowType()), customerCids());
+        compareRows(cids(plan.rowType(), 3L), cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testEmptyRight()
+    {
+        Operator plan = except(orderCids(), addressCids());
+        compareRows(cids(plan.rowType(), 1L, 1L, 2L, 2L, 3L, 5L), cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testManyRows()
+    {
+        Operator plan = except(numbers(200, 1, 200), numbers(100, 2, 200));
+        compareRowsSpilling(cids(plan.rowType(), range(1, 200, 2)), sorted(plan), TAP_SPILL);
+    }
+
+    @Test
+    public void testCursor()
+    {
+        Operator plan = sorted(except(orderCids(), customerCids()));
+        final RowType rowType = plan.rowType();
+        CursorLifecycleTestCase testCase = new CursorLifecycleTestCase()
+        {
+            @Override
+            public Row[] firstExpectedRows()
+            {
+                return cids(rowType, 1L, 2L, 3L);
+            }
+        };
+        testCursorLifecycle(plan, testCase);
+    }
+
+    private Operator except(Operator left, Operator right)
+    {
+        return except_Hashed(left, right, left.rowType(), right.rowType());
+    }
+
+    private Operator project(RowType rowType, int field)
+    {
+        return project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(rowType)),
+            rowType,
+            Arrays.asList(field(rowType, field)));
+    }
+
+    private Operator orderCids()
+    {
+        return project(orderRowType, 1);
+    }
+
+    private Operator customerCids()
+    {
+        return project(customerRowType, 0);
+    }
+
+    private Operator addressCids()
+    {
+        return project(addressRowType, 1);
+    }
+
+    /** <code>count</code> multiples of <code>step</code>, modulo <code>modulus</code>. */
+    private Operator numbers(int count, int step, int modulus)
+    {
+        Row[] rows = new Row[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = row(numberRowType, (long)((i * step) % modulus));
+        }
+        return rowsToValueScan(rows);
+    }
+
+    private Operator sorted(Operator plan)
+    {
+        Ordering ordering = API.ordering();
+        ordering.append(field(plan.rowType(), 0), true);
+        return sort_General(plan, plan.rowType(), ordering, SortOption.PRESERVE_DUPLICATES);
+    }
+
+    private Row[] cids(RowType rowType, long... cids)
+    {
+        Row[] rows = new Row[cids.length];
+        for (int i = 0; i < cids.length; i++) {
+            rows[i] = row(rowType, cids[i]);
+        }
+        return rows;
+    }
+
+    private long[] range(long start, long end, long step)
+    {
+        long[] values = new long[(int)((end - start + step - 1) / step)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = start + i * step;
+        }
+        return values;
+    }
+
+    private static final String TAP_SPILL = "operator: Except_Hashed spill";
+
+    private RowType numberRowType;
+}
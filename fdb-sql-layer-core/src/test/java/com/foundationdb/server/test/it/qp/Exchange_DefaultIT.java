@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.expression.IndexBound;
+import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.expression.RowBasedUnboundExpressions;
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.ExpressionGenerator;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.api.dml.SetColumnSelector;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+import static com.foundationdb.server.test.ExpressionGenerators.literal;
+import static com.foundationdb.server.test.ExpressionGenerators.variable;
+
+public class Exchange_DefaultIT extends OperatorITBase
+{
+    private static final int PARTITION_BINDING_POSITION = 100;
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        Row[] dbRows = new Row[]{
+            row(customer, 0L, "northbridge"),
+            row(customer, 1L, "foundation"),
+            row(customer, 2L, "highland"),
+            row(order, 1L, 0L, "ori"),
+            row(order, 2L, 1L, "david"),
+            row(order, 3L, 2L, "david"),
+            row(order, 4L, 0L, "jack"),
+            row(order, 5L, 2L, "yuval"),
+            row(order, 6L, 2L, "tom"),
+            row(order, 7L, 3L, "peter"),
+        };
+        use(dbRows);
+    }
+
+    // Test argument validation
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInputNull()
+    {
+        exchange_Default(null, orderRowType, 3, PARTITION_BINDING_POSITION, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoPartitions()
+    {
+        exchange_Default(ordersOfCustomer(), orderRowType, 0, PARTITION_BINDING_POSITION, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoInputs()
+    {
+        exchange_Default(Collections.<Operator>emptyList(), orderRowType, true);
+    }
+
+    // Test operator execution
+
+    @Test
+    public void testOrdered()
+    {
+        Operator plan = exchange_Default(ordersOfCustomer(), orderRowType, 3, PARTITION_BINDING_POSITION, true);
+        Row[] expected = new Row[]{
+            row(orderRowType, 1L, 0L, "ori"),
+            row(orderRowType, 4L, 0L, "jack"),
+            row(orderRowType, 2L, 1L, "david"),
+            row(orderRowType, 3L, 2L, "david"),
+            row(orderRowType, 5L, 2L, "yuval"),
+            row(orderRowType, 6L, 2L, "tom"),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testUnordered()
+    {
+        Operator plan = exchange_Default(ordersOfCustomer(), orderRowType, 4, PARTITION_BINDING_POSITION, false);
+        Row[] expected = new Row[]{
+            row(orderRowType, 1L, 0L, "ori"),
+            row(orderRowType, 2L, 1L, "david"),
+            row(orderRowType, 3L, 2L, "david"),
+            row(orderRowType, 4L, 0L, "jack"),
+            row(orderRowType, 5L, 2L, "yuval"),
+            row(orderRowType, 6L, 2L, "tom"),
+            row(orderRowType, 7L, 3L, "peter"),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testEmptyPartitions()
+    {
+        Operator plan = exchange_Default(ordersOfCustomer(), orderRowType, 8, PARTITION_BINDING_POSITION, true);
+        Row[] expected = new Row[]{
+            row(orderRowType, 1L, 0L, "ori"),
+            row(orderRowType, 4L, 0L, "jack"),
+            row(orderRowType, 2L, 1L, "david"),
+            row(orderRowType, 3L, 2L, "david"),
+            row(orderRowType, 5L, 2L, "yuval"),
+            row(orderRowType, 6L, 2L, "tom"),
+            row(orderRowType, 7L, 3L, "peter"),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testPartitionInputs()
+    {
+        List<Operator> inputs = Arrays.asList(ordersOfCustomers(0, 1),
+                                              ordersOfCustomers(1, 3),
+                                              ordersOfCustomers(3, 100));
+        Operator plan = exchange_Default(inputs, orderRowType, true);
+        Row[] expected = new Row[]{
+            row(orderRowType, 1L, 0L, "ori"),
+            row(orderRowType, 4L, 0L, "jack"),
+            row(orderRowType, 2L, 1L, "david"),
+            row(orderRowType, 3L, 2L, "david"),
+            row(orderRowType, 5L, 2L, "yuval"),
+            row(orderRowType, 6L, 2L, "tom"),
+            row(orderRowType, 7L, 3L, "peter"),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCloseEarly()
+    {
+        Operator plan =
+            limit_Default(
+                exchange_Default(ordersOfCustomer(), orderRowType, 3, PARTITION_BINDING_POSITION, true),
+                1);
+        Row[] expected = new Row[]{
+            row(orderRowType, 1L, 0L, "ori"),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCursor()
+    {
+        Operator plan = exchange_Default(ordersOfCustomer(), orderRowType, 3, PARTITION_BINDING_POSITION, true);
+        CursorLifecycleTestCase testCase = new CursorLifecycleTestCase()
+        {
+            @Override
+            public Row[] firstExpectedRows()
+            {
+                return new Row[]{
+                    row(orderRowType, 1L, 0L, "ori"),
+                    row(orderRowType, 4L, 0L, "jack"),
+                    row(orderRowType, 2L, 1L, "david"),
+                    row(orderRowType, 3L, 2L, "david"),
+                    row(orderRowType, 5L, 2L, "yuval"),
+                    row(orderRowType, 6L, 2L, "tom"),
+                };
+            }
+        };
+        testCursorLifecycle(plan, testCase);
+    }
+
+    /** The orders of the customer whose cid is the partition number. */
+    private Operator ordersOfCustomer()
+    {
+        List<ExpressionGenerator> partition =
+            Arrays.asList(variable(MNumeric.INT.instance(true), PARTITION_BINDING_POSITION));
+        IndexBound cidBound =
+            new IndexBound(
+                new RowBasedUnboundExpressions(orderCidIndexRowType, partition, true),
+                new SetColumnSelector(0));
+        IndexKeyRange cidRange = IndexKeyRange.bounded(orderCidIndexRowType, cidBound, true, cidBound, true);
+        API.Ordering ordering = API.ordering();
+        ordering.append(field(orderCidIndexRowType, 0), true);
+        return ancestorLookup_Default(
+            indexScan_Default(orderCidIndexRowType, cidRange, ordering),
+            coi,
+            orderCidIndexRowType,
+            Collections.singleton(orderRowType),
+            InputPreservationOption.DISCARD_INPUT);
+    }
+
+    /** The orders of the customers whose cid is at least <code>lo</code> and less than <code>hi</code>. */
+    private Operator ordersOfCustomers(long lo, long hi)
+    {
+        IndexKeyRange cidRange = IndexKeyRange.bounded(orderCidIndexRowType, cidBound(lo), true, cidBound(hi), false);
+        API.Ordering ordering = API.ordering();
+        ordering.append(field(orderCidIndexRowType, 0), true);
+        return ancestorLookup_Default(
+            indexScan_Default(orderCidIndexRowType, cidRange, ordering),
+            coi,
+            orderCidIndexRowType,
+            Collections.singleton(orderRowType),
+            InputPreservationOption.DISCARD_INPUT);
+    }
+
+    private IndexBound cidBound(long cid)
+    {
+        List<ExpressionGenerator> value = Arrays.asList(literal(cid, MNumeric.INT.instance(true)));
+        return new IndexBound(
+            new RowBasedUnboundExpressions(orderCidIndexRowType, value, true),
+            new SetColumnSelector(0));
+    }
+
+    private Operator sorted(Operator plan)
+    {
+        Ordering ordering = API.ordering();
+        ordering.append(field(orderRowType, 0), true);
+        return sort_General(plan, orderRowType, ordering, SortOption.PRESERVE_DUPLICATES);
+    }
+}
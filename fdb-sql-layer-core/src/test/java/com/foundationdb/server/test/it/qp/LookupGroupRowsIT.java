@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.HKey;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.TableRowType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.foundationdb.qp.operator.API.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Group row lookups for many rows at once, across more than one batch of input. */
+public class LookupGroupRowsIT extends OperatorITBase
+{
+    private static final int NORDERS = 10;
+    private static final int NITEMS = 20;
+    private static final long ORPHAN_OID = 99L;
+    // More rows than GroupLookup_Default reads in one batch.
+    private static final int MAX_INPUT_BATCH = 128;
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        List<Row> rows = new ArrayList<>();
+        for (long cid = 1; cid <= 2; cid++) {
+            rows.add(row(customer, cid, "customer " + cid));
+            for (long oid = cid * 100; oid < cid * 100 + NORDERS; oid++) {
+                rows.add(row(order, oid, cid, "salesman " + oid));
+                for (long iid = oid * 100; iid < oid * 100 + NITEMS; iid++) {
+                    rows.add(row(item, iid, oid));
+                }
+            }
+        }
+        rows.add(row(item, ORPHAN_OID * 100, ORPHAN_OID));
+        assert rows.size() > MAX_INPUT_BATCH;
+        use(rows.toArray(new Row[rows.size()]));
+    }
+
+    @Test
+    public void lookupInOrderWithMissing() {
+        List<Row> items = items();
+        List<HKey> hKeys = new ArrayList<>();
+        for (Row item : items) {
+            hKeys.add(item.ancestorHKey(orderRowType.table()));
+            hKeys.add(item.hKey());
+        }
+        List<Row> rows = adapter.lookupGroupRows(coi, hKeys);
+        assertEquals("rows", hKeys.size(), rows.size());
+        for (int i = 0; i < hKeys.size(); i++) {
+            Row row = rows.get(i);
+            if ((i % 2 == 0) && (items.get(i / 2).value(1).getInt32() == ORPHAN_OID)) {
+                assertNull("orphan's order", row);
+            }
+            else {
+                assertEquals("hKey " + i, hKeys.get(i), row.hKey());
+            }
+        }
+    }
+
+    @Test
+    public void groupLookupAcrossBatches() {
+        Operator plan =
+            groupLookup_Default(
+                itemScan(),
+                coi,
+                itemRowType,
+                Arrays.asList(customerRowType, orderRowType),
+                InputPreservationOption.KEEP_INPUT,
+                1);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(expectedAncestors(true), cursor);
+    }
+
+    @Test
+    public void branchLookupAcrossBatches() {
+        Operator plan =
+            groupLookup_Default(
+                orderScan(),
+                coi,
+                orderRowType,
+                Collections.singleton(itemRowType),
+                InputPreservationOption.KEEP_INPUT,
+                1);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(expectedBranches(), cursor);
+    }
+
+    @Test
+    public void branchLookupAcrossLookahead() {
+        Operator plan =
+            groupLookup_Default(
+                orderScan(),
+                coi,
+                orderRowType,
+                Collections.singleton(itemRowType),
+                InputPreservationOption.KEEP_INPUT,
+                8);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(expectedBranches(), cursor);
+    }
+
+    @Test
+    public void ancestorLookupAcrossLookahead() {
+        Operator plan =
+            map_NestedLoops(
+                itemScan(),
+                ancestorLookup_Nested(coi, itemRowType, Arrays.asList(customerRowType, orderRowType), 0, 16),
+                0, true, 1);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(expectedAncestors(false), cursor);
+    }
+
+    private Operator itemScan() {
+        return filter_Default(groupScan_Default(coi), Collections.singleton(itemRowType));
+    }
+
+    private Operator orderScan() {
+        return filter_Default(groupScan_Default(coi), Collections.singleton(orderRowType));
+    }
+
+    private List<Row> items() {
+        List<Row> items = new ArrayList<>();
+        Cursor cursor = cursor(itemScan(), queryContext, queryBindings);
+        cursor.openTopLevel();
+        try {
+            Row row;
+            while ((row = cursor.next()) != null) {
+                items.add(row);
+            }
+        }
+        finally {
+            cursor.closeTopLevel();
+        }
+        return items;
+    }
+
+    private Row[] expectedAncestors(boolean keepInput) {
+        List<Row> expected = new ArrayList<>();
+        for (Row item : items()) {
+            long iid = item.value(0).getInt32();
+            long oid = item.value(1).getInt32();
+            if (oid != ORPHAN_OID) {
+                long cid = oid / 100;
+                expected.add(row(customerRowType, cid, "customer " + cid));
+                expected.add(row(orderRowType, oid, cid, "salesman " + oid));
+            }
+            if (keepInput) {
+                expected.add(row(itemRowType, iid, oid));
+            }
+        }
+        return expected.toArray(new Row[expected.size()]);
+    }
+
+    private Row[] expectedBranches() {
+        List<Row> expected = new ArrayList<>();
+        for (long cid = 1; cid <= 2; cid++) {
+            for (long oid = cid * 100; oid < cid * 100 + NORDERS; oid++) {
+                expected.add(row(orderRowType, oid, cid, "salesman " + oid));
+                for (long iid = oid * 100; iid < oid * 100 + NITEMS; iid++) {
+                    expected.add(row(itemRowType, iid, oid));
+                }
+            }
+        }
+        return expected.toArray(new Row[expected.size()]);
+    }
+}
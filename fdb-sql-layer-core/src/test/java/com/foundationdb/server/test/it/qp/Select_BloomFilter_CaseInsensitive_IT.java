@@ -135,6 +135,13 @@ public class Select_BloomFilter_CaseInsensitive_IT extends OperatorITBase
             source.attach(key, 0, MString.VARCHAR.instance(true));
             hash_ab = ValueSources.hash(source, binaryCollator);
             assertTrue(hash_AB != hash_ab);
+            binaryCollator.append(key.clear(), "AB");
+            source.attach(key, 0, MString.VARCHAR.instance(true));
+            hash_AB = ValueSources.hash64(source, binaryCollator);
+            binaryCollator.append(key.clear(), "ab");
+            source.attach(key, 0, MString.VARCHAR.instance(true));
+            hash_ab = ValueSources.hash64(source, binaryCollator);
+            assertTrue(hash_AB != hash_ab);
         }
         {
             caseInsensitiveCollator.append(key.clear(), "AB");
@@ -144,6 +151,13 @@ public class Select_BloomFilter_CaseInsensitive_IT extends OperatorITBase
             source.attach(key, 0, MString.VARCHAR.instance(true));
             hash_ab = ValueSources.hash(source, caseInsensitiveCollator);
             assertTrue(hash_AB == hash_ab);
+            caseInsensitiveCollator.append(key.clear(), "AB");
+            source.attach(key, 0, MString.VARCHAR.instance(true));
+            hash_AB = ValueSources.hash64(source, caseInsensitiveCollator);
+            caseInsensitiveCollator.append(key.clear(), "ab");
+            source.attach(key, 0, MString.VARCHAR.instance(true));
+            hash_ab = ValueSources.hash64(source, caseInsensitiveCollator);
+            assertTrue(hash_AB == hash_ab);
         }
     }
 
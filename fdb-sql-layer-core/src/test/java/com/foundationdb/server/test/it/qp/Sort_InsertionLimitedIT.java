@@ -17,6 +17,7 @@
 
 package com.foundationdb.server.test.it.qp;
 
+import com.foundationdb.qp.expression.IndexKeyRange;
 import com.foundationdb.qp.operator.API;
 import com.foundationdb.qp.operator.Cursor;
 import com.foundationdb.qp.operator.ExpressionGenerator;
@@ -25,6 +26,8 @@ import com.foundationdb.qp.row.BindableRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.util.tap.TapReport;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -34,6 +37,7 @@ import java.util.List;
 
 import static com.foundationdb.server.test.ExpressionGenerators.*;
 import static com.foundationdb.qp.operator.API.*;
+import static org.junit.Assert.assertEquals;
 
 public class Sort_InsertionLimitedIT extends OperatorITBase
 {
@@ -568,6 +572,67 @@ public class Sort_InsertionLimitedIT extends OperatorITBase
         compareRows(expected, cursor(plan, queryContext, queryBindings));
     }
 
+    @Test
+    public void testPresortedIndexScan()
+    {
+        // Ordered by salesman, but not by oid within that.
+        Operator plan =
+            sort_InsertionLimited(
+                indexScan_Default(orderSalesmanIndexRowType, false, IndexKeyRange.unbounded(orderSalesmanIndexRowType)),
+                orderSalesmanIndexRowType,
+                ordering(field(orderSalesmanIndexRowType, 0), true, field(orderSalesmanIndexRowType, 2), false),
+                SortOption.PRESERVE_DUPLICATES,
+                4,
+                1);
+        Row[] expected = new Row[]{
+            row(orderSalesmanIndexRowType, "david", 3L, 31L),
+            row(orderSalesmanIndexRowType, "david", 2L, 21L),
+            row(orderSalesmanIndexRowType, "david", 1L, 12L),
+            row(orderSalesmanIndexRowType, "jack", 2L, 22L),
+        };
+        startCountingStoppedEarly();
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+        // Stops on reaching ori, without reading yuval.
+        assertEquals(1, stoppedEarlyCount());
+    }
+
+    @Test
+    public void testPresortedSuppressDuplicates()
+    {
+        Operator plan =
+            sort_InsertionLimited(
+                indexScan_Default(orderSalesmanIndexRowType, false, IndexKeyRange.unbounded(orderSalesmanIndexRowType)),
+                orderSalesmanIndexRowType,
+                ordering(field(orderSalesmanIndexRowType, 0), true),
+                SortOption.SUPPRESS_DUPLICATES,
+                2,
+                1);
+        Row[] expected = new Row[]{
+            row(orderSalesmanIndexRowType, "david", 1L, 12L),
+            row(orderSalesmanIndexRowType, "jack", 2L, 22L),
+        };
+        startCountingStoppedEarly();
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+        assertEquals(1, stoppedEarlyCount());
+    }
+
+    private static final String STOPPED_EARLY_TAP = "operator: Sort_InsertionLimited stopped early";
+
+    private void startCountingStoppedEarly()
+    {
+        Tap.setEnabled(STOPPED_EARLY_TAP, true);
+        Tap.reset(STOPPED_EARLY_TAP);
+    }
+
+    private long stoppedEarlyCount()
+    {
+        long count = 0;
+        for (TapReport report : Tap.getReport(STOPPED_EARLY_TAP)) {
+            count += report.getInCount();
+        }
+        return count;
+    }
+
     @Test
     public void testCursor()
     {
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.junit.NamedParameterizedRunner;
+import com.foundationdb.junit.NamedParameterizedRunner.TestParameters;
+import com.foundationdb.junit.Parameterization;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.util.tap.TapReport;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.foundationdb.qp.operator.API.cursor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of an operator with a memory budget, run once with the
+ * default budget and once with one too small to hold more than a row
+ * or two, so that the same queries go through temporary files. */
+@RunWith(NamedParameterizedRunner.class)
+public abstract class SpillingOperatorITBase extends OperatorITBase
+{
+    @TestParameters
+    public static Collection<Parameterization> budgets() {
+        return Arrays.asList(Parameterization.create("in_memory", false),
+                             Parameterization.create("spilling", true));
+    }
+
+    protected SpillingOperatorITBase(boolean spilling) {
+        this.spilling = spilling;
+    }
+
+    /** The configuration property with the operator's memory budget. */
+    protected abstract String memoryProperty();
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String, String> config = new HashMap<>(super.startupConfigProperties());
+        if (spilling) {
+            config.put(memoryProperty(), SPILLING_MEMORY);
+        }
+        return config;
+    }
+
+    /** Compare the rows from <code>plan</code> and check that the
+     * tap named <code>tapName</code> was hit if and only if the
+     * budget is the small one. */
+    protected void compareRowsSpilling(Row[] expected, Operator plan, String tapName) {
+        Tap.setEnabled(tapName, true);
+        Tap.reset(tapName);
+        try {
+            compareRows(expected, cursor(plan, queryContext, queryBindings));
+            long count = 0;
+            for (TapReport report : Tap.getReport(tapName)) {
+                if (report.getName().equals(tapName))
+                    count += report.getInCount();
+            }
+            if (spilling) {
+                assertTrue(tapName, count > 0);
+            }
+            else {
+                assertEquals(tapName, 0, count);
+            }
+        }
+        finally {
+            Tap.setEnabled(tapName, false);
+            Tap.reset(tapName);
+        }
+    }
+
+    private static final String SPILLING_MEMORY = "200";
+
+    protected final boolean spilling;
+}
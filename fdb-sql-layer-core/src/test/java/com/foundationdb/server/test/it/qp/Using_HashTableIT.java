@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.IndexScanSelector;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.IndexRowType;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.texpressions.TPreparedBoundField;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.util.tap.TapReport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+import static org.junit.Assert.assertEquals;
+
+public class Using_HashTableIT extends SpillingOperatorITBase
+{
+    private static final int ROW_BINDING_POSITION = 100;
+    private static final int TABLE_BINDING_POSITION = 200;
+    private static final int RUNTIME_FILTER_BINDING_POSITION = 300;
+    private static final String RUNTIME_FILTER_TAPS = "operator: IndexScan_Default runtime filter .*";
+    private static final String TAP_PASS = "operator: Using_HashTable pass";
+    private static final int MANY_ROWS = 200;
+
+    private RowType pairRowType;
+
+    public Using_HashTableIT(boolean spilling) {
+        super(spilling);
+    }
+
+    @Override
+    protected String memoryProperty() {
+        return "fdbsql.hash_join.memory";
+    }
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        pairRowType = schema.newValuesType(MNumeric.BIGINT.instance(false), MNumeric.BIGINT.instance(false));
+        Row[] dbRows = new Row[]{
+            row(customer, 1L, "northbridge"),
+            row(customer, 2L, "foundation"),
+            row(customer, 4L, "highland"),
+            row(customer, 5L, "matrix"),
+            row(order, 11L, 1L, "ori"),
+            row(order, 12L, 1L, "david"),
+            row(order, 21L, 2L, "david"),
+            row(order, 22L, 2L, "jack"),
+            row(order, 31L, 3L, "david"),
+            row(order, 51L, 5L, "yuval"),
+        };
+        use(dbRows);
+    }
+
+    @Test
+    public void testOrderCustomers()
+    {
+        Operator plan = join(orderRowType, 1, customerRowType, 0);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, 11L, 1L, "northbridge"),
+            row(rowType, 12L, 1L, "northbridge"),
+            row(rowType, 21L, 2L, "foundation"),
+            row(rowType, 22L, 2L, "foundation"),
+            row(rowType, 51L, 5L, "matrix"),
+        };
+        compareRows(expected, cursor(sorted(plan), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCustomerOrders()
+    {
+        Operator plan = join(customerRowType, 0, orderRowType, 1);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, 1L, 1L, "david"),
+            row(rowType, 1L, 1L, "ori"),
+            row(rowType, 2L, 2L, "david"),
+            row(rowType, 2L, 2L, "jack"),
+            row(rowType, 5L, 5L, "yuval"),
+        };
+        compareRows(expected, cursor(sorted(plan, 0, 2), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Operator plan = join(orderRowType, 1, addressRowType, 1);
+        compareRows(new Row[0], cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testManyRows()
+    {
+        Row[] outer = new Row[MANY_ROWS];
+        Row[] inner = new Row[MANY_ROWS];
+        for (int i = 0; i < MANY_ROWS; i++) {
+            outer[i] = row(pairRowType, (long)i, (long)i);
+            inner[i] = row(pairRowType, (long)i, (long)(MANY_ROWS + i));
+        }
+        Operator plan = join(rowsToValueScan(outer), pairRowType, 0, rowsToValueScan(inner), pairRowType, 0);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[MANY_ROWS];
+        for (int i = 0; i < MANY_ROWS; i++) {
+            expected[i] = row(rowType, (long)i, (long)i, (long)(MANY_ROWS + i));
+        }
+        compareRowsSpilling(expected, sorted(plan), TAP_PASS);
+    }
+
+    @Test
+    public void testCursor()
+    {
+        Operator plan = sorted(join(orderRowType, 1, customerRowType, 0));
+        final RowType rowType = plan.rowType();
+        CursorLifecycleTestCase testCase = new CursorLifecycleTestCase()
+        {
+            @Override
+            public Row[] firstExpectedRows()
+            {
+                return new Row[]{
+                    row(rowType, 11L, 1L, "northbridge"),
+                    row(rowType, 12L, 1L, "northbridge"),
+                    row(rowType, 21L, 2L, "foundation"),
+                    row(rowType, 22L, 2L, "foundation"),
+                    row(rowType, 51L, 5L, "matrix"),
+                };
+            }
+        };
+        testCursorLifecycle(plan, testCase);
+    }
+
+    @Test
+    public void testRuntimeFilter()
+    {
+        Operator plan = filteredJoin(customerRowType, 0);
+        RowType rowType = plan.rowType();
+        Row[] expected = new Row[]{
+            row(rowType, 11L, 1L, "northbridge"),
+            row(rowType, 12L, 1L, "northbridge"),
+            row(rowType, 21L, 2L, "foundation"),
+            row(rowType, 22L, 2L, "foundation"),
+            row(rowType, 51L, 5L, "matrix"),
+        };
+        Tap.setEnabled(RUNTIME_FILTER_TAPS, true);
+        Tap.reset(RUNTIME_FILTER_TAPS);
+        try {
+            compareRows(expected, cursor(plan, queryContext, queryBindings));
+            // Customer 3 is within range but not among the build keys.
+            assertEquals(1, tapCount("operator: IndexScan_Default runtime filter narrowed"));
+            assertEquals(1, tapCount("operator: IndexScan_Default runtime filter dropped"));
+        }
+        finally {
+            Tap.setEnabled(RUNTIME_FILTER_TAPS, false);
+            Tap.reset(RUNTIME_FILTER_TAPS);
+        }
+    }
+
+    @Test
+    public void testRuntimeFilterEmpty()
+    {
+        Operator plan = filteredJoin(addressRowType, 1);
+        Tap.setEnabled(RUNTIME_FILTER_TAPS, true);
+        Tap.reset(RUNTIME_FILTER_TAPS);
+        try {
+            compareRows(new Row[0], cursor(plan, queryContext, queryBindings));
+            assertEquals(1, tapCount("operator: IndexScan_Default runtime filter empty"));
+            assertEquals(0, tapCount("operator: IndexScan_Default runtime filter dropped"));
+        }
+        finally {
+            Tap.setEnabled(RUNTIME_FILTER_TAPS, false);
+            Tap.reset(RUNTIME_FILTER_TAPS);
+        }
+    }
+
+    /** Inner join each <code>outerRowType</code> row to the hashed
+     * <code>innerRowType</code> rows, giving the first outer field and
+     * the inner key and the field after it. */
+    private Operator join(RowType outerRowType, int outerField, RowType innerRowType, int innerField)
+    {
+        return join(scan(outerRowType), outerRowType, outerField, scan(innerRowType), innerRowType, innerField);
+    }
+
+    private Operator join(Operator outer, RowType outerRowType, int outerField,
+                          Operator inner, RowType innerRowType, int innerField)
+    {
+        List<TPreparedExpression> outerKey = Arrays.<TPreparedExpression>asList(
+            new TPreparedBoundField(outerRowType, ROW_BINDING_POSITION, outerField));
+        List<TPreparedExpression> innerKey = Arrays.<TPreparedExpression>asList(
+            new TPreparedField(innerRowType.typeAt(innerField), innerField));
+        List<TPreparedExpression> projections = Arrays.<TPreparedExpression>asList(
+            new TPreparedBoundField(outerRowType, ROW_BINDING_POSITION, 0),
+            new TPreparedField(innerRowType.typeAt(innerField), innerField),
+            new TPreparedField(innerRowType.typeAt(innerField + 1), innerField + 1));
+        return using_HashTable(
+            inner,
+            innerRowType,
+            innerKey,
+            TABLE_BINDING_POSITION,
+            map_NestedLoops(
+                outer,
+                project_Default(
+                    hashTableLookup_Default(innerRowType, outerKey, TABLE_BINDING_POSITION),
+                    innerRowType,
+                    projections),
+                ROW_BINDING_POSITION,
+                false,
+                1),
+            null, null, true);
+    }
+
+    /** Inner join orders, by their cid index, to the hashed
+     * <code>innerRowType</code> rows, with the index scan dropping
+     * orders by the runtime filter of the hash keys. */
+    private Operator filteredJoin(RowType innerRowType, int innerField)
+    {
+        IndexRowType indexType = orderCidIndexRowType;
+        Ordering ordering = API.ordering();
+        for (int f = 0; f < indexType.nFields(); f++) {
+            ordering.append(new TPreparedField(indexType.typeAt(f), f), true);
+        }
+        Operator indexScan = indexScan_Default(indexType,
+                                               IndexKeyRange.unbounded(indexType),
+                                               ordering,
+                                               IndexScanSelector.leftJoinAfter(indexType.index(),
+                                                                               indexType.tableType().table()),
+                                               1,
+                                               10,
+                                               RUNTIME_FILTER_BINDING_POSITION,
+                                               new int[] { 0 },
+                                               null);
+        List<TPreparedExpression> outerKey = Arrays.<TPreparedExpression>asList(
+            new TPreparedBoundField(indexType, ROW_BINDING_POSITION, 0));
+        List<TPreparedExpression> innerKey = Arrays.<TPreparedExpression>asList(
+            new TPreparedField(innerRowType.typeAt(innerField), innerField));
+        List<TPreparedExpression> projections = Arrays.<TPreparedExpression>asList(
+            new TPreparedBoundField(indexType, ROW_BINDING_POSITION, 1),
+            new TPreparedField(innerRowType.typeAt(innerField), innerField),
+            new TPreparedField(innerRowType.typeAt(innerField + 1), innerField + 1));
+        return using_HashTable(
+            scan(innerRowType),
+            innerRowType,
+            innerKey,
+            TABLE_BINDING_POSITION,
+            RUNTIME_FILTER_BINDING_POSITION,
+            map_NestedLoops(
+                indexScan,
+                project_Default(
+                    hashTableLookup_Default(innerRowType, outerKey, TABLE_BINDING_POSITION),
+                    innerRowType,
+                    projections),
+                ROW_BINDING_POSITION,
+                false,
+                1),
+            null, null, false);
+    }
+
+    private static long tapCount(String name)
+    {
+        for (TapReport report : Tap.getReport(RUNTIME_FILTER_TAPS)) {
+            if (report.getName().equals(name))
+                return report.getInCount();
+        }
+        return 0;
+    }
+
+    private Operator scan(RowType rowType)
+    {
+        return filter_Default(
+            groupScan_Default(coi),
+            Collections.singleton(rowType));
+    }
+
+    private Operator sorted(Operator plan, int... fields)
+    {
+        Ordering ordering = API.ordering();
+        if (fields.length == 0) {
+            fields = new int[] { 0 };
+        }
+        for (int field : fields) {
+            ordering.append(field(plan.rowType(), field), true);
+        }
+        return sort_General(plan, plan.rowType(), ordering, SortOption.PRESERVE_DUPLICATES);
+    }
+}
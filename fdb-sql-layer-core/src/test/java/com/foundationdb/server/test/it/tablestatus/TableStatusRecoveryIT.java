@@ -21,9 +21,12 @@ import static org.junit.Assert.assertEquals;
 
 import com.foundationdb.ais.model.aisb2.AISBBasedBuilder;
 import com.foundationdb.ais.model.aisb2.NewAISBuilder;
+import com.foundationdb.server.service.session.Session;
 import com.foundationdb.server.test.it.ITBase;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 public class TableStatusRecoveryIT extends ITBase {
@@ -42,6 +45,41 @@ public class TableStatusRecoveryIT extends ITBase {
         assertEquals(ROW_COUNT, getRowCount(tableId));
     }
 
+    @Test
+    public void concurrentInsertRowCountTest() throws Exception {
+        final int tableId = createTable("test", "A", "I INT NOT NULL, V VARCHAR(255), PRIMARY KEY(I)");
+        final int nthreads = 4;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nthreads; t++) {
+            final int start = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try(Session session = createNewSession()) {
+                        for (int i = start; i < ROW_COUNT; i += nthreads) {
+                            writeRows(session, row(tableId, i, "This is record # " + i));
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(ROW_COUNT, getRowCount(tableId));
+        assertEquals(ROW_COUNT, getApproximateRowCount(tableId));
+
+        deleteRow(tableId, 0, "This is record # 0");
+        assertEquals(ROW_COUNT - 1, getRowCount(tableId));
+
+        safeRestartTestServices();
+
+        assertEquals(ROW_COUNT - 1, getRowCount(tableId));
+    }
+
     @Test
     public void ordinalCreationTest() throws Exception {
         final int aId = createTable("test", "A", "ID INT NOT NULL, PRIMARY KEY(ID)");
@@ -67,6 +105,16 @@ public class TableStatusRecoveryIT extends ITBase {
         return getTable(tableId).getOrdinal();
     }
 
+    private long getApproximateRowCount(final int tableId) {
+        return txnService().run(session(), new Callable<Long>()
+        {
+            @Override
+            public Long call() throws Exception {
+                return getTable(tableId).tableStatus().getApproximateRowCount(session());
+            }
+        });
+    }
+
     private long  getRowCount(final int tableId) {
         return txnService().run(session(), new Callable<Long>()
         {
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.server.error.InvalidParameterValueException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public final class MatchersTest {
+    private static final char ESCAPE = '\\';
+
+    @Test
+    public void emptyPattern() {
+        check("", "", true);
+        check("", "a", false);
+    }
+
+    @Test
+    public void allWildcards() {
+        check("%", "", true);
+        check("%", "anything", true);
+        check("%%", "", true);
+        check("_", "", false);
+        check("_", "x", true);
+        check("_", "xy", false);
+        check("___", "xyz", true);
+        check("___", "xy", false);
+        check("%_%", "", false);
+        check("%_%", "x", true);
+        check("_%_", "xy", true);
+        check("_%_", "x", false);
+    }
+
+    @Test
+    public void wildBeforeLiteral() {
+        check("%_bc%", "abc", true);
+        check("%_bc%", "bc", false);
+        check("%_bc%", "xxbbc", true);
+        check("%_bc%", "bcbcbd", true);
+        check("%_bc%", "bcbdbd", false);
+    }
+
+    @Test
+    public void wildAfterLiteral() {
+        check("%ab_%", "abc", true);
+        check("%ab_%", "ab", false);
+        check("%ab_%", "aaab", false);
+        check("%ab_%", "xabab", true);
+        check("%ab_%", "abxab", true);
+    }
+
+    @Test
+    public void wildBetweenLiterals() {
+        check("%a_c%", "abc", true);
+        check("%a_c%", "ac", false);
+        check("%a_c%", "xxaacc", true);
+        check("%a_c%", "xxaabd", false);
+        check("%ab_cd%", "zzabXcdzz", true);
+        check("%ab_cd%", "zzabcdzz", false);
+        check("%ab_cd%", "ab_abxcd", true);
+        check("a_c", "abc", true);
+        check("a_c", "abcd", false);
+    }
+
+    @Test
+    public void escapedPercent() {
+        check("100\\%", "100%", true);
+        check("100\\%", "1000", false);
+        check("%\\%%", "50% off", true);
+        check("%\\%%", "50 off", false);
+        check("\\%%", "%x", true);
+        check("\\%%", "x%", false);
+    }
+
+    @Test
+    public void escapedUnderscore() {
+        check("a\\_c", "a_c", true);
+        check("a\\_c", "abc", false);
+        check("%\\_%", "snake_case", true);
+        check("%\\_%", "camelCase", false);
+        check("%x\\__%", "ax_yb", true);
+        check("%x\\__%", "axyyb", false);
+    }
+
+    @Test
+    public void escapedEscape() {
+        check("a\\\\", "a\\", true);
+        check("a\\\\%", "a\\bc", true);
+        check("%\\\\", "c:\\", true);
+        check("%\\\\", "c:/", false);
+    }
+
+    @Test(expected=InvalidParameterValueException.class)
+    public void trailingEscape() {
+        Matchers.getMatcher("ab\\", ESCAPE, false);
+    }
+
+    @Test
+    public void otherEscape() {
+        assertEquals(true, Matchers.getMatcher("%!%%", '!', false).matches("5%"));
+        assertEquals(false, Matchers.getMatcher("%!%%", '!', false).matches("5"));
+        assertEquals(true, Matchers.getMatcher("a!_b", '!', false).matches("a_b"));
+        assertEquals(false, Matchers.getMatcher("a!_b", '!', false).matches("axb"));
+    }
+
+    @Test
+    public void beyondSkipTable() {
+        // Characters above Latin-1 are searched rather than tabled.
+        check("%\u03a9\u0100%", "abc\u03a9\u0100def", true);
+        check("%\u03a9\u0100%", "abc\u0100\u03a9def", false);
+        check("%\u65e5_\u672c%", "\u65e5\u0101\u672c", true);
+        check("%\u65e5_\u672c%", "\u65e5\u672c", false);
+        check("%\u4e00\u4e8c\u4e00%", "\u4e00\u4e8c\u4e8c\u4e00\u4e8c\u4e00", true);
+        check("%\u4e00\u4e8c\u4e00%", "\u4e00\u4e8c\u4e8c\u4e00\u4e8c", false);
+        // Same low byte as a tabled character must not be confused with it.
+        check("%a\u0161%", "xxa\u0061", false);
+        check("%a\u0161%", "xxa\u0161", true);
+    }
+
+    @Test
+    public void caseInsensitive() {
+        checkIgnoreCase("%ABC%", "xxabcxx", true);
+        checkIgnoreCase("%abc%", "XXABCXX", true);
+        checkIgnoreCase("%a_C%", "zAbcz", true);
+        checkIgnoreCase("%a_C%", "zAcz", false);
+        checkIgnoreCase("\u00c4%", "\u00e4pfel", true);
+        checkIgnoreCase("%\u03a3\u03a9%", "\u03c3\u03c9", true);
+        checkIgnoreCase("%\u03a3\u03a9%", "\u03c3\u03c3", false);
+        checkIgnoreCase("ABC", "abc", true);
+        checkIgnoreCase("ABC", "abd", false);
+        check("%ABC%", "xxabcxx", false);
+        check("ABC", "abc", false);
+    }
+
+    @Test
+    public void cachedPerCase() {
+        Matcher sensitive = Matchers.getMatcher("%Ab%", ESCAPE, false);
+        Matcher insensitive = Matchers.getMatcher("%Ab%", ESCAPE, true);
+        assertNotSame(sensitive, insensitive);
+        assertSame(sensitive, Matchers.getMatcher("%Ab%", ESCAPE, false));
+        assertEquals(false, sensitive.matches("ab"));
+        assertEquals(true, insensitive.matches("ab"));
+    }
+
+    @Test
+    public void agreesWithReference() {
+        // Every pattern and string over a small alphabet, including a
+        // character that is not in the skip table.
+        String[] patternChars = { "a", "b", "\u0100", "_", "%", "\\_", "\\%" };
+        String[] textChars = { "a", "b", "\u0100", "_", "%" };
+        for (String pattern : strings(patternChars, 4)) {
+            Matcher matcher = Matchers.getMatcher(pattern, ESCAPE, false);
+            for (String str : strings(textChars, 5)) {
+                assertEquals(pattern + " LIKE " + str, reference(pattern, 0, str, 0), matcher.matches(str));
+            }
+        }
+    }
+
+    private static void check(String pattern, String str, boolean expected) {
+        assertEquals(pattern + " LIKE " + str, expected, Matchers.getMatcher(pattern, ESCAPE, false).matches(str));
+        assertEquals(pattern + " LIKE " + str + " (reference)", expected, reference(pattern, 0, str, 0));
+    }
+
+    private static void checkIgnoreCase(String pattern, String str, boolean expected) {
+        assertEquals(pattern + " ILIKE " + str, expected, Matchers.getMatcher(pattern, ESCAPE, true).matches(str));
+    }
+
+    /** All concatenations of up to {@code maxLength} of {@code parts}. */
+    private static List<String> strings(String[] parts, int maxLength) {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        int from = 0;
+        for (int len = 1; len <= maxLength; len++) {
+            int to = result.size();
+            for (int i = from; i < to; i++) {
+                for (String part : parts) {
+                    result.add(result.get(i) + part);
+                }
+            }
+            from = to;
+        }
+        return result;
+    }
+
+    /** Plain backtracking LIKE, escaping with {@link #ESCAPE}. */
+    private static boolean reference(String pattern, int p, String str, int s) {
+        if (p == pattern.length()) {
+            return s == str.length();
+        }
+        char ch = pattern.charAt(p);
+        if (ch == '%') {
+            for (int i = s; i <= str.length(); i++) {
+                if (reference(pattern, p + 1, str, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s == str.length()) {
+            return false;
+        }
+        if (ch == ESCAPE) {
+            return (pattern.charAt(p + 1) == str.charAt(s)) && reference(pattern, p + 2, str, s + 1);
+        }
+        return ((ch == '_') || (ch == str.charAt(s))) && reference(pattern, p + 1, str, s + 1);
+    }
+}
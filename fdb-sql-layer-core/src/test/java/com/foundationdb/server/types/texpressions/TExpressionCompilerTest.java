@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.ValuesRowType;
+import com.foundationdb.server.collation.AkCollatorFactory;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.mtypes.MApproximateNumber;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TExpressionCompilerTest {
+    private static final TInstance INT = MNumeric.INT.instance(true);
+    private static final TInstance BIGINT = MNumeric.BIGINT.instance(true);
+    private static final TInstance DOUBLE = MApproximateNumber.DOUBLE.instance(true);
+    private static final TInstance VARCHAR = MString.varchar();
+
+    @Test
+    public void longFields() {
+        RowType rowType = rowType(INT, INT);
+        List<Row> rows = Arrays.<Row>asList(
+            new ValuesHolderRow(rowType, 1, 2),
+            new ValuesHolderRow(rowType, 2, 2),
+            new ValuesHolderRow(rowType, 3, 2),
+            new ValuesHolderRow(rowType, -7, Integer.MAX_VALUE),
+            new ValuesHolderRow(rowType, null, 2),
+            new ValuesHolderRow(rowType, 2, null));
+        for (Comparison comparison : Comparison.values()) {
+            check(new TComparisonExpression(new TPreparedField(INT, 0), comparison, new TPreparedField(INT, 1)),
+                  rows);
+        }
+    }
+
+    @Test
+    public void longLiteral() {
+        RowType rowType = rowType(BIGINT);
+        List<Row> rows = Arrays.<Row>asList(
+            new ValuesHolderRow(rowType, 4L),
+            new ValuesHolderRow(rowType, 5L),
+            new ValuesHolderRow(rowType, Long.MIN_VALUE),
+            new ValuesHolderRow(rowType, new Object[] { null }));
+        TPreparedExpression literal = new TPreparedLiteral(BIGINT, new Value(BIGINT, 5L));
+        for (Comparison comparison : Comparison.values()) {
+            check(new TComparisonExpression(new TPreparedField(BIGINT, 0), comparison, literal), rows);
+            check(new TComparisonExpression(literal, comparison, new TPreparedField(BIGINT, 0)), rows);
+        }
+    }
+
+    @Test
+    public void doubleFields() {
+        RowType rowType = rowType(DOUBLE, DOUBLE);
+        List<Row> rows = Arrays.<Row>asList(
+            new ValuesHolderRow(rowType, 1.5, 2.5),
+            new ValuesHolderRow(rowType, -0.0, 0.0),
+            new ValuesHolderRow(rowType, Double.NaN, 1.0),
+            new ValuesHolderRow(rowType, 3.0, 3.0),
+            new ValuesHolderRow(rowType, null, 3.0));
+        for (Comparison comparison : Comparison.values()) {
+            check(new TComparisonExpression(new TPreparedField(DOUBLE, 0), comparison, new TPreparedField(DOUBLE, 1)),
+                  rows);
+        }
+    }
+
+    @Test
+    public void collatedStrings() {
+        RowType rowType = rowType(VARCHAR, VARCHAR);
+        List<Row> rows = Arrays.<Row>asList(
+            new ValuesHolderRow(rowType, "abc", "abd"),
+            new ValuesHolderRow(rowType, "abc", "abc"),
+            new ValuesHolderRow(rowType, "b", "abc"),
+            new ValuesHolderRow(rowType, "b", null));
+        for (Comparison comparison : Comparison.values()) {
+            check(new TComparisonExpression(new TPreparedField(VARCHAR, 0), comparison, new TPreparedField(VARCHAR, 1),
+                                            AkCollatorFactory.UCS_BINARY_COLLATOR),
+                  rows);
+        }
+    }
+
+    /** A compiled expression gives the same answers as an interpreted one. */
+    private static void check(TPreparedExpression expression, List<Row> rows) {
+        TEvaluatableExpression interpreted = expression.build();
+        TEvaluatableExpression compiled = TExpressionCompiler.compile(expression);
+        for (Row row : rows) {
+            interpreted.with(row);
+            interpreted.evaluate();
+            compiled.with(row);
+            compiled.evaluate();
+            ValueSource expected = interpreted.resultValue();
+            ValueSource actual = compiled.resultValue();
+            String message = expression + " on " + row;
+            assertEquals(message, expected.isNull(), actual.isNull());
+            if (!expected.isNull()) {
+                assertEquals(message, expected.getBoolean(), actual.getBoolean());
+            }
+        }
+    }
+
+    private static RowType rowType(TInstance... types) {
+        return new ValuesRowType(null, 1, types);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.ValuesRowType;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class TInExpressionTest {
+    private static final TInstance INT = MNumeric.INT.instance(true);
+    private static final TInstance VARCHAR = MString.varchar();
+
+    @Test
+    public void longList() {
+        List<TPreparedExpression> rhs = new ArrayList<>();
+        for (int i = 0; i < 2000; i += 2) {
+            rhs.add(new TPreparedLiteral(INT, new Value(INT, i)));
+        }
+        TEvaluatableExpression in = in(INT, rhs);
+        RowType rowType = new ValuesRowType(null, 1, INT);
+        for (int i = -10; i < 2010; i++) {
+            assertEquals(Boolean.toString((i >= 0) && (i < 2000) && (i % 2 == 0)),
+                         evaluate(in, new ValuesHolderRow(rowType, i)));
+        }
+        assertEquals("null", evaluate(in, new ValuesHolderRow(rowType, new Object[] { null })));
+    }
+
+    @Test
+    public void nullsOnRight() {
+        List<TPreparedExpression> rhs = new ArrayList<>();
+        for (int i = 0; i < TInExpression.HASH_SET_THRESHOLD; i++) {
+            rhs.add(new TPreparedLiteral(INT, new Value(INT, i)));
+        }
+        Value nullValue = new Value(INT);
+        nullValue.putNull();
+        rhs.add(new TPreparedLiteral(INT, nullValue));
+        TEvaluatableExpression in = in(INT, rhs);
+        RowType rowType = new ValuesRowType(null, 1, INT);
+        assertEquals("true", evaluate(in, new ValuesHolderRow(rowType, 1)));
+        assertEquals("false", evaluate(in, new ValuesHolderRow(rowType, 100)));
+    }
+
+    @Test
+    public void strings() {
+        String[] names = { "ori", "david", "jack", "tom", "peter", "yuval", "herman", "jill", "nick" };
+        assertTrue(names.length >= TInExpression.HASH_SET_THRESHOLD);
+        List<TPreparedExpression> rhs = new ArrayList<>();
+        for (String name : names) {
+            rhs.add(new TPreparedLiteral(VARCHAR, new Value(VARCHAR, name)));
+        }
+        TEvaluatableExpression in = in(VARCHAR, rhs);
+        RowType rowType = new ValuesRowType(null, 1, VARCHAR);
+        for (String name : names) {
+            assertEquals("true", evaluate(in, new ValuesHolderRow(rowType, name)));
+        }
+        assertEquals("false", evaluate(in, new ValuesHolderRow(rowType, "bob")));
+    }
+
+    private static TEvaluatableExpression in(TInstance type, List<TPreparedExpression> rhs) {
+        return TInExpression.prepare(new TPreparedField(type, 0), rhs, null).build();
+    }
+
+    private static String evaluate(TEvaluatableExpression expression, Row row) {
+        expression.with(row);
+        expression.evaluate();
+        ValueSource result = expression.resultValue();
+        return result.isNull() ? "null" : Boolean.toString(result.getBoolean());
+    }
+}
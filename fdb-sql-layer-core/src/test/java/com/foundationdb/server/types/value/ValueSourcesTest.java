@@ -17,6 +17,8 @@
 
 package com.foundationdb.server.types.value;
 
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.collation.AkCollatorFactory;
 import com.foundationdb.server.types.Attribute;
 import com.foundationdb.server.types.TClass;
 import com.foundationdb.server.types.TInstance;
@@ -31,6 +33,7 @@ import java.math.BigDecimal;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.assertThat;
 
 import static com.foundationdb.server.types.value.ValueSources.*;
@@ -74,4 +77,20 @@ public class ValueSourcesTest
         checkDecimal(2, 1, "1.0");
         checkDecimal(6, 3, "123.456");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void hash64KeepsHighBits() {
+        // The same 32-bit hash, once folded.
+        assertThat(hash(fromObject(1L), null), is(equalTo(hash(fromObject(1L << 32), null))));
+        assertThat(hash64(fromObject(1L), null), is(not(equalTo(hash64(fromObject(1L << 32), null)))));
+    }
+
+    @Test
+    public void hash64FollowsCollation() {
+        AkCollator binary = AkCollatorFactory.getAkCollator(AkCollatorFactory.UCS_BINARY);
+        AkCollator caseInsensitive = AkCollatorFactory.getAkCollator("en_us_ci");
+        assertThat(hash64(fromObject("abc"), binary), is(equalTo(hash64(fromObject("abc"), binary))));
+        assertThat(hash64(fromObject("ABC"), binary), is(not(equalTo(hash64(fromObject("abc"), binary)))));
+        assertThat(hash64(fromObject("ABC"), caseInsensitive), is(equalTo(hash64(fromObject("abc"), caseInsensitive))));
+    }
+}
@@ -277,6 +277,35 @@ public final class ColumnRangesTest {
         assertEquals(expected, ColumnRanges.andRanges(nameGeJoeRanges, nameLtAbeRanges));
     }
 
+    @Test
+    public void likePrefix() {
+        ConditionExpression like = like(firstName, "jo%");
+        ColumnRanges expected = columnRanges(
+                firstName,
+                like,
+                segment(inclusive("jo"), exclusive("jp"))
+        );
+        assertEquals(expected, ColumnRanges.rangeAtNode(like));
+    }
+
+    @Test
+    public void likeLiteral() {
+        ConditionExpression like = like(firstName, "jo\\%e");
+        ColumnRanges expected = columnRanges(
+                firstName,
+                like,
+                segment(inclusive("jo%e"), inclusive("jo%e"))
+        );
+        assertEquals(expected, ColumnRanges.rangeAtNode(like));
+    }
+
+    @Test
+    public void likeWildcards() {
+        assertEquals(null, ColumnRanges.rangeAtNode(like(firstName, "%oe")));
+        assertEquals(null, ColumnRanges.rangeAtNode(like(firstName, "j_e%")));
+        assertEquals(null, ColumnRanges.rangeAtNode(like(firstName, "j%e")));
+    }
+
     @Test
     public void sinOfColumn() {
         ConditionExpression isNull = sin(firstName);
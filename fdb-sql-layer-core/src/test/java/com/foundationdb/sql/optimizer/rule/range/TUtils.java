@@ -61,6 +61,10 @@ final class TUtils {
         return new FunctionCondition("isNull", Collections.<ExpressionNode>singletonList(column), null, null, null);
     }
 
+    public static ConditionExpression like(ColumnExpression column, String pattern) {
+        return new FunctionCondition("like", Arrays.<ExpressionNode>asList(column, constant(pattern)), null, null, null);
+    }
+
     public static ConditionExpression or(ConditionExpression left, ConditionExpression right) {
         return new LogicalFunctionCondition("or", Arrays.asList(left, right), null, null, null);
     }
@@ -40,6 +40,35 @@ public class BloomFilterTest
         }
     }
 
+    @Test
+    public void highBits()
+    {
+        // Keys that differ only in their upper 32 bits must not all collide.
+        int count = 10000;
+        BloomFilter filter = new BloomFilter(count, 0.001);
+        for (long i = 0; i < count; i++) {
+            filter.add(i << 32);
+        }
+        int falsePositives = 0;
+        for (long i = count; i < 2 * count; i++) {
+            assertTrue(filter.maybePresent((i - count) << 32));
+            if (filter.maybePresent(i << 32)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives <= count * 0.01);
+    }
+
+    @Test
+    public void powerOfTwoSize()
+    {
+        for (int count : COUNTS) {
+            long bits = new BloomFilter(count, 0.01).getBitCount();
+            assertTrue(bits >= 512);
+            assertTrue((bits & (bits - 1)) == 0);
+        }
+    }
+
     private void test(String label, double errorRate, int count, List keys, List missingKeys)
     {
         BloomFilter filter = new BloomFilter(count, errorRate);
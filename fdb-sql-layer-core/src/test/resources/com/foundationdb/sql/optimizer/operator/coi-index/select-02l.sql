@@ -0,0 +1 @@
+SELECT customers.name,order_date,sku,quan FROM customers,orders,items WHERE customers.cid = orders.cid AND orders.oid = items.oid AND items.sku >= '0' AND items.sku < '8888' ORDER BY sku, quan LIMIT 10
\ No newline at end of file
@@ -0,0 +1 @@
+SELECT SUM(x), COUNT(*) FROM t
\ No newline at end of file
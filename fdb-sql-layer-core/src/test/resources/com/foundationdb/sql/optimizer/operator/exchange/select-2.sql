@@ -0,0 +1 @@
+SELECT SUM(y), COUNT(*) FROM t
\ No newline at end of file
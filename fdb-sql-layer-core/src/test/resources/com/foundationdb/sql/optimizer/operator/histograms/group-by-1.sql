@@ -0,0 +1,4 @@
+select z, max(id)
+from u
+where x = 0
+group by z
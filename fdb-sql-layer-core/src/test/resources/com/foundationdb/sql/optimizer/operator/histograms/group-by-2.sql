@@ -0,0 +1,4 @@
+select w, max(id)
+from u
+where x = 0
+group by w
@@ -18,6 +18,8 @@
 package com.foundationdb.sql.pg;
 
 import com.foundationdb.server.store.statistics.IndexStatisticsService;
+import com.foundationdb.util.tap.Tap;
+import com.foundationdb.util.tap.TapReport;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -29,6 +31,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * This test was created due to the multiple possible plans that were being created as the loader input of a Bloom Filter
  * Previously this was all done under the assumption of an indexScan being the only possible loader
@@ -44,6 +48,7 @@ public class PostgresServerBloomFilterIT extends PostgresServerFilesITBase
 
     private static final String RESOURCE_LOCATION = "com/foundationdb/sql/optimizer/operator/coi-index/";
     private static final String STATS_FILE = RESOURCE_LOCATION + "stats.yaml";
+    private static final String RUNTIME_FILTER_TAPS = "operator: .* runtime filter .*";
     private static final String SQL = "SELECT items.sku FROM items, categories WHERE items.sku = categories.sku AND categories.cat = 1 ORDER BY items.sku";
     Connection connection;
 
@@ -102,4 +107,33 @@ public class PostgresServerBloomFilterIT extends PostgresServerFilesITBase
         assert(outputRS.getObject(1).equals("chair"));
         assert(!outputRS.next());
     }
+
+    @Test
+    public void testRuntimeFilter() throws Exception {
+        // The bloom filter's loader finds bug and chair, so the items.sku
+        // scan only reads car and chair and drops car without looking it up.
+        Tap.setEnabled(RUNTIME_FILTER_TAPS, true);
+        Tap.reset(RUNTIME_FILTER_TAPS);
+        try {
+            Statement statement  = connection.createStatement();
+            ResultSet outputRS = statement.executeQuery(SQL);
+            outputRS.next();
+            assertEquals("chair", outputRS.getObject(1));
+            assert(!outputRS.next());
+            assertEquals(1, tapCount("operator: IndexScan_Default runtime filter narrowed"));
+            assertEquals(1, tapCount("operator: IndexScan_Default runtime filter dropped"));
+        }
+        finally {
+            Tap.setEnabled(RUNTIME_FILTER_TAPS, false);
+            Tap.reset(RUNTIME_FILTER_TAPS);
+        }
+    }
+
+    private static long tapCount(String name) {
+        for (TapReport report : Tap.getReport(RUNTIME_FILTER_TAPS)) {
+            if (report.getName().equals(name))
+                return report.getInCount();
+        }
+        return 0;
+    }
 }